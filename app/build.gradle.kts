@@ -34,6 +34,11 @@ android {
     kotlinOptions {
         jvmTarget = "17"  // 设置为 17
     }
+    testOptions {
+        unitTests {
+            isIncludeAndroidResources = true // Robolectric 场景测试需要加载布局和主题
+        }
+    }
 }
 
 dependencies {
@@ -43,6 +48,7 @@ dependencies {
     implementation(libs.constraintlayout)
     implementation(libs.androidx.annotation)  // 确保注解库正确引入
     testImplementation(libs.junit)
+    testImplementation(libs.robolectric)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.example.volumecounter;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 聚合精度的记录列表：加减分按固定时间桶合并，每个桶只保存一行
+ * （净变化、按键次数、桶内最低/最高分、桶结束时的分数），全部存放在基本类型数组中，
+ * 内存和文件大小只与记录时长有关，与按键频率无关。
+ * START_RECORD / RESET / END_RECORD 等其他操作仍逐条精确保存，并结束当前的桶。
+ * <p>
+ * 作为 {@code List<KeyPressRecord>} 使用时，{@link #get} 每次返回一个临时的只读视图对象。
+ * 写出的 BUCKET 行格式见 {@link ScoreCsvWriter#writeBucketRow}。
+ */
+class AggregatedRecordList extends AbstractList<KeyPressRecord> {
+    static final String BUCKET = "BUCKET";
+    static final int[] BUCKET_SIZES_MS = {100, 1000, 10000};
+
+    private static final byte KIND_BUCKET = -1; // 其他值为 ScoreCsvReader.ACTIONS 中的下标
+
+    private final long bucketMs;
+    private int size;
+    private byte[] kinds = new byte[256];
+    private long[] times = new long[256];   // 桶：开始时间；精确行：事件时间
+    private int[] scores = new int[256];    // 桶：桶结束时的分数；精确行：事件后的分数
+    private int[] deltas = new int[256];
+    private int[] presses = new int[256];
+    private int[] minScores = new int[256];
+    private int[] maxScores = new int[256];
+    private final List<String> notes = new ArrayList<>(); // 带说明的精确行（很少），deltas 中保存下标
+
+    private boolean bucketOpen;    // 最后一行是尚未结束的桶
+    private long bucketEnd;        // 当前桶的结束时间（不含）
+    private int lastScore;
+
+    AggregatedRecordList(long bucketMs) {
+        this.bucketMs = bucketMs;
+    }
+
+    long getBucketMs() {
+        return bucketMs;
+    }
+
+    static boolean isAggregatable(String action) {
+        return "INCREASE".equals(action) || "DECREASE".equals(action);
+    }
+
+    // 加减分合并到所在的桶，其他操作逐条保存
+    @Override
+    public boolean add(KeyPressRecord record) {
+        if (isAggregatable(record.action)) {
+            bucketFor(record.relativeTime);
+            presses[size - 1]++;
+            applyScore(record.score);
+        } else {
+            int kind = indexOf(record.action);
+            if (kind < 0) {
+                throw new IllegalArgumentException("未知的操作类型: " + record.action);
+            }
+            bucketOpen = false;
+            int row = appendRow((byte) kind, record.relativeTime, record.score);
+            if (record.note != null) {
+                presses[row] = -1; // 标记 deltas 为说明的下标
+                deltas[row] = notes.size();
+                notes.add(record.note);
+            }
+            lastScore = record.score;
+        }
+        return true;
+    }
+
+    // 撤销/重做：只把分数变化计入所在的桶，不计按键次数
+    void adjust(long relativeTime, int score) {
+        if (score == lastScore) return;
+        bucketFor(relativeTime);
+        applyScore(score);
+    }
+
+    // 确保最后一行是覆盖 relativeTime 的桶
+    private void bucketFor(long relativeTime) {
+        if (bucketOpen && relativeTime < bucketEnd) return;
+        long start = relativeTime - relativeTime % bucketMs;
+        // 桶的开始时间不早于上一行，保证文件中的时间单调不减
+        long previous = size > 0 ? times[size - 1] : 0;
+        int row = appendRow(KIND_BUCKET, Math.max(start, previous), lastScore);
+        minScores[row] = lastScore;
+        maxScores[row] = lastScore;
+        bucketOpen = true;
+        bucketEnd = start + bucketMs;
+    }
+
+    private void applyScore(int score) {
+        int row = size - 1;
+        deltas[row] += score - lastScore;
+        scores[row] = score;
+        if (score < minScores[row]) minScores[row] = score;
+        if (score > maxScores[row]) maxScores[row] = score;
+        lastScore = score;
+    }
+
+    private int appendRow(byte kind, long time, int score) {
+        if (size == kinds.length) {
+            int capacity = size + (size >> 1);
+            kinds = Arrays.copyOf(kinds, capacity);
+            times = Arrays.copyOf(times, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+            deltas = Arrays.copyOf(deltas, capacity);
+            presses = Arrays.copyOf(presses, capacity);
+            minScores = Arrays.copyOf(minScores, capacity);
+            maxScores = Arrays.copyOf(maxScores, capacity);
+        }
+        int row = size++;
+        kinds[row] = kind;
+        times[row] = time;
+        scores[row] = score;
+        deltas[row] = 0;
+        presses[row] = 0;
+        minScores[row] = score;
+        maxScores[row] = score;
+        modCount++;
+        return row;
+    }
+
+    private static int indexOf(String action) {
+        String[] actions = ScoreCsvReader.ACTIONS;
+        for (int i = 0; i < actions.length; i++) {
+            if (actions[i].equals(action)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public KeyPressRecord get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        }
+        String action = kinds[index] == KIND_BUCKET ? BUCKET : ScoreCsvReader.ACTIONS[kinds[index]];
+        KeyPressRecord record = new KeyPressRecord(times[index], scores[index], action);
+        record.note = noteAt(index);
+        return record;
+    }
+
+    private String noteAt(int row) {
+        return kinds[row] != KIND_BUCKET && presses[row] < 0 ? notes.get(deltas[row]) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // 清空记录但保留分数基准，供下一分段继续计算净变化
+    @Override
+    public void clear() {
+        size = 0;
+        bucketOpen = false;
+        notes.clear();
+        modCount++;
+    }
+
+    // 下一分段使用的空列表，沿用当前分数作为净变化的基准
+    AggregatedRecordList continuation() {
+        AggregatedRecordList next = new AggregatedRecordList(bucketMs);
+        next.lastScore = lastScore;
+        return next;
+    }
+
+    void writeTo(ScoreCsvWriter writer, long sessionStartTime) throws IOException {
+        for (int i = 0; i < size; i++) {
+            long wallTime = sessionStartTime + times[i];
+            if (kinds[i] == KIND_BUCKET) {
+                writer.writeBucketRow(times[i], scores[i], wallTime,
+                        deltas[i], presses[i], minScores[i], maxScores[i]);
+            } else {
+                writer.writeRow(times[i], scores[i], ScoreCsvReader.ACTIONS[kinds[i]], wallTime, noteAt(i));
+            }
+        }
+    }
+}
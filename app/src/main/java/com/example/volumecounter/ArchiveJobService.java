@@ -0,0 +1,57 @@
+package com.example.volumecounter;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每天在电量充足、设备空闲时运行一次归档与保留策略。
+ */
+public class ArchiveJobService extends JobService {
+    private static final String TAG = "ArchiveJobService";
+    private static final int JOB_ID = 1001;
+
+    private IoExecutor.Scope jobScope;
+
+    // 重复调用是安全的：已有相同任务时不会重新排期
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, ArchiveJobService.class))
+                .setPeriodic(TimeUnit.DAYS.toMillis(1))
+                .setRequiresDeviceIdle(true)
+                .setRequiresBatteryNotLow(true)
+                .setPersisted(false)
+                .build();
+        int result = scheduler.schedule(job);
+        Log.d(TAG, "归档任务排期: " + (result == JobScheduler.RESULT_SUCCESS ? "成功" : "失败"));
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        jobScope = new IoExecutor.Scope();
+        IoExecutor.get().submit(jobScope, IoExecutor.PRIORITY_PREFETCH,
+                () -> SessionArchiver.run(getApplicationContext()),
+                result -> jobFinished(params, false),
+                e -> {
+                    Log.e(TAG, "归档任务失败", e);
+                    jobFinished(params, true);
+                });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (jobScope != null) {
+            jobScope.cancel(); // 中断正在写入的归档通道，SessionArchiver 把未提交的追加截断回原大小
+        }
+        return true; // 被中断时稍后重试
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.os.Handler;
+import android.os.Looper;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按日期范围批量导出：把多个会话按开始时间顺序合并成一个 CSV 流，
+ * 每行前面加会话名和备注两列。各会话依次用 {@link ScoreCsvReader} 流式读取，
+ * 读写都只经过固定大小的缓冲区，内存占用与导出的总大小无关。
+ */
+class BulkExporter {
+    static final String HEADER = "会话,备注," + ScoreCsvWriter.HEADER + ",附加信息";
+    private static final Pattern NAME_TIME = Pattern.compile("(\\d{8}_\\d{6})");
+    private static final long PROGRESS_BYTES = 256 * 1024; // 每读取这么多字节报告一次进度
+    // write 的 failed 数组下标
+    static final int UNREADABLE = 0; // 无法读取、没有导出任何行的会话
+    static final int PARTIAL = 1;    // 读到中途出错、只导出了前一部分的会话
+
+    interface Progress {
+        // 在后台线程调用：当前会话序号（从 0 开始）、会话数、已读取字节数、总字节数（估计值）
+        void onProgress(int session, int sessionCount, long bytesRead, long totalBytes);
+    }
+
+    /**
+     * 一次进行中的导出，保存在 {@link RecordingSession} 中：配置变更后继续执行，由重建后的 Activity
+     * 重新绑定界面；Activity 真正结束时才取消。进度和结果在主线程交给当前绑定的界面，
+     * 结束时没有界面的，结果保留到下次绑定。
+     */
+    static final class Job {
+        interface Ui {
+            void showProgress(long session, long sessionCount, long bytesRead, long totalBytes);
+
+            void showResult(Job job); // 导出成功或失败后调用一次；取消时不调用
+        }
+
+        final IoExecutor.Scope scope = new IoExecutor.Scope();
+        final String fileName;
+        final int sessionCount;
+        final int[] failed = new int[2]; // 后台线程写入，见 UNREADABLE、PARTIAL
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        private final long[] latest = new long[4];
+        private boolean progressPosted; // 受 latest 保护
+        private Ui ui;                  // 以下字段只在主线程访问
+        private boolean finished;
+        private int exported;
+        private Exception error;
+
+        Job(String fileName, int sessionCount) {
+            this.fileName = fileName;
+            this.sessionCount = sessionCount;
+        }
+
+        // 后台线程产生进度，主线程只显示最新的一次
+        final Progress progress = (session, count, read, total) -> {
+            synchronized (latest) {
+                latest[0] = session;
+                latest[1] = count;
+                latest[2] = read;
+                latest[3] = total;
+                if (progressPosted) return;
+                progressPosted = true;
+            }
+            handler.post(this::deliverProgress);
+        };
+
+        private void deliverProgress() {
+            long session;
+            long count;
+            long read;
+            long total;
+            synchronized (latest) {
+                progressPosted = false;
+                session = latest[0];
+                count = latest[1];
+                read = latest[2];
+                total = latest[3];
+            }
+            if (ui != null && !finished && !scope.isCancelled()) {
+                ui.showProgress(session, count, read, total);
+            }
+        }
+
+        void finish(int exported, Exception error) {
+            finished = true;
+            this.exported = exported;
+            this.error = error;
+            if (ui != null) ui.showResult(this);
+        }
+
+        void attach(Ui ui) {
+            this.ui = ui;
+            if (finished) {
+                ui.showResult(this);
+            } else {
+                deliverProgress();
+            }
+        }
+
+        void detach() {
+            ui = null;
+        }
+
+        int getExported() { return exported; }
+        Exception getError() { return error; }
+    }
+
+    private final ContentResolver resolver;
+    private final List<FileInfo> sessions;
+    private final String remarkFilter; // 为空时不筛选
+    private final IoExecutor.Scope scope;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.CHINA);
+    private final Date date = new Date();
+    private long formattedSecond = Long.MIN_VALUE;
+    private String formattedTime;
+
+    /**
+     * @param sessions     已由 {@link #select} 排好序的会话
+     * @param remarkFilter 备注中包含的文字（不区分大小写），为空时导出全部
+     * @param scope        取消后在下一行停止并抛出 InterruptedIOException
+     */
+    BulkExporter(ContentResolver resolver, List<FileInfo> sessions, String remarkFilter, IoExecutor.Scope scope) {
+        this.resolver = resolver;
+        this.sessions = sessions;
+        this.remarkFilter = remarkFilter == null ? "" : remarkFilter.trim().toLowerCase(Locale.ROOT);
+        this.scope = scope;
+    }
+
+    // 会话开始时间：取自文件名中的时间（score_records_yyyyMMdd_HHmmss），没有时用修改时间
+    static long sessionStart(FileInfo fileInfo) {
+        Matcher matcher = NAME_TIME.matcher(fileInfo.getName());
+        if (matcher.find()) {
+            try {
+                Date start = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.CHINA).parse(matcher.group(1));
+                if (start != null) return start.getTime();
+            } catch (ParseException ignored) {
+                // 使用修改时间
+            }
+        }
+        return fileInfo.getDateModified() * 1000;
+    }
+
+    // 开始时间在 [fromMs, toMs) 内的会话，按开始时间升序
+    static List<FileInfo> select(List<FileInfo> files, long fromMs, long toMs) {
+        List<FileInfo> selected = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        for (FileInfo fileInfo : files) {
+            long start = sessionStart(fileInfo);
+            if (start < fromMs || start >= toMs) continue;
+            int position = selected.size();
+            while (position > 0 && starts.get(position - 1) > start) position--;
+            selected.add(position, fileInfo);
+            starts.add(position, start);
+        }
+        return selected;
+    }
+
+    /**
+     * 写出合并后的 CSV（不关闭 out），返回完整导出的会话数；备注不匹配的会话只读取文件开头。
+     * 单个会话读取失败时继续下一个：一行都没有导出的计入 failed[UNREADABLE]，
+     * 已导出一部分的计入 failed[PARTIAL]（这些行留在结果中）。写入 out 失败时立即抛出。
+     */
+    int write(OutputStream out, Progress progress, int[] failed) throws IOException {
+        long totalBytes = 0;
+        for (FileInfo fileInfo : sessions) {
+            totalBytes += fileInfo.getSize();
+        }
+        BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new OutputGuard(out), StandardCharsets.UTF_8), 8192);
+        writer.write('\uFEFF'); // Excel 按 UTF-8 打开中文表头
+        writer.write(HEADER);
+        writer.newLine();
+
+        int exported = 0;
+        long finishedBytes = 0;
+        for (int i = 0; i < sessions.size(); i++) {
+            checkCancelled();
+            FileInfo fileInfo = sessions.get(i);
+            progress.onProgress(i, sessions.size(), finishedBytes, totalBytes);
+            long rows = 0;
+            try (ScoreCsvReader reader = new ScoreCsvReader(fileInfo.openStream(resolver))) {
+                if (!remarkFilter.isEmpty() && !reader.getRemark().toLowerCase(Locale.ROOT).contains(remarkFilter)) {
+                    continue;
+                }
+                String prefix = quote(fileInfo.getName()) + ',' + quote(reader.getRemark()) + ',';
+                long nextReport = PROGRESS_BYTES;
+                while (reader.next()) {
+                    writeRow(writer, prefix, reader);
+                    rows++;
+                    if (reader.getBytesRead() >= nextReport) {
+                        checkCancelled();
+                        progress.onProgress(i, sessions.size(), finishedBytes + reader.getBytesRead(), totalBytes);
+                        nextReport = reader.getBytesRead() + PROGRESS_BYTES;
+                    }
+                }
+                exported++;
+            } catch (InterruptedIOException | OutputFailure e) {
+                throw e;
+            } catch (IOException e) {
+                failed[rows > 0 ? PARTIAL : UNREADABLE]++;
+            } finally {
+                finishedBytes += fileInfo.getSize();
+            }
+        }
+        writer.flush();
+        progress.onProgress(sessions.size(), sessions.size(), totalBytes, totalBytes);
+        return exported;
+    }
+
+    private void writeRow(BufferedWriter writer, String prefix, ScoreCsvReader reader) throws IOException {
+        writer.write(prefix);
+        writer.write(Long.toString(reader.getRelativeTime()));
+        writer.write(',');
+        writer.write(Integer.toString(reader.getScore()));
+        writer.write(',');
+        writer.write(reader.getAction());
+        writer.write(',');
+        long wallTime = reader.getWallTime();
+        if (wallTime >= 0) {
+            // 时间列精确到秒，同一秒内的行复用格式化结果
+            long second = wallTime / 1000;
+            if (second != formattedSecond) {
+                date.setTime(wallTime);
+                formattedTime = timeFormat.format(date);
+                formattedSecond = second;
+            }
+            writer.write(formattedTime);
+        }
+        if (reader.getNote() != null) {
+            writer.write(',');
+            writer.write(reader.getNote());
+        } else if (reader.isBucket()) {
+            writer.write(',');
+            writer.write(reader.getBucketDelta() + "," + reader.getBucketPresses() + ","
+                    + reader.getBucketMin() + "," + reader.getBucketMax());
+        }
+        writer.newLine();
+    }
+
+    // 写入失败（存储已满等）与会话的读取失败区分开，前者终止整个导出
+    private static final class OutputFailure extends IOException {
+        OutputFailure(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    private static final class OutputGuard extends FilterOutputStream {
+        OutputGuard(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                throw new OutputFailure(e);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                throw new OutputFailure(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new OutputFailure(e);
+            }
+        }
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (scope.isCancelled()) {
+            throw new InterruptedIOException("导出已取消");
+        }
+    }
+
+    // CSV 字段：包含逗号、引号或换行时加引号
+    private static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
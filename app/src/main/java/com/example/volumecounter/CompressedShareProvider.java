@@ -0,0 +1,327 @@
+package com.example.volumecounter;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 在已声明的 FileProvider 上增加压缩分享：/compressed/ 下的 URI 通过管道
+ * 边压缩（或转换为 XLSX）边输出给接收方，接收方不必等整个文件生成完。
+ * <p>
+ * 压缩和 XLSX 的输出同时写入缓存目录中的临时文件，完整写完后按文件签名重命名为缓存文件，
+ * 再次分享同一版本时直接返回；中断时删除临时文件。缓存只保留最近使用的
+ * {@link #MAX_CACHED_FILES} 个，超过一小时的遗留临时文件在下次写入缓存时清理，
+ * 系统空间不足时也可能清空缓存目录。不压缩的 CSV 只经管道输出，不写缓存。
+ * <p>
+ * 分享条目只登记在内存中，不做持久化：进程被系统回收后，已发出的 URI 在
+ * {@link #openFile} 中会抛出 FileNotFoundException（“分享已失效”），接收方需要重新分享。
+ * 条目引用的可能是分段会话或归档成员，无法只凭 URI 恢复，因此不尝试重建。
+ */
+public class CompressedShareProvider extends FileProvider
+        implements ContentProvider.PipeDataWriter<CompressedShareProvider.ShareEntry> {
+    private static final String TAG = "CompressedShareProvider";
+    private static final String PATH_COMPRESSED = "compressed";
+    private static final String CACHE_DIR = "share_v2"; // 输出格式变化时更换目录，旧目录中的缓存不再命中
+    private static final int MAX_CACHED_FILES = 20;
+    private static final long STALE_TEMP_MS = 60 * 60 * 1000L; // 超过一小时未完成的临时文件视为遗留
+    public static final String FORMAT_GZIP = "gzip";
+    public static final String FORMAT_ZIP = "zip";
+    public static final String FORMAT_CSV = "csv"; // 不压缩，标签展开为文本的 CSV
+    public static final String FORMAT_XLSX = "xlsx"; // 转换为 Excel 工作簿（本身就是 ZIP）
+
+    // 当前进程内登记的分享条目，key 为文件签名 + 格式；进程结束即丢失（见类注释）
+    private static final Map<String, ShareEntry> entries = new ConcurrentHashMap<>();
+
+    static class ShareEntry {
+        final String key;
+        final String csvName;     // 压缩包内的CSV文件名
+        final String format;
+        final FileInfo source;
+
+        ShareEntry(String key, String csvName, String format, FileInfo source) {
+            this.key = key;
+            this.csvName = csvName;
+            this.format = format;
+            this.source = source;
+        }
+
+        String getDisplayName() {
+            if (FORMAT_CSV.equals(format)) return csvName;
+            if (FORMAT_XLSX.equals(format)) {
+                return (csvName.endsWith(".csv") ? csvName.substring(0, csvName.length() - 4) : csvName) + ".xlsx";
+            }
+            return FORMAT_ZIP.equals(format) ? csvName + ".zip" : csvName + ".gz";
+        }
+
+        String getMimeType() {
+            return mimeTypeOf(format);
+        }
+    }
+
+    static String mimeTypeOf(String format) {
+        if (FORMAT_CSV.equals(format)) return "text/csv";
+        if (FORMAT_XLSX.equals(format)) return XlsxSessionWriter.MIME_TYPE;
+        return FORMAT_ZIP.equals(format) ? "application/zip" : "application/gzip";
+    }
+
+    public static String getAuthority(Context context) {
+        return context.getPackageName() + ".fileprovider";
+    }
+
+    // 登记一个压缩分享，返回可交给分享面板的 URI
+    public static Uri register(Context context, FileInfo fileInfo, String format) {
+        String csvName = fileInfo.getName();
+        int suffix = csvName.indexOf(".csv");
+        if (suffix >= 0) {
+            csvName = csvName.substring(0, suffix + 4);
+        }
+        // 签名：MediaStore ID + 名称 + 大小 + 修改时间，文件内容变化后自动失效
+        String key = fileInfo.getUri().getLastPathSegment() + "_" + Integer.toHexString(fileInfo.getName().hashCode())
+                + "_" + fileInfo.getSize() + "_" + fileInfo.getDateModified() + "_" + format;
+        ShareEntry entry = new ShareEntry(key, csvName, format, fileInfo);
+        entries.put(key, entry);
+
+        return new Uri.Builder()
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .authority(getAuthority(context))
+                .appendPath(PATH_COMPRESSED)
+                .appendPath(key)
+                .appendPath(entry.getDisplayName())
+                .build();
+    }
+
+    @Nullable
+    private ShareEntry findEntry(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() >= 2 && PATH_COMPRESSED.equals(segments.get(0))) {
+            return entries.get(segments.get(1));
+        }
+        return null;
+    }
+
+    private boolean isCompressedUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return !segments.isEmpty() && PATH_COMPRESSED.equals(segments.get(0));
+    }
+
+    private File getCacheFile(ShareEntry entry) {
+        File dir = new File(getContext().getCacheDir(), CACHE_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "缓存目录创建失败: " + dir);
+        }
+        return new File(dir, entry.key);
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        if (!isCompressedUri(uri)) {
+            return super.getType(uri);
+        }
+        ShareEntry entry = findEntry(uri);
+        return entry != null ? entry.getMimeType() : "application/octet-stream";
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        if (!isCompressedUri(uri)) {
+            return super.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+        ShareEntry entry = findEntry(uri);
+        if (entry == null) {
+            return null;
+        }
+
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        File cached = getCacheFile(entry);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = entry.getDisplayName();
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                // 流式生成时大小未知
+                row[i] = cached.exists() ? cached.length() : null;
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!isCompressedUri(uri)) {
+            return super.openFile(uri, mode);
+        }
+        ShareEntry entry = findEntry(uri);
+        if (entry == null) {
+            throw new FileNotFoundException("分享已失效: " + uri);
+        }
+
+        if (FORMAT_CSV.equals(entry.format)) {
+            return openPipeHelper(uri, entry.getMimeType(), null, entry, this);
+        }
+        File cached = getCacheFile(entry);
+        if (cached.exists()) {
+            Log.d(TAG, "命中压缩缓存: " + entry.key);
+            cached.setLastModified(System.currentTimeMillis());
+            return ParcelFileDescriptor.open(cached, ParcelFileDescriptor.MODE_READ_ONLY);
+        }
+        return openPipeHelper(uri, entry.getMimeType(), null, entry, this);
+    }
+
+    @Override
+    public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @NonNull String mimeType,
+                                @Nullable Bundle opts, @Nullable ShareEntry entry) {
+        if (FORMAT_CSV.equals(entry.format)) {
+            try (OutputStream pipe = new FileOutputStream(output.getFileDescriptor())) {
+                writeSources(getContext().getContentResolver(), entry.source, pipe);
+            } catch (IOException e) {
+                Log.w(TAG, "分享中断: " + e.getMessage());
+            } finally {
+                try {
+                    output.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+
+        File cached = getCacheFile(entry);
+        // 每次打开使用独立的临时文件，同一条目被并发打开时互不覆盖；完成后原子重命名
+        File partial;
+        try {
+            partial = File.createTempFile(entry.key + ".", ".tmp", cached.getParentFile());
+        } catch (IOException e) {
+            Log.w(TAG, "无法创建临时缓存，仅输出到管道: " + e.getMessage());
+            partial = null;
+        }
+        boolean complete = false;
+
+        try (OutputStream pipe = new FileOutputStream(output.getFileDescriptor());
+             OutputStream cache = partial != null ? new FileOutputStream(partial) : null) {
+            // 压缩后的字节同时写入管道和缓存
+            OutputStream tee = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    pipe.write(b);
+                    if (cache != null) cache.write(b);
+                }
+
+                @Override
+                public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                    pipe.write(b, off, len);
+                    if (cache != null) cache.write(b, off, len);
+                }
+            };
+
+            writeFormatted(getContext().getContentResolver(), entry.source, entry.csvName, entry.format, tee);
+            complete = true;
+        } catch (IOException e) {
+            // 接收方提前关闭管道等情况
+            Log.w(TAG, "压缩分享中断: " + e.getMessage());
+        } finally {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        if (partial == null) {
+            return;
+        }
+        if (complete && partial.renameTo(cached)) {
+            trimCache(cached.getParentFile());
+        } else if (partial.exists() && !partial.delete()) {
+            Log.w(TAG, "临时缓存删除失败: " + partial);
+        }
+    }
+
+    /**
+     * 按格式输出会话（不关闭 out）。csvName 为 ZIP 中的文件名；
+     * 也用于 {@link SessionDocumentsProvider} 的流式打开。
+     */
+    static void writeFormatted(ContentResolver resolver, FileInfo source, String csvName, String format,
+                               OutputStream out) throws IOException {
+        if (FORMAT_CSV.equals(format)) {
+            writeSources(resolver, source, out);
+        } else if (FORMAT_XLSX.equals(format)) {
+            try (ScoreCsvReader reader = new ScoreCsvReader(source.openStream(resolver))) {
+                XlsxSessionWriter.write(reader, out);
+            }
+        } else if (FORMAT_ZIP.equals(format)) {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            zip.putNextEntry(new ZipEntry(csvName));
+            writeSources(resolver, source, zip);
+            zip.closeEntry();
+            zip.finish();
+        } else {
+            GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+            writeSources(resolver, source, gzip);
+            gzip.finish();
+        }
+    }
+
+    /**
+     * 与 BulkExporter、XLSX 一样经 {@link ScoreCsvReader} 逐行读取后重新写出：
+     * 分段会话拼接为一个文件，标签编号展开为标签文本，结尾是覆盖输出内容的新校验行。
+     */
+    private static void writeSources(ContentResolver resolver, FileInfo source, OutputStream out) throws IOException {
+        try (ScoreCsvReader reader = new ScoreCsvReader(source.openStream(resolver))) {
+            ScoreCsvWriter writer = new ScoreCsvWriter(out);
+            writer.writeHeader(reader.getRemark());
+            while (reader.next()) {
+                writer.copyRow(reader, reader.getRelativeTime(), Math.max(0, reader.getWallTime()));
+            }
+            writer.finish();
+        }
+    }
+
+    // 只保留最近使用的若干个缓存文件；顺带清理进程中断后遗留的临时文件
+    private static void trimCache(File dir) {
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MS;
+        File[] stale = dir.listFiles((d, name) -> name.endsWith(".tmp"));
+        if (stale != null) {
+            for (File file : stale) {
+                if (file.lastModified() < staleBefore && !file.delete()) {
+                    Log.w(TAG, "临时缓存删除失败: " + file);
+                }
+            }
+        }
+        File[] files = dir.listFiles((d, name) -> !name.endsWith(".tmp"));
+        if (files == null || files.length <= MAX_CACHED_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_CACHED_FILES; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "缓存删除失败: " + files[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.volumecounter;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.media.AudioManager;
+import android.media.VolumeProvider;
+import android.media.session.MediaSession;
+import android.media.session.PlaybackState;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * 记录期间运行的前台服务：通过 {@link MediaSession} 的远程音量控制接收音量键，
+ * 屏幕关闭后仍可计分。按键转发给 {@link Listener}（即 MainActivity 的同一条记录流程），
+ * 屏幕点亮且界面在前台时按键由界面自身处理，不会经过这里。
+ */
+public class CounterService extends Service {
+    private static final String TAG = "CounterService";
+    private static final String CHANNEL_ID = "counter";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long NOTIFICATION_UPDATE_DELAY_MS = 1000; // 通知更新合并间隔
+
+    interface Listener {
+        // direction：1 为音量加，-1 为音量减
+        void onVolumeKey(int direction);
+    }
+
+    // 仅在主线程访问
+    private static Listener listener;
+    private static CounterService instance;
+    private static int latestScore;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private MediaSession mediaSession;
+    private boolean notificationUpdatePending;
+
+    static void start(Context context, int score) {
+        latestScore = score;
+        context.startForegroundService(new Intent(context, CounterService.class));
+    }
+
+    static void stop(Context context) {
+        context.stopService(new Intent(context, CounterService.class));
+    }
+
+    static void setListener(Listener newListener) {
+        listener = newListener;
+    }
+
+    // 更新通知中的分数；连续按键时合并为一次更新，减少屏幕关闭时的唤醒
+    static void updateScore(int score) {
+        latestScore = score;
+        if (instance != null) {
+            instance.scheduleNotificationUpdate();
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        instance = this;
+        createNotificationChannel();
+
+        mediaSession = new MediaSession(this, TAG);
+        // 远程音量控制：系统把音量键交给本会话，而不是调节媒体音量
+        mediaSession.setPlaybackToRemote(new VolumeProvider(VolumeProvider.VOLUME_CONTROL_RELATIVE, 100, 50) {
+            @Override
+            public void onAdjustVolume(int direction) {
+                if (direction == AudioManager.ADJUST_RAISE || direction == AudioManager.ADJUST_LOWER) {
+                    handler.post(() -> dispatch(direction == AudioManager.ADJUST_RAISE ? 1 : -1));
+                }
+            }
+        });
+        // 只有处于播放状态的会话才会在锁屏时收到音量键
+        mediaSession.setPlaybackState(new PlaybackState.Builder()
+                .setState(PlaybackState.STATE_PLAYING, 0, 0f)
+                .build());
+        mediaSession.setActive(true);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK);
+        return START_NOT_STICKY; // 记录状态在界面中，进程被杀后不单独重启
+    }
+
+    @Override
+    public void onDestroy() {
+        handler.removeCallbacksAndMessages(null);
+        mediaSession.setActive(false);
+        mediaSession.release();
+        instance = null;
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void dispatch(int direction) {
+        if (listener != null) {
+            listener.onVolumeKey(direction);
+        } else {
+            Log.w(TAG, "界面已销毁，忽略按键");
+        }
+    }
+
+    private void scheduleNotificationUpdate() {
+        if (notificationUpdatePending) return;
+        notificationUpdatePending = true;
+        handler.postDelayed(() -> {
+            notificationUpdatePending = false;
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            manager.notify(NOTIFICATION_ID, buildNotification());
+        }, NOTIFICATION_UPDATE_DELAY_MS);
+    }
+
+    private void createNotificationChannel() {
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "记录中", NotificationManager.IMPORTANCE_LOW);
+        channel.setShowBadge(false);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+
+    private Notification buildNotification() {
+        Intent intent = new Intent(this, MainActivity.class).setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent,
+                PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle("正在记录")
+                .setContentText("分数: " + latestScore + "，熄屏后可用音量键计分")
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false)
+                .build();
+    }
+}
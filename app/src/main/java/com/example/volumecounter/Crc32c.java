@@ -0,0 +1,47 @@
+package com.example.volumecounter;
+
+import java.util.zip.Checksum;
+
+/**
+ * 查表实现的 CRC32C（Castagnoli 多项式，反射形式 0x82F63B78），结果与
+ * java.util.zip.CRC32C 相同。后者从 API 34 才有，minSdk 为 31。
+ */
+final class Crc32c implements Checksum {
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int value = i;
+            for (int bit = 0; bit < 8; bit++) {
+                value = (value & 1) != 0 ? (value >>> 1) ^ 0x82F63B78 : value >>> 1;
+            }
+            TABLE[i] = value;
+        }
+    }
+
+    private int crc = 0xFFFFFFFF;
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int value = crc;
+        for (int i = off, end = off + len; i < end; i++) {
+            value = (value >>> 8) ^ TABLE[(value ^ b[i]) & 0xFF];
+        }
+        crc = value;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xFFFFFFFF;
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 导入外部设备的记录CSV：逐行校验后写入新的会话文件，
+ * 或把多个会话按绝对时间归并成一个合并会话。两者都是流式处理，不整体载入内存。
+ */
+class CsvImporter {
+
+    static class ImportResult {
+        int rows;
+        int invalidRows;
+        int sources;
+    }
+
+    // 校验并复制一个会话
+    static ImportResult importSession(ContentResolver resolver, Uri source, OutputStream out) throws IOException {
+        ImportResult result = new ImportResult();
+        result.sources = 1;
+        try (ScoreCsvReader reader = open(resolver, source)) {
+            ScoreCsvWriter writer = new ScoreCsvWriter(out);
+            writer.writeHeader(reader.getRemark());
+            long base = 0;
+            boolean first = true;
+            while (reader.next()) {
+                if (first) {
+                    base = startOf(reader, source);
+                    first = false;
+                }
+                writer.copyRow(reader, reader.getRelativeTime(), base + reader.getRelativeTime());
+            }
+            writer.finish();
+            result.rows = reader.getValidRows();
+            result.invalidRows = reader.getInvalidRows();
+        }
+        if (result.rows == 0) {
+            throw new IOException("文件中没有有效记录");
+        }
+        return result;
+    }
+
+    /**
+     * 多路归并：每个输入只保留当前一行，按绝对时间依次输出。
+     * 合并后的分数为各会话当前分数之和；各输入自身的开始/结束行
+     * 被合并为一条 START_RECORD 和一条 END_RECORD。
+     */
+    static ImportResult merge(ContentResolver resolver, List<Uri> sources, OutputStream out) throws IOException {
+        ImportResult result = new ImportResult();
+        List<ScoreCsvReader> readers = new ArrayList<>();
+        try {
+            int count = sources.size();
+            long[] bases = new long[count];
+            int[] scores = new int[count];
+            boolean[] hasRow = new boolean[count];
+            StringBuilder remark = new StringBuilder("合并:");
+
+            long mergedStart = Long.MAX_VALUE;
+            int total = 0;
+            for (int i = 0; i < count; i++) {
+                ScoreCsvReader reader = open(resolver, sources.get(i));
+                readers.add(reader);
+                hasRow[i] = reader.next();
+                if (hasRow[i]) {
+                    bases[i] = startOf(reader, sources.get(i));
+                    scores[i] = reader.getScore();
+                    total = add(total, scores[i]);
+                    mergedStart = Math.min(mergedStart, bases[i]);
+                }
+                remark.append(i == 0 ? " " : " | ").append(reader.getRemark());
+            }
+            if (mergedStart == Long.MAX_VALUE) {
+                throw new IOException("文件中没有有效记录");
+            }
+
+            ScoreCsvWriter writer = new ScoreCsvWriter(out);
+            writer.writeHeader(remark.toString());
+            writer.writeRow(0, total, "START_RECORD", mergedStart);
+            long lastRelative = 0;
+
+            while (true) {
+                // 输入数量很少，线性查找最早的一行即可
+                int next = -1;
+                long nextWall = Long.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    if (!hasRow[i]) continue;
+                    long wall = bases[i] + readers.get(i).getRelativeTime();
+                    if (wall < nextWall) {
+                        nextWall = wall;
+                        next = i;
+                    }
+                }
+                if (next < 0) break;
+
+                ScoreCsvReader reader = readers.get(next);
+                String action = reader.getAction();
+                if (KeyPressRecord.isRetracted(action)) {
+                    hasRow[next] = reader.next(); // 已撤销的事件不参与合并
+                    continue;
+                }
+                total = add(total, (long) reader.getScore() - scores[next]);
+                scores[next] = reader.getScore();
+                if (reader.isBucket()) {
+                    // 桶内的最低/最高分换算为合并后的总分
+                    lastRelative = nextWall - mergedStart;
+                    long offset = (long) total - reader.getScore();
+                    writer.writeBucketRow(lastRelative, total, nextWall, reader.getBucketDelta(),
+                            reader.getBucketPresses(), add(reader.getBucketMin(), offset), add(reader.getBucketMax(), offset));
+                } else if (!"START_RECORD".equals(action) && !"END_RECORD".equals(action)) {
+                    lastRelative = nextWall - mergedStart;
+                    writer.writeRow(lastRelative, total, action, nextWall, reader.getNote());
+                }
+                hasRow[next] = reader.next();
+            }
+
+            writer.writeRow(lastRelative, total, "END_RECORD", mergedStart + lastRelative);
+            writer.finish();
+
+            for (ScoreCsvReader reader : readers) {
+                result.rows += reader.getValidRows();
+                result.invalidRows += reader.getInvalidRows();
+            }
+            result.sources = count;
+            return result;
+        } finally {
+            for (ScoreCsvReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static ScoreCsvReader open(ContentResolver resolver, Uri uri) throws IOException {
+        InputStream inputStream = resolver.openInputStream(uri);
+        if (inputStream == null) {
+            throw new IOException("无法打开文件: " + uri);
+        }
+        return new ScoreCsvReader(inputStream);
+    }
+
+    /**
+     * 由第一行的时间列推算会话开始的绝对时间（秒级精度）。
+     * 第一行没有可用的时间时无法确定开始时间，整个文件不导入，
+     * 以免同一个文件每次导入得到不同的时间。
+     */
+    private static long startOf(ScoreCsvReader reader, Uri source) throws IOException {
+        long wall = reader.getWallTime();
+        long base = wall - reader.getRelativeTime();
+        if (wall < 0 || base < 0) {
+            throw new IOException("第一行没有有效的时间，无法确定会话开始时间: " + source);
+        }
+        return base;
+    }
+
+    // 合并后的分数超出 int 范围时整个合并失败，不写出错误的分数
+    private static int add(int score, long delta) throws IOException {
+        long sum = score + delta;
+        if (sum < Integer.MIN_VALUE || sum > Integer.MAX_VALUE) {
+            throw new IOException("合并后的分数超出范围");
+        }
+        return (int) sum;
+    }
+}
@@ -0,0 +1,387 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Environment;
+import android.provider.MediaStore;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按键防抖校准。统计按键间隔直方图（每格 5 毫秒，0-1000 毫秒），来源有两个：
+ * 本机音量键的原始按下间隔（包括被防抖拦下的，能看到按键抖动和被吞掉的快速连按），
+ * 以及已保存会话中相邻加减分的间隔。两者有重叠（本机记录的按键也会出现在保存的会话里），
+ * 因此不相加：本机样本足够时只用本机样本（它还包含被拦下的抖动），否则只用会话样本。
+ * <p>
+ * 抖动集中在几十毫秒以内，有意的连按在其后。在对数时间上用 Otsu 方法取两峰之间的分界作为建议值；
+ * 没有明显的抖动峰时，取最短的有意间隔（1% 分位）的 80%，避免吞掉快速连按。
+ * <p>
+ * 直方图保存在应用私有目录，已统计的会话按文件名和修改时间记录，之后的扫描只处理新增的会话。
+ * 读写文件互斥，保存和扫描之前先完成加载，避免加载前的保存覆盖已有的统计。
+ * 每个会话另外保留短间隔（同方向、250 毫秒以内）的计数，用于在任意防抖时间下标记疑似重复计数。
+ */
+class DebounceCalibrator {
+    private static final String TAG = "DebounceCalibrator";
+    static final int DEFAULT_WINDOW_MS = 100;
+    static final int MIN_WINDOW_MS = 30;
+    static final int MAX_WINDOW_MS = 250;
+    private static final String FILE_NAME = "debounce_histogram.txt";
+    private static final int BIN_MS = 5;
+    private static final int BINS = 200;                      // 0-1000 毫秒
+    private static final int SHORT_BINS = MAX_WINDOW_MS / BIN_MS;
+    private static final int MIN_SAMPLES = 200;               // 样本不足时不给出建议
+    private static final double BOUNCE_SHARE = 0.005;         // 抖动峰至少占 0.5%
+
+    // 一个已统计会话的短间隔计数
+    private static final class SessionStats {
+        final String name;
+        final Uri uri;
+        final int[] shortCounts; // 没有短间隔时为 null
+
+        SessionStats(String name, Uri uri, int[] shortCounts) {
+            this.name = name;
+            this.uri = uri;
+            this.shortCounts = shortCounts;
+        }
+    }
+
+    // 疑似重复计数的会话
+    static class Suspect {
+        final String name;
+        final Uri uri;
+        final int count;
+
+        Suspect(String name, Uri uri, int count) {
+            this.name = name;
+            this.uri = uri;
+            this.count = count;
+        }
+    }
+
+    private final File file;
+    private final long[] liveCounts = new long[BINS];
+    private final long[] recordedCounts = new long[BINS];
+    private final Map<String, SessionStats> sessions = new HashMap<>(); // 键为 文件名@修改时间
+    private int lastKeyCode;
+    private long lastKeyTime = -1;
+    private boolean dirty;
+    private final Object fileLock = new Object(); // 串行化 load、save 和 scanSavedSessions
+    private boolean loaded;                        // 只在持有 fileLock 时访问
+
+    DebounceCalibrator(File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * 主线程：每次音量键按下（不含长按的重复事件），在防抖判断之前调用。
+     * 只统计同一个键的间隔，不分配对象。
+     */
+    synchronized void onKeyDown(int keyCode, long eventTime) {
+        if (keyCode == lastKeyCode && lastKeyTime >= 0) {
+            long interval = eventTime - lastKeyTime;
+            if (interval >= 0 && interval < BINS * BIN_MS) {
+                liveCounts[(int) (interval / BIN_MS)]++;
+                dirty = true;
+            }
+        }
+        lastKeyCode = keyCode;
+        lastKeyTime = eventTime;
+    }
+
+    synchronized long getSampleCount() {
+        long live = total(liveCounts);
+        return live >= MIN_SAMPLES ? live : total(recordedCounts);
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 建议的防抖时间（毫秒），样本不足时返回 -1。
+     */
+    synchronized int propose() {
+        long[] counts = liveCounts;
+        long total = total(liveCounts);
+        if (total < MIN_SAMPLES) {
+            counts = recordedCounts;
+            total = total(recordedCounts);
+        }
+        if (total < MIN_SAMPLES) return -1;
+
+        // Otsu：在对数时间上找使类间方差最大的分界
+        double[] values = new double[BINS];
+        double sum = 0;
+        for (int i = 0; i < BINS; i++) {
+            values[i] = Math.log(i * BIN_MS + BIN_MS / 2.0);
+            sum += counts[i] * values[i];
+        }
+        long lowCount = 0;
+        double lowSum = 0;
+        double bestVariance = -1;
+        int bestBin = -1;
+        long bestLowCount = 0;
+        for (int t = 0; t < BINS - 1; t++) {
+            lowCount += counts[t];
+            lowSum += counts[t] * values[t];
+            long highCount = total - lowCount;
+            if (lowCount == 0 || highCount == 0) continue;
+            double difference = lowSum / lowCount - (sum - lowSum) / highCount;
+            double variance = (double) lowCount * highCount * difference * difference;
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                bestBin = t;
+                bestLowCount = lowCount;
+            }
+        }
+
+        int window;
+        int boundary = (bestBin + 1) * BIN_MS;
+        if (bestBin >= 0 && boundary <= MAX_WINDOW_MS && bestLowCount >= total * BOUNCE_SHARE
+                && isValley(counts, bestBin)) {
+            window = boundary;
+        } else {
+            // 没有抖动峰：不超过最短的有意间隔
+            long target = Math.max(1, total / 100);
+            long seen = 0;
+            int bin = 0;
+            while (bin < BINS && (seen += counts[bin]) < target) bin++;
+            window = (int) (bin * BIN_MS * 0.8);
+        }
+        return Math.max(MIN_WINDOW_MS, Math.min(MAX_WINDOW_MS, window));
+    }
+
+    // 分界附近的密度明显低于两侧的峰，才是两个峰之间的谷（单峰分布被 Otsu 从中间切开时不成立）
+    private static boolean isValley(long[] counts, int bin) {
+        long lowPeak = 0;
+        long highPeak = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (i <= bin) {
+                lowPeak = Math.max(lowPeak, counts[i]);
+            } else {
+                highPeak = Math.max(highPeak, counts[i]);
+            }
+        }
+        long valley = Math.min(counts[bin], counts[bin + 1]);
+        return valley * 5 <= Math.min(lowPeak, highPeak); // 不超过较低峰的 20%
+    }
+
+    /**
+     * 疑似重复计数：已统计会话中同方向、间隔小于 windowMs 的相邻加减分，按次数从多到少排列。
+     */
+    synchronized List<Suspect> findSuspects(int windowMs) {
+        List<Suspect> suspects = new ArrayList<>();
+        int bins = Math.min(SHORT_BINS, windowMs / BIN_MS);
+        for (SessionStats stats : sessions.values()) {
+            if (stats.shortCounts == null) continue;
+            int count = 0;
+            for (int i = 0; i < bins; i++) {
+                count += stats.shortCounts[i];
+            }
+            if (count > 0) {
+                suspects.add(new Suspect(stats.name, stats.uri, count));
+            }
+        }
+        suspects.sort((a, b) -> Integer.compare(b.count, a.count));
+        return suspects;
+    }
+
+    /**
+     * 后台线程：统计尚未处理的已保存会话（逐个流式读取），返回本次新统计的会话数。
+     * 归档中的会话不再读取；已删除的会话从记录中移除，但已计入直方图的样本保留。
+     */
+    int scanSavedSessions(ContentResolver resolver) {
+        synchronized (fileLock) {
+            load(); // 否则加载时会把已统计的会话再合并一次
+            return scanLoaded(resolver);
+        }
+    }
+
+    private int scanLoaded(ContentResolver resolver) {
+        Map<String, Uri> current = querySessionFiles(resolver);
+        Set<String> pending = new HashSet<>(current.keySet());
+        synchronized (this) {
+            sessions.keySet().retainAll(current.keySet());
+            pending.removeAll(sessions.keySet());
+        }
+        int scanned = 0;
+        for (String key : pending) {
+            Uri uri = current.get(key);
+            long[] counts = new long[BINS];
+            int[] shortCounts = new int[SHORT_BINS];
+            boolean hasShort = false;
+            try (InputStream in = resolver.openInputStream(uri)) {
+                if (in == null) continue;
+                ScoreCsvReader reader = new ScoreCsvReader(in);
+                long lastTime = -1;
+                String lastAction = null;
+                while (reader.next()) {
+                    String action = reader.getAction();
+                    if (!"INCREASE".equals(action) && !"DECREASE".equals(action)) continue;
+                    long time = reader.getRelativeTime();
+                    if (lastTime >= 0) {
+                        long interval = time - lastTime;
+                        if (interval < BINS * BIN_MS) {
+                            counts[(int) (interval / BIN_MS)]++;
+                        }
+                        if (action.equals(lastAction) && interval < MAX_WINDOW_MS) {
+                            shortCounts[(int) (interval / BIN_MS)]++;
+                            hasShort = true;
+                        }
+                    }
+                    lastTime = time;
+                    lastAction = action;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "统计会话失败: " + key + ", " + e.getMessage());
+                continue;
+            }
+            String name = key.substring(0, key.lastIndexOf('@'));
+            synchronized (this) {
+                for (int i = 0; i < BINS; i++) {
+                    recordedCounts[i] += counts[i];
+                }
+                sessions.put(key, new SessionStats(name, uri, hasShort ? shortCounts : null));
+                dirty = true;
+            }
+            scanned++;
+        }
+        return scanned;
+    }
+
+    // 记录目录中的单个 CSV 会话文件（含分段），键为 文件名@修改时间
+    private static Map<String, Uri> querySessionFiles(ContentResolver resolver) {
+        Map<String, Uri> files = new HashMap<>();
+        String[] projection = {
+                MediaStore.Files.FileColumns._ID,
+                MediaStore.Files.FileColumns.DISPLAY_NAME,
+                MediaStore.Files.FileColumns.DATE_MODIFIED
+        };
+        String selection = MediaStore.Files.FileColumns.RELATIVE_PATH + " LIKE ?";
+        String[] selectionArgs = {"%" + Environment.DIRECTORY_DOCUMENTS + "/ScoreRecords%"};
+        try (Cursor cursor = resolver.query(MediaStore.Files.getContentUri("external"),
+                projection, selection, selectionArgs, null)) {
+            if (cursor == null) return files;
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(1);
+                if (name == null || !name.endsWith(".csv")) continue; // 跳过清单和归档
+                Uri uri = ContentUris.withAppendedId(MediaStore.Files.getContentUri("external"), cursor.getLong(0));
+                files.put(name + "@" + cursor.getLong(2), uri);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 后台线程：读取保存的直方图并合并到当前计数（加载前的按键样本不会丢失）。只加载一次。
+     */
+    void load() {
+        synchronized (fileLock) {
+            if (loaded) return;
+            loaded = true; // 文件损坏时也不再重试，下次保存会用当前计数覆盖它
+            if (file.exists()) {
+                readFile();
+            }
+        }
+    }
+
+    private void readFile() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                synchronized (this) {
+                    if (parts[0].equals("live") || parts[0].equals("recorded")) {
+                        long[] target = parts[0].equals("live") ? liveCounts : recordedCounts;
+                        for (int i = 1; i < parts.length && i <= BINS; i++) {
+                            target[i - 1] += Long.parseLong(parts[i]);
+                        }
+                    } else if (parts[0].equals("session") && parts.length == 4) {
+                        int[] shortCounts = null;
+                        if (!parts[3].isEmpty()) {
+                            String[] values = parts[3].split(",");
+                            shortCounts = new int[SHORT_BINS];
+                            for (int i = 0; i < values.length && i < SHORT_BINS; i++) {
+                                shortCounts[i] = Integer.parseInt(values[i]);
+                            }
+                        }
+                        String name = parts[1].substring(0, parts[1].lastIndexOf('@'));
+                        sessions.put(parts[1], new SessionStats(name, Uri.parse(parts[2]), shortCounts));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "读取防抖直方图失败，重新统计: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 后台线程：有新样本时写回文件（先写临时文件再替换）。尚未加载时先加载，再写入合并后的计数。
+     */
+    void save() {
+        synchronized (fileLock) {
+            load();
+            writeFile();
+        }
+    }
+
+    private void writeFile() {
+        StringBuilder content = new StringBuilder();
+        synchronized (this) {
+            if (!dirty) return;
+            dirty = false;
+            appendCounts(content, "live", liveCounts);
+            appendCounts(content, "recorded", recordedCounts);
+            for (Map.Entry<String, SessionStats> entry : sessions.entrySet()) {
+                SessionStats stats = entry.getValue();
+                content.append("session\t").append(entry.getKey()).append('\t').append(stats.uri).append('\t');
+                if (stats.shortCounts != null) {
+                    for (int i = 0; i < SHORT_BINS; i++) {
+                        if (i > 0) content.append(',');
+                        content.append(stats.shortCounts[i]);
+                    }
+                }
+                content.append('\n');
+            }
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temp))) {
+            writer.write(content.toString());
+        } catch (IOException e) {
+            Log.w(TAG, "保存防抖直方图失败: " + e.getMessage());
+            synchronized (this) {
+                dirty = true;
+            }
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "替换防抖直方图失败");
+        }
+    }
+
+    private static void appendCounts(StringBuilder content, String name, long[] counts) {
+        content.append(name);
+        for (long count : counts) {
+            content.append('\t').append(count);
+        }
+        content.append('\n');
+    }
+}
@@ -0,0 +1,495 @@
+package com.example.volumecounter;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可选的事件数据库（应用私有 SQLite）：sessions 表保存每个会话的概要，
+ * events 表保存全部事件，按 (session_id, relative_time) 建索引。
+ * 记录时由 {@link SessionWriter} 在后台线程按批次事务写入；
+ * 会话结束并保存为 CSV 后与文件 Uri 关联，之后摘要、标签筛选和时间段查询直接走索引，不再扫描文件。
+ * CSV 仍然是导出和交换格式，可以由 {@link #exportCsv} 从数据库重新生成。
+ * <p>
+ * 文件列表仍以 MediaStore 为准：数据库是可选的，只包含开启数据库后按事件记录的会话，
+ * 导入、聚合模式、归档和外部修改的文件都不在其中，也不会随文件删除之外的变化同步。
+ * 因此列表从 MediaStore 查询，每个会话的摘要和标签先查数据库，不在数据库中时再读文件。
+ */
+class EventStore extends SQLiteOpenHelper {
+    private static final String TAG = "EventStore";
+    private static final String DATABASE_NAME = "events.db";
+    private static final int DATABASE_VERSION = 3; // 2：按键标签；3：事件序号和会话用到的标签
+    private static final int BATCH_SIZE = 256;         // 攒够一批立即写入
+    private static final long FLUSH_DELAY_MS = 2000;   // 不足一批时最迟 2 秒写入
+
+    private static volatile EventStore instance;
+
+    // 所有写入在同一个线程中按提交顺序执行
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "event-store"));
+
+    static EventStore get(Context context) {
+        if (instance == null) {
+            synchronized (EventStore.class) {
+                if (instance == null) {
+                    instance = new EventStore(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    // 只在数据库已经存在时返回实例，查询路径不会因此创建空数据库
+    static EventStore getIfExists(Context context) {
+        if (instance == null && !context.getDatabasePath(DATABASE_NAME).exists()) {
+            return null;
+        }
+        return get(context);
+    }
+
+    private EventStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true); // 读取不被后台写入阻塞
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE sessions ("
+                + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "file_uri TEXT, "
+                + "remark TEXT, "
+                + "start_time INTEGER NOT NULL, "
+                + "duration INTEGER NOT NULL DEFAULT 0, "
+                + "final_score INTEGER NOT NULL DEFAULT 0, "
+                + "event_count INTEGER NOT NULL DEFAULT 0, "
+                + "ended INTEGER NOT NULL DEFAULT 0, "
+                + "tags TEXT, "
+                + "used_tags INTEGER NOT NULL DEFAULT 0)"); // 用到的标签编号的位掩码
+        db.execSQL("CREATE UNIQUE INDEX sessions_file_uri ON sessions(file_uri)");
+        db.execSQL("CREATE INDEX sessions_start_time ON sessions(start_time)");
+        db.execSQL("CREATE TABLE events ("
+                + "session_id INTEGER NOT NULL, "
+                + "relative_time INTEGER NOT NULL, "
+                + "score INTEGER NOT NULL, "
+                + "action TEXT NOT NULL, "
+                + "retracted INTEGER NOT NULL DEFAULT 0, "
+                + "note TEXT, "
+                + "tag INTEGER NOT NULL DEFAULT 0, "
+                + "seq INTEGER NOT NULL DEFAULT -1)"); // 会话内的事件序号，撤销时按序号定位
+        db.execSQL("CREATE INDEX events_session_time ON events(session_id, relative_time)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE sessions ADD COLUMN tags TEXT");
+            db.execSQL("ALTER TABLE events ADD COLUMN tag INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 3) {
+            // 旧事件没有序号，它们所在的会话已经结束，不会再被撤销
+            db.execSQL("ALTER TABLE sessions ADD COLUMN used_tags INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE events ADD COLUMN seq INTEGER NOT NULL DEFAULT -1");
+            try (Cursor used = db.rawQuery("SELECT DISTINCT session_id, tag FROM events WHERE tag > 0", null)) {
+                while (used.moveToNext()) {
+                    db.execSQL("UPDATE sessions SET used_tags = used_tags | ? WHERE _id = ?",
+                            new Object[]{1L << used.getInt(1), used.getLong(0)});
+                }
+            }
+        }
+    }
+
+    // 开始一个新会话，返回的写入器只能在主线程调用；tags 为会话的标签字典
+    SessionWriter beginSession(String remark, long startTime, TagDictionary tags) {
+        return new SessionWriter(remark, startTime, tags.toHeaderLine());
+    }
+
+    /**
+     * 一个会话的后台写入器。事件先放入内存中的基本类型数组，
+     * 攒够一批或 2 秒后在写入线程中用一个事务批量插入；撤销/重做在同一批中随后更新。
+     */
+    final class SessionWriter {
+        private final Object lock = new Object();
+        private long[] times = new long[BATCH_SIZE];
+        private int[] scores = new int[BATCH_SIZE];
+        private String[] actions = new String[BATCH_SIZE];
+        private String[] notes = new String[BATCH_SIZE];
+        private byte[] tags = new byte[BATCH_SIZE];
+        private int[] sequences = new int[BATCH_SIZE];
+        private int count;
+        private int nextSequence; // 下一个事件的序号，受 lock 保护
+        // 待更新的撤销标记（目标事件一定在本批之前或本批中已插入）
+        private final List<Object[]> retractions = new ArrayList<>();
+        private boolean flushScheduled; // 已安排延迟写入
+        private boolean batchSubmitted; // 已提交立即写入
+
+        // 以下字段只在写入线程访问
+        private long sessionId = -1;
+        private int eventCount;
+        private long usedTags;
+        private SQLiteStatement insertStatement;
+        private SQLiteStatement retractStatement;
+
+        SessionWriter(String remark, long startTime, String tagsLine) {
+            writer.execute(() -> {
+                ContentValues values = new ContentValues();
+                values.put("remark", remark);
+                values.put("tags", tagsLine);
+                values.put("start_time", startTime);
+                sessionId = getWritableDatabase().insert("sessions", null, values);
+                if (sessionId < 0) {
+                    Log.e(TAG, "创建会话失败");
+                }
+            });
+        }
+
+        void append(KeyPressRecord record) {
+            synchronized (lock) {
+                if (count == times.length) {
+                    // 写入线程落后时扩容，不阻塞主线程
+                    int capacity = count * 2;
+                    times = Arrays.copyOf(times, capacity);
+                    scores = Arrays.copyOf(scores, capacity);
+                    actions = Arrays.copyOf(actions, capacity);
+                    notes = Arrays.copyOf(notes, capacity);
+                    tags = Arrays.copyOf(tags, capacity);
+                    sequences = Arrays.copyOf(sequences, capacity);
+                }
+                record.sequence = nextSequence++;
+                times[count] = record.relativeTime;
+                scores[count] = record.score;
+                actions[count] = record.action;
+                notes[count] = record.note;
+                tags[count] = record.tag;
+                sequences[count] = record.sequence;
+                count++;
+                if (count >= BATCH_SIZE && !batchSubmitted) {
+                    batchSubmitted = true;
+                    writer.execute(this::flush);
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        // 撤销或重做后同步事件的撤销标记；按序号定位，同一毫秒内的同类操作也不会混淆
+        void setRetracted(KeyPressRecord record) {
+            if (record.sequence < 0) return; // 不是经本写入器写入的事件
+            synchronized (lock) {
+                retractions.add(new Object[]{record.relativeTime, record.sequence, record.retracted});
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        /**
+         * 会话结束并保存为 CSV 后调用：写入剩余事件，记录最终分数、时长和对应的文件 Uri
+         * （分段会话为清单文件）。fileUri 为 null 表示保存失败，只更新概要。
+         */
+        void finish(Uri fileUri, long durationMs, int finalScore) {
+            writer.execute(() -> {
+                flush();
+                if (sessionId < 0) return;
+                ContentValues values = new ContentValues();
+                values.put("file_uri", fileUri != null ? fileUri.toString() : null);
+                values.put("duration", durationMs);
+                values.put("final_score", finalScore);
+                values.put("ended", 1);
+                getWritableDatabase().update("sessions", values, "_id = ?",
+                        new String[]{Long.toString(sessionId)});
+                Log.d(TAG, "会话已写入数据库: id=" + sessionId + ", 事件数=" + eventCount);
+            });
+        }
+
+        // 在写入线程中执行
+        private void flush() {
+            long[] batchTimes;
+            int[] batchScores;
+            String[] batchActions;
+            String[] batchNotes;
+            byte[] batchTags;
+            int[] batchSequences;
+            int batchCount;
+            Object[][] batchRetractions;
+            synchronized (lock) {
+                flushScheduled = false;
+                batchSubmitted = false;
+                if (count == 0 && retractions.isEmpty()) return;
+                batchTimes = times;
+                batchScores = scores;
+                batchActions = actions;
+                batchNotes = notes;
+                batchTags = tags;
+                batchSequences = sequences;
+                batchCount = count;
+                batchRetractions = retractions.toArray(new Object[0][]);
+                retractions.clear();
+                times = new long[BATCH_SIZE];
+                scores = new int[BATCH_SIZE];
+                actions = new String[BATCH_SIZE];
+                notes = new String[BATCH_SIZE];
+                tags = new byte[BATCH_SIZE];
+                sequences = new int[BATCH_SIZE];
+                count = 0;
+            }
+            if (sessionId < 0) return;
+
+            SQLiteDatabase db = getWritableDatabase();
+            if (insertStatement == null) {
+                insertStatement = db.compileStatement(
+                        "INSERT INTO events (session_id, relative_time, score, action, note, tag, seq) "
+                                + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+                // relative_time 条件用于走 (session_id, relative_time) 索引，seq 保证唯一
+                retractStatement = db.compileStatement(
+                        "UPDATE events SET retracted = ? WHERE session_id = ? AND relative_time = ? AND seq = ?");
+            }
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < batchCount; i++) {
+                    insertStatement.bindLong(1, sessionId);
+                    insertStatement.bindLong(2, batchTimes[i]);
+                    insertStatement.bindLong(3, batchScores[i]);
+                    insertStatement.bindString(4, batchActions[i]);
+                    if (batchNotes[i] != null) {
+                        insertStatement.bindString(5, batchNotes[i]);
+                    } else {
+                        insertStatement.bindNull(5);
+                    }
+                    insertStatement.bindLong(6, batchTags[i]);
+                    insertStatement.bindLong(7, batchSequences[i]);
+                    insertStatement.executeInsert();
+                    usedTags |= 1L << batchTags[i];
+                }
+                for (Object[] retraction : batchRetractions) {
+                    retractStatement.bindLong(1, (Boolean) retraction[2] ? 1 : 0);
+                    retractStatement.bindLong(2, sessionId);
+                    retractStatement.bindLong(3, (Long) retraction[0]);
+                    retractStatement.bindLong(4, (Integer) retraction[1]);
+                    retractStatement.executeUpdateDelete();
+                }
+                eventCount += batchCount;
+                if (batchCount > 0) {
+                    db.execSQL("UPDATE sessions SET event_count = ?, duration = ?, final_score = ?, used_tags = ? "
+                                    + "WHERE _id = ?",
+                            new Object[]{eventCount, batchTimes[batchCount - 1], batchScores[batchCount - 1],
+                                    usedTags & ~1L, sessionId});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private long findSession(Uri fileUri) {
+        try (Cursor cursor = getReadableDatabase().query("sessions", new String[]{"_id"},
+                "file_uri = ?", new String[]{fileUri.toString()}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+    }
+
+    // 按文件查找会话摘要，不在数据库中时返回 null
+    SessionSummary findSummary(Uri fileUri) {
+        try (Cursor cursor = getReadableDatabase().query("sessions",
+                new String[]{"remark", "final_score", "duration", "ended"},
+                "file_uri = ?", new String[]{fileUri.toString()}, null, null, null)) {
+            if (!cursor.moveToFirst()) return null;
+            return new SessionSummary(cursor.getString(0), cursor.getInt(1), cursor.getLong(2),
+                    cursor.getInt(3) != 0);
+        }
+    }
+
+    // 按文件查找会话用到的标签，不在数据库中时返回 null
+    Set<String> findTags(Uri fileUri) {
+        try (Cursor cursor = getReadableDatabase().query("sessions", new String[]{"tags", "used_tags"},
+                "file_uri = ?", new String[]{fileUri.toString()}, null, null, null)) {
+            if (!cursor.moveToFirst()) return null;
+            TagDictionary dictionary = TagDictionary.fromHeaderLine(cursor.getString(0));
+            long used = cursor.getLong(1);
+            Set<String> tags = new LinkedHashSet<>();
+            for (int code = 1; code <= TagDictionary.MAX_TAGS; code++) {
+                String label = dictionary.getLabel(code);
+                if ((used & (1L << code)) != 0 && label != null) tags.add(label);
+            }
+            return tags;
+        }
+    }
+
+    /**
+     * 按索引读取会话在 [fromMs, toMs] 内的记录（相对时间），会话不在数据库中时返回 null。
+     * 读取时才从游标逐批生成 CSV，内存中只保留一批行。
+     */
+    ScoreCsvReader openRange(Uri fileUri, long fromMs, long toMs) throws IOException {
+        long sessionId = findSession(fileUri);
+        if (sessionId < 0) return null;
+        return new ScoreCsvReader(new RangeStream(sessionId, fromMs, toMs));
+    }
+
+    // 从数据库生成与记录时格式相同的 CSV（含校验行）
+    void exportCsv(long sessionId, long fromMs, long toMs, OutputStream out) throws IOException {
+        try (RangeExport export = new RangeExport(sessionId, fromMs, toMs, out)) {
+            while (export.writeRows(Integer.MAX_VALUE)) {
+                // 一次写完
+            }
+        }
+    }
+
+    // 逐批写出范围内的 CSV：构造时写出表头，每次 writeRows 写出至多 maxRows 行，最后一批之后追加校验行
+    private final class RangeExport implements Closeable {
+        private final ScoreCsvWriter writer;
+        private final long startTime;
+        private final Cursor cursor;
+        private boolean finished;
+
+        RangeExport(long sessionId, long fromMs, long toMs, OutputStream out) throws IOException {
+            SQLiteDatabase db = getReadableDatabase();
+            String remark = null;
+            long start = 0;
+            TagDictionary tags = TagDictionary.EMPTY;
+            try (Cursor session = db.query("sessions", new String[]{"remark", "start_time", "tags"}, "_id = ?",
+                    new String[]{Long.toString(sessionId)}, null, null, null)) {
+                if (session.moveToFirst()) {
+                    remark = session.getString(0);
+                    start = session.getLong(1);
+                    tags = TagDictionary.fromHeaderLine(session.getString(2));
+                }
+            }
+            startTime = start;
+            String[] rangeArgs = {Long.toString(sessionId), Long.toString(fromMs), Long.toString(toMs)};
+            // 与记录时相同，字典行只列出范围内用到的标签
+            long usedTags = 0;
+            try (Cursor used = db.rawQuery("SELECT DISTINCT tag FROM events "
+                    + "WHERE session_id = ? AND relative_time BETWEEN ? AND ? AND tag > 0", rangeArgs)) {
+                while (used.moveToNext()) {
+                    usedTags |= 1L << used.getInt(0);
+                }
+            }
+            writer = new ScoreCsvWriter(out);
+            writer.writeHeader(remark, tags.toHeaderLine(usedTags));
+            cursor = db.query("events",
+                    new String[]{"relative_time", "score", "action", "retracted", "note", "tag"},
+                    "session_id = ? AND relative_time BETWEEN ? AND ?", rangeArgs,
+                    null, null, "relative_time, rowid");
+        }
+
+        // 返回是否还有未写出的行；写出的内容已刷新到输出流
+        boolean writeRows(int maxRows) throws IOException {
+            if (finished) return false;
+            for (int i = 0; i < maxRows; i++) {
+                if (!cursor.moveToNext()) {
+                    writer.finish();
+                    finished = true;
+                    return false;
+                }
+                long relativeTime = cursor.getLong(0);
+                String action = cursor.getString(2);
+                if (cursor.getInt(3) != 0) {
+                    action = KeyPressRecord.RETRACTED_PREFIX + action;
+                }
+                int tag = cursor.getInt(5);
+                if (tag > 0) {
+                    writer.writeTaggedRow(relativeTime, cursor.getInt(1), action, startTime + relativeTime, tag);
+                } else {
+                    writer.writeRow(relativeTime, cursor.getInt(1), action, startTime + relativeTime,
+                            cursor.isNull(4) ? null : cursor.getString(4));
+                }
+            }
+            writer.flush();
+            return true;
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    // 读取时按需生成 CSV 的输入流
+    private final class RangeStream extends InputStream {
+        private final ChunkBuffer chunk = new ChunkBuffer();
+        private final RangeExport export;
+        private int position;
+        private boolean more = true;
+
+        RangeStream(long sessionId, long fromMs, long toMs) throws IOException {
+            export = new RangeExport(sessionId, fromMs, toMs, chunk);
+        }
+
+        // 当前批读完时生成下一批，没有更多内容时返回 false
+        private boolean fill() throws IOException {
+            while (position >= chunk.size()) {
+                if (!more) return false;
+                chunk.reset();
+                position = 0;
+                more = export.writeRows(BATCH_SIZE);
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return chunk.bytes()[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, chunk.size() - position);
+            System.arraycopy(chunk.bytes(), position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            export.close();
+        }
+    }
+
+    private static final class ChunkBuffer extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    // 文件被删除时移除对应的会话
+    void deleteSession(Uri fileUri) {
+        writer.execute(() -> {
+            long sessionId = findSession(fileUri);
+            if (sessionId < 0) return;
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                String[] args = {Long.toString(sessionId)};
+                db.delete("events", "session_id = ?", args);
+                db.delete("sessions", "_id = ?", args);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+}
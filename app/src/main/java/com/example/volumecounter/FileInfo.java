@@ -1,8 +1,13 @@
 package com.example.volumecounter;
 
+import android.content.ContentResolver;
 import android.net.Uri;
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 public class FileInfo {
@@ -11,13 +16,36 @@ public class FileInfo {
     private final long size;
     private final Uri uri;
     private String remark; // 新增备注字段
+    private final List<Uri> segmentUris; // 分段会话的各分段（按顺序），普通文件为空
+    private final SessionArchive.Entry archiveEntry; // 归档中的会话，uri 指向归档文件
+    private int integrity = ScoreChecksum.UNCHECKED; // 最近一次校验的结果
+    private volatile SessionSummary summary; // 时长和最终分数，后台读取
+    private volatile boolean summaryRequested;
 
     public FileInfo(String name, long dateModified, long size, Uri uri, String remark) {
+        this(name, dateModified, size, uri, remark, Collections.emptyList());
+    }
+
+    // 分段会话：uri 指向清单文件，segmentUris 为各分段文件
+    public FileInfo(String name, long dateModified, long size, Uri uri, String remark, List<Uri> segmentUris) {
         this.name = name;
         this.dateModified = dateModified;
         this.size = size;
         this.uri = uri;
         this.remark = remark; // 初始化备注
+        this.segmentUris = segmentUris;
+        this.archiveEntry = null;
+    }
+
+    // 归档中的会话：信息全部来自归档索引
+    public FileInfo(Uri archiveUri, SessionArchive.Entry archiveEntry) {
+        this.name = archiveEntry.name;
+        this.dateModified = archiveEntry.dateModified;
+        this.size = archiveEntry.size;
+        this.uri = archiveUri;
+        this.remark = archiveEntry.remark;
+        this.segmentUris = Collections.emptyList();
+        this.archiveEntry = archiveEntry;
     }
 
     public String getName() { return name; }
@@ -25,11 +53,38 @@ public class FileInfo {
     public long getSize() { return size; }
     public Uri getUri() { return uri; }
     public String getRemark() { return remark; } // 新增备注getter
+    public List<Uri> getSegmentUris() { return segmentUris; }
+    public boolean isSegmented() { return !segmentUris.isEmpty(); }
+    public SessionArchive.Entry getArchiveEntry() { return archiveEntry; }
+    public boolean isArchived() { return archiveEntry != null; }
+
+    // 打开会话内容：普通文件、分段会话（依次拼接）或归档成员（解压）
+    public InputStream openStream(ContentResolver resolver) throws IOException {
+        if (isArchived()) {
+            return SessionArchive.openMember(resolver, uri, archiveEntry);
+        }
+        return SessionSegmenter.openSession(resolver, isSegmented() ? segmentUris : Collections.singletonList(uri));
+    }
     // 添加 setter 方法
     public void setRemark(String remark) {
         this.remark = remark;
     }
 
+    public int getIntegrity() { return integrity; }
+    public boolean isCorrupt() { return integrity == ScoreChecksum.CORRUPT; }
+    public void setIntegrity(int integrity) {
+        this.integrity = integrity;
+    }
+
+    public SessionSummary getSummary() { return summary; }
+    public void setSummary(SessionSummary summary) {
+        this.summary = summary;
+    }
+    public boolean isSummaryRequested() { return summaryRequested; }
+    public void setSummaryRequested() {
+        this.summaryRequested = true;
+    }
+
     public String getFormattedDate() {
         return new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.CHINA).format(new Date(dateModified * 1000));
     }
@@ -1,6 +1,7 @@
 package com.example.volumecounter;
 
 import android.content.Context;
+import android.graphics.Color;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
@@ -28,11 +29,17 @@ public class FileManagerAdapter extends ListAdapter<FileInfo, FileManagerAdapter
     private final Context context;
     private final FileActionCallback callback;
     private final RemarkCallback remarkCallback;
+    private final SummaryCallback summaryCallback;
+    private final IoExecutor.Scope scope; // 所在对话框的取消范围
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.CHINA);
     private Map<Integer, Boolean> expandStatus = new HashMap<>(); // 存储每个位置的展开状态
     public static final String ACTION_EDIT = "edit";
     public static final String ACTION_SHARE = "share";
     public static final String ACTION_DELETE = "delete";
+    public static final String ACTION_CHART = "chart";
+    public static final String ACTION_RANGE = "range";
+    public static final String ACTION_PLAY = "play";
+    public static final String ACTION_COMPARE = "compare";
 
     // 接口定义
     public interface RemarkCallback {
@@ -43,22 +50,33 @@ public class FileManagerAdapter extends ListAdapter<FileInfo, FileManagerAdapter
         void onFileAction(FileInfo fileInfo, String action);
     }
 
-    public FileManagerAdapter(Context context, FileActionCallback callback, RemarkCallback remarkCallback) {
+    // 在后台线程中调用，无法读取时返回 null
+    public interface SummaryCallback {
+        SessionSummary getSummaryForFile(FileInfo fileInfo);
+    }
+
+    public FileManagerAdapter(Context context, FileActionCallback callback, RemarkCallback remarkCallback,
+                              SummaryCallback summaryCallback, IoExecutor.Scope scope) {
         super(new DiffUtil.ItemCallback<FileInfo>() {
             @Override
             public boolean areItemsTheSame(@NonNull FileInfo oldItem, @NonNull FileInfo newItem) {
-                return oldItem.getUri().equals(newItem.getUri());
+                // 同一归档中的会话共享归档的 URI，需要同时比较名称
+                return oldItem.getUri().equals(newItem.getUri()) &&
+                        oldItem.getName().equals(newItem.getName());
             }
 
             @Override
             public boolean areContentsTheSame(@NonNull FileInfo oldItem, @NonNull FileInfo newItem) {
                 return oldItem.getName().equals(newItem.getName()) &&
-                        oldItem.getDateModified() == newItem.getDateModified();
+                        oldItem.getDateModified() == newItem.getDateModified() &&
+                        oldItem.getIntegrity() == newItem.getIntegrity();
             }
         });
         this.context = context;
         this.callback = callback;
         this.remarkCallback = remarkCallback;
+        this.summaryCallback = summaryCallback;
+        this.scope = scope;
     }
 
     @NonNull
@@ -71,9 +89,17 @@ public class FileManagerAdapter extends ListAdapter<FileInfo, FileManagerAdapter
     @Override
     public void onBindViewHolder(@NonNull FileViewHolder holder, int position) {
         FileInfo fileInfo = getItem(position);
-        holder.fileName.setText(fileInfo.getName());
+        // 校验失败的文件用红色标出
+        if (fileInfo.isCorrupt()) {
+            holder.fileName.setText(fileInfo.getName() + "（校验失败）");
+            holder.fileName.setTextColor(Color.RED);
+        } else {
+            holder.fileName.setText(fileInfo.getName());
+            holder.fileName.setTextColor(Color.BLACK);
+        }
         holder.fileDate.setText(formatDate(fileInfo.getDateModified()));
         holder.fileSize.setText(formatSize(fileInfo.getSize()));
+        bindSummary(holder, fileInfo);
         Log.d(TAG, "显示文件: " + fileInfo.getName() + ", URI: " + fileInfo.getUri());
 
         // 处理备注显示
@@ -116,6 +142,11 @@ public class FileManagerAdapter extends ListAdapter<FileInfo, FileManagerAdapter
             Log.d(TAG, "触发分享: " + fileInfo.getName());
             callback.onFileAction(fileInfo, ACTION_SHARE);
         });
+        // 长按分享按钮：与另一个会话对比
+        holder.shareButton.setOnLongClickListener(v -> {
+            callback.onFileAction(fileInfo, ACTION_COMPARE);
+            return true;
+        });
 
         // 删除按钮点击事件
         holder.deleteButton.setOnClickListener(v -> {
@@ -130,24 +161,64 @@ public class FileManagerAdapter extends ListAdapter<FileInfo, FileManagerAdapter
 
         // 点击备注区域加载备注（如果未加载）
         holder.fileRemark.setOnClickListener(v -> {
-            if (TextUtils.isEmpty(fileInfo.getRemark())) {
-                new Thread(() -> {
-                    String loadedRemark = remarkCallback.getRemarkForFile(fileInfo.getUri());
-                    fileInfo.setRemark(loadedRemark);
-
-                    // 在主线程更新UI
-                    holder.itemView.post(() -> {
-                        notifyItemChanged(position);
-                    });
-                }).start();
+            if (TextUtils.isEmpty(fileInfo.getRemark()) && !fileInfo.isArchived()) { // 归档会话的备注来自索引
+                IoExecutor.get().submit(scope, IoExecutor.PRIORITY_NORMAL,
+                        () -> remarkCallback.getRemarkForFile(fileInfo.getUri()),
+                        loadedRemark -> {
+                            fileInfo.setRemark(loadedRemark);
+                            notifyFileChanged(fileInfo);
+                        }, null);
             }
         });
 
+        // 图表按钮点击事件
+        holder.chartButton.setOnClickListener(v -> callback.onFileAction(fileInfo, ACTION_CHART));
+        // 长按图表按钮：按时间段查询
+        holder.chartButton.setOnLongClickListener(v -> {
+            callback.onFileAction(fileInfo, ACTION_RANGE);
+            return true;
+        });
+
         // 编辑按钮点击事件 - 修改为使用 callback
         holder.editButton.setOnClickListener(v -> {
             Log.d(TAG, "触发编辑: " + fileInfo.getName());
             callback.onFileAction(fileInfo, ACTION_EDIT);
         });
+        // 长按编辑按钮：按原始时间回放
+        holder.editButton.setOnLongClickListener(v -> {
+            callback.onFileAction(fileInfo, ACTION_PLAY);
+            return true;
+        });
+    }
+
+    // 时长 / 最终分数标记，首次显示时在后台读取文件尾部
+    private void bindSummary(FileViewHolder holder, FileInfo fileInfo) {
+        SessionSummary summary = fileInfo.getSummary();
+        if (summary != null) {
+            holder.fileSummary.setText(summary.getBadge());
+            holder.fileSummary.setVisibility(View.VISIBLE);
+            return;
+        }
+        holder.fileSummary.setVisibility(View.GONE);
+        if (fileInfo.isSummaryRequested()) {
+            return;
+        }
+        fileInfo.setSummaryRequested();
+        IoExecutor.get().submit(scope, IoExecutor.PRIORITY_PREFETCH,
+                () -> summaryCallback.getSummaryForFile(fileInfo),
+                loaded -> {
+                    if (loaded == null) return;
+                    fileInfo.setSummary(loaded);
+                    notifyFileChanged(fileInfo);
+                }, null);
+    }
+
+    // 按对象查找当前位置：异步结果返回时原来的位置可能已被复用
+    private void notifyFileChanged(FileInfo fileInfo) {
+        int position = getCurrentList().indexOf(fileInfo);
+        if (position >= 0) {
+            notifyItemChanged(position);
+        }
     }
 
     // 优化数据更新
@@ -175,8 +246,8 @@ public class FileManagerAdapter extends ListAdapter<FileInfo, FileManagerAdapter
     }
 
     static class FileViewHolder extends RecyclerView.ViewHolder {
-        TextView fileName, fileDate, fileSize, fileRemark;
-        MaterialButton shareButton, deleteButton, editButton;
+        TextView fileName, fileDate, fileSize, fileSummary, fileRemark;
+        MaterialButton shareButton, deleteButton, editButton, chartButton;
         ImageView expandButton; // 展开/折叠按钮
 
         FileViewHolder(@NonNull View itemView) {
@@ -184,11 +255,13 @@ public class FileManagerAdapter extends ListAdapter<FileInfo, FileManagerAdapter
             fileName = itemView.findViewById(R.id.file_name);
             fileDate = itemView.findViewById(R.id.file_date);
             fileSize = itemView.findViewById(R.id.file_size);
+            fileSummary = itemView.findViewById(R.id.file_summary);
             fileRemark = itemView.findViewById(R.id.file_remark);
             shareButton = itemView.findViewById(R.id.share_button);
             deleteButton = itemView.findViewById(R.id.delete_button);
             expandButton = itemView.findViewById(R.id.expand_button); // 初始化展开按钮
             editButton = itemView.findViewById(R.id.edit_button);
+            chartButton = itemView.findViewById(R.id.chart_button);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+package com.example.volumecounter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 应用内共享的 I/O 执行器：固定数量的后台线程，按优先级排队（同优先级先进先出）。
+ * 任务属于某个 {@link Scope}，结果只在主线程中、且作用域未取消时才回调，
+ * 因此 Activity 或对话框关闭后不会再收到结果，也不会被后台任务持有。
+ */
+final class IoExecutor {
+    static final int PRIORITY_USER = 0;     // 用户主动发起的写入：保存、编辑、导出
+    static final int PRIORITY_NORMAL = 1;   // 打开对话框所需的读取
+    static final int PRIORITY_PREFETCH = 2; // 预取：摘要、备注、校验
+
+    private static final String TAG = "IoExecutor";
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long SLOW_TASK_MS = 1000;
+    private static volatile IoExecutor instance;
+
+    interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+
+    // 统计
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong cancelledTasks = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+    private final AtomicLong totalRunMs = new AtomicLong();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+
+    static IoExecutor get() {
+        if (instance == null) {
+            synchronized (IoExecutor.class) {
+                if (instance == null) {
+                    instance = new IoExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private IoExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                runnable -> new Thread(runnable, "io-" + threadNumber.incrementAndGet()));
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 取消范围：对话框关闭或 Activity 销毁时调用 {@link #cancel()}。
+     * 取消后排队中的任务被移除、运行中的任务被中断，已完成任务的结果不再回调；
+     * 但 {@link #PRIORITY_USER} 的写入任务会继续执行完，只是不再回调，避免丢失数据。
+     */
+    static final class Scope {
+        private final Set<Task<?>> tasks = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void cancel() {
+            cancelled = true;
+            for (Task<?> task : tasks) {
+                task.cancel();
+            }
+            tasks.clear();
+        }
+
+        // 生命周期结束（ON_DESTROY）时自动取消
+        Scope bindTo(LifecycleOwner owner) {
+            owner.getLifecycle().addObserver((LifecycleEventObserver) (source, event) -> {
+                if (event == Lifecycle.Event.ON_DESTROY) {
+                    cancel();
+                }
+            });
+            return this;
+        }
+    }
+
+    /**
+     * 在后台执行 task；成功时在主线程回调 onResult，失败时回调 onError（可为 null，仅记录日志）。
+     */
+    <T> void submit(Scope scope, int priority, Callable<T> task, Callback<T> onResult,
+                    Callback<Exception> onError) {
+        if (scope.isCancelled()) {
+            return;
+        }
+        Task<T> wrapper = new Task<>(scope, priority, task, onResult, onError);
+        scope.tasks.add(wrapper);
+        pool.execute(wrapper);
+        int depth = pool.getQueue().size();
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    // 不需要结果的任务
+    void execute(Scope scope, int priority, Runnable task) {
+        submit(scope, priority, () -> {
+            task.run();
+            return null;
+        }, null, null);
+    }
+
+    int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    String getStats() {
+        long completed = Math.max(1, completedTasks.get());
+        return String.format(Locale.CHINA,
+                "队列=%d(峰值%d) 运行=%d 完成=%d 取消=%d 平均等待=%dms 平均执行=%dms 最长延迟=%dms",
+                getQueueDepth(), maxQueueDepth.get(), pool.getActiveCount(), completedTasks.get(),
+                cancelledTasks.get(), totalWaitMs.get() / completed, totalRunMs.get() / completed,
+                maxLatencyMs.get());
+    }
+
+    private final class Task<T> implements Runnable, Comparable<Task<?>> {
+        private final Scope scope;
+        private final int priority;
+        private final long order = sequence.getAndIncrement();
+        private final long enqueuedAt = SystemClock.elapsedRealtime();
+        private final Callable<T> callable;
+        private final Callback<T> onResult;
+        private final Callback<Exception> onError;
+        private volatile Thread runner;
+        private volatile boolean cancelled;
+
+        Task(Scope scope, int priority, Callable<T> callable, Callback<T> onResult, Callback<Exception> onError) {
+            this.scope = scope;
+            this.priority = priority;
+            this.callable = callable;
+            this.onResult = onResult;
+            this.onError = onError;
+        }
+
+        void cancel() {
+            if (priority == PRIORITY_USER) {
+                return; // 写入继续执行，回调由 scope.isCancelled() 拦截
+            }
+            cancelled = true;
+            if (pool.remove(this)) {
+                cancelledTasks.incrementAndGet();
+            }
+            Thread thread = runner;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            long start = SystemClock.elapsedRealtime();
+            runner = Thread.currentThread();
+            T result = null;
+            Exception error = null;
+            try {
+                result = callable.call();
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                runner = null;
+                Thread.interrupted(); // 清除中断标记，线程归还线程池
+                scope.tasks.remove(this);
+            }
+
+            long end = SystemClock.elapsedRealtime();
+            long waited = start - enqueuedAt;
+            totalWaitMs.addAndGet(waited);
+            totalRunMs.addAndGet(end - start);
+            maxLatencyMs.accumulateAndGet(end - enqueuedAt, Math::max);
+            completedTasks.incrementAndGet();
+            if (end - enqueuedAt > SLOW_TASK_MS) {
+                Log.w(TAG, "慢任务: 等待 " + waited + "ms，执行 " + (end - start) + "ms，" + getStats());
+            }
+
+            if (cancelled || scope.isCancelled()) {
+                return;
+            }
+            final T value = result;
+            final Exception failure = error;
+            mainHandler.post(() -> {
+                if (scope.isCancelled()) return; // 回调前再次确认接收方仍然存活
+                if (failure == null) {
+                    if (onResult != null) onResult.onResult(value);
+                } else if (onError != null) {
+                    onError.onResult(failure);
+                } else {
+                    Log.e(TAG, "后台任务失败: " + failure.getMessage(), failure);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(@NonNull Task<?> other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.volumecounter;
+
+// 单条按键记录，使用 relativeTime 代替 timestamp
+class KeyPressRecord {
+    static final String RETRACTED_PREFIX = "RETRACTED_";
+
+    long relativeTime;  // 相对时间（毫秒，从记录开始时计算）
+    int score;          // 当前分数
+    String action;      // 操作类型（INCREASE/DECREASE/RESET）
+    boolean retracted;  // 已被撤销，导出时标记而不删除
+    String note;        // 附加说明（如触发的提醒规则），导出为时间列之后的一列
+    byte tag;           // 标签编号（见 TagDictionary），0 表示无标签
+    int sequence = -1;  // 在事件数据库中的序号（会话内递增），未写入数据库时为 -1
+
+    public KeyPressRecord(long relativeTime, int score, String action) {
+        this.relativeTime = relativeTime;
+        this.score = score;
+        this.action = action;
+    }
+
+    // Getters
+    public long getRelativeTime() {
+        return relativeTime;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    static boolean isRetracted(String action) {
+        return action.startsWith(RETRACTED_PREFIX);
+    }
+
+    // 导出到CSV时使用的操作类型
+    public String getExportAction() {
+        return retracted ? RETRACTED_PREFIX + action : action;
+    }
+}
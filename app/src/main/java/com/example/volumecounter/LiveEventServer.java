@@ -0,0 +1,427 @@
+package com.example.volumecounter;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 内置的实时事件推送服务（纯 NIO，单线程 Selector），供外部大屏显示分数：
+ * <ul>
+ *   <li>{@code GET /events}：换行分隔的 JSON（NDJSON），例如 {@code curl -N http://127.0.0.1:8787/events}</li>
+ *   <li>{@code GET /ws}（WebSocket 握手）：每个事件一个文本帧</li>
+ * </ul>
+ * 连接后先收到一条 SNAPSHOT，之后是每个事件。每个客户端有固定长度的发送队列，
+ * 队列满时丢弃最旧的消息，慢客户端不会阻塞 {@link #publish} 的调用方（输入线程）。
+ */
+class LiveEventServer {
+    private static final String TAG = "LiveEventServer";
+    static final int DEFAULT_PORT = 8787;
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int MODE_HANDSHAKE = 0;
+    private static final int MODE_NDJSON = 1;
+    private static final int MODE_WEBSOCKET = 2;
+
+    private final int port;
+    private final boolean lan;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean writesPending = new AtomicBoolean();
+    private volatile boolean running;
+    private volatile Selector selector;
+    private Thread thread;
+    private long sequence;
+
+    // 最近的状态，用于新连接的 SNAPSHOT
+    private volatile int lastScore;
+    private volatile boolean recording;
+
+    private static final class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>(); // 由 queue 自身加锁
+        ByteBuffer current; // 正在发送的消息，仅 Selector 线程访问
+        volatile int mode = MODE_HANDSHAKE;
+        boolean closeAfterFlush;
+        long dropped; // 由 queue 加锁
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // 加入发送队列，满时丢弃最旧的一条
+        void offer(ByteBuffer message) {
+            synchronized (queue) {
+                if (queue.size() >= QUEUE_CAPACITY) {
+                    queue.pollFirst();
+                    dropped++;
+                }
+                queue.addLast(message);
+            }
+        }
+
+        ByteBuffer poll() {
+            synchronized (queue) {
+                return queue.pollFirst();
+            }
+        }
+
+        boolean hasQueued() {
+            synchronized (queue) {
+                return !queue.isEmpty();
+            }
+        }
+    }
+
+    /**
+     * @param lan true 时监听所有网卡（局域网可访问），否则只监听 127.0.0.1
+     */
+    LiveEventServer(int port, boolean lan) {
+        this.port = port;
+        this.lan = lan;
+    }
+
+    synchronized void start() throws IOException {
+        if (running) return;
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.bind(lan ? new InetSocketAddress(port) : new InetSocketAddress("127.0.0.1", port));
+            selector = Selector.open();
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        running = true;
+        thread = new Thread(() -> loop(server), "live-event-server");
+        thread.start();
+        Log.d(TAG, "实时推送已启动: " + (lan ? "0.0.0.0" : "127.0.0.1") + ":" + port);
+    }
+
+    synchronized void stop() {
+        if (!running) return;
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * 推送一个事件，可在任意线程调用，不做任何 I/O。
+     * relativeTime 为记录中的相对时间（毫秒），未在记录时为 -1。
+     */
+    void publish(String type, int score, long relativeTime, boolean isRecording) {
+        lastScore = score;
+        recording = isRecording;
+        if (clients.isEmpty()) return;
+        String json;
+        synchronized (this) {
+            json = String.format(Locale.ROOT,
+                    "{\"seq\":%d,\"type\":\"%s\",\"score\":%d,\"relativeMs\":%d,\"time\":%d,\"recording\":%b}",
+                    ++sequence, type, score, relativeTime, System.currentTimeMillis(), isRecording);
+        }
+        broadcast(json);
+    }
+
+    private void broadcast(String json) {
+        byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer ndjson = null;
+        ByteBuffer frame = null;
+        for (Client client : clients) {
+            if (client.mode == MODE_NDJSON) {
+                if (ndjson == null) ndjson = ndjsonLine(payload);
+                client.offer(ndjson.duplicate());
+            } else if (client.mode == MODE_WEBSOCKET) {
+                if (frame == null) frame = webSocketFrame(0x1, payload);
+                client.offer(frame.duplicate());
+            }
+        }
+        if (writesPending.compareAndSet(false, true)) {
+            Selector current = selector;
+            if (current != null) current.wakeup();
+        }
+    }
+
+    private String snapshot() {
+        return String.format(Locale.ROOT, "{\"type\":\"SNAPSHOT\",\"score\":%d,\"time\":%d,\"recording\":%b}",
+                lastScore, System.currentTimeMillis(), recording);
+    }
+
+    private void loop(ServerSocketChannel server) {
+        try {
+            while (running) {
+                selector.select();
+                if (writesPending.getAndSet(false)) {
+                    for (Client client : clients) {
+                        if (client.hasQueued()) enableWrite(client);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isAcceptable()) {
+                            accept(server);
+                        } else {
+                            Client client = (Client) key.attachment();
+                            if (key.isReadable()) read(client);
+                            if (key.isValid() && key.isWritable()) write(client);
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() != null) close((Client) key.attachment());
+                    } catch (RuntimeException e) {
+                        // 单个客户端的异常数据不能让 Selector 线程退出
+                        Log.w(TAG, "客户端数据异常，断开连接: " + e);
+                        if (key.attachment() != null) close((Client) key.attachment());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "实时推送异常退出: " + e.getMessage(), e);
+        } finally {
+            for (Client client : clients) {
+                close(client);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+            running = false;
+            Log.d(TAG, "实时推送已停止");
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+    }
+
+    private void read(Client client) throws IOException {
+        if (!client.in.hasRemaining()) {
+            throw new IOException("请求过大");
+        }
+        int read = client.channel.read(client.in);
+        if (read < 0) {
+            close(client);
+            return;
+        }
+        if (client.mode == MODE_HANDSHAKE) {
+            handleRequest(client);
+        } else if (client.mode == MODE_WEBSOCKET) {
+            handleFrames(client);
+        } else {
+            client.in.clear(); // NDJSON 客户端发来的数据忽略
+        }
+    }
+
+    // 解析 HTTP 请求头，决定是 NDJSON 还是 WebSocket
+    private void handleRequest(Client client) throws IOException {
+        String request = new String(client.in.array(), 0, client.in.position(), StandardCharsets.ISO_8859_1);
+        int headerEnd = request.indexOf("\r\n\r\n");
+        if (headerEnd < 0) return; // 请求头尚未收完
+        // 保留请求头之后已经收到的字节（客户端可能紧跟着发送了 WebSocket 帧）
+        client.in.flip();
+        client.in.position(headerEnd + 4);
+        client.in.compact();
+
+        String[] lines = request.substring(0, headerEnd).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        String path = requestLine.length > 1 ? requestLine[1] : "";
+        String webSocketKey = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                webSocketKey = lines[i].substring(colon + 1).trim();
+            }
+        }
+
+        byte[] snapshot = snapshot().getBytes(StandardCharsets.UTF_8);
+        if (!requestLine[0].equals("GET")) {
+            respondAndClose(client, "405 Method Not Allowed");
+        } else if (webSocketKey != null && (path.equals("/ws") || path.equals("/"))) {
+            String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + acceptKey(webSocketKey) + "\r\n\r\n";
+            client.offer(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+            client.offer(webSocketFrame(0x1, snapshot));
+            client.mode = MODE_WEBSOCKET;
+            enableWrite(client);
+            if (client.in.position() > 0) {
+                handleFrames(client);
+            }
+        } else if (path.equals("/events") || path.equals("/")) {
+            String response = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: application/x-ndjson; charset=utf-8\r\n"
+                    + "Cache-Control: no-cache\r\nAccess-Control-Allow-Origin: *\r\nConnection: close\r\n\r\n";
+            client.offer(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+            client.offer(ndjsonLine(snapshot));
+            client.mode = MODE_NDJSON;
+            client.in.clear(); // NDJSON 客户端发来的数据忽略
+            enableWrite(client);
+        } else {
+            respondAndClose(client, "404 Not Found");
+        }
+    }
+
+    // 处理客户端发来的 WebSocket 帧：只响应 close 和 ping，其余忽略
+    private void handleFrames(Client client) throws IOException {
+        ByteBuffer in = client.in;
+        in.flip();
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int opcode = in.get() & 0x0F;
+            int second = in.get() & 0xFF;
+            boolean masked = (second & 0x80) != 0;
+            long length = second & 0x7F;
+            if (length == 126) {
+                if (in.remaining() < 2) { in.position(start); break; }
+                length = in.getShort() & 0xFFFF;
+            } else if (length == 127) {
+                if (in.remaining() < 8) { in.position(start); break; }
+                length = in.getLong();
+            }
+            // 64 位长度的最高位必须为 0，负数视为非法帧
+            if (length < 0 || length > MAX_REQUEST_SIZE - 14) {
+                throw new IOException("帧过大");
+            }
+            int maskLength = masked ? 4 : 0;
+            if (in.remaining() < maskLength + length) { in.position(start); break; }
+
+            byte[] mask = new byte[4];
+            if (masked) in.get(mask);
+            byte[] payload = new byte[(int) length];
+            in.get(payload);
+            for (int i = 0; masked && i < payload.length; i++) {
+                payload[i] ^= mask[i % 4];
+            }
+
+            if (opcode == 0x8) {
+                client.offer(webSocketFrame(0x8, payload));
+                client.closeAfterFlush = true;
+                enableWrite(client);
+            } else if (opcode == 0x9) {
+                client.offer(webSocketFrame(0xA, payload));
+                enableWrite(client);
+            }
+        }
+        in.compact();
+    }
+
+    private void write(Client client) throws IOException {
+        while (true) {
+            if (client.current == null || !client.current.hasRemaining()) {
+                client.current = client.poll();
+            }
+            if (client.current == null) {
+                if (client.closeAfterFlush) {
+                    close(client);
+                } else {
+                    client.channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+                }
+                return;
+            }
+            client.channel.write(client.current);
+            if (client.current.hasRemaining()) {
+                return; // 发送缓冲区已满，等待下一次可写
+            }
+        }
+    }
+
+    private void enableWrite(Client client) {
+        SelectionKey key = client.channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void respondAndClose(Client client, String status) {
+        String response = "HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        client.offer(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)));
+        client.closeAfterFlush = true;
+        enableWrite(client);
+    }
+
+    private void close(Client client) {
+        clients.remove(client);
+        long dropped;
+        synchronized (client.queue) {
+            dropped = client.dropped;
+        }
+        if (dropped > 0) {
+            Log.d(TAG, "客户端断开，共丢弃 " + dropped + " 条消息");
+        }
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static ByteBuffer ndjsonLine(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(payload.length + 1);
+        buffer.put(payload).put((byte) '\n').flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    // 服务端发出的帧不加掩码
+    private static ByteBuffer webSocketFrame(int opcode, byte[] payload) {
+        int headerLength = payload.length < 126 ? 2 : payload.length < 65536 ? 4 : 10;
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength + payload.length);
+        buffer.put((byte) (0x80 | opcode));
+        if (payload.length < 126) {
+            buffer.put((byte) payload.length);
+        } else if (payload.length < 65536) {
+            buffer.put((byte) 126).putShort((short) payload.length);
+        } else {
+            buffer.put((byte) 127).putLong(payload.length);
+        }
+        buffer.put(payload).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -5,29 +5,49 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.media.AudioManager;
+import android.media.ToneGenerator;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.SystemClock;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+import android.os.VibratorManager;
 import android.provider.MediaStore;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.Window;
+import android.view.WindowManager;
+import android.text.InputType;
+import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.RadioButton;
+import android.widget.RadioGroup;
+import android.widget.ScrollView;
+import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.button.MaterialButton;
@@ -39,53 +59,129 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class MainActivity extends AppCompatActivity implements
         FileManagerAdapter.RemarkCallback,
-        FileManagerAdapter.FileActionCallback {
+        FileManagerAdapter.FileActionCallback,
+        FileManagerAdapter.SummaryCallback {
     private static final String TAG = "MainActivity";
     private static final int PERMISSION_REQUEST_STORAGE = 100;
     private static final int REQUEST_MANAGE_ALL_FILES = 101;
+    private static final int REQUEST_IMPORT_CSV = 102;
+    private static final int PERMISSION_REQUEST_NOTIFICATIONS = 103;
+    private static final long BACKGROUND_SAVE_DELAY_MS = 5000; // 后台时合并保存分数
     private static final String PREFS_NAME = "ScoreCounterPrefs";
     private static final String KEY_SCORE = "currentScore";
+    private static final String KEY_SEGMENT_MAX_EVENTS = "segmentMaxEvents";
+    private static final String KEY_SEGMENT_MAX_MINUTES = "segmentMaxMinutes";
+    private static final String KEY_BUCKET_MS = "recordBucketMs"; // 聚合精度，0 为逐条记录
+    private static final String KEY_RULES = "alertRules";
+    private static final String KEY_TAGS = "pressTags";
+    private static final String KEY_DEBOUNCE_MS = "debounceMs";
+    private static final String KEY_DEBOUNCE_AUTO = "debounceAuto"; // 结束记录时自动应用建议的防抖时间
+    private static final String KEY_EVENT_STORE = "eventStoreEnabled"; // 同时写入事件数据库
+    private static final String KEY_LIVE_SERVER_ENABLED = "liveServerEnabled";
+    private static final String KEY_LIVE_SERVER_LAN = "liveServerLan";
+    private static final String KEY_LIVE_SERVER_PORT = "liveServerPort";
     private static final String REMARK_PREFIX = "#REMARK:"; // 备注前缀
     private static final String ACTION_EDIT = "edit";
     private static final String ACTION_SHARE = "share";
     private static final String ACTION_DELETE = "delete";
+    private static final String ACTION_CHART = "chart";
+    private static final String ACTION_RANGE = "range";
+    private static final String ACTION_PLAY = "play";
+    private static final String ACTION_COMPARE = "compare";
 
     // UI组件
     private TextView scoreTextView, timerTextView;
+    private ScoreChartView scoreChartView;
     private MaterialButton startButton, endButton, fileManagerButton;
     private MaterialButton increaseBtn, decreaseBtn, resetBtn, remarkButton;
+    private MaterialButton undoBtn, redoBtn;
 
-    // 数据记录
+    // 数据记录：进行中的会话保存在 RecordingSession 中，Activity 重建后仍是同一个对象
+    private RecordingSession session;
     private int currentScore = 0;
-    private long startTime = 0;         // 记录开始时间（绝对时间）
-    private long relativeStartTime = 0; // 记录开始时的相对时间基准
-    private boolean isRecording = false;
-    private List<KeyPressRecord> keyPressRecords = new ArrayList<>();
     private Handler handler = new Handler();
     private boolean isDebouncing = false;
+    private int debounceMs = DebounceCalibrator.DEFAULT_WINDOW_MS;
+    private DebounceCalibrator debounceCalibrator;
+    private boolean isInForeground = false; // 不可见时（如熄屏）停止计时器刷新，分数合并保存
+    private boolean saveStatePending = false;
+
+    // 按键标签：数字键 1-9 或长按加减分按钮选择，标记下一次加减分
+    private TagDictionary tagDictionary = TagDictionary.EMPTY; // 设置中的标签
+
+    // 会话回放，回放期间主计分显示回放的分数，音量键不计分
+    private SessionPlayer sessionPlayer;
+    private int playbackScore = Integer.MIN_VALUE;
+    private long playbackSecond = -1;
+    private CharSequence timerTextBeforePlayback;
+
+    // 后台 I/O 的取消范围：Activity 销毁时取消；文件管理对话框另有自己的范围，关闭时取消
+    private IoExecutor.Scope activityScope;
+    private IoExecutor.Scope fileManagerScope;
+    private AlertDialog bulkExportDialog; // 批量导出的进度对话框，没有进行中的导出时为 null
+
+    // 分数提醒规则（震动/提示音），触发记录写入会话
+    private RuleEngine ruleEngine = RuleEngine.EMPTY;
+    private final RuleEngine.Listener ruleListener = this::onRuleFired; // 复用同一个实例，按键时不分配对象
+    private Vibrator vibrator;
+    private ToneGenerator toneGenerator;
 
     // 文件管理
     private FileManagerAdapter fileManagerAdapter;
     private RecyclerView fileRecyclerView;
-    private String currentRemark = ""; // 当前备注
-    private Map<Uri, String> remarkCache = new HashMap<>(); // 备注缓存
+    private final Map<String, Integer> integrityResults = new ConcurrentHashMap<>(); // 校验结果，见 integrityKey
+    private final Map<String, SessionSummary> summaryCache = new ConcurrentHashMap<>(); // 键同 integrityKey
+    private final Map<String, Set<String>> tagsCache = new ConcurrentHashMap<>(); // 会话用到的标签，键同 integrityKey
+    private List<FileInfo> loadedFiles = Collections.emptyList(); // 筛选前的文件列表
+    private String tagFilter; // 文件管理中筛选的标签，null 表示全部
+    private int fileListGeneration; // 每次刷新文件列表加一，丢弃过时的结果
+    private final Map<Uri, String> remarkCache = new ConcurrentHashMap<>(); // 备注缓存，在 I/O 线程中读写
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        session = new ViewModelProvider(this).get(RecordingSession.class);
+        session.attachTail(getFilesDir());
+        activityScope = new IoExecutor.Scope().bindTo(this);
+        fileManagerScope = new IoExecutor.Scope().bindTo(this);
+
+        // 熄屏时由前台服务转发音量键，走与界面按键相同的流程
+        CounterService.setListener(direction -> {
+            if (direction > 0) {
+                safeIncreaseScore();
+            } else {
+                safeDecreaseScore();
+            }
+        });
 
         // 检查存储权限
         checkStoragePermission();
@@ -96,10 +192,90 @@ public class MainActivity extends AppCompatActivity implements
         // 初始化组件
         initViews();
 
+        // 配置变更前开始的批量导出仍在进行
+        if (session.bulkExport != null) {
+            showBulkExportProgress(session.bulkExport);
+        }
+
+        // 定期归档旧会话
+        ArchiveJobService.schedule(this);
+
         // 恢复分数
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         currentScore = prefs.getInt(KEY_SCORE, 0);
         updateScoreDisplay();
+        loadRules(prefs.getString(KEY_RULES, ""));
+        loadTags(prefs.getString(KEY_TAGS, ""));
+        debounceMs = prefs.getInt(KEY_DEBOUNCE_MS, DebounceCalibrator.DEFAULT_WINDOW_MS);
+        debounceCalibrator = new DebounceCalibrator(getFilesDir());
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_PREFETCH, () -> {
+            debounceCalibrator.load();
+            return null;
+        }, null, null);
+
+        // 配置变更后服务器仍在运行，已连接的客户端不断开
+        if (prefs.getBoolean(KEY_LIVE_SERVER_ENABLED, false) && session.liveEventServer == null) {
+            startLiveServer(prefs);
+        }
+
+        // 配置变更后 session 仍在记录；进程被回收后从快照和尾部文件恢复
+        if (savedInstanceState != null && session.restoreFrom(savedInstanceState)) {
+            onRecordingRestoredAfterProcessDeath();
+        }
+        if (session.isRecording) {
+            resumeRecordingUi();
+        }
+        updateRemarkButtonState();
+    }
+
+    // 重建界面后继续显示进行中的记录；图表只重绘内存中的当前分段
+    private void resumeRecordingUi() {
+        startButton.setEnabled(false);
+        endButton.setEnabled(true);
+        updateUndoButtons();
+        updateTimerDisplay((SystemClock.elapsedRealtime() - session.relativeStartTime) / 1000);
+        final List<KeyPressRecord> records = session.keyPressRecords;
+        scoreChartView.post(() -> { // 视图有尺寸之后才能绘制
+            for (int i = 0, size = records.size(); i < size; i++) {
+                KeyPressRecord record = records.get(i);
+                scoreChartView.appendLive(record.relativeTime, record.score);
+            }
+        });
+    }
+
+    private void onRecordingRestoredAfterProcessDeath() {
+        Log.d(TAG, "恢复进程回收前的记录: 当前分段事件数=" + session.keyPressRecords.size());
+        CounterService.start(this, currentScore);
+        // 快照之后才创建的分段清单按名称找回，避免重复创建
+        final SessionSegmenter segmenter = session.segmenter;
+        if (segmenter != null && segmenter.hasSegments() && session.segmentManifestUri == null) {
+            session.segmentFlushExecutor.execute(() ->
+                    session.segmentManifestUri = findScoreFile(segmenter.getManifestName()));
+        }
+        Toast.makeText(this, "已恢复进行中的记录", Toast.LENGTH_SHORT).show();
+    }
+
+    // 按文件名查找 ScoreRecords 目录中的文件，找不到时返回 null
+    private Uri findScoreFile(String displayName) {
+        String[] projection = {MediaStore.Files.FileColumns._ID};
+        String selection = MediaStore.Files.FileColumns.DISPLAY_NAME + " = ? AND "
+                + MediaStore.Files.FileColumns.RELATIVE_PATH + " LIKE ?";
+        String[] selectionArgs = {displayName, "%/ScoreRecords%"};
+        Uri collection = MediaStore.Files.getContentUri("external");
+        try (Cursor cursor = getContentResolver().query(collection, projection, selection, selectionArgs, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return ContentUris.withAppendedId(collection, cursor.getLong(0));
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "查找文件失败: " + e.getMessage());
+        }
+        return null;
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        session.saveTo(outState);
     }
 
     private void requestLegacyStoragePermission() {
@@ -217,6 +393,7 @@ public class MainActivity extends AppCompatActivity implements
     private void initViews() {
         scoreTextView = findViewById(R.id.score_text);
         timerTextView = findViewById(R.id.timer_text);
+        scoreChartView = findViewById(R.id.score_chart);
         startButton = findViewById(R.id.start_button);
         endButton = findViewById(R.id.end_button);
         fileManagerButton = findViewById(R.id.file_manager_button);
@@ -224,21 +401,66 @@ public class MainActivity extends AppCompatActivity implements
         decreaseBtn = findViewById(R.id.decrease_btn);
         resetBtn = findViewById(R.id.reset_btn);
         remarkButton = findViewById(R.id.remark_button);
+        undoBtn = findViewById(R.id.undo_btn);
+        redoBtn = findViewById(R.id.redo_btn);
 
         // 设置按钮监听器
         startButton.setOnClickListener(v -> startRecording());
+        startButton.setOnLongClickListener(v -> {
+            showSegmentSettingsDialog();
+            return true;
+        });
         endButton.setOnClickListener(v -> endRecording());
         fileManagerButton.setOnClickListener(v -> showFileManager());
+        fileManagerButton.setOnLongClickListener(v -> {
+            showArchiveSettingsDialog();
+            return true;
+        });
+        scoreTextView.setOnLongClickListener(v -> {
+            showLiveServerDialog();
+            return true;
+        });
+        timerTextView.setOnLongClickListener(v -> {
+            showRulesDialog();
+            return true;
+        });
         increaseBtn.setOnClickListener(v -> safeIncreaseScore());
+        increaseBtn.setOnLongClickListener(v -> {
+            showTagPicker(true);
+            return true;
+        });
         decreaseBtn.setOnClickListener(v -> safeDecreaseScore());
+        decreaseBtn.setOnLongClickListener(v -> {
+            showTagPicker(false);
+            return true;
+        });
         resetBtn.setOnClickListener(v -> resetScore());
+        resetBtn.setOnLongClickListener(v -> {
+            showDebounceDialog();
+            return true;
+        });
         remarkButton.setOnClickListener(v -> showRemarkDialog());
+        remarkButton.setOnLongClickListener(v -> {
+            showTagsDialog();
+            return true;
+        });
+        undoBtn.setOnClickListener(v -> undoScore());
+        redoBtn.setOnClickListener(v -> redoScore());
+        updateUndoButtons();
 
         // 设置按键监听器
         View rootView = findViewById(android.R.id.content);
         rootView.setFocusableInTouchMode(true);
         rootView.requestFocus();
         rootView.setOnKeyListener((v, keyCode, event) -> {
+            if (sessionPlayer != null) {
+                return keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN;
+            }
+            // 防抖判断之前统计原始按键间隔（包括将被拦下的抖动），长按的重复事件不计
+            if (event.getAction() == KeyEvent.ACTION_DOWN && event.getRepeatCount() == 0
+                    && (keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN)) {
+                debounceCalibrator.onKeyDown(keyCode, event.getEventTime());
+            }
             if (event.getAction() == KeyEvent.ACTION_DOWN && !isDebouncing) {
                 switch (keyCode) {
                     case KeyEvent.KEYCODE_VOLUME_UP:
@@ -248,6 +470,13 @@ public class MainActivity extends AppCompatActivity implements
                         safeDecreaseScore();
                         return true;
                 }
+                // 数字键：为下一次按键选择标签
+                if (keyCode >= KeyEvent.KEYCODE_1 && keyCode <= KeyEvent.KEYCODE_9) {
+                    return armTag(keyCode - KeyEvent.KEYCODE_0);
+                }
+                if (keyCode >= KeyEvent.KEYCODE_NUMPAD_1 && keyCode <= KeyEvent.KEYCODE_NUMPAD_9) {
+                    return armTag(keyCode - KeyEvent.KEYCODE_NUMPAD_0);
+                }
             }
             return false;
         });
@@ -263,14 +492,14 @@ public class MainActivity extends AppCompatActivity implements
         // 创建输入框并设置当前备注
         final EditText remarkEditText = new EditText(this);
         remarkEditText.setHint("请输入本次记录的备注信息");
-        remarkEditText.setText(currentRemark);
-        remarkEditText.setSelection(currentRemark.length()); // 光标放在文本末尾
+        remarkEditText.setText(session.currentRemark);
+        remarkEditText.setSelection(session.currentRemark.length()); // 光标放在文本末尾
 
         builder.setView(remarkEditText);
 
         // 设置按钮
         builder.setPositiveButton("确定", (dialog, which) -> {
-            currentRemark = remarkEditText.getText().toString().trim();
+            session.currentRemark = remarkEditText.getText().toString().trim();
             updateRemarkButtonState();
             Toast.makeText(this, "备注已更新", Toast.LENGTH_SHORT).show();
         });
@@ -281,15 +510,508 @@ public class MainActivity extends AppCompatActivity implements
         builder.show();
     }
 
+    // 长按开始按钮：设置自动分段的事件数/分钟上限（0 表示不限制）
+    private void showSegmentSettingsDialog() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+
+        final EditText eventsEditText = new EditText(this);
+        eventsEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        eventsEditText.setHint("每段最多事件数");
+        eventsEditText.setText(String.valueOf(prefs.getInt(KEY_SEGMENT_MAX_EVENTS, SessionSegmenter.DEFAULT_MAX_EVENTS)));
+        layout.addView(eventsEditText);
+
+        final EditText minutesEditText = new EditText(this);
+        minutesEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        minutesEditText.setHint("每段最长分钟数");
+        minutesEditText.setText(String.valueOf(prefs.getInt(KEY_SEGMENT_MAX_MINUTES, SessionSegmenter.DEFAULT_MAX_MINUTES)));
+        layout.addView(minutesEditText);
+
+        // 记录精度：逐条，或按时间桶聚合加减分（适合超长记录）
+        final int[] bucketOptions = {0, AggregatedRecordList.BUCKET_SIZES_MS[0],
+                AggregatedRecordList.BUCKET_SIZES_MS[1], AggregatedRecordList.BUCKET_SIZES_MS[2]};
+        final String[] bucketLabels = {"逐条记录", "每 100 毫秒汇总", "每秒汇总", "每 10 秒汇总"};
+        final RadioGroup bucketGroup = new RadioGroup(this);
+        int currentBucket = prefs.getInt(KEY_BUCKET_MS, 0);
+        for (int i = 0; i < bucketOptions.length; i++) {
+            RadioButton option = new RadioButton(this);
+            option.setId(View.generateViewId());
+            option.setText(bucketLabels[i]);
+            option.setTag(bucketOptions[i]);
+            bucketGroup.addView(option);
+            if (bucketOptions[i] == currentBucket) {
+                bucketGroup.check(option.getId());
+            }
+        }
+        layout.addView(bucketGroup);
+
+        // 事件同时写入应用内数据库，摘要和时间段查询不再扫描文件（汇总模式下不写入）
+        final CheckBox storeCheckBox = new CheckBox(this);
+        storeCheckBox.setText("同时写入事件数据库");
+        storeCheckBox.setChecked(prefs.getBoolean(KEY_EVENT_STORE, false));
+        layout.addView(storeCheckBox);
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("自动分段设置")
+                .setMessage("达到任一上限后自动切换到新分段，0 表示不限制。汇总模式下加减分按时间段合并为一行，开始/重置/结束仍逐条记录")
+                .setView(layout)
+                .setPositiveButton("确定", (dialog, which) -> {
+                    try {
+                        View checked = bucketGroup.findViewById(bucketGroup.getCheckedRadioButtonId());
+                        prefs.edit()
+                                .putInt(KEY_SEGMENT_MAX_EVENTS, Integer.parseInt(eventsEditText.getText().toString().trim()))
+                                .putInt(KEY_SEGMENT_MAX_MINUTES, Integer.parseInt(minutesEditText.getText().toString().trim()))
+                                .putInt(KEY_BUCKET_MS, checked != null ? (int) checked.getTag() : 0)
+                                .putBoolean(KEY_EVENT_STORE, storeCheckBox.isChecked())
+                                .apply();
+                        Toast.makeText(this, "分段设置已保存，下次开始记录时生效", Toast.LENGTH_SHORT).show();
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(this, "请输入有效的数字", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNegativeButton("取消", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    // 长按文件管理按钮：设置归档天数和保留天数，并可立即执行一次
+    private void showArchiveSettingsDialog() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+
+        final EditText archiveEditText = new EditText(this);
+        archiveEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        archiveEditText.setHint("超过多少天的记录归档");
+        archiveEditText.setText(String.valueOf(prefs.getInt(SessionArchiver.KEY_ARCHIVE_AFTER_DAYS,
+                SessionArchiver.DEFAULT_ARCHIVE_AFTER_DAYS)));
+        layout.addView(archiveEditText);
+
+        final EditText retentionEditText = new EditText(this);
+        retentionEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        retentionEditText.setHint("记录保留天数");
+        retentionEditText.setText(String.valueOf(prefs.getInt(SessionArchiver.KEY_RETENTION_DAYS,
+                SessionArchiver.DEFAULT_RETENTION_DAYS)));
+        layout.addView(retentionEditText);
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("归档与保留")
+                .setMessage("旧记录按月压缩归档，超过保留天数的记录将被删除，0 表示不归档/永久保留")
+                .setView(layout)
+                .setPositiveButton("保存", (dialog, which) -> {
+                    try {
+                        prefs.edit()
+                                .putInt(SessionArchiver.KEY_ARCHIVE_AFTER_DAYS,
+                                        Integer.parseInt(archiveEditText.getText().toString().trim()))
+                                .putInt(SessionArchiver.KEY_RETENTION_DAYS,
+                                        Integer.parseInt(retentionEditText.getText().toString().trim()))
+                                .apply();
+                        Toast.makeText(this, "归档设置已保存", Toast.LENGTH_SHORT).show();
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(this, "请输入有效的数字", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNeutralButton("立即归档", (dialog, which) -> runArchiveNow())
+                .setNegativeButton("取消", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    // 长按计时：编辑提醒规则
+    private void showRulesDialog() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
+        final EditText rulesEditText = new EditText(this);
+        rulesEditText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+        rulesEditText.setMinLines(3);
+        rulesEditText.setHint("every 50 vibrate\nat 100 sound\nrate 30/10 both");
+        rulesEditText.setText(prefs.getString(KEY_RULES, ""));
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("提醒规则")
+                .setMessage("每行一条：every N（每 N 分）、at N（达到 N 分）、rate 次数/秒数（按键过快），"
+                        + "提醒方式为 vibrate、sound 或 both。记录中触发的提醒会写入记录文件")
+                .setView(rulesEditText)
+                .setPositiveButton("保存", (dialog, which) -> {
+                    String text = rulesEditText.getText().toString();
+                    try {
+                        RuleEngine compiled = RuleEngine.compile(text);
+                        ruleEngine = compiled;
+                        prefs.edit().putString(KEY_RULES, text).apply();
+                        Toast.makeText(this, "已保存 " + compiled.size() + " 条规则", Toast.LENGTH_SHORT).show();
+                    } catch (IllegalArgumentException e) {
+                        Toast.makeText(this, "规则有误，" + e.getMessage(), Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNegativeButton("取消", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    // 长按备注按钮：编辑按键标签，每行一个
+    private void showTagsDialog() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
+        final EditText tagsEditText = new EditText(this);
+        tagsEditText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+        tagsEditText.setMinLines(3);
+        tagsEditText.setHint("犯规\n加分\n2号道");
+        tagsEditText.setText(prefs.getString(KEY_TAGS, ""));
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("按键标签")
+                .setMessage("每行一个标签。记录中按数字键 1-9 或长按加减分按钮选择标签，"
+                        + "标记下一次加减分。修改在下次开始记录时生效")
+                .setView(tagsEditText)
+                .setPositiveButton("保存", (dialog, which) -> {
+                    String text = tagsEditText.getText().toString();
+                    try {
+                        TagDictionary compiled = TagDictionary.compile(text);
+                        tagDictionary = compiled;
+                        prefs.edit().putString(KEY_TAGS, text).apply();
+                        Toast.makeText(this, "已保存 " + compiled.size() + " 个标签", Toast.LENGTH_SHORT).show();
+                    } catch (IllegalArgumentException e) {
+                        Toast.makeText(this, "标签有误，" + e.getMessage(), Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNegativeButton("取消", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private void loadTags(String text) {
+        try {
+            tagDictionary = TagDictionary.compile(text);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "按键标签无效，已忽略: " + e.getMessage());
+            tagDictionary = TagDictionary.EMPTY;
+        }
+    }
+
+    // 长按加减分按钮：选择标签后立即加/减分
+    private void showTagPicker(boolean increase) {
+        if (!session.isRecording || session.sessionTags.isEmpty()) {
+            Toast.makeText(this, session.isRecording ? "没有设置标签（长按备注按钮设置）" : "开始记录后才能添加标签",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] labels = new String[session.sessionTags.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = session.sessionTags.getLabel(i + 1);
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(increase ? "加分并标记" : "减分并标记")
+                .setItems(labels, (dialog, which) -> {
+                    session.pendingTag = which + 1;
+                    if (increase) {
+                        safeIncreaseScore();
+                    } else {
+                        safeDecreaseScore();
+                    }
+                    session.pendingTag = 0; // 防抖中未计分时不保留
+                })
+                .show();
+    }
+
+    // 数字键选择的标签用于下一次加减分，再按同一个数字键取消
+    private boolean armTag(int code) {
+        if (!session.isRecording || code > session.sessionTags.size()) {
+            return false;
+        }
+        session.pendingTag = session.pendingTag == code ? 0 : code;
+        Toast.makeText(this, session.pendingTag != 0 ? "下一次按键标记为: " + session.sessionTags.getLabel(code) : "已取消标签",
+                Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
+    // 长按重置按钮：查看按键间隔统计，应用建议的防抖时间，或扫描已保存会话中的疑似重复计数
+    private void showDebounceDialog() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        int proposal = debounceCalibrator.propose();
+
+        final CheckBox autoCheckBox = new CheckBox(this);
+        autoCheckBox.setText("结束记录时自动应用建议值");
+        autoCheckBox.setChecked(prefs.getBoolean(KEY_DEBOUNCE_AUTO, false));
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        LinearLayout layout = new LinearLayout(this);
+        layout.setPadding(padding, 0, padding, 0);
+        layout.addView(autoCheckBox);
+
+        String message = "当前防抖时间: " + debounceMs + " 毫秒\n已统计按键间隔: "
+                + debounceCalibrator.getSampleCount() + " 个\n"
+                + (proposal > 0 ? "建议防抖时间: " + proposal + " 毫秒" : "样本不足，暂无建议（继续使用或扫描已保存会话）");
+        MaterialAlertDialogBuilder builder = new MaterialAlertDialogBuilder(this)
+                .setTitle("按键防抖")
+                .setMessage(message)
+                .setView(layout)
+                .setNeutralButton("扫描已保存会话", (dialog, which) -> {
+                    prefs.edit().putBoolean(KEY_DEBOUNCE_AUTO, autoCheckBox.isChecked()).apply();
+                    scanDebounceSessions();
+                })
+                .setNegativeButton("关闭", (dialog, which) ->
+                        prefs.edit().putBoolean(KEY_DEBOUNCE_AUTO, autoCheckBox.isChecked()).apply());
+        if (proposal > 0) {
+            builder.setPositiveButton("应用建议值", (dialog, which) -> {
+                prefs.edit().putBoolean(KEY_DEBOUNCE_AUTO, autoCheckBox.isChecked()).apply();
+                applyDebounce(proposal);
+            });
+        }
+        builder.show();
+    }
+
+    private void applyDebounce(int windowMs) {
+        debounceMs = windowMs;
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putInt(KEY_DEBOUNCE_MS, windowMs).apply();
+        Toast.makeText(this, "防抖时间已设为 " + windowMs + " 毫秒", Toast.LENGTH_SHORT).show();
+    }
+
+    // 后台只统计新增的会话，然后按当前防抖时间列出疑似重复计数
+    private void scanDebounceSessions() {
+        Toast.makeText(this, "正在统计已保存会话", Toast.LENGTH_SHORT).show();
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_NORMAL,
+                () -> {
+                    int scanned = debounceCalibrator.scanSavedSessions(getContentResolver());
+                    debounceCalibrator.save();
+                    return scanned;
+                },
+                scanned -> {
+                    List<DebounceCalibrator.Suspect> suspects = debounceCalibrator.findSuspects(debounceMs);
+                    StringBuilder content = new StringBuilder("新统计 " + scanned + " 个会话。");
+                    if (suspects.isEmpty()) {
+                        content.append("没有间隔短于 ").append(debounceMs).append(" 毫秒的同方向连按");
+                    } else {
+                        content.append("以下会话有间隔短于 ").append(debounceMs)
+                                .append(" 毫秒的同方向连按，可能是重复计数：\n");
+                        for (int i = 0; i < Math.min(20, suspects.size()); i++) {
+                            DebounceCalibrator.Suspect suspect = suspects.get(i);
+                            content.append('\n').append(suspect.name).append(": ").append(suspect.count).append(" 处");
+                        }
+                        if (suspects.size() > 20) {
+                            content.append("\n……共 ").append(suspects.size()).append(" 个会话");
+                        }
+                    }
+                    new MaterialAlertDialogBuilder(this)
+                            .setTitle("疑似重复计数")
+                            .setMessage(content.toString())
+                            .setPositiveButton("确定", null)
+                            .show();
+                },
+                e -> Toast.makeText(this, "统计失败: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+    }
+
+    // 结束记录后：保存直方图；开启自动校准时应用新的建议值
+    private void updateDebounceCalibration() {
+        if (getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getBoolean(KEY_DEBOUNCE_AUTO, false)) {
+            int proposal = debounceCalibrator.propose();
+            if (proposal > 0 && proposal != debounceMs) {
+                applyDebounce(proposal);
+            }
+        }
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_PREFETCH, () -> {
+            debounceCalibrator.save();
+            return null;
+        }, null, null);
+    }
+
+    private void loadRules(String text) {
+        try {
+            ruleEngine = RuleEngine.compile(text);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "提醒规则无效，已忽略: " + e.getMessage());
+            ruleEngine = RuleEngine.EMPTY;
+        }
+    }
+
+    // 规则触发：震动/提示音；记录中时写入一行 RULE_FIRED，时间列之后为规则原文
+    private void onRuleFired(int rule, int effects) {
+        if ((effects & RuleEngine.EFFECT_VIBRATE) != 0) {
+            if (vibrator == null) {
+                vibrator = getSystemService(VibratorManager.class).getDefaultVibrator();
+            }
+            vibrator.vibrate(VibrationEffect.createPredefined(VibrationEffect.EFFECT_HEAVY_CLICK));
+        }
+        if ((effects & RuleEngine.EFFECT_SOUND) != 0) {
+            if (toneGenerator == null) {
+                toneGenerator = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, 80);
+            }
+            toneGenerator.startTone(ToneGenerator.TONE_PROP_BEEP, 150);
+        }
+        long relativeTime = -1;
+        if (session.isRecording) {
+            relativeTime = SystemClock.elapsedRealtime() - session.relativeStartTime;
+            KeyPressRecord record = new KeyPressRecord(relativeTime, currentScore, RuleEngine.ACTION);
+            record.note = ruleEngine.getSource(rule);
+            addRecord(record);
+        }
+        publishLiveEvent(RuleEngine.ACTION, relativeTime);
+        Log.d(TAG, "提醒规则触发: " + ruleEngine.getSource(rule) + ", 分数=" + currentScore);
+    }
+
+    // 长按分数：开关实时推送服务，并显示连接地址
+    private void showLiveServerDialog() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+
+        final EditText portEditText = new EditText(this);
+        portEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        portEditText.setHint("端口");
+        portEditText.setText(String.valueOf(prefs.getInt(KEY_LIVE_SERVER_PORT, LiveEventServer.DEFAULT_PORT)));
+        layout.addView(portEditText);
+
+        final CheckBox lanCheckBox = new CheckBox(this);
+        lanCheckBox.setText("允许局域网访问");
+        lanCheckBox.setChecked(prefs.getBoolean(KEY_LIVE_SERVER_LAN, false));
+        layout.addView(lanCheckBox);
+
+        boolean running = session.liveEventServer != null && session.liveEventServer.isRunning();
+        String message;
+        if (running) {
+            String host = prefs.getBoolean(KEY_LIVE_SERVER_LAN, false) ? getLanAddress() : "127.0.0.1";
+            int port = prefs.getInt(KEY_LIVE_SERVER_PORT, LiveEventServer.DEFAULT_PORT);
+            message = "运行中，已连接 " + session.liveEventServer.getClientCount() + " 个客户端\n"
+                    + "NDJSON: http://" + host + ":" + port + "/events\n"
+                    + "WebSocket: ws://" + host + ":" + port + "/ws";
+        } else {
+            message = "开启后每个事件都会实时推送给连接的客户端（如外部计分板）";
+        }
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("实时推送")
+                .setMessage(message)
+                .setView(layout)
+                .setPositiveButton(running ? "重新启动" : "开启", (dialog, which) -> {
+                    int port;
+                    try {
+                        port = Integer.parseInt(portEditText.getText().toString().trim());
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(this, "请输入有效的端口", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    if (port < 1024 || port > 65535) {
+                        Toast.makeText(this, "端口范围为 1024-65535", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    prefs.edit()
+                            .putBoolean(KEY_LIVE_SERVER_ENABLED, true)
+                            .putBoolean(KEY_LIVE_SERVER_LAN, lanCheckBox.isChecked())
+                            .putInt(KEY_LIVE_SERVER_PORT, port)
+                            .apply();
+                    stopLiveServer();
+                    if (startLiveServer(prefs)) {
+                        Toast.makeText(this, "实时推送已开启", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNeutralButton("关闭", (dialog, which) -> {
+                    prefs.edit().putBoolean(KEY_LIVE_SERVER_ENABLED, false).apply();
+                    stopLiveServer();
+                    Toast.makeText(this, "实时推送已关闭", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    private boolean startLiveServer(SharedPreferences prefs) {
+        LiveEventServer server = new LiveEventServer(
+                prefs.getInt(KEY_LIVE_SERVER_PORT, LiveEventServer.DEFAULT_PORT),
+                prefs.getBoolean(KEY_LIVE_SERVER_LAN, false));
+        try {
+            server.start();
+        } catch (IOException e) {
+            Log.e(TAG, "实时推送启动失败: " + e.getMessage(), e);
+            Toast.makeText(this, "实时推送启动失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        session.liveEventServer = server;
+        publishLiveEvent("SNAPSHOT", -1); // 仅更新新连接收到的初始状态
+        return true;
+    }
+
+    private void stopLiveServer() {
+        if (session.liveEventServer != null) {
+            session.liveEventServer.stop();
+            session.liveEventServer = null;
+        }
+    }
+
+    // 推送一个事件；relativeTime 为记录中的相对时间，未记录时为 -1
+    private void publishLiveEvent(String type, long relativeTime) {
+        if (session.liveEventServer != null) {
+            session.liveEventServer.publish(type, currentScore, relativeTime, session.isRecording);
+        }
+    }
+
+    // 第一个局域网 IPv4 地址，用于显示连接地址
+    private String getLanAddress() {
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    if (address instanceof Inet4Address && address.isSiteLocalAddress()) {
+                        return address.getHostAddress();
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            Log.w(TAG, "获取局域网地址失败: " + e.getMessage());
+        }
+        return "<本机IP>";
+    }
+
+    private void runArchiveNow() {
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_USER,
+                () -> SessionArchiver.run(getApplicationContext()),
+                result -> Toast.makeText(this, "已归档 " + result.archived + " 个，删除 "
+                        + result.deleted + " 个", Toast.LENGTH_SHORT).show(),
+                e -> {
+                    Log.e(TAG, "归档失败: " + e.getMessage(), e);
+                    Toast.makeText(this, "归档失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                });
+    }
+
     @Override
     public String getRemarkForFile(Uri fileUri) {
         return extractRemarkFromFile(fileUri);
     }
 
+    // 只读取文件首尾，结果按文件名和修改时间缓存
+    @Override
+    public SessionSummary getSummaryForFile(FileInfo fileInfo) {
+        String key = integrityKey(fileInfo);
+        SessionSummary summary = summaryCache.get(key);
+        if (summary != null) {
+            return summary;
+        }
+        EventStore store = fileInfo.isArchived() ? null : EventStore.getIfExists(this);
+        if (store != null) {
+            summary = store.findSummary(fileInfo.getUri());
+            if (summary != null) {
+                summaryCache.put(key, summary);
+                return summary;
+            }
+        }
+        try {
+            summary = SessionSummary.read(getContentResolver(), fileInfo);
+        } catch (IOException e) {
+            Log.w(TAG, "读取会话摘要失败: " + fileInfo.getName() + ", " + e.getMessage());
+            return null;
+        }
+        if (summary != null) {
+            summaryCache.put(key, summary);
+        }
+        return summary;
+    }
+
     private String extractRemarkFromFile(Uri uri) {
         // 先检查缓存
-        if (remarkCache.containsKey(uri)) {
-            return remarkCache.get(uri);
+        String cached = remarkCache.get(uri);
+        if (cached != null) {
+            return cached;
         }
 
         // 读取文件
@@ -312,7 +1034,7 @@ public class MainActivity extends AppCompatActivity implements
 
     private void updateRemarkButtonState() {
         if (remarkButton != null) {
-            if (!currentRemark.isEmpty()) {
+            if (!session.currentRemark.isEmpty()) {
                 remarkButton.setText("已添加备注");
                 // 假设存在编辑图标资源
                 remarkButton.setIconResource(R.drawable.baseline_edit_note_24);
@@ -325,18 +1047,36 @@ public class MainActivity extends AppCompatActivity implements
     }
 
     private void startRecording() {
-        if (!isRecording) {
-            if (currentRemark.isEmpty()) {
+        if (!session.isRecording) {
+            requestNotificationPermissionIfNeeded();
+            if (session.currentRemark.isEmpty()) {
                 // 提示用户没有备注
                 Toast.makeText(this, "没有设置备注，记录将不包含说明信息", Toast.LENGTH_SHORT).show();
             }
 
             // 记录开始时间（绝对时间）
-            startTime = System.currentTimeMillis();
+            session.startTime = System.currentTimeMillis();
             // 记录开始时的相对时间基准（从0开始）
-            relativeStartTime = SystemClock.elapsedRealtime();
-
-            isRecording = true;
+            session.relativeStartTime = SystemClock.elapsedRealtime();
+
+            // 初始化分段策略
+            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.CHINA);
+            session.segmenter = new SessionSegmenter("score_records_" + sdf.format(new Date(session.startTime)),
+                    prefs.getInt(KEY_SEGMENT_MAX_EVENTS, SessionSegmenter.DEFAULT_MAX_EVENTS),
+                    prefs.getInt(KEY_SEGMENT_MAX_MINUTES, SessionSegmenter.DEFAULT_MAX_MINUTES));
+            session.segmentFlushExecutor.execute(() -> session.segmentManifestUri = null);
+            int bucketMs = prefs.getInt(KEY_BUCKET_MS, 0);
+            session.keyPressRecords = bucketMs > 0 ? new AggregatedRecordList(bucketMs) : new ArrayList<>();
+            session.tail.reset(0, 0);
+            // 汇总模式下加减分合并为时间桶，不记录标签
+            session.sessionTags = bucketMs == 0 ? tagDictionary : TagDictionary.EMPTY;
+            session.pendingTag = 0;
+            session.storeWriter = bucketMs == 0 && prefs.getBoolean(KEY_EVENT_STORE, false) ?
+                    EventStore.get(this).beginSession(session.currentRemark, session.startTime, session.sessionTags) : null;
+
+            session.isRecording = true;
+            scoreChartView.resetLive();
             startButton.setEnabled(false);
             endButton.setEnabled(true);
             updateTimerDisplay(0);
@@ -346,36 +1086,52 @@ public class MainActivity extends AppCompatActivity implements
 
             // 开始记录时记录当前分数和时间
             recordCurrentScoreAtStart();
+            CounterService.start(this, currentScore);
 
             Toast.makeText(this, "开始记录打分", Toast.LENGTH_SHORT).show();
         }
     }
 
     private void recordCurrentScoreAtStart() {
-        if (isRecording) {
+        if (session.isRecording) {
             // 使用相对时间（毫秒）
-            long relativeTime = SystemClock.elapsedRealtime() - relativeStartTime;
-            keyPressRecords.add(new KeyPressRecord(relativeTime, currentScore, "START_RECORD"));
+            long relativeTime = SystemClock.elapsedRealtime() - session.relativeStartTime;
+            addRecord(new KeyPressRecord(relativeTime, currentScore, "START_RECORD"));
+            publishLiveEvent("START_RECORD", relativeTime);
             Log.d(TAG, "开始记录时记录: 分数=" + currentScore + ", 相对时间=" + relativeTime);
         }
     }
 
     private void endRecording() {
-        if (isRecording) {
-            isRecording = false;
+        if (session.isRecording) {
+            session.isRecording = false;
+            session.undoHistory.clear();
+            updateUndoButtons();
             startButton.setEnabled(true);
             endButton.setEnabled(false);
             handler.removeCallbacks(timerRunnable);
             timerTextView.setText("已结束");
+            CounterService.stop(this);
+            session.tail.delete();
 
             // 结束记录时记录当前分数和时间
-            if (!keyPressRecords.isEmpty()) {
-                long relativeTime = SystemClock.elapsedRealtime() - relativeStartTime;
-                keyPressRecords.add(new KeyPressRecord(relativeTime, currentScore, "END_RECORD"));
+            long endTime = SystemClock.elapsedRealtime() - session.relativeStartTime;
+            if (!session.keyPressRecords.isEmpty() || (session.segmenter != null && session.segmenter.hasSegments())) {
+                KeyPressRecord endRecord = new KeyPressRecord(endTime, currentScore, "END_RECORD");
+                session.keyPressRecords.add(endRecord);
+                if (session.storeWriter != null) session.storeWriter.append(endRecord);
+                scoreChartView.appendLive(endTime, currentScore);
             }
+            publishLiveEvent("END_RECORD", endTime);
 
             // 保存记录
             saveRecordsToCsv();
+            updateDebounceCalibration();
+            if (session.storeWriter != null) {
+                // 没有保存文件（无记录或无权限），数据库中的会话不关联文件
+                session.storeWriter.finish(null, endTime, currentScore);
+                session.storeWriter = null;
+            }
 
             Toast.makeText(this, "记录已保存，备注已保留", Toast.LENGTH_SHORT).show();
         }
@@ -384,8 +1140,8 @@ public class MainActivity extends AppCompatActivity implements
     private Runnable timerRunnable = new Runnable() {
         @Override
         public void run() {
-            if (isRecording) {
-                long elapsedTime = SystemClock.elapsedRealtime() - relativeStartTime;
+            if (session.isRecording) {
+                long elapsedTime = SystemClock.elapsedRealtime() - session.relativeStartTime;
                 updateTimerDisplay(elapsedTime / 1000);
                 handler.postDelayed(this, 1000);
             }
@@ -402,7 +1158,7 @@ public class MainActivity extends AppCompatActivity implements
         if (!isDebouncing) {
             isDebouncing = true;
             increaseScore();
-            handler.postDelayed(() -> isDebouncing = false, 100);
+            handler.postDelayed(() -> isDebouncing = false, debounceMs);
         }
     }
 
@@ -410,55 +1166,193 @@ public class MainActivity extends AppCompatActivity implements
         if (!isDebouncing && currentScore > 0) {
             isDebouncing = true;
             decreaseScore();
-            handler.postDelayed(() -> isDebouncing = false, 100);
+            handler.postDelayed(() -> isDebouncing = false, debounceMs);
         }
     }
 
     private void increaseScore() {
+        int scoreBefore = currentScore;
         currentScore++;
         updateScoreDisplay();
         saveState();
-
-        if (isRecording) {
-            long relativeTime = SystemClock.elapsedRealtime() - relativeStartTime;
-            keyPressRecords.add(new KeyPressRecord(relativeTime, currentScore, "INCREASE"));
-        }
+        recordOperation(scoreBefore, "INCREASE");
     }
 
     private void decreaseScore() {
+        int scoreBefore = currentScore;
         currentScore--;
         updateScoreDisplay();
         saveState();
-
-        if (isRecording) {
-            long relativeTime = SystemClock.elapsedRealtime() - relativeStartTime;
-            keyPressRecords.add(new KeyPressRecord(relativeTime, currentScore, "DECREASE"));
-        }
+        recordOperation(scoreBefore, "DECREASE");
     }
 
     private void resetScore() {
+        int scoreBefore = currentScore;
         currentScore = 0;
         updateScoreDisplay();
         saveState();
+        recordOperation(scoreBefore, "RESET");
+    }
+
+    // 记录一次分数操作：加入撤销历史，记录中时同时写入事件
+    private void recordOperation(int scoreBefore, String action) {
+        KeyPressRecord record = null;
+        if (session.isRecording) {
+            long relativeTime = SystemClock.elapsedRealtime() - session.relativeStartTime;
+            record = new KeyPressRecord(relativeTime, currentScore, action);
+            if (!"RESET".equals(action)) {
+                record.tag = (byte) session.pendingTag;
+            }
+        }
+        session.pendingTag = 0;
+        // 汇总模式下事件已合并进时间桶，撤销时只调整分数，不标记单个事件
+        session.undoHistory.push(session.keyPressRecords instanceof AggregatedRecordList ? null : record, scoreBefore, currentScore);
+        if (record != null) {
+            addRecord(record);
+        }
+        publishLiveEvent(action, record != null ? record.relativeTime : -1);
+        if (!ruleEngine.isEmpty()) {
+            ruleEngine.evaluate(scoreBefore, currentScore, !"RESET".equals(action),
+                    SystemClock.elapsedRealtime(), ruleListener);
+        }
+        updateUndoButtons();
+    }
+
+    // 撤销：事件标记为已撤销（导出时保留），分数恢复到操作前
+    private void undoScore() {
+        if (!session.undoHistory.canUndo()) return;
+        currentScore = session.undoHistory.undo();
+        onUndoRedoApplied("UNDO");
+    }
+
+    private void redoScore() {
+        if (!session.undoHistory.canRedo()) return;
+        currentScore = session.undoHistory.redo();
+        onUndoRedoApplied("REDO");
+    }
+
+    private void onUndoRedoApplied(String type) {
+        KeyPressRecord changed = session.undoHistory.getLastChanged();
+        if (changed != null) {
+            if (session.storeWriter != null) session.storeWriter.setRetracted(changed);
+            // 撤销的总是最近的操作，从末尾查找下标很快
+            session.tail.retract(session.keyPressRecords.lastIndexOf(changed), changed.retracted);
+        }
+        long relativeTime = -1;
+        if (session.isRecording) {
+            relativeTime = SystemClock.elapsedRealtime() - session.relativeStartTime;
+            scoreChartView.appendLive(relativeTime, currentScore);
+            if (session.keyPressRecords instanceof AggregatedRecordList) {
+                ((AggregatedRecordList) session.keyPressRecords).adjust(relativeTime, currentScore);
+                session.tail.adjust(relativeTime, currentScore);
+            }
+        }
+        updateScoreDisplay();
+        saveState();
+        publishLiveEvent(type, relativeTime);
+        updateUndoButtons();
+    }
+
+    private void updateUndoButtons() {
+        undoBtn.setEnabled(session.undoHistory.canUndo());
+        redoBtn.setEnabled(session.undoHistory.canRedo());
+    }
+
+    // 追加记录，必要时切换到新分段
+    private void addRecord(KeyPressRecord record) {
+        session.keyPressRecords.add(record);
+        session.tail.append(record);
+        if (session.storeWriter != null) session.storeWriter.append(record);
+        scoreChartView.appendLive(record.relativeTime, record.score);
+        if (session.segmenter != null && session.segmenter.shouldRotate(session.keyPressRecords.size(), record.relativeTime)) {
+            rotateSegment(record.relativeTime);
+        }
+    }
+
+    // 将当前分段交给后台线程写入，并释放内存中的记录
+    private void rotateSegment(long relativeTime) {
+        final List<KeyPressRecord> segmentRecords = session.keyPressRecords;
+        session.keyPressRecords = segmentRecords instanceof AggregatedRecordList ?
+                ((AggregatedRecordList) segmentRecords).continuation() : new ArrayList<>();
+        // 已交给后台写出的事件不能再撤销
+        session.undoHistory.clear();
+        updateUndoButtons();
+        final String segmentName = session.segmenter.nextSegmentName(relativeTime);
+        // 尾部文件只保存当前分段；切换后进程立即被回收的极短时间内，上一分段依赖后台写入
+        session.tail.reset(session.segmenter.getSegmentNames().size(), relativeTime);
+        final List<String> segmentNames = session.segmenter.getSegmentNames();
+        final String manifestName = session.segmenter.getManifestName();
+        final String remark = session.currentRemark;
+        final long sessionStartTime = session.startTime;
+        final TagDictionary tags = session.sessionTags;
+        Log.d(TAG, "切换分段: " + segmentName + ", 事件数=" + segmentRecords.size());
+
+        session.segmentFlushExecutor.execute(() -> {
+            try {
+                Uri uri = insertScoreFile(segmentName, "text/csv");
+                if (uri == null) {
+                    throw new IOException("无法创建分段文件");
+                }
+                try (OutputStream outputStream = getContentResolver().openOutputStream(uri)) {
+                    writeRecords(outputStream, uri, remark, tags, sessionStartTime, segmentRecords);
+                }
+                updateSegmentManifest(manifestName, remark, segmentNames);
+                Log.d(TAG, "分段写入成功: " + segmentName);
+            } catch (IOException e) {
+                Log.e(TAG, "分段写入失败: " + e.getMessage(), e);
+                runOnUiThread(() -> Toast.makeText(this, "分段保存失败: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
 
-        if (isRecording) {
-            long relativeTime = SystemClock.elapsedRealtime() - relativeStartTime;
-            keyPressRecords.add(new KeyPressRecord(relativeTime, currentScore, "RESET"));
+    // 创建或覆盖分段清单，必须在 session.segmentFlushExecutor 线程中调用
+    private void updateSegmentManifest(String manifestName, String remark, List<String> segmentNames) throws IOException {
+        if (session.segmentManifestUri == null) {
+            session.segmentManifestUri = insertScoreFile(manifestName, SessionSegmenter.MANIFEST_MIME_TYPE);
+            if (session.segmentManifestUri == null) {
+                throw new IOException("无法创建分段清单");
+            }
+        }
+        try (OutputStream outputStream = getContentResolver().openOutputStream(session.segmentManifestUri, "wt")) {
+            SessionSegmenter.writeManifest(outputStream, remark, segmentNames);
         }
+        SessionDocumentsProvider.notifyChanged(this);
     }
 
     private void updateScoreDisplay() {
         scoreTextView.setText("分数: " + currentScore);
+        if (session.isRecording) {
+            CounterService.updateScore(currentScore);
+        }
     }
 
+    // 界面可见时立即保存；熄屏计分时合并为每 BACKGROUND_SAVE_DELAY_MS 一次
     private void saveState() {
+        if (isInForeground) {
+            writeState();
+        } else if (!saveStatePending) {
+            saveStatePending = true;
+            handler.postDelayed(saveStateRunnable, BACKGROUND_SAVE_DELAY_MS);
+        }
+    }
+
+    private final Runnable saveStateRunnable = this::writeState;
+
+    private void writeState() {
+        if (saveStatePending) {
+            saveStatePending = false;
+            handler.removeCallbacks(saveStateRunnable);
+        }
         SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit();
         editor.putInt(KEY_SCORE, currentScore);
         editor.apply();
+        if (session.isRecording) {
+            session.tail.flush();
+        }
     }
 
     private void saveRecordsToCsv() {
-        if (keyPressRecords.isEmpty()) {
+        if (session.keyPressRecords.isEmpty()) {
             Toast.makeText(this, "没有记录可保存", Toast.LENGTH_SHORT).show();
             return;
         }
@@ -483,66 +1377,125 @@ public class MainActivity extends AppCompatActivity implements
         saveFileWithMediaStore();
     }
 
-    private void saveFileWithMediaStore() {
-        createDirectoryIfNeeded(); // 确保目录存在
+    // 在 ScoreRecords 目录下创建一个新的 MediaStore 文件
+    private Uri insertScoreFile(String fileName, String mimeType) {
+        return insertScoreFile(fileName, mimeType, "ScoreRecords");
+    }
 
-        ContentResolver contentResolver = getContentResolver();
+    // directoryName 为文档目录下的子目录；批量导出的文件不放在 ScoreRecords 中，避免被当作会话列出
+    private Uri insertScoreFile(String fileName, String mimeType, String directoryName) {
         ContentValues contentValues = new ContentValues();
-
-        // 设置文件名和MIME类型
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.CHINA);
-        String fileName = "score_records_" + sdf.format(new Date()) + ".csv";
-        Log.d(TAG, "准备保存文件: " + fileName);
-
         contentValues.put(MediaStore.Files.FileColumns.DISPLAY_NAME, fileName);
-        contentValues.put(MediaStore.Files.FileColumns.MIME_TYPE, "text/csv");
+        contentValues.put(MediaStore.Files.FileColumns.MIME_TYPE, mimeType);
 
         // 根据Android版本选择存储位置
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
             contentValues.put(MediaStore.Files.FileColumns.RELATIVE_PATH,
-                    Environment.DIRECTORY_DOCUMENTS + "/ScoreRecords");
+                    Environment.DIRECTORY_DOCUMENTS + "/" + directoryName);
         } else {
             contentValues.put(MediaStore.Files.FileColumns.RELATIVE_PATH,
-                    Environment.DIRECTORY_DOWNLOADS + "/ScoreRecords");
+                    Environment.DIRECTORY_DOWNLOADS + "/" + directoryName);
         }
 
         // 获取内容URI
-        Uri uri = contentResolver.insert(
+        return getContentResolver().insert(
                 MediaStore.Files.getContentUri("external"),
                 contentValues
         );
+    }
 
-        if (uri != null) {
-            Log.d(TAG, "生成文件URI: " + uri.toString());
+    // 写入备注、表头、记录（使用相对时间）和校验行，同时生成稀疏索引，返回写入的字节数
+    private long writeRecords(OutputStream outputStream, Uri uri, String remark, TagDictionary tags,
+                              long sessionStartTime, List<KeyPressRecord> records) throws IOException {
+        ScoreCsvWriter writer = new ScoreCsvWriter(outputStream);
+        SessionIndex.Builder indexBuilder = new SessionIndex.Builder();
+        writer.setIndexBuilder(indexBuilder);
+        if (records instanceof AggregatedRecordList) {
+            writer.writeHeader(remark);
+            ((AggregatedRecordList) records).writeTo(writer, sessionStartTime);
+        } else {
+            writer.writeHeader(remark, tags.toHeaderLine(TagDictionary.usedMask(records)));
+            for (KeyPressRecord record : records) {
+                if (record.tag != 0) {
+                    writer.writeTaggedRow(record.relativeTime, record.score, record.getExportAction(),
+                            sessionStartTime + record.relativeTime, record.tag);
+                } else {
+                    writer.writeRow(record.relativeTime, record.score, record.getExportAction(),
+                            sessionStartTime + record.relativeTime, record.note);
+                }
+            }
+        }
+        long writtenBytes = writer.finish();
+        try {
+            indexBuilder.build(writtenBytes, writer.getTailSignature()).writeTo(SessionIndex.fileFor(this, uri));
+        } catch (IOException e) {
+            Log.w(TAG, "索引保存失败，将在首次查询时重建: " + e.getMessage());
+        }
+        return writtenBytes;
+    }
 
-            try (OutputStream outputStream = contentResolver.openOutputStream(uri);
-                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
+    private void saveFileWithMediaStore() {
+        createDirectoryIfNeeded(); // 确保目录存在
 
-                // 写入备注信息（如果有）
-                if (!currentRemark.isEmpty()) {
-                    writer.write(REMARK_PREFIX + currentRemark);
-                    writer.newLine();
-                }
+        ContentResolver contentResolver = getContentResolver();
 
-                // 写入表头（修改时间戳列为相对时间）
-                writer.write("相对时间(毫秒),分数,操作类型,时间(秒)");
-                writer.newLine();
+        // 设置文件名：分段会话的最后一段沿用分段命名
+        final SessionSegmenter sessionSegmenter = session.segmenter;
+        session.segmenter = null;
+        final EventStore.SessionWriter sessionStoreWriter = session.storeWriter;
+        session.storeWriter = null;
+        final long durationMs = session.keyPressRecords.get(session.keyPressRecords.size() - 1).relativeTime;
+        final int finalScore = currentScore;
+        boolean segmented = sessionSegmenter != null && sessionSegmenter.hasSegments();
+        String fileName;
+        if (segmented) {
+            fileName = sessionSegmenter.nextSegmentName(
+                    session.keyPressRecords.get(session.keyPressRecords.size() - 1).relativeTime);
+        } else {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.CHINA);
+            fileName = "score_records_" + sdf.format(new Date()) + ".csv";
+        }
+        Log.d(TAG, "准备保存文件: " + fileName);
 
-                // 写入记录（使用相对时间）
-                for (KeyPressRecord record : keyPressRecords) {
-                    SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.CHINA);
-                    String timeStr = timeFormat.format(new Date(startTime + record.relativeTime));
-                    writer.write(record.relativeTime + "," + record.score + "," + record.action + "," + timeStr);
-                    writer.newLine();
-                }
+        Uri uri = insertScoreFile(fileName, "text/csv");
 
-                Log.d(TAG, "文件写入成功");
+        if (uri != null) {
+            Log.d(TAG, "生成文件URI: " + uri.toString());
 
-                // 验证文件是否真的存在
-                if (verifyFileExists(uri)) {
+            try (OutputStream outputStream = contentResolver.openOutputStream(uri)) {
+
+                long writtenBytes = writeRecords(outputStream, uri, session.currentRemark, session.sessionTags, session.startTime, session.keyPressRecords);
+                outputStream.close(); // 关闭后 MediaStore 才会更新 SIZE
+
+                Log.d(TAG, "文件写入成功");
+                SessionDocumentsProvider.notifyChanged(this);
+
+                // 分段会话：在之前的分段写完后更新清单
+                if (segmented) {
+                    final List<String> segmentNames = sessionSegmenter.getSegmentNames();
+                    final String manifestName = sessionSegmenter.getManifestName();
+                    final String remark = session.currentRemark;
+                    session.segmentFlushExecutor.execute(() -> {
+                        Uri manifestUri = null;
+                        try {
+                            updateSegmentManifest(manifestName, remark, segmentNames);
+                            manifestUri = session.segmentManifestUri;
+                        } catch (IOException e) {
+                            Log.e(TAG, "分段清单写入失败: " + e.getMessage(), e);
+                        }
+                        if (sessionStoreWriter != null) {
+                            sessionStoreWriter.finish(manifestUri, durationMs, finalScore);
+                        }
+                    });
+                } else if (sessionStoreWriter != null) {
+                    sessionStoreWriter.finish(uri, durationMs, finalScore);
+                }
+
+                // 核对文件大小（内容由校验行保护）
+                if (verifyFileSize(uri, writtenBytes)) {
                     Toast.makeText(this, "记录已保存至: " + fileName, Toast.LENGTH_LONG).show();
                 } else {
-                    Log.w(TAG, "文件存在性验证失败，但写入操作未抛出异常");
+                    Log.w(TAG, "文件大小验证失败，但写入操作未抛出异常");
                     Toast.makeText(this, "文件保存成功，但可能无法立即访问", Toast.LENGTH_SHORT).show();
                 }
 
@@ -558,94 +1511,37 @@ public class MainActivity extends AppCompatActivity implements
             } catch (FileNotFoundException e) {
                 Log.e(TAG, "文件未找到异常: " + e.getMessage(), e);
                 Toast.makeText(this, "保存失败: 文件未找到", Toast.LENGTH_SHORT).show();
+                if (sessionStoreWriter != null) sessionStoreWriter.finish(null, durationMs, finalScore);
             } catch (IOException e) {
                 Log.e(TAG, "文件写入失败: " + e.getMessage(), e);
                 Toast.makeText(this, "保存失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                if (sessionStoreWriter != null) sessionStoreWriter.finish(null, durationMs, finalScore);
             } finally {
-                keyPressRecords.clear();
+                session.keyPressRecords.clear();
                 updateRemarkButtonState(); // 更新备注按钮状态
             }
         } else {
             Log.e(TAG, "无法生成文件URI");
             Toast.makeText(this, "无法创建文件", Toast.LENGTH_SHORT).show();
+            if (sessionStoreWriter != null) sessionStoreWriter.finish(null, durationMs, finalScore);
         }
     }
 
-    private boolean verifyFileExists(Uri uri) {
-        ContentResolver contentResolver = getContentResolver();
-        Cursor cursor = null;
-
-        try {
-            // 尝试查询文件
-            cursor = contentResolver.query(uri, null, null, null, null);
-            boolean exists = cursor != null && cursor.moveToFirst();
-
-            if (exists) {
-                Log.d(TAG, "文件存在性验证通过: " + uri);
-
-                // 获取文件大小，进一步验证
-                int sizeIndex = cursor.getColumnIndex(MediaStore.Files.FileColumns.SIZE);
-                if (sizeIndex >= 0) {
-                    long size = cursor.getLong(sizeIndex);
-                    Log.d(TAG, "文件大小: " + size + " 字节");
-                }
-
-                // 尝试打开文件流
-                try (InputStream inputStream = contentResolver.openInputStream(uri)) {
-                    Log.d(TAG, "文件流可打开，验证完成");
-                } catch (Exception e) {
-                    Log.w(TAG, "文件流打开失败: " + e.getMessage());
-                    exists = false;
-                }
-            } else {
+    // 用 MediaStore 记录的大小核对写入的字节数，不再重新打开文件
+    private boolean verifyFileSize(Uri uri, long expectedBytes) {
+        try (Cursor cursor = getContentResolver().query(uri,
+                new String[]{MediaStore.Files.FileColumns.SIZE}, null, null, null)) {
+            if (cursor == null || !cursor.moveToFirst()) {
                 Log.w(TAG, "文件不存在或无法访问: " + uri);
-
-                // 尝试通过传统文件路径检查
-                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
-                    String filePath = getRealPathFromUri(uri);
-                    if (filePath != null) {
-                        File file = new File(filePath);
-                        if (file.exists()) {
-                            Log.d(TAG, "通过传统路径验证文件存在: " + filePath);
-                            exists = true;
-                        }
-                    }
-                }
+                return false;
             }
-
-            return exists;
+            long size = cursor.getLong(0);
+            Log.d(TAG, "文件大小: " + size + " 字节，写入: " + expectedBytes + " 字节");
+            return size == expectedBytes;
         } catch (Exception e) {
-            Log.e(TAG, "验证文件存在性异常: " + e.getMessage(), e);
+            Log.e(TAG, "验证文件大小异常: " + e.getMessage(), e);
             return false;
-        } finally {
-            if (cursor != null) cursor.close();
-        }
-    }
-
-    private String getRealPathFromUri(Uri uri) {
-        if (uri == null) return null;
-
-        Cursor cursor = null;
-        try {
-            cursor = getContentResolver().query(uri,
-                    new String[]{MediaStore.Files.FileColumns.DATA},
-                    null, null, null);
-            if (cursor != null && cursor.moveToFirst()) {
-                // 获取列索引并检查是否有效
-                int dataColumnIndex = cursor.getColumnIndex(MediaStore.Files.FileColumns.DATA);
-                if (dataColumnIndex >= 0) {
-                    return cursor.getString(dataColumnIndex);
-                } else {
-                    Log.w(TAG, "无法找到数据列: MediaStore.Files.FileColumns.DATA");
-                    return null;
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "获取文件路径失败: " + e.getMessage(), e);
-        } finally {
-            if (cursor != null) cursor.close();
         }
-        return null;
     }
 
     private void showFileManager() {
@@ -655,11 +1551,22 @@ public class MainActivity extends AppCompatActivity implements
         builder.setView(dialogView);
         builder.setTitle("文件管理");
         builder.setNegativeButton("关闭", (dialog, which) -> dialog.dismiss());
+        builder.setNeutralButton("导入", (dialog, which) -> pickCsvToImport());
+        builder.setPositiveButton("批量导出", (dialog, which) -> showBulkExportDialog());
+        dialogView.findViewById(R.id.verify_all_button).setOnClickListener(v -> verifyAllFiles());
+        MaterialButton filterButton = dialogView.findViewById(R.id.filter_tag_button);
+        filterButton.setOnClickListener(v -> showTagFilterDialog(filterButton));
+        tagFilter = null;
+
+        // 对话框关闭后取消预取、校验等任务，不再回调到已关闭的列表
+        IoExecutor.Scope scope = new IoExecutor.Scope().bindTo(this);
+        fileManagerScope = scope;
+        builder.setOnDismissListener(dialog -> scope.cancel());
 
         // 初始化文件列表
         fileRecyclerView = dialogView.findViewById(R.id.file_recycler_view);
         fileRecyclerView.setLayoutManager(new LinearLayoutManager(this));
-        fileManagerAdapter = new FileManagerAdapter(this, this, this);
+        fileManagerAdapter = new FileManagerAdapter(this, this, this, this, scope);
         fileRecyclerView.setAdapter(fileManagerAdapter);
 
         // 加载文件
@@ -668,7 +1575,29 @@ public class MainActivity extends AppCompatActivity implements
         builder.show();
     }
 
+    /**
+     * 在 I/O 线程中查询 MediaStore 并读取各分段清单和归档索引（数量随会话增多），
+     * 结果回到主线程后更新列表。连续刷新时只采用最后一次的结果。
+     */
     private void loadFiles() {
+        int generation = ++fileListGeneration;
+        IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_NORMAL,
+                this::queryFiles,
+                fileList -> {
+                    if (generation != fileListGeneration || fileManagerAdapter == null) return;
+                    Log.d(TAG, "更新适配器，文件数量: " + fileList.size());
+                    loadedFiles = fileList;
+                    showFilteredFiles();
+                    // 注意：ListAdapter 不需要手动调用 notifyDataSetChanged()
+                },
+                e -> {
+                    Log.e(TAG, "加载文件列表失败", e);
+                    Toast.makeText(this, "无法加载文件列表", Toast.LENGTH_SHORT).show();
+                });
+    }
+
+    // 在 I/O 线程中执行：查询会话文件，合并分段，列出归档中的会话
+    private List<FileInfo> queryFiles() {
         ContentResolver contentResolver = getContentResolver();
         String[] projection = {
                 MediaStore.Files.FileColumns._ID,
@@ -685,83 +1614,923 @@ public class MainActivity extends AppCompatActivity implements
         String selection = MediaStore.Files.FileColumns.RELATIVE_PATH + " LIKE ?";
         String[] selectionArgs = { "%" + directory + "/ScoreRecords%" };
 
-        Cursor cursor = null;
         ArrayList<FileInfo> fileList = new ArrayList<>();
+        List<FileInfo> manifests = new ArrayList<>();
+        List<FileInfo> archives = new ArrayList<>();
+        Map<String, FileInfo> filesByName = new HashMap<>();
 
-        try {
-            // 执行查询
-            cursor = contentResolver.query(
-                    MediaStore.Files.getContentUri("external"),
-                    projection,
-                    selection,
-                    selectionArgs,
-                    MediaStore.Files.FileColumns.DATE_MODIFIED + " DESC"
-            );
-
-            if (cursor != null) {
-                Log.d(TAG, "查询到 " + cursor.getCount() + " 个文件");
-
-                // 获取列索引（添加有效性检查）
-                int idColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns._ID);
-                int nameColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns.DISPLAY_NAME);
-                int dateColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns.DATE_MODIFIED);
-                int sizeColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns.SIZE);
-
-                // 检查所有列索引是否有效
-                if (idColumn == -1 || nameColumn == -1 || dateColumn == -1 || sizeColumn == -1) {
-                    Log.e(TAG, "查询结果缺少必要的列");
-                    return;
+        // 执行查询
+        try (Cursor cursor = contentResolver.query(
+                MediaStore.Files.getContentUri("external"),
+                projection,
+                selection,
+                selectionArgs,
+                MediaStore.Files.FileColumns.DATE_MODIFIED + " DESC"
+        )) {
+            if (cursor == null) {
+                Log.e(TAG, "查询结果为null，可能权限不足或查询条件错误");
+                return fileList;
+            }
+            Log.d(TAG, "查询到 " + cursor.getCount() + " 个文件");
+
+            // 获取列索引（添加有效性检查）
+            int idColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns._ID);
+            int nameColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns.DISPLAY_NAME);
+            int dateColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns.DATE_MODIFIED);
+            int sizeColumn = cursor.getColumnIndex(MediaStore.Files.FileColumns.SIZE);
+
+            // 检查所有列索引是否有效
+            if (idColumn == -1 || nameColumn == -1 || dateColumn == -1 || sizeColumn == -1) {
+                Log.e(TAG, "查询结果缺少必要的列");
+                return fileList;
+            }
+
+            // 遍历结果集
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(idColumn);
+                String name = cursor.getString(nameColumn);
+                long dateModified = cursor.getLong(dateColumn);
+                long size = cursor.getLong(sizeColumn);
+
+                Uri uri = ContentUris.withAppendedId(
+                        MediaStore.Files.getContentUri("external"), id);
+
+                FileInfo fileInfo = new FileInfo(name, dateModified, size, uri, "");
+                if (SessionArchive.isArchiveName(name)) {
+                    archives.add(fileInfo);
+                } else if (SessionSegmenter.isManifestName(name)) {
+                    manifests.add(fileInfo);
+                } else {
+                    fileList.add(fileInfo);
+                    filesByName.put(name, fileInfo);
                 }
+            }
+        }
 
-                int preloadCount = 0;
-                // 遍历结果集
-                while (cursor.moveToNext()) {
-                    long id = cursor.getLong(idColumn);
-                    String name = cursor.getString(nameColumn);
-                    long dateModified = cursor.getLong(dateColumn);
-                    long size = cursor.getLong(sizeColumn);
+        // 将分段合并为一个逻辑会话，隐藏清单中列出的分段
+        mergeSegmentedSessions(fileList, manifests, filesByName);
 
-                    Uri uri = ContentUris.withAppendedId(
-                            MediaStore.Files.getContentUri("external"), id);
+        // 通过归档索引列出归档中的会话（备注已在索引中，无需解压）
+        listArchivedSessions(fileList, archives);
 
-                    // 预加载前3个文件的备注
-                    String remark = preloadCount < 3 ? extractRemarkFromFile(uri) : "";
-                    fileList.add(new FileInfo(name, dateModified, size, uri, remark));
+        // 预加载前3个文件的备注
+        for (int i = 0; i < Math.min(3, fileList.size()); i++) {
+            if (fileList.get(i).isArchived()) continue;
+            fileList.get(i).setRemark(extractRemarkFromFile(fileList.get(i).getUri()));
+        }
 
-                    preloadCount++;
+        // 标记已校验文件的结果
+        for (FileInfo fileInfo : fileList) {
+            fileInfo.setIntegrity(integrityResults.getOrDefault(integrityKey(fileInfo), ScoreChecksum.UNCHECKED));
+        }
+        SessionDocumentsProvider.notifyChanged(this); // 文件选择器中的会话列表同步刷新
+        return fileList;
+    }
+
+    // 按日期范围和备注筛选会话，合并导出为一个文件（CSV、GZIP 或 ZIP）
+    private void showBulkExportDialog() {
+        final List<FileInfo> files = loadedFiles;
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.CHINA);
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+
+        // 默认导出本月
+        String today = dayFormat.format(new Date());
+        final EditText fromEditText = new EditText(this);
+        fromEditText.setHint("开始日期（yyyy-MM-dd）");
+        fromEditText.setText(today.substring(0, 8) + "01");
+        layout.addView(fromEditText);
+
+        final EditText toEditText = new EditText(this);
+        toEditText.setHint("结束日期（含当天）");
+        toEditText.setText(today);
+        layout.addView(toEditText);
+
+        final EditText remarkEditText = new EditText(this);
+        remarkEditText.setHint("备注包含（可留空）");
+        layout.addView(remarkEditText);
+
+        final String[] formats = {"CSV", "GZIP", "ZIP"};
+        final RadioGroup formatGroup = new RadioGroup(this);
+        formatGroup.setOrientation(RadioGroup.HORIZONTAL);
+        for (int i = 0; i < formats.length; i++) {
+            RadioButton option = new RadioButton(this);
+            option.setId(View.generateViewId());
+            option.setText(formats[i]);
+            option.setTag(i);
+            formatGroup.addView(option);
+            if (i == 0) formatGroup.check(option.getId());
+        }
+        layout.addView(formatGroup);
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("批量导出")
+                .setView(layout)
+                .setPositiveButton("导出", (dialog, which) -> {
+                    long fromMs;
+                    long toMs;
+                    try {
+                        fromMs = dayFormat.parse(fromEditText.getText().toString().trim()).getTime();
+                        toMs = dayFormat.parse(toEditText.getText().toString().trim()).getTime() + 24 * 3600_000L;
+                    } catch (ParseException e) {
+                        Toast.makeText(this, "请按 yyyy-MM-dd 输入日期", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    List<FileInfo> selected = BulkExporter.select(files, fromMs, toMs);
+                    if (selected.isEmpty()) {
+                        Toast.makeText(this, "该日期范围内没有会话", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    View checked = formatGroup.findViewById(formatGroup.getCheckedRadioButtonId());
+                    int format = checked != null ? (Integer) checked.getTag() : 0;
+                    String label = fromEditText.getText().toString().trim().replace("-", "") + "-"
+                            + toEditText.getText().toString().trim().replace("-", "");
+                    startBulkExport(selected, remarkEditText.getText().toString(), format, label);
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    // format：0 为 CSV，1 为 GZIP，2 为 ZIP；进度对话框中可以取消，取消或失败时删除未完成的文件。
+    // 导出保存在 session 中，旋转屏幕等配置变更后继续进行
+    private void startBulkExport(List<FileInfo> sessions, String remarkFilter, int format, String label) {
+        String csvName = "score_export_" + label + ".csv";
+        String fileName = format == 1 ? csvName + ".gz" : format == 2 ? "score_export_" + label + ".zip" : csvName;
+        String mimeType = format == 1 ? "application/gzip" : format == 2 ? "application/zip" : "text/csv";
+        BulkExporter.Job job = new BulkExporter.Job(fileName, sessions.size());
+        session.bulkExport = job;
+        ContentResolver resolver = getContentResolver();
+
+        IoExecutor.get().submit(job.scope, IoExecutor.PRIORITY_USER,
+                () -> {
+                    Uri output = insertScoreFile(fileName, mimeType, "ScoreExports");
+                    if (output == null) {
+                        throw new IOException("无法创建文件");
+                    }
+                    BulkExporter exporter = new BulkExporter(resolver, sessions, remarkFilter, job.scope);
+                    int exported;
+                    try (OutputStream outputStream = resolver.openOutputStream(output)) {
+                        if (format == 1) {
+                            GZIPOutputStream gzip = new GZIPOutputStream(outputStream, 8192);
+                            exported = exporter.write(gzip, job.progress, job.failed);
+                            gzip.finish();
+                        } else if (format == 2) {
+                            ZipOutputStream zip = new ZipOutputStream(outputStream);
+                            zip.putNextEntry(new ZipEntry(csvName));
+                            exported = exporter.write(zip, job.progress, job.failed);
+                            zip.closeEntry();
+                            zip.finish();
+                        } else {
+                            exported = exporter.write(outputStream, job.progress, job.failed);
+                        }
+                    } catch (IOException e) {
+                        resolver.delete(output, null, null);
+                        if (e instanceof InterruptedIOException) {
+                            Log.d(TAG, "批量导出已取消");
+                        }
+                        throw e;
+                    }
+                    if (exported == 0 && job.failed[BulkExporter.PARTIAL] == 0) {
+                        resolver.delete(output, null, null);
+                    }
+                    return exported;
+                },
+                exported -> job.finish(exported, null),
+                e -> job.finish(0, e));
+        showBulkExportProgress(job);
+    }
+
+    // 显示导出进度对话框并绑定到导出任务；重建后的界面在 onCreate 中重新调用
+    private void showBulkExportProgress(BulkExporter.Job job) {
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+        final ProgressBar progressBar = new ProgressBar(this, null, android.R.attr.progressBarStyleHorizontal);
+        progressBar.setMax(1000);
+        layout.addView(progressBar);
+        final TextView progressText = new TextView(this);
+        progressText.setText("准备导出 " + job.sessionCount + " 个会话");
+        layout.addView(progressText);
+        bulkExportDialog = new MaterialAlertDialogBuilder(this)
+                .setTitle("批量导出")
+                .setView(layout)
+                .setCancelable(false)
+                .setNegativeButton("取消", (dialog, which) -> {
+                    job.scope.cancel();
+                    job.detach();
+                    session.bulkExport = null;
+                    bulkExportDialog = null;
+                })
+                .show();
+
+        job.attach(new BulkExporter.Job.Ui() {
+            @Override
+            public void showProgress(long index, long count, long read, long total) {
+                if (count == 0) return; // 还没有开始
+                progressBar.setProgress(total > 0 ? (int) Math.min(1000, read * 1000 / total) : 0);
+                progressText.setText("正在导出第 " + Math.min(index + 1, count) + " / " + count + " 个会话");
+            }
+
+            @Override
+            public void showResult(BulkExporter.Job finished) {
+                bulkExportDialog.dismiss();
+                bulkExportDialog = null;
+                session.bulkExport = null;
+                showBulkExportResult(finished);
+            }
+        });
+    }
+
+    private void showBulkExportResult(BulkExporter.Job job) {
+        Exception error = job.getError();
+        if (error != null) {
+            Log.e(TAG, "批量导出失败: " + error.getMessage(), error);
+            Toast.makeText(this, "导出失败: " + error.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        int exported = job.getExported();
+        int unreadable = job.failed[BulkExporter.UNREADABLE];
+        int partial = job.failed[BulkExporter.PARTIAL];
+        if (exported == 0 && partial == 0) {
+            Toast.makeText(this, unreadable > 0 ? "会话无法读取" : "没有备注匹配的会话",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String message = "已导出 " + exported + " 个会话至: 文档/ScoreExports/" + job.fileName;
+        if (partial > 0) {
+            message += "，" + partial + " 个会话读取中途出错，只导出了前一部分";
+        }
+        if (unreadable > 0) {
+            message += "，" + unreadable + " 个会话无法读取，未导出";
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
+    // 会话用到的标签，只读取文件开头的字典行
+    private Set<String> getTagsForFile(FileInfo fileInfo) {
+        String key = integrityKey(fileInfo);
+        Set<String> tags = tagsCache.get(key);
+        if (tags != null) {
+            return tags;
+        }
+        // 与摘要相同，会话在事件数据库中时直接查询，不读文件
+        EventStore store = fileInfo.isArchived() ? null : EventStore.getIfExists(this);
+        tags = store != null ? store.findTags(fileInfo.getUri()) : null;
+        if (tags == null) {
+            try {
+                tags = SessionSummary.readTags(getContentResolver(), fileInfo);
+            } catch (IOException e) {
+                Log.w(TAG, "读取标签失败: " + fileInfo.getName() + ", " + e.getMessage());
+                tags = Collections.emptySet();
+            }
+        }
+        tagsCache.put(key, tags);
+        return tags;
+    }
+
+    private void showFilteredFiles() {
+        if (tagFilter == null) {
+            fileManagerAdapter.setFileList(loadedFiles);
+            return;
+        }
+        final List<FileInfo> files = loadedFiles;
+        final String tag = tagFilter;
+        IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_NORMAL,
+                () -> {
+                    ArrayList<FileInfo> matched = new ArrayList<>();
+                    for (FileInfo fileInfo : files) {
+                        if (getTagsForFile(fileInfo).contains(tag)) matched.add(fileInfo);
+                    }
+                    return matched;
+                },
+                matched -> {
+                    if (fileManagerAdapter != null && tag.equals(tagFilter)) {
+                        fileManagerAdapter.setFileList(matched);
+                    }
+                }, null);
+    }
+
+    // 汇总列表中出现过的标签供选择；归档中的会话没有标签信息，筛选时不会出现
+    private void showTagFilterDialog(MaterialButton filterButton) {
+        final List<FileInfo> files = loadedFiles;
+        IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_NORMAL,
+                () -> {
+                    Set<String> tags = new TreeSet<>();
+                    for (FileInfo fileInfo : files) {
+                        tags.addAll(getTagsForFile(fileInfo));
+                    }
+                    return new ArrayList<>(tags);
+                },
+                tags -> {
+                    if (tags.isEmpty()) {
+                        Toast.makeText(this, "没有带标签的会话", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    String[] items = new String[tags.size() + 1];
+                    items[0] = "全部会话";
+                    for (int i = 0; i < tags.size(); i++) {
+                        items[i + 1] = tags.get(i);
+                    }
+                    new MaterialAlertDialogBuilder(this)
+                            .setTitle("按标签筛选")
+                            .setItems(items, (dialog, which) -> {
+                                tagFilter = which == 0 ? null : items[which];
+                                filterButton.setText(tagFilter == null ? "按标签筛选" : "标签: " + tagFilter);
+                                showFilteredFiles();
+                            })
+                            .show();
+                }, null);
+    }
+
+    // 文件被修改后修改时间变化，旧的校验结果随之失效
+    private static String integrityKey(FileInfo fileInfo) {
+        return fileInfo.getName() + "@" + fileInfo.getDateModified();
+    }
+
+    // 后台并行校验列表中的全部会话，完成后刷新列表以标记损坏的文件
+    private void verifyAllFiles() {
+        if (fileManagerAdapter == null) return;
+        List<FileInfo> files = new ArrayList<>(fileManagerAdapter.getCurrentList());
+        if (files.isEmpty()) return;
+        Toast.makeText(this, "正在校验 " + files.size() + " 个文件", Toast.LENGTH_SHORT).show();
+        // 每个文件一个任务，由共享执行器控制并行度；结果在主线程汇总
+        int[] remaining = {files.size()};
+        int[] corrupt = {0};
+        int[] unchecked = {0};
+        int[] failed = {0};
+        // 每个文件恰好回调一次（结果或错误），最后一个回调报告汇总
+        Runnable finishOne = () -> {
+            if (--remaining[0] > 0) return;
+            String message = corrupt[0] > 0 ? corrupt[0] + " 个文件校验失败"
+                    : failed[0] > 0 ? "没有发现损坏的文件" : "全部文件校验通过";
+            if (unchecked[0] > 0) {
+                message += "，" + unchecked[0] + " 个文件没有校验信息";
+            }
+            if (failed[0] > 0) {
+                message += "，" + failed[0] + " 个文件无法校验";
+            }
+            Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+            loadFiles();
+        };
+        for (FileInfo fileInfo : files) {
+            IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_PREFETCH,
+                    () -> ScoreChecksum.verify(getContentResolver(), fileInfo),
+                    status -> {
+                        integrityResults.put(integrityKey(fileInfo), status);
+                        if (status == ScoreChecksum.CORRUPT) corrupt[0]++;
+                        if (status == ScoreChecksum.NO_CHECKSUM) unchecked[0]++;
+                        finishOne.run();
+                    },
+                    e -> {
+                        Log.w(TAG, "校验失败: " + fileInfo.getName() + ", " + e.getMessage());
+                        failed[0]++;
+                        finishOne.run();
+                    });
+        }
+    }
+
+    private void mergeSegmentedSessions(List<FileInfo> fileList, List<FileInfo> manifests,
+                                        Map<String, FileInfo> filesByName) {
+        if (manifests.isEmpty()) {
+            return;
+        }
+
+        Set<String> segmentNames = new HashSet<>();
+        List<FileInfo> sessions = new ArrayList<>();
+        for (FileInfo manifest : manifests) {
+            List<String> names;
+            try (InputStream inputStream = getContentResolver().openInputStream(manifest.getUri())) {
+                names = SessionSegmenter.readManifest(inputStream);
+            } catch (Exception e) {
+                Log.e(TAG, "读取分段清单失败: " + manifest.getName(), e);
+                continue;
+            }
+
+            List<Uri> segmentUris = new ArrayList<>();
+            long totalSize = 0;
+            long latest = manifest.getDateModified();
+            for (String name : names) {
+                FileInfo segment = filesByName.get(name);
+                if (segment == null) {
+                    Log.w(TAG, "清单中的分段不存在: " + name);
+                    continue;
                 }
-            } else {
-                Log.e(TAG, "查询结果为null，可能权限不足或查询条件错误");
+                segmentUris.add(segment.getUri());
+                totalSize += segment.getSize();
+                latest = Math.max(latest, segment.getDateModified());
+                segmentNames.add(name);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "加载文件列表失败", e);
-            Toast.makeText(this, "无法加载文件列表", Toast.LENGTH_SHORT).show();
-        } finally {
-            if (cursor != null) cursor.close();
+            if (segmentUris.isEmpty()) {
+                continue;
+            }
+
+            String baseName = manifest.getName().substring(0,
+                    manifest.getName().length() - SessionSegmenter.MANIFEST_SUFFIX.length());
+            sessions.add(new FileInfo(baseName + ".csv (" + segmentUris.size() + " 段)",
+                    latest, totalSize, manifest.getUri(), "", segmentUris));
         }
 
-        // 更新适配器
-        Log.d(TAG, "更新适配器，文件数量: " + fileList.size());
-        fileManagerAdapter.setFileList(fileList);
-        // 注意：ListAdapter 不需要手动调用 notifyDataSetChanged()
+        fileList.removeIf(fileInfo -> segmentNames.contains(fileInfo.getName()));
+        fileList.addAll(sessions);
+        fileList.sort((a, b) -> Long.compare(b.getDateModified(), a.getDateModified()));
+    }
+
+    private void listArchivedSessions(List<FileInfo> fileList, List<FileInfo> archives) {
+        if (archives.isEmpty()) {
+            return;
+        }
+        for (FileInfo archive : archives) {
+            try {
+                for (SessionArchive.Entry entry : SessionArchive.readIndex(getContentResolver(), archive.getUri())) {
+                    fileList.add(new FileInfo(archive.getUri(), entry));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "读取归档索引失败: " + archive.getName(), e);
+            }
+        }
+        fileList.sort((a, b) -> Long.compare(b.getDateModified(), a.getDateModified()));
     }
 
     @Override
     public void onFileAction(FileInfo fileInfo, String action) {
         Log.d(TAG, "文件操作: " + action + ", 文件: " + fileInfo.getName());
         if (action.equals(ACTION_SHARE)) {
-            shareFile(fileInfo.getUri());
-        } else if (action.equals(ACTION_DELETE)) {
+            showShareOptions(fileInfo);
+            return;
+        }
+        if (action.equals(ACTION_CHART)) {
+            showChartDialog(fileInfo.getName(),
+                    () -> new ScoreCsvReader(fileInfo.openStream(getContentResolver())));
+            return;
+        }
+        if (action.equals(ACTION_RANGE)) {
+            showRangeDialog(fileInfo);
+            return;
+        }
+        if (action.equals(ACTION_PLAY)) {
+            startPlayback(fileInfo);
+            return;
+        }
+        if (action.equals(ACTION_COMPARE)) {
+            showCompareDialog(fileInfo);
+            return;
+        }
+        if (fileInfo.isSegmented() || fileInfo.isArchived()) {
+            onSegmentedSessionAction(fileInfo, action);
+            return;
+        }
+        if (action.equals(ACTION_DELETE)) {
             deleteFile(fileInfo.getUri());
         } else if (action.equals(ACTION_EDIT)) { // 新增编辑处理
             editFile(fileInfo.getUri());
         }
     }
 
-    private void shareFile(Uri fileUri) {
+    // 分段会话和归档中的会话只读，删除需要特殊处理
+    private void onSegmentedSessionAction(FileInfo fileInfo, String action) {
+        if (action.equals(ACTION_DELETE) && fileInfo.isArchived()) {
+            IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_USER,
+                    () -> SessionArchiver.removeArchivedSession(getApplicationContext(), fileInfo.getUri(),
+                            fileInfo.getName()),
+                    removed -> {
+                        Toast.makeText(this, removed ? "文件已删除" : "删除失败", Toast.LENGTH_SHORT).show();
+                        if (fileManagerAdapter != null) {
+                            loadFiles();
+                        }
+                    },
+                    e -> {
+                        Log.e(TAG, "从归档删除失败: " + e.getMessage(), e);
+                        Toast.makeText(this, "删除失败", Toast.LENGTH_SHORT).show();
+                    });
+        } else if (action.equals(ACTION_DELETE)) {
+            int failed = 0;
+            for (Uri segmentUri : fileInfo.getSegmentUris()) {
+                try {
+                    if (getContentResolver().delete(segmentUri, null, null) == 0) failed++;
+                } catch (Exception e) {
+                    Log.e(TAG, "删除分段失败: " + segmentUri, e);
+                    failed++;
+                }
+            }
+            deleteFile(fileInfo.getUri()); // 最后删除清单并刷新列表
+            if (failed > 0) {
+                Toast.makeText(this, failed + " 个分段删除失败", Toast.LENGTH_SHORT).show();
+            }
+        } else if (action.equals(ACTION_EDIT)) {
+            // 分段会话流式拼接、归档会话解压后只读查看
+            IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_NORMAL,
+                    () -> fileInfo.isArchived() ?
+                            readArchivedContent(fileInfo) : readSegmentedContent(fileInfo.getSegmentUris()),
+                    content -> showContentOrError(fileInfo.getUri(), content, false), null);
+        }
+    }
+
+    // 在对话框中显示会话（或其中一段）的分数曲线，金字塔在后台线程中构建
+    private void showChartDialog(String title, Callable<ScoreCsvReader> source) {
+        ScoreChartView chartView = new ScoreChartView(this);
+        int height = (int) (240 * getResources().getDisplayMetrics().density);
+        chartView.setLayoutParams(new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT, height));
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        chartView.setPadding(padding, padding, padding, padding);
+
+        // 对话框关闭后不再构建和回调
+        IoExecutor.Scope chartScope = new IoExecutor.Scope().bindTo(this);
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(title)
+                .setMessage("双指缩放，拖动平移，双击还原")
+                .setView(chartView)
+                .setNegativeButton("关闭", (dialog, which) -> dialog.dismiss())
+                .setOnDismissListener(dialog -> chartScope.cancel())
+                .show();
+
+        IoExecutor.get().submit(chartScope, IoExecutor.PRIORITY_NORMAL,
+                () -> {
+                    try (ScoreCsvReader reader = source.call()) {
+                        return ScorePyramid.build(reader);
+                    }
+                },
+                chartView::setPyramid,
+                e -> {
+                    Log.e(TAG, "读取会话失败: " + e.getMessage(), e);
+                    Toast.makeText(this, "无法读取文件内容", Toast.LENGTH_SHORT).show();
+                });
+    }
+
+    // 回放会话：先读取时长（用于进度条），再在屏幕底部显示不遮挡计分的控制面板
+    private void startPlayback(FileInfo fileInfo) {
+        if (session.isRecording) {
+            Toast.makeText(this, "记录中不能回放", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_NORMAL,
+                () -> {
+                    SessionSummary summary = getSummaryForFile(fileInfo);
+                    return summary != null ? summary.durationMs : -1L;
+                },
+                durationMs -> showPlaybackPanel(fileInfo, durationMs), null);
+    }
+
+    private void showPlaybackPanel(FileInfo fileInfo, long durationMs) {
+        if (sessionPlayer != null || session.isRecording) return;
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+
+        // 进度条以 100 毫秒为单位；时长未知（归档会话）时不能跳转
+        final SeekBar seekBar = new SeekBar(this);
+        seekBar.setMax(durationMs > 0 ? (int) Math.min(Integer.MAX_VALUE, durationMs / 100) : 0);
+        seekBar.setEnabled(durationMs > 0);
+        layout.addView(seekBar);
+
+        final RadioGroup speedGroup = new RadioGroup(this);
+        speedGroup.setOrientation(RadioGroup.HORIZONTAL);
+        for (int speed : SessionPlayer.SPEEDS) {
+            RadioButton option = new RadioButton(this);
+            option.setId(View.generateViewId());
+            option.setText(speed + "×");
+            option.setTag(speed);
+            speedGroup.addView(option);
+            if (speed == 1) {
+                speedGroup.check(option.getId());
+            }
+        }
+        layout.addView(speedGroup);
+
+        final boolean[] dragging = {false};
+        final int[] lastProgress = {-1};
+        sessionPlayer = new SessionPlayer(this, fileInfo, new SessionPlayer.Listener() {
+            @Override
+            public void onPlaybackFrame(long positionMs, int score) {
+                // 每帧一次；分数、秒数和进度变化时才更新对应的控件
+                if (score != playbackScore) {
+                    playbackScore = score;
+                    scoreTextView.setText("分数: " + score);
+                }
+                long second = positionMs / 1000;
+                if (second != playbackSecond) {
+                    playbackSecond = second;
+                    timerTextView.setText(String.format(Locale.CHINA, "回放: %02d:%02d ×%d",
+                            second / 60, second % 60, sessionPlayer.getSpeed()));
+                }
+                int progress = (int) Math.min(seekBar.getMax(), positionMs / 100);
+                if (!dragging[0] && progress != lastProgress[0]) {
+                    lastProgress[0] = progress;
+                    seekBar.setProgress(progress);
+                }
+            }
+
+            @Override
+            public void onPlaybackEnded() {
+                Toast.makeText(MainActivity.this, "回放结束", Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        speedGroup.setOnCheckedChangeListener((group, checkedId) -> {
+            View checked = group.findViewById(checkedId);
+            if (checked != null && sessionPlayer != null) {
+                sessionPlayer.setSpeed((int) checked.getTag());
+                playbackSecond = -1; // 刷新倍速显示
+            }
+        });
+        seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar bar, int progress, boolean fromUser) {
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar bar) {
+                dragging[0] = true;
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar bar) {
+                dragging[0] = false;
+                if (sessionPlayer != null) {
+                    sessionPlayer.seekTo(bar.getProgress() * 100L);
+                }
+            }
+        });
+
+        AlertDialog dialog = new MaterialAlertDialogBuilder(this)
+                .setTitle("回放: " + fileInfo.getName())
+                .setView(layout)
+                .setPositiveButton("暂停", null)
+                .setNegativeButton("关闭", (d, which) -> d.dismiss())
+                .setOnDismissListener(d -> stopPlayback())
+                .create();
+        dialog.setOnShowListener(d -> {
+            // 播放/暂停不关闭面板
+            Button toggle = dialog.getButton(DialogInterface.BUTTON_POSITIVE);
+            toggle.setOnClickListener(v -> {
+                if (sessionPlayer == null) return;
+                if (sessionPlayer.isPlaying()) {
+                    sessionPlayer.pause();
+                    toggle.setText("播放");
+                } else {
+                    if (durationMs > 0 && sessionPlayer.getPositionMs() >= durationMs) {
+                        sessionPlayer.seekTo(0); // 已播放完，从头开始
+                    }
+                    sessionPlayer.play();
+                    toggle.setText("暂停");
+                }
+            });
+        });
+        // 面板在底部且不变暗，主计分保持可见
+        Window window = dialog.getWindow();
+        if (window != null) {
+            window.setGravity(Gravity.BOTTOM);
+            window.clearFlags(WindowManager.LayoutParams.FLAG_DIM_BEHIND);
+        }
+        timerTextBeforePlayback = timerTextView.getText();
+        dialog.show();
+        sessionPlayer.play();
+    }
+
+    // 结束回放，恢复当前分数和计时显示
+    private void stopPlayback() {
+        if (sessionPlayer == null) return;
+        sessionPlayer.release();
+        sessionPlayer = null;
+        playbackScore = Integer.MIN_VALUE;
+        playbackSecond = -1;
+        updateScoreDisplay();
+        timerTextView.setText(timerTextBeforePlayback);
+    }
+
+    // 选择另一个会话和配对容差，对比两人对同一场比赛的记录
+    private void showCompareDialog(FileInfo first) {
+        final List<FileInfo> others = new ArrayList<>();
+        for (FileInfo fileInfo : loadedFiles) {
+            if (fileInfo != first) others.add(fileInfo);
+        }
+        if (others.isEmpty()) {
+            Toast.makeText(this, "没有可对比的其他会话", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] names = new String[others.size()];
+        for (int i = 0; i < names.length; i++) {
+            String remark = others.get(i).getRemark();
+            names[i] = others.get(i).getName() + (TextUtils.isEmpty(remark) ? "" : "（" + remark + "）");
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("选择要对比的会话")
+                .setItems(names, (dialog, which) -> showCompareOptions(first, others.get(which)))
+                .show();
+    }
+
+    private void showCompareOptions(FileInfo first, FileInfo second) {
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+
+        final EditText toleranceEditText = new EditText(this);
+        toleranceEditText.setInputType(InputType.TYPE_CLASS_NUMBER);
+        toleranceEditText.setHint("配对容差（毫秒）");
+        toleranceEditText.setText(String.valueOf(SessionDiff.DEFAULT_TOLERANCE_MS));
+        layout.addView(toleranceEditText);
+
+        final EditText offsetEditText = new EditText(this);
+        offsetEditText.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_SIGNED);
+        offsetEditText.setHint("B 比 A 晚开始记录（毫秒，可为负）");
+        offsetEditText.setText("0");
+        layout.addView(offsetEditText);
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("会话对比")
+                .setMessage("A: " + first.getName() + "\nB: " + second.getName())
+                .setView(layout)
+                .setPositiveButton("对比", (dialog, which) -> {
+                    long toleranceMs;
+                    long offsetMs;
+                    try {
+                        toleranceMs = Long.parseLong(toleranceEditText.getText().toString().trim());
+                        offsetMs = Long.parseLong(offsetEditText.getText().toString().trim());
+                    } catch (NumberFormatException e) {
+                        Toast.makeText(this, "请输入有效的数字", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    compareSessions(first, second, toleranceMs, offsetMs);
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void compareSessions(FileInfo first, FileInfo second, long toleranceMs, long offsetMs) {
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_NORMAL,
+                () -> {
+                    try (ScoreCsvReader a = new ScoreCsvReader(first.openStream(getContentResolver()));
+                         ScoreCsvReader b = new ScoreCsvReader(second.openStream(getContentResolver()))) {
+                        SessionDiff.Result result = SessionDiff.compare(a, b, toleranceMs, offsetMs);
+                        return SessionDiff.format(result, first.getName(), second.getName(), toleranceMs);
+                    }
+                },
+                text -> {
+                    TextView textView = new TextView(this);
+                    int padding = (int) (16 * getResources().getDisplayMetrics().density);
+                    textView.setPadding(padding, padding, padding, padding);
+                    textView.setTextIsSelectable(true);
+                    textView.setText(text);
+                    ScrollView scrollView = new ScrollView(this);
+                    scrollView.addView(textView);
+                    new MaterialAlertDialogBuilder(this)
+                            .setTitle("对比结果")
+                            .setView(scrollView)
+                            .setPositiveButton("确定", null)
+                            .show();
+                },
+                e -> {
+                    Log.e(TAG, "会话对比失败: " + e.getMessage(), e);
+                    Toast.makeText(this, "对比失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                });
+    }
+
+    // 按时间段（分钟）查询会话：查看、绘制或导出该段记录，只读取范围内的数据
+    private void showRangeDialog(FileInfo fileInfo) {
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        layout.setPadding(padding, padding, padding, 0);
+
+        final EditText fromEditText = new EditText(this);
+        fromEditText.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        fromEditText.setHint("开始（分钟）");
+        layout.addView(fromEditText);
+
+        final EditText toEditText = new EditText(this);
+        toEditText.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        toEditText.setHint("结束（分钟）");
+        layout.addView(toEditText);
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("时间段查询")
+                .setMessage(fileInfo.getName())
+                .setView(layout)
+                .setPositiveButton("查看", (dialog, which) ->
+                        onRangeSelected(fileInfo, fromEditText, toEditText, ACTION_EDIT))
+                .setNeutralButton("图表", (dialog, which) ->
+                        onRangeSelected(fileInfo, fromEditText, toEditText, ACTION_CHART))
+                .setNegativeButton("导出", (dialog, which) ->
+                        onRangeSelected(fileInfo, fromEditText, toEditText, ACTION_SHARE))
+                .show();
+    }
+
+    private void onRangeSelected(FileInfo fileInfo, EditText fromEditText, EditText toEditText, String action) {
+        long fromMs;
+        long toMs;
+        try {
+            fromMs = (long) (Double.parseDouble(fromEditText.getText().toString().trim()) * 60000);
+            toMs = (long) (Double.parseDouble(toEditText.getText().toString().trim()) * 60000);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "请输入有效的数字", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (toMs < fromMs) {
+            Toast.makeText(this, "结束时间不能早于开始时间", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        String rangeLabel = fromEditText.getText().toString().trim() + "-" + toEditText.getText().toString().trim() + "分钟";
+        if (action.equals(ACTION_CHART)) {
+            showChartDialog(fileInfo.getName() + "（" + rangeLabel + "）",
+                    () -> SessionRangeQuery.open(this, fileInfo, fromMs, toMs));
+        } else if (action.equals(ACTION_EDIT)) {
+            IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_NORMAL,
+                    () -> readRangeContent(fileInfo, fromMs, toMs),
+                    content -> showContentOrError(fileInfo.getUri(), content, false), null);
+        } else {
+            exportRange(fileInfo, fromMs, toMs, rangeLabel);
+        }
+    }
+
+    private String readRangeContent(FileInfo fileInfo, long fromMs, long toMs) {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.CHINA);
+        StringBuilder content = new StringBuilder(ScoreCsvWriter.HEADER).append('\n');
+        try (ScoreCsvReader reader = SessionRangeQuery.open(this, fileInfo, fromMs, toMs)) {
+            while (reader.next()) {
+                content.append(reader.getRelativeTime()).append(',')
+                        .append(reader.getScore()).append(',')
+                        .append(reader.getAction()).append(',');
+                if (reader.getWallTime() >= 0) {
+                    content.append(timeFormat.format(new Date(reader.getWallTime())));
+                }
+                if (reader.getNote() != null) {
+                    content.append(',').append(reader.getNote());
+                } else if (reader.isBucket()) {
+                    content.append(',').append(reader.getBucketDelta())
+                            .append(',').append(reader.getBucketPresses())
+                            .append(',').append(reader.getBucketMin())
+                            .append(',').append(reader.getBucketMax());
+                }
+                content.append('\n');
+            }
+            return content.toString();
+        } catch (IOException e) {
+            Log.e(TAG, "读取时间段失败: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    // 把时间段另存为新的会话文件（保留原相对时间）
+    private void exportRange(FileInfo fileInfo, long fromMs, long toMs, String rangeLabel) {
+        String fileName = "score_range_" +
+                new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.CHINA).format(new Date()) + ".csv";
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_USER,
+                () -> {
+                    Uri uri = insertScoreFile(fileName, "text/csv");
+                    if (uri == null) {
+                        throw new IOException("无法创建文件");
+                    }
+                    int rows = 0;
+                    try (ScoreCsvReader reader = SessionRangeQuery.open(this, fileInfo, fromMs, toMs);
+                         OutputStream outputStream = getContentResolver().openOutputStream(uri)) {
+                        ScoreCsvWriter writer = new ScoreCsvWriter(outputStream);
+                        writer.writeHeader(fileInfo.getName() + " " + rangeLabel);
+                        while (reader.next()) {
+                            writer.copyRow(reader, reader.getRelativeTime(), Math.max(0, reader.getWallTime()));
+                            rows++;
+                        }
+                        writer.finish();
+                    } catch (IOException e) {
+                        getContentResolver().delete(uri, null, null);
+                        throw e;
+                    }
+                    SessionDocumentsProvider.notifyChanged(this);
+                    return rows;
+                },
+                exported -> {
+                    Toast.makeText(this, "已导出 " + exported + " 条记录至: " + fileName, Toast.LENGTH_LONG).show();
+                    if (fileManagerAdapter != null) {
+                        loadFiles();
+                    }
+                },
+                e -> {
+                    Log.e(TAG, "导出时间段失败: " + e.getMessage(), e);
+                    Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                });
+    }
+
+    // 选择分享方式：各格式都通过管道流式生成，标签编号展开为文本，分段会话合并为一个文件
+    private void showShareOptions(FileInfo fileInfo) {
+        String[] options = {"CSV", "GZIP 压缩", "ZIP 压缩", "Excel 表格 (XLSX)"};
+        String[] formats = {CompressedShareProvider.FORMAT_CSV, CompressedShareProvider.FORMAT_GZIP,
+                CompressedShareProvider.FORMAT_ZIP, CompressedShareProvider.FORMAT_XLSX};
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("分享方式")
+                .setItems(options, (dialog, which) -> shareCompressed(fileInfo, formats[which]))
+                .show();
+    }
+
+    private void shareCompressed(FileInfo fileInfo, String format) {
+        Uri compressedUri = CompressedShareProvider.register(this, fileInfo, format);
         Intent shareIntent = new Intent(Intent.ACTION_SEND);
-        shareIntent.setType("text/csv");
-        shareIntent.putExtra(Intent.EXTRA_STREAM, fileUri);
+        shareIntent.setType(getContentResolver().getType(compressedUri));
+        shareIntent.putExtra(Intent.EXTRA_STREAM, compressedUri);
         shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         startActivity(Intent.createChooser(shareIntent, "分享文件"));
     }
@@ -771,6 +2540,8 @@ public class MainActivity extends AppCompatActivity implements
             int rowsDeleted = getContentResolver().delete(fileUri, null, null);
             if (rowsDeleted > 0) {
                 Log.d(TAG, "文件删除成功: " + fileUri);
+                EventStore store = EventStore.getIfExists(this);
+                if (store != null) store.deleteSession(fileUri);
                 Toast.makeText(this, "文件已删除", Toast.LENGTH_SHORT).show();
                 loadFiles(); // 刷新文件列表
             } else {
@@ -790,19 +2561,50 @@ public class MainActivity extends AppCompatActivity implements
         }
 
         // 读取文件内容
-        new Thread(() -> {
-            String content = readFileContent(fileUri);
-            if (content != null) {
-                runOnUiThread(() -> showEditDialog(fileUri, content));
-            } else {
-                runOnUiThread(() -> Toast.makeText(this, "无法读取文件内容", Toast.LENGTH_SHORT).show());
-            }
-        }).start();
+        IoExecutor.get().submit(fileManagerScope, IoExecutor.PRIORITY_NORMAL,
+                () -> readFileContent(fileUri),
+                content -> showContentOrError(fileUri, content, true), null);
+    }
+
+    // 后台读取的内容为 null 表示读取失败
+    private void showContentOrError(Uri fileUri, String content, boolean editable) {
+        if (content != null) {
+            showEditDialog(fileUri, content, editable);
+        } else {
+            Toast.makeText(this, "无法读取文件内容", Toast.LENGTH_SHORT).show();
+        }
     }
 
     private String readFileContent(Uri fileUri) {
-        try (InputStream inputStream = getContentResolver().openInputStream(fileUri);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+        try (InputStream inputStream = getContentResolver().openInputStream(fileUri)) {
+            return readContent(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "读取文件失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 边拼接边读取，不先把整个会话拼接到内存中
+    private String readSegmentedContent(List<Uri> segmentUris) {
+        try (InputStream inputStream = SessionSegmenter.openConcatenated(getContentResolver(), segmentUris)) {
+            return readContent(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "读取分段失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String readArchivedContent(FileInfo fileInfo) {
+        try (InputStream inputStream = fileInfo.openStream(getContentResolver())) {
+            return readContent(inputStream);
+        } catch (IOException e) {
+            Log.e(TAG, "读取归档失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String readContent(InputStream inputStream) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
 
             StringBuilder content = new StringBuilder();
             String line;
@@ -818,16 +2620,12 @@ public class MainActivity extends AppCompatActivity implements
                 isFirstLine = false;
             }
             return content.toString();
-
-        } catch (IOException e) {
-            Log.e(TAG, "读取文件失败: " + e.getMessage());
-            return null;
         }
     }
 
-    private void showEditDialog(Uri fileUri, String content) {
+    private void showEditDialog(Uri fileUri, String content, boolean editable) {
         MaterialAlertDialogBuilder builder = new MaterialAlertDialogBuilder(this);
-        builder.setTitle("编辑记录");
+        builder.setTitle(editable ? "编辑记录" : "查看记录（只读）");
 
         // 创建多行文本编辑框
         final EditText editText = new EditText(this);
@@ -840,55 +2638,212 @@ public class MainActivity extends AppCompatActivity implements
 
         builder.setView(editText);
 
-        builder.setPositiveButton("保存", (dialog, which) -> {
-            String newContent = editText.getText().toString();
-            saveEditedFile(fileUri, newContent);
-        });
-
-        builder.setNegativeButton("取消", (dialog, which) -> dialog.dismiss());
+        if (editable) {
+            builder.setPositiveButton("保存", (dialog, which) -> {
+                String newContent = editText.getText().toString();
+                saveEditedFile(fileUri, newContent);
+            });
+            builder.setNegativeButton("取消", (dialog, which) -> dialog.dismiss());
+        } else {
+            editText.setKeyListener(null);
+            builder.setNegativeButton("关闭", (dialog, which) -> dialog.dismiss());
+        }
 
         builder.show();
     }
 
     private void saveEditedFile(Uri fileUri, String content) {
-        new Thread(() -> {
-            try (OutputStream outputStream = getContentResolver().openOutputStream(fileUri);
-                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream))) {
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_USER, () -> {
+            // 编辑后以文件为准：数据库中的事件已过时，移除后摘要和时间段查询改为读取文件
+            EventStore store = EventStore.getIfExists(this);
+            if (store != null) store.deleteSession(fileUri);
+            long written;
+            try (OutputStream outputStream = getContentResolver().openOutputStream(fileUri, "wt")) {
+                ScoreChecksum.ChecksumOutputStream checksum = new ScoreChecksum.ChecksumOutputStream(outputStream);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(checksum, StandardCharsets.UTF_8));
 
                 // 解析内容中的备注（第一行以"备注: "开头）
                 String[] lines = content.split("\n");
                 boolean hasRemark = lines.length > 0 && lines[0].startsWith("备注: ");
 
-                if (hasRemark) {
-                    // 写入备注行
-                    writer.write(REMARK_PREFIX + lines[0].substring(3));
-                    writer.newLine();
-
-                    // 写入剩余内容
-                    for (int i = 1; i < lines.length; i++) {
-                        writer.write(lines[i]);
-                        writer.newLine();
+                for (int i = 0; i < lines.length; i++) {
+                    String line = lines[i];
+                    if (ScoreChecksum.isTrailer(line)) continue; // 旧的校验行已失效，重新计算
+                    if (i == 0 && hasRemark) {
+                        line = REMARK_PREFIX + line.substring(3);
                     }
-                } else {
-                    // 没有备注，直接写入全部内容
-                    writer.write(content);
+                    writer.write(line);
+                    writer.newLine();
                 }
 
                 writer.flush();
+                written = checksum.writeTrailer();
+            }
+            SessionDocumentsProvider.notifyChanged(this);
+            return written;
+        }, written -> {
+            Toast.makeText(this, "文件已更新", Toast.LENGTH_SHORT).show();
+            // 刷新文件列表
+            if (fileManagerAdapter != null) {
+                loadFiles();
+            }
+        }, e -> {
+            Log.e(TAG, "保存文件失败: " + e.getMessage());
+            Toast.makeText(this, "保存失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        });
+    }
 
-                runOnUiThread(() -> {
-                    Toast.makeText(this, "文件已更新", Toast.LENGTH_SHORT).show();
-                    // 刷新文件列表
-                    if (fileManagerAdapter != null) {
-                        loadFiles();
-                    }
-                });
+    // 选择一个或多个外部CSV导入
+    private void pickCsvToImport() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES,
+                new String[]{"text/csv", "text/comma-separated-values", "text/plain"});
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        startActivityForResult(intent, REQUEST_IMPORT_CSV);
+    }
 
-            } catch (IOException e) {
-                Log.e(TAG, "保存文件失败: " + e.getMessage());
-                runOnUiThread(() -> Toast.makeText(this, "保存失败: " + e.getMessage(), Toast.LENGTH_SHORT).show());
+    private void onImportFilesPicked(Intent data) {
+        List<Uri> sources = new ArrayList<>();
+        if (data.getClipData() != null) {
+            for (int i = 0; i < data.getClipData().getItemCount(); i++) {
+                sources.add(data.getClipData().getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            sources.add(data.getData());
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        if (sources.size() == 1) {
+            importCsvFiles(sources, false);
+            return;
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("导入 " + sources.size() + " 个文件")
+                .setItems(new String[]{"分别导入", "按时间合并为一个会话"},
+                        (dialog, which) -> importCsvFiles(sources, which == 1))
+                .show();
+    }
+
+    private void importCsvFiles(List<Uri> sources, boolean merge) {
+        createDirectoryIfNeeded();
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.CHINA);
+        String stamp = sdf.format(new Date());
+
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_USER, () -> {
+            int imported = 0;
+            int invalidRows = 0;
+            String error = null;
+            List<List<Uri>> batches = new ArrayList<>();
+            if (merge) {
+                batches.add(sources);
+            } else {
+                for (Uri source : sources) {
+                    List<Uri> single = new ArrayList<>();
+                    single.add(source);
+                    batches.add(single);
+                }
+            }
+
+            for (int i = 0; i < batches.size(); i++) {
+                String fileName = (merge ? "score_records_merged_" : "score_records_import_") + stamp
+                        + (batches.size() > 1 ? "_" + (i + 1) : "") + ".csv";
+                Uri target = insertScoreFile(fileName, "text/csv");
+                if (target == null) {
+                    error = "无法创建文件";
+                    break;
+                }
+                try (OutputStream outputStream = getContentResolver().openOutputStream(target)) {
+                    CsvImporter.ImportResult result = merge ?
+                            CsvImporter.merge(getContentResolver(), batches.get(i), outputStream) :
+                            CsvImporter.importSession(getContentResolver(), batches.get(i).get(0), outputStream);
+                    imported += result.sources;
+                    invalidRows += result.invalidRows;
+                    Log.d(TAG, "导入完成: " + fileName + ", 有效行=" + result.rows + ", 无效行=" + result.invalidRows);
+                } catch (IOException e) {
+                    Log.e(TAG, "导入失败: " + e.getMessage(), e);
+                    error = e.getMessage();
+                    getContentResolver().delete(target, null, null);
+                }
+            }
+
+            if (imported > 0) {
+                SessionDocumentsProvider.notifyChanged(this);
+            }
+            if (error != null) {
+                return "导入失败: " + error;
             }
-        }).start();
+            return "已导入 " + imported + " 个文件" + (invalidRows > 0 ? "，跳过 " + invalidRows + " 行无效数据" : "");
+        }, message -> {
+            Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+            if (fileManagerAdapter != null) {
+                loadFiles();
+            }
+        }, null);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        isInForeground = true;
+        // 回到前台：立即保存积压的分数，恢复计时器（熄屏期间的分数与图表已在同一流程中更新）
+        if (saveStatePending) {
+            writeState();
+        }
+        if (session.isRecording) {
+            updateTimerDisplay((SystemClock.elapsedRealtime() - session.relativeStartTime) / 1000);
+            handler.removeCallbacks(timerRunnable);
+            handler.postDelayed(timerRunnable, 1000);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        isInForeground = false;
+        handler.removeCallbacks(timerRunnable); // 不可见时不需要每秒刷新
+        IoExecutor.get().submit(activityScope, IoExecutor.PRIORITY_PREFETCH, () -> {
+            debounceCalibrator.save(); // 没有新样本时不写文件
+            return null;
+        }, null, null);
+    }
+
+    private void requestNotificationPermissionIfNeeded() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU &&
+                ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                        != PackageManager.PERMISSION_GRANTED) {
+            // 拒绝后前台服务仍可运行，只是不显示通知
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS}, PERMISSION_REQUEST_NOTIFICATIONS);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        CounterService.setListener(null);
+        if (saveStatePending) {
+            writeState();
+        }
+        // 配置变更时记录继续，前台服务和分段写入线程都保留给重建后的界面
+        if (!isChangingConfigurations()) {
+            CounterService.stop(this);
+        }
+        if (session.bulkExport != null) {
+            session.bulkExport.detach(); // 导出继续，重建后的界面重新绑定
+        }
+        if (bulkExportDialog != null) {
+            bulkExportDialog.dismiss();
+        }
+        if (sessionPlayer != null) {
+            sessionPlayer.release();
+        }
+        if (toneGenerator != null) {
+            toneGenerator.release();
+        }
     }
 
     @Override
@@ -928,6 +2883,12 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT_CSV) {
+            if (resultCode == RESULT_OK && data != null) {
+                onImportFilesPicked(data);
+            }
+            return;
+        }
         if (requestCode == REQUEST_MANAGE_ALL_FILES) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
                 if (Environment.isExternalStorageManager()) {
@@ -941,30 +2902,4 @@ public class MainActivity extends AppCompatActivity implements
             }
         }
     }
-
-    // 修改 KeyPressRecord 类，使用 relativeTime 代替 timestamp
-    private static class KeyPressRecord {
-        long relativeTime;  // 相对时间（毫秒，从记录开始时计算）
-        int score;          // 当前分数
-        String action;      // 操作类型（INCREASE/DECREASE/RESET）
-
-        public KeyPressRecord(long relativeTime, int score, String action) {
-            this.relativeTime = relativeTime;
-            this.score = score;
-            this.action = action;
-        }
-
-        // Getters
-        public long getRelativeTime() {
-            return relativeTime;
-        }
-
-        public int getScore() {
-            return score;
-        }
-
-        public String getAction() {
-            return action;
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package com.example.volumecounter;
+
+import android.net.Uri;
+import android.os.Bundle;
+import androidx.lifecycle.ViewModel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 正在进行的记录会话。作为 ViewModel 在旋转屏幕、切换深色模式等配置变更中保留，
+ * 重建后的 MainActivity 直接引用同一组对象，不复制记录。
+ * 进程被回收时，{@link #saveTo} 只把少量标量写入 Bundle，
+ * 事件本身由 {@link SessionTail} 随按键追加到磁盘，{@link #restoreFrom} 一次读回当前分段。
+ */
+public class RecordingSession extends ViewModel {
+    private static final String KEY_RECORDING = "session.recording";
+    private static final String KEY_START_TIME = "session.startTime";
+    private static final String KEY_RELATIVE_START = "session.relativeStartTime";
+    private static final String KEY_REMARK = "session.remark";
+    private static final String KEY_PENDING_TAG = "session.pendingTag";
+    private static final String KEY_BUCKET_MS = "session.bucketMs";
+    private static final String KEY_TAGS = "session.tags";
+    private static final String KEY_SEGMENT_BASE = "session.segmentBase";
+    private static final String KEY_SEGMENT_MAX_EVENTS = "session.segmentMaxEvents";
+    private static final String KEY_SEGMENT_MAX_MINUTES = "session.segmentMaxMinutes";
+    private static final String KEY_MANIFEST_URI = "session.manifestUri";
+
+    long startTime = 0;         // 记录开始时间（绝对时间）
+    long relativeStartTime = 0; // 记录开始时的相对时间基准（elapsedRealtime，进程重启后仍有效）
+    boolean isRecording = false;
+    List<KeyPressRecord> keyPressRecords = new ArrayList<>();
+    String currentRemark = "";  // 当前备注
+    final UndoHistory undoHistory = new UndoHistory(UndoHistory.DEFAULT_CAPACITY);
+    EventStore.SessionWriter storeWriter; // 未启用事件数据库时为 null
+
+    TagDictionary sessionTags = TagDictionary.EMPTY; // 本次记录使用的字典
+    int pendingTag = 0;                              // 0 表示不加标签
+
+    // 分段记录（长时间记录时自动切换分段，后台写入并释放内存）
+    SessionSegmenter segmenter;
+    volatile Uri segmentManifestUri; // 仅在 segmentFlushExecutor 线程中读写
+    final ExecutorService segmentFlushExecutor = Executors.newSingleThreadExecutor();
+
+    SessionTail tail; // 在 MainActivity 中创建，需要应用的 filesDir
+
+    BulkExporter.Job bulkExport; // 进行中的批量导出，没有时为 null（只在主线程访问）
+    LiveEventServer liveEventServer; // 实时推送，未开启时为 null（只在主线程访问）
+
+    void attachTail(File dir) {
+        if (tail == null) {
+            tail = new SessionTail(dir);
+        }
+    }
+
+    // 记录中的快照：只有标量和分段信息，事件在尾部文件中
+    void saveTo(Bundle outState) {
+        outState.putString(KEY_REMARK, currentRemark);
+        if (!isRecording) return;
+        tail.flush();
+        outState.putBoolean(KEY_RECORDING, true);
+        outState.putLong(KEY_START_TIME, startTime);
+        outState.putLong(KEY_RELATIVE_START, relativeStartTime);
+        outState.putInt(KEY_PENDING_TAG, pendingTag);
+        outState.putLong(KEY_BUCKET_MS, keyPressRecords instanceof AggregatedRecordList ?
+                ((AggregatedRecordList) keyPressRecords).getBucketMs() : 0);
+        outState.putString(KEY_TAGS, sessionTags.toHeaderLine());
+        if (segmenter != null) {
+            outState.putString(KEY_SEGMENT_BASE, segmenter.getSessionBaseName());
+            outState.putInt(KEY_SEGMENT_MAX_EVENTS, segmenter.getMaxEvents());
+            outState.putInt(KEY_SEGMENT_MAX_MINUTES, segmenter.getMaxMinutes());
+        }
+        Uri manifestUri = segmentManifestUri;
+        if (manifestUri != null) {
+            outState.putString(KEY_MANIFEST_URI, manifestUri.toString());
+        }
+    }
+
+    /**
+     * 进程重启后从快照和尾部文件恢复（配置变更时 ViewModel 仍在，不需要调用）。
+     * 返回是否恢复了一次进行中的记录；尾部文件缺失时记录无法继续，只恢复备注。
+     * 事件数据库的写入不跨进程延续，恢复后的记录只保存为文件。
+     */
+    boolean restoreFrom(Bundle savedState) {
+        String remark = savedState.getString(KEY_REMARK);
+        if (remark != null) {
+            currentRemark = remark;
+        }
+        if (isRecording || !savedState.getBoolean(KEY_RECORDING, false)) return false;
+
+        long bucketMs = savedState.getLong(KEY_BUCKET_MS, 0);
+        List<KeyPressRecord> records = bucketMs > 0 ? new AggregatedRecordList(bucketMs) : new ArrayList<>();
+        long[] segment = tail.restore(records);
+        if (segment == null) return false;
+
+        startTime = savedState.getLong(KEY_START_TIME);
+        relativeStartTime = savedState.getLong(KEY_RELATIVE_START);
+        pendingTag = savedState.getInt(KEY_PENDING_TAG, 0);
+        sessionTags = TagDictionary.fromHeaderLine(savedState.getString(KEY_TAGS));
+        keyPressRecords = records;
+        String segmentBase = savedState.getString(KEY_SEGMENT_BASE);
+        if (segmentBase != null) {
+            segmenter = new SessionSegmenter(segmentBase, savedState.getInt(KEY_SEGMENT_MAX_EVENTS),
+                    savedState.getInt(KEY_SEGMENT_MAX_MINUTES));
+            segmenter.restore((int) segment[0], segment[1]);
+        }
+        String manifestUri = savedState.getString(KEY_MANIFEST_URI);
+        if (manifestUri != null) {
+            segmentManifestUri = Uri.parse(manifestUri);
+        }
+        isRecording = true;
+        return true;
+    }
+
+    @Override
+    protected void onCleared() {
+        segmentFlushExecutor.shutdown(); // 已提交的分段仍会写完
+        if (bulkExport != null) {
+            bulkExport.scope.cancel(); // 未完成的导出文件由导出任务删除
+        }
+        if (liveEventServer != null) {
+            liveEventServer.stop();
+        }
+        if (tail != null) {
+            tail.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.volumecounter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 分数提醒规则。规则文本每行一条，编译为若干平行的基本类型数组，
+ * 每次分数变化时顺序检查一遍，不分配任何对象：
+ * <pre>
+ *   every 50 vibrate        分数每越过 50 的倍数（上升）时提醒
+ *   at 100 sound            分数上升到 100 时提醒
+ *   rate 30/10 both         10 秒内按键超过 30 次时提醒（之后一个窗口内不再重复）
+ * </pre>
+ * 提醒方式为 vibrate（震动）、sound（提示音）或 both。
+ * 频率规则使用长度为 次数+1 的时间戳环形缓冲区：最早的一个仍在窗口内即表示超过阈值，
+ * 每次按键 O(1)。
+ */
+class RuleEngine {
+    static final String ACTION = "RULE_FIRED";
+
+    static final int EFFECT_VIBRATE = 1;
+    static final int EFFECT_SOUND = 2;
+
+    private static final int KIND_EVERY = 0;
+    private static final int KIND_AT = 1;
+    private static final int KIND_RATE = 2;
+    private static final int MAX_RATE_COUNT = 1000;
+
+    interface Listener {
+        void onRuleFired(int rule, int effects);
+    }
+
+    private final String[] sources; // 规则原文，写入记录时使用
+    private final int[] kinds;
+    private final int[] values;     // every/at：分数；rate：次数
+    private final long[] windows;   // rate：窗口长度（毫秒）
+    private final int[] effects;
+    // 频率规则的状态
+    private final int[] ringStarts;
+    private final int[] ringHeads;
+    private final long[] cooldownUntil;
+    private final long[] ring;
+
+    private RuleEngine(List<String> sources, List<int[]> compiled, List<Long> windows) {
+        int count = sources.size();
+        this.sources = sources.toArray(new String[0]);
+        kinds = new int[count];
+        values = new int[count];
+        this.windows = new long[count];
+        effects = new int[count];
+        ringStarts = new int[count];
+        ringHeads = new int[count];
+        cooldownUntil = new long[count];
+        int ringSize = 0;
+        for (int i = 0; i < count; i++) {
+            int[] rule = compiled.get(i);
+            kinds[i] = rule[0];
+            values[i] = rule[1];
+            effects[i] = rule[2];
+            this.windows[i] = windows.get(i);
+            ringStarts[i] = ringSize;
+            if (kinds[i] == KIND_RATE) {
+                ringSize += values[i] + 1;
+            }
+        }
+        ring = new long[ringSize];
+        Arrays.fill(ring, Long.MIN_VALUE);
+    }
+
+    static final RuleEngine EMPTY = new RuleEngine(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+
+    /**
+     * 编译规则文本；空行和 # 开头的行忽略。
+     * @throws IllegalArgumentException 某行无法解析，消息中包含行号
+     */
+    static RuleEngine compile(String text) {
+        List<String> sources = new ArrayList<>();
+        List<int[]> compiled = new ArrayList<>();
+        List<Long> windows = new ArrayList<>();
+        String[] lines = text == null ? new String[0] : text.split("\n");
+        for (int lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            String line = lines[lineNumber - 1].trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] tokens = line.toLowerCase(Locale.ROOT).split("\\s+");
+            try {
+                if (tokens.length != 3) {
+                    throw new IllegalArgumentException("格式应为：类型 参数 提醒方式");
+                }
+                int effect = parseEffect(tokens[2]);
+                long window = 0;
+                int kind;
+                int value;
+                switch (tokens[0]) {
+                    case "every":
+                        kind = KIND_EVERY;
+                        value = Integer.parseInt(tokens[1]);
+                        if (value <= 0) throw new IllegalArgumentException("间隔必须大于 0");
+                        break;
+                    case "at":
+                        kind = KIND_AT;
+                        value = Integer.parseInt(tokens[1]);
+                        break;
+                    case "rate":
+                        kind = KIND_RATE;
+                        int slash = tokens[1].indexOf('/');
+                        if (slash < 0) throw new IllegalArgumentException("频率格式应为 次数/秒数");
+                        value = Integer.parseInt(tokens[1].substring(0, slash));
+                        window = Long.parseLong(tokens[1].substring(slash + 1)) * 1000;
+                        if (value <= 0 || value > MAX_RATE_COUNT || window <= 0) {
+                            throw new IllegalArgumentException("次数应为 1-" + MAX_RATE_COUNT + "，秒数应大于 0");
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("未知的规则类型: " + tokens[0]);
+                }
+                sources.add(String.join(" ", tokens));
+                compiled.add(new int[]{kind, value, effect});
+                windows.add(window);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("第 " + lineNumber + " 行：数字格式错误");
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("第 " + lineNumber + " 行：" + e.getMessage());
+            }
+        }
+        return new RuleEngine(sources, compiled, windows);
+    }
+
+    private static int parseEffect(String token) {
+        switch (token) {
+            case "vibrate":
+                return EFFECT_VIBRATE;
+            case "sound":
+                return EFFECT_SOUND;
+            case "both":
+                return EFFECT_VIBRATE | EFFECT_SOUND;
+            default:
+                throw new IllegalArgumentException("提醒方式应为 vibrate、sound 或 both");
+        }
+    }
+
+    boolean isEmpty() {
+        return kinds.length == 0;
+    }
+
+    int size() {
+        return kinds.length;
+    }
+
+    String getSource(int rule) {
+        return sources[rule];
+    }
+
+    /**
+     * 每次分数变化后调用（主线程）。isPress 表示加减分按键，计入频率规则；
+     * now 为单调时钟（毫秒）。
+     */
+    void evaluate(int previousScore, int score, boolean isPress, long now, Listener listener) {
+        for (int i = 0; i < kinds.length; i++) {
+            boolean fired = false;
+            switch (kinds[i]) {
+                case KIND_EVERY:
+                    fired = score > previousScore
+                            && Math.floorDiv(score, values[i]) > Math.floorDiv(previousScore, values[i]);
+                    break;
+                case KIND_AT:
+                    fired = previousScore < values[i] && score >= values[i];
+                    break;
+                case KIND_RATE:
+                    if (isPress) {
+                        // 写入本次时间戳，head 随后指向最早的一个（count+1 次之前）
+                        int size = values[i] + 1;
+                        int start = ringStarts[i];
+                        ring[start + ringHeads[i]] = now;
+                        ringHeads[i] = ringHeads[i] + 1 == size ? 0 : ringHeads[i] + 1;
+                        long oldest = ring[start + ringHeads[i]];
+                        if (oldest >= now - windows[i] && now >= cooldownUntil[i]) {
+                            fired = true;
+                            cooldownUntil[i] = now + windows[i];
+                        }
+                    }
+                    break;
+            }
+            if (fired) {
+                listener.onRuleFired(i, effects[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.volumecounter;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 分数-时间曲线。
+ * 实时模式：每个像素列只保留最小/最大分数，已完成的列追加到缓存的 Path 中，
+ * 时间或分数超出范围时按2倍缩放并重建（均摊 O(1)）。
+ * 会话模式：由后台构建的 {@link ScorePyramid} 按可见窗口降采样，支持双指缩放和拖动。
+ */
+public class ScoreChartView extends View {
+    private static final long INITIAL_MS_PER_COLUMN = 100;
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint axisPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+
+    // 实时模式
+    private boolean liveMode = true;
+    private float[] liveMin = new float[0];
+    private float[] liveMax = new float[0];
+    private int liveColumns = 0;      // 已有数据的列数（最后一列仍在变化）
+    private int pathColumns = 0;      // 已写入 path 的列数
+    private long msPerColumn = INITIAL_MS_PER_COLUMN;
+    private int scoreLow = 0;
+    private int scoreHigh = 10;
+
+    // 会话模式
+    private ScorePyramid pyramid;
+    private long viewStart;
+    private long viewEnd;
+    private float[] columnMin = new float[0];
+    private float[] columnMax = new float[0];
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    public ScoreChartView(Context context) {
+        this(context, null);
+    }
+
+    public ScoreChartView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(1.5f * density);
+        linePaint.setColor(Color.rgb(0x33, 0x99, 0xFF));
+        axisPaint.setStrokeWidth(density);
+        axisPaint.setColor(Color.GRAY);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                zoom(detector.getScaleFactor(), detector.getFocusX());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2, float distanceX, float distanceY) {
+                pan(distanceX);
+                return true;
+            }
+
+            @Override
+            public boolean onDoubleTap(@NonNull MotionEvent e) {
+                resetViewport();
+                return true;
+            }
+        });
+    }
+
+    // ---------------- 实时模式 ----------------
+
+    public void resetLive() {
+        liveMode = true;
+        pyramid = null;
+        liveColumns = 0;
+        pathColumns = 0;
+        msPerColumn = INITIAL_MS_PER_COLUMN;
+        scoreLow = 0;
+        scoreHigh = 10;
+        path.rewind();
+        invalidate();
+    }
+
+    public void appendLive(long relativeTime, int score) {
+        if (!liveMode || liveMin.length == 0) return;
+
+        boolean rebuild = false;
+        while (relativeTime / msPerColumn >= liveMin.length) {
+            halveResolution();
+            rebuild = true;
+        }
+        while (score < scoreLow || score > scoreHigh) {
+            int span = scoreHigh - scoreLow;
+            if (score < scoreLow) scoreLow -= span;
+            else scoreHigh += span;
+            rebuild = true;
+        }
+
+        int column = (int) (relativeTime / msPerColumn);
+        for (int c = liveColumns; c <= column; c++) {
+            liveMin[c] = Float.NaN;
+            liveMax[c] = Float.NaN;
+        }
+        if (Float.isNaN(liveMin[column]) || score < liveMin[column]) liveMin[column] = score;
+        if (Float.isNaN(liveMax[column]) || score > liveMax[column]) liveMax[column] = score;
+        liveColumns = Math.max(liveColumns, column + 1);
+
+        if (rebuild) {
+            path.rewind();
+            pathColumns = 0;
+        }
+        // 最后一列之前的列已经确定，追加到缓存路径
+        appendColumnsToPath(liveMin, liveMax, pathColumns, liveColumns - 1);
+        pathColumns = Math.max(pathColumns, liveColumns - 1);
+        invalidate();
+    }
+
+    // 合并相邻列，时间分辨率减半
+    private void halveResolution() {
+        int merged = (liveColumns + 1) / 2;
+        for (int i = 0; i < merged; i++) {
+            int a = i * 2;
+            int b = a + 1 < liveColumns ? a + 1 : a;
+            liveMin[i] = minIgnoringNaN(liveMin[a], liveMin[b]);
+            liveMax[i] = maxIgnoringNaN(liveMax[a], liveMax[b]);
+        }
+        liveColumns = merged;
+        pathColumns = 0;
+        msPerColumn *= 2;
+    }
+
+    // ---------------- 会话模式 ----------------
+
+    public void setPyramid(ScorePyramid pyramid) {
+        liveMode = false;
+        this.pyramid = pyramid;
+        resetViewport();
+    }
+
+    private void resetViewport() {
+        if (pyramid == null) return;
+        viewStart = pyramid.getStartTime();
+        viewEnd = Math.max(pyramid.getEndTime(), viewStart + 1000);
+        scoreLow = pyramid.getMinScore();
+        scoreHigh = Math.max(pyramid.getMaxScore(), scoreLow + 1);
+        invalidate();
+    }
+
+    private void zoom(float factor, float focusX) {
+        if (pyramid == null || getWidth() == 0) return;
+        long span = viewEnd - viewStart;
+        long focus = viewStart + (long) (span * (focusX / getWidth()));
+        long newSpan = Math.max(200, (long) (span / factor));
+        viewStart = focus - (long) (newSpan * (focusX / getWidth()));
+        viewEnd = viewStart + newSpan;
+        invalidate();
+    }
+
+    private void pan(float distanceX) {
+        if (pyramid == null || getWidth() == 0) return;
+        long delta = (long) ((viewEnd - viewStart) * (distanceX / getWidth()));
+        viewStart += delta;
+        viewEnd += delta;
+        invalidate();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (liveMode) return super.onTouchEvent(event);
+        getParent().requestDisallowInterceptTouchEvent(true);
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    // ---------------- 绘制 ----------------
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (w <= 0) return;
+        float[] oldMin = liveMin;
+        float[] oldMax = liveMax;
+        liveMin = new float[w];
+        liveMax = new float[w];
+        columnMin = new float[w];
+        columnMax = new float[w];
+        // 保留已有的实时数据（列数超出新宽度时先降低分辨率）
+        int keep = Math.min(liveColumns, oldMin.length);
+        System.arraycopy(oldMin, 0, liveMin, 0, keep);
+        System.arraycopy(oldMax, 0, liveMax, 0, keep);
+        liveColumns = keep;
+        while (liveColumns > w) halveResolution();
+        path.rewind();
+        pathColumns = 0;
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        super.onDraw(canvas);
+        float bottom = getHeight() - getPaddingBottom();
+        canvas.drawLine(getPaddingLeft(), bottom, getWidth() - getPaddingRight(), bottom, axisPaint);
+
+        if (liveMode) {
+            if (pathColumns < liveColumns - 1) {
+                appendColumnsToPath(liveMin, liveMax, pathColumns, liveColumns - 1);
+                pathColumns = liveColumns - 1;
+            }
+            canvas.drawPath(path, linePaint);
+            // 最后一列仍可能变化，单独绘制
+            if (liveColumns > 0 && !Float.isNaN(liveMin[liveColumns - 1])) {
+                float x = liveColumns - 1;
+                canvas.drawLine(x, toY(liveMin[liveColumns - 1]), x, toY(liveMax[liveColumns - 1]), linePaint);
+            }
+        } else if (pyramid != null) {
+            int columns = columnMin.length;
+            pyramid.render(viewStart, viewEnd, columns, columnMin, columnMax);
+            path.rewind();
+            appendColumnsToPath(columnMin, columnMax, 0, columns);
+            canvas.drawPath(path, linePaint);
+        }
+    }
+
+    // 将 [from, to) 列追加到 path：列内画竖线，相邻列之间相连
+    private void appendColumnsToPath(float[] min, float[] max, int from, int to) {
+        for (int c = from; c < to; c++) {
+            if (Float.isNaN(min[c])) continue;
+            float top = toY(max[c]);
+            float low = toY(min[c]);
+            if (path.isEmpty()) {
+                path.moveTo(c, low);
+            } else {
+                path.lineTo(c, low);
+            }
+            if (top != low) {
+                path.lineTo(c, top);
+                path.moveTo(c, low);
+            }
+        }
+    }
+
+    private float toY(float score) {
+        float top = getPaddingTop();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        return top + height * (1f - (score - scoreLow) / (float) (scoreHigh - scoreLow));
+    }
+
+    private static float minIgnoringNaN(float a, float b) {
+        if (Float.isNaN(a)) return b;
+        if (Float.isNaN(b)) return a;
+        return Math.min(a, b);
+    }
+
+    private static float maxIgnoringNaN(float a, float b) {
+        if (Float.isNaN(a)) return b;
+        if (Float.isNaN(b)) return a;
+        return Math.max(a, b);
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 会话文件的完整性校验：写入时边写边计算 CRC32C 并统计字节数，
+ * 文件末尾追加一行校验注释 {@code #CRC32C:<8位十六进制>,BYTES:<字节数>}，
+ * 校验值覆盖该行之前的全部字节。读取时注释行会被 {@link ScoreCsvReader} 跳过。
+ */
+class ScoreChecksum {
+    static final String TRAILER_PREFIX = "#CRC32C:";
+
+    // 校验结果
+    static final int UNCHECKED = 0;   // 尚未校验
+    static final int OK = 1;
+    static final int NO_CHECKSUM = 2; // 旧文件或外部文件，没有校验行
+    static final int CORRUPT = 3;
+
+    private static final int TAIL_SIZE = 128; // 大于校验行的最大长度
+
+    static boolean isTrailer(String line) {
+        return line.startsWith(TRAILER_PREFIX);
+    }
+
+    /**
+     * 文件尾部 TAIL_SIZE 个字节的 CRC32C，用作会话文件的版本签名。
+     * 应用写出的文件尾部就是覆盖全文的校验行，任何编辑都会改变它；
+     * 没有校验行的外部文件只能发现尾部的变化。
+     */
+    static long tailSignature(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, TAIL_SIZE));
+        long position = size - buffer.capacity();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("文件在读取时被截断");
+            }
+        }
+        Crc32c crc = new Crc32c();
+        crc.update(buffer.array(), 0, buffer.position());
+        return crc.getValue();
+    }
+
+    /**
+     * 边写边计算校验值的输出流。内容写完后调用 {@link #writeTrailer()} 追加校验行。
+     */
+    static class ChecksumOutputStream extends FilterOutputStream {
+        private final Crc32c crc = new Crc32c();
+        private final byte[] tail = new byte[TAIL_SIZE]; // 最近写出的字节，用于计算尾部签名
+        private int tailLength;
+        private long count;
+
+        ChecksumOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            count++;
+            if (tailLength == TAIL_SIZE) {
+                System.arraycopy(tail, 1, tail, 0, TAIL_SIZE - 1);
+                tailLength--;
+            }
+            tail[tailLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            count += len;
+            remember(b, off, len);
+        }
+
+        private void remember(byte[] b, int off, int len) {
+            if (len >= TAIL_SIZE) {
+                System.arraycopy(b, off + len - TAIL_SIZE, tail, 0, TAIL_SIZE);
+                tailLength = TAIL_SIZE;
+                return;
+            }
+            int keep = Math.min(tailLength, TAIL_SIZE - len);
+            System.arraycopy(tail, tailLength - keep, tail, 0, keep);
+            System.arraycopy(b, off, tail, keep, len);
+            tailLength = keep + len;
+        }
+
+        // 与 tailSignature(FileChannel) 对同一文件的结果相同，须在写完校验行后调用
+        long getTailSignature() {
+            Crc32c signature = new Crc32c();
+            signature.update(tail, 0, tailLength);
+            return signature.getValue();
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        // 写入校验行并返回文件的总字节数（含校验行）
+        long writeTrailer() throws IOException {
+            byte[] trailer = String.format(Locale.ROOT, "%s%08x,BYTES:%d\n",
+                    TRAILER_PREFIX, crc.getValue(), count).getBytes(StandardCharsets.UTF_8);
+            out.write(trailer);
+            out.flush();
+            remember(trailer, 0, trailer.length);
+            return count + trailer.length;
+        }
+    }
+
+    /**
+     * 流式校验：除最后 TAIL_SIZE 个字节外边读边计算，读完后在尾部查找校验行。
+     */
+    static int verify(InputStream in) throws IOException {
+        Crc32c crc = new Crc32c();
+        byte[] buffer = new byte[8192 + TAIL_SIZE];
+        int pending = 0;
+        long checked = 0;
+        int read;
+        while ((read = in.read(buffer, pending, buffer.length - pending)) != -1) {
+            pending += read;
+            if (pending > TAIL_SIZE) {
+                int feed = pending - TAIL_SIZE;
+                crc.update(buffer, 0, feed);
+                checked += feed;
+                System.arraycopy(buffer, feed, buffer, 0, TAIL_SIZE);
+                pending = TAIL_SIZE;
+            }
+        }
+
+        // 最后一个非空行
+        int end = pending;
+        while (end > 0 && (buffer[end - 1] == '\n' || buffer[end - 1] == '\r')) end--;
+        int start = end;
+        while (start > 0 && buffer[start - 1] != '\n') start--;
+        String lastLine = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        if (!isTrailer(lastLine)) {
+            return NO_CHECKSUM;
+        }
+        crc.update(buffer, 0, start);
+        checked += start;
+
+        int comma = lastLine.indexOf(",BYTES:");
+        if (comma < 0) {
+            return CORRUPT;
+        }
+        try {
+            long expectedCrc = Long.parseLong(lastLine.substring(TRAILER_PREFIX.length(), comma), 16);
+            long expectedBytes = Long.parseLong(lastLine.substring(comma + ",BYTES:".length()));
+            return expectedCrc == crc.getValue() && expectedBytes == checked ? OK : CORRUPT;
+        } catch (NumberFormatException e) {
+            return CORRUPT;
+        }
+    }
+
+    // 校验一个会话；分段会话逐段校验，取最差的结果
+    static int verify(ContentResolver resolver, FileInfo fileInfo) {
+        List<Uri> parts = fileInfo.isSegmented() ? fileInfo.getSegmentUris() : Collections.emptyList();
+        try {
+            if (parts.isEmpty()) {
+                try (InputStream in = fileInfo.openStream(resolver)) {
+                    return verify(in);
+                }
+            }
+            int worst = OK;
+            for (Uri part : parts) {
+                try (InputStream in = resolver.openInputStream(part)) {
+                    if (in == null) return CORRUPT;
+                    worst = Math.max(worst, verify(in));
+                }
+            }
+            return worst;
+        } catch (IOException e) {
+            return CORRUPT;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.volumecounter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * 流式读取记录CSV（#REMARK: 行 + #TAGS: 行 + 表头 + 数据行）。
+ * 数据行直接在字节缓冲区上解析，每行不产生新的对象；
+ * 不合法的行会被跳过并计数。
+ */
+class ScoreCsvReader implements Closeable {
+    static final String[] ACTIONS = {"START_RECORD", "INCREASE", "DECREASE", "RESET", "END_RECORD",
+            "RETRACTED_INCREASE", "RETRACTED_DECREASE", "RETRACTED_RESET", AggregatedRecordList.BUCKET, RuleEngine.ACTION};
+    private static final byte[][] ACTION_BYTES = new byte[ACTIONS.length][];
+    private static final byte[] HEADER_BYTES = ScoreCsvWriter.HEADER.getBytes(StandardCharsets.UTF_8);
+    // 相对时间上限（100 年），超出的行不合法；与开始时间相加也不会溢出
+    private static final long MAX_RELATIVE_TIME = 100L * 365 * 24 * 3600 * 1000;
+
+    static {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            ACTION_BYTES[i] = ACTIONS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[16 * 1024];
+    private int bufferPos = 0;
+    private int bufferLimit = 0;
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private boolean pendingLine = false; // 构造时读到的首行就是数据行
+    private final Calendar calendar = Calendar.getInstance(Locale.CHINA);
+    private final int[] bucketStats = new int[4];
+    private final String[] tagLabels = new String[TagDictionary.MAX_TAGS + 1]; // 文件中的标签字典
+
+    private String remark = "";
+    private long bytesRead = 0;
+    private long lineOffset = 0; // 当前行行首在流中的字节偏移
+    private int lineNumber = 0;
+    private int validRows = 0;
+    private int invalidRows = 0;
+
+    // 当前行
+    private long relativeTime = -1;
+    private int score;
+    private String action;
+    private long wallTime; // 时间列对应的毫秒时间戳，无法解析时为 -1
+    // 桶行（聚合模式）的统计列，其他行为 0
+    private int bucketDelta;
+    private int bucketPresses;
+    private int bucketMin;
+    private int bucketMax;
+    private String note; // 提醒规则行的规则原文，带标签的行为标签，其他行为 null
+    private int tag;     // 标签编号，没有标签或标签已展开为文本时为 0
+
+    ScoreCsvReader(InputStream in) throws IOException {
+        this.in = in;
+        // 读取备注行和表头
+        boolean firstLine = true;
+        while (readLine()) {
+            if (firstLine) {
+                skipByteOrderMark();
+                firstLine = false;
+            }
+            if (lineLength == 0) continue;
+            if (startsWith(SessionSegmenter.REMARK_PREFIX)) {
+                int prefix = SessionSegmenter.REMARK_PREFIX.length();
+                remark = new String(line, prefix, lineLength - prefix, StandardCharsets.UTF_8);
+                continue;
+            }
+            if (startsWith(TagDictionary.PREFIX)) {
+                readTags();
+                continue;
+            }
+            if (isDigit(line[0])) {
+                pendingLine = true; // 没有表头
+            }
+            break;
+        }
+    }
+
+    String getRemark() { return remark; }
+    long getRelativeTime() { return relativeTime; }
+    int getScore() { return score; }
+    String getAction() { return action; }
+    long getWallTime() { return wallTime; }
+    boolean isBucket() { return action == AggregatedRecordList.BUCKET; }
+    int getBucketDelta() { return bucketDelta; }
+    int getBucketPresses() { return bucketPresses; }
+    int getBucketMin() { return bucketMin; }
+    int getBucketMax() { return bucketMax; }
+    String getNote() { return note; }
+    int getTag() { return tag; }
+    int getValidRows() { return validRows; }
+    int getInvalidRows() { return invalidRows; }
+    int getLineNumber() { return lineNumber; }
+    long getBytesRead() { return bytesRead; }
+    long getLineOffset() { return lineOffset; }
+
+    /**
+     * 补充标签字典（下标为编号）。从表头之后的偏移开始读取时读不到文件开头的字典行，
+     * 由调用方事先读出，须在第一次 next() 之前调用。
+     */
+    void addTags(String[] labels) {
+        for (int code = 1; code < labels.length && code < tagLabels.length; code++) {
+            if (labels[code] != null) tagLabels[code] = labels[code];
+        }
+    }
+
+    // 读取下一条合法记录，文件结束时返回 false
+    boolean next() throws IOException {
+        while (pendingLine || readLine()) {
+            pendingLine = false;
+            if (lineLength == 0) continue;
+            if (line[0] == '#') {
+                // 拼接的分段各有字典行，编号相同；其他为注释行
+                if (startsWith(TagDictionary.PREFIX)) readTags();
+                continue;
+            }
+            if (startsWith(HEADER_BYTES)) continue;            // 拼接的分段中重复的表头
+            if (parseRow()) {
+                validRows++;
+                return true;
+            }
+            invalidRows++;
+        }
+        return false;
+    }
+
+    private boolean parseRow() {
+        int pos = 0;
+
+        // 相对时间
+        long time = 0;
+        int start = pos;
+        while (pos < lineLength && isDigit(line[pos])) {
+            time = time * 10 + (line[pos++] - '0');
+            if (time > MAX_RELATIVE_TIME) return false;
+        }
+        if (pos == start || pos >= lineLength || line[pos++] != ',') return false;
+        if (time < relativeTime) return false; // 时间必须单调不减
+
+        // 分数（允许负数）
+        boolean negative = pos < lineLength && line[pos] == '-';
+        if (negative) pos++;
+        long value = 0;
+        start = pos;
+        while (pos < lineLength && isDigit(line[pos])) {
+            value = value * 10 + (line[pos++] - '0');
+            if (value > Integer.MAX_VALUE) return false;
+        }
+        if (pos == start || pos >= lineLength || line[pos++] != ',') return false;
+
+        // 操作类型
+        start = pos;
+        while (pos < lineLength && line[pos] != ',') pos++;
+        String matched = matchAction(start, pos - start);
+        if (matched == null) return false;
+
+        // 时间列（可选）
+        long wall = -1;
+        if (pos < lineLength && line[pos] == ',') {
+            wall = parseDateTime(pos + 1, lineLength - pos - 1);
+        }
+
+        // 桶行：时间列之后的净变化、按键次数、最低分、最高分
+        if (matched == AggregatedRecordList.BUCKET) {
+            if (pos < lineLength) pos++; // 跳过时间列
+            while (pos < lineLength && line[pos] != ',') pos++;
+            int[] stats = bucketStats;
+            for (int i = 0; i < stats.length; i++) {
+                if (pos >= lineLength || line[pos++] != ',') return false;
+                boolean minus = pos < lineLength && line[pos] == '-';
+                if (minus) pos++;
+                long number = 0;
+                start = pos;
+                while (pos < lineLength && isDigit(line[pos])) {
+                    number = number * 10 + (line[pos++] - '0');
+                    if (number > Integer.MAX_VALUE) return false;
+                }
+                if (pos == start) return false;
+                stats[i] = (int) (minus ? -number : number);
+            }
+            bucketDelta = stats[0];
+            bucketPresses = stats[1];
+            bucketMin = stats[2];
+            bucketMax = stats[3];
+        } else {
+            bucketDelta = bucketPresses = bucketMin = bucketMax = 0;
+        }
+
+        // 时间列之后的附加列：提醒规则行为规则原文；其他行为标签编号，
+        // 导出后的文件中为标签文本
+        String text = null;
+        int code = 0;
+        if (matched != AggregatedRecordList.BUCKET) {
+            int comma = pos < lineLength ? pos + 1 : lineLength; // 跳过时间列
+            while (comma < lineLength && line[comma] != ',') comma++;
+            if (comma < lineLength) {
+                if (matched != RuleEngine.ACTION) {
+                    code = parseTag(comma + 1);
+                }
+                text = code > 0 ? tagLabels[code] :
+                        new String(line, comma + 1, lineLength - comma - 1, StandardCharsets.UTF_8);
+            }
+        }
+        note = text;
+        tag = code;
+
+        relativeTime = time;
+        score = (int) (negative ? -value : value);
+        action = matched;
+        wallTime = wall;
+        return true;
+    }
+
+    // 字典中存在的标签编号，否则返回 0
+    private int parseTag(int offset) {
+        int code = 0;
+        int pos = offset;
+        while (pos < lineLength && isDigit(line[pos]) && code <= TagDictionary.MAX_TAGS) {
+            code = code * 10 + (line[pos++] - '0');
+        }
+        if (pos == offset || pos != lineLength || code > TagDictionary.MAX_TAGS) return 0;
+        return tagLabels[code] != null ? code : 0;
+    }
+
+    private void readTags() {
+        TagDictionary.parseHeaderLine(new String(line, 0, lineLength, StandardCharsets.UTF_8), tagLabels);
+    }
+
+    private String matchAction(int offset, int length) {
+        for (int i = 0; i < ACTION_BYTES.length; i++) {
+            byte[] candidate = ACTION_BYTES[i];
+            if (candidate.length != length) continue;
+            boolean equal = true;
+            for (int j = 0; j < length; j++) {
+                if (line[offset + j] != candidate[j]) {
+                    equal = false;
+                    break;
+                }
+            }
+            if (equal) return ACTIONS[i];
+        }
+        return null;
+    }
+
+    // 解析 yyyy-MM-dd HH:mm:ss，字段超出范围或早于 1970 年时返回 -1
+    private long parseDateTime(int offset, int length) {
+        if (length < 19) return -1;
+        int year = digits(offset, 4);
+        int month = digits(offset + 5, 2);
+        int day = digits(offset + 8, 2);
+        int hour = digits(offset + 11, 2);
+        int minute = digits(offset + 14, 2);
+        int second = digits(offset + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) return -1;
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        long millis = calendar.getTimeInMillis();
+        return millis >= 0 ? millis : -1;
+    }
+
+    private int digits(int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            if (!isDigit(line[i])) return -1;
+            value = value * 10 + (line[i] - '0');
+        }
+        return value;
+    }
+
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        lineOffset = bytesRead - (bufferLimit - bufferPos);
+        boolean any = false;
+        while (true) {
+            if (bufferPos >= bufferLimit) {
+                bufferLimit = in.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if (bufferLimit <= 0) {
+                    bufferLimit = 0;
+                    if (any) lineNumber++;
+                    return any;
+                }
+                bytesRead += bufferLimit;
+            }
+            byte b = buffer[bufferPos++];
+            any = true;
+            if (b == '\n') break;
+            if (b == '\r') continue;
+            if (lineLength == line.length) {
+                byte[] grown = new byte[line.length * 2];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+            }
+            line[lineLength++] = b;
+        }
+        lineNumber++;
+        return true;
+    }
+
+    // Excel 另存的文件可能带有 UTF-8 BOM
+    private void skipByteOrderMark() {
+        if (lineLength >= 3 && line[0] == (byte) 0xEF && line[1] == (byte) 0xBB && line[2] == (byte) 0xBF) {
+            System.arraycopy(line, 3, line, 0, lineLength - 3);
+            lineLength -= 3;
+        }
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (lineLength < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean startsWith(String prefix) {
+        if (lineLength < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
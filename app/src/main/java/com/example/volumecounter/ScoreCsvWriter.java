@@ -0,0 +1,137 @@
+package com.example.volumecounter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 按统一格式写出记录CSV：可选的 #REMARK: 行和 #TAGS: 行、表头、数据行，以及结尾的校验行。
+ */
+class ScoreCsvWriter {
+    static final String HEADER = "相对时间(毫秒),分数,操作类型,时间(秒)";
+
+    private final ScoreChecksum.ChecksumOutputStream checksum;
+    private final BufferedWriter writer;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.CHINA);
+    private final Date date = new Date();
+    private SessionIndex.Builder indexBuilder;
+
+    ScoreCsvWriter(OutputStream outputStream) {
+        this.checksum = new ScoreChecksum.ChecksumOutputStream(outputStream);
+        this.writer = new BufferedWriter(new OutputStreamWriter(checksum, StandardCharsets.UTF_8));
+    }
+
+    // 写入的同时收集稀疏偏移索引，需在写入表头之前设置
+    void setIndexBuilder(SessionIndex.Builder indexBuilder) {
+        this.indexBuilder = indexBuilder;
+    }
+
+    // 写入备注信息（如果有）和表头
+    void writeHeader(String remark) throws IOException {
+        writeHeader(remark, null);
+    }
+
+    // tagsLine 为 TagDictionary 生成的字典行，没有用到标签时为 null
+    void writeHeader(String remark, String tagsLine) throws IOException {
+        if (remark != null && !remark.isEmpty()) {
+            writer.write(SessionSegmenter.REMARK_PREFIX + remark);
+            writer.newLine();
+        }
+        if (tagsLine != null) {
+            writer.write(tagsLine);
+            writer.newLine();
+        }
+        writer.write(HEADER);
+        writer.newLine();
+    }
+
+    // wallTime 为该行对应的绝对时间（毫秒）
+    void writeRow(long relativeTime, int score, String action, long wallTime) throws IOException {
+        writeRow(relativeTime, score, action, wallTime, null);
+    }
+
+    // note 不为空时写在时间列之后（不能包含逗号和换行）
+    void writeRow(long relativeTime, int score, String action, long wallTime, String note) throws IOException {
+        writeColumns(relativeTime, score, action, wallTime);
+        if (note != null) {
+            writer.write(',');
+            writer.write(note);
+        }
+        writer.newLine();
+    }
+
+    // 带标签的行：时间列之后为标签编号，对应文件开头的字典行
+    void writeTaggedRow(long relativeTime, int score, String action, long wallTime, int tag) throws IOException {
+        writeColumns(relativeTime, score, action, wallTime);
+        writer.write(',');
+        writer.write(Integer.toString(tag));
+        writer.newLine();
+    }
+
+    /**
+     * 聚合模式的桶行：前四列与普通行相同（时间为桶开始时间，分数为桶结束时的分数），
+     * 之后依次为净变化、按键次数、桶内最低分、最高分。
+     */
+    void writeBucketRow(long relativeTime, int score, long wallTime,
+                        int delta, int presses, int minScore, int maxScore) throws IOException {
+        writeColumns(relativeTime, score, AggregatedRecordList.BUCKET, wallTime);
+        writer.write(',');
+        writer.write(Integer.toString(delta));
+        writer.write(',');
+        writer.write(Integer.toString(presses));
+        writer.write(',');
+        writer.write(Integer.toString(minScore));
+        writer.write(',');
+        writer.write(Integer.toString(maxScore));
+        writer.newLine();
+    }
+
+    // 复制读取器的当前行（包括桶行的统计列），时间可以重新指定；标签编号展开为标签文本
+    void copyRow(ScoreCsvReader reader, long relativeTime, long wallTime) throws IOException {
+        if (reader.isBucket()) {
+            writeBucketRow(relativeTime, reader.getScore(), wallTime, reader.getBucketDelta(),
+                    reader.getBucketPresses(), reader.getBucketMin(), reader.getBucketMax());
+        } else {
+            writeRow(relativeTime, reader.getScore(), reader.getAction(), wallTime, reader.getNote());
+        }
+    }
+
+    private void writeColumns(long relativeTime, int score, String action, long wallTime) throws IOException {
+        if (indexBuilder != null) {
+            if (indexBuilder.needsOffset()) {
+                writer.flush(); // 使字节计数等于本行的行首偏移
+                indexBuilder.addPoint(relativeTime, checksum.getCount());
+            }
+            indexBuilder.countRow(relativeTime);
+        }
+        date.setTime(wallTime);
+        writer.write(Long.toString(relativeTime));
+        writer.write(',');
+        writer.write(Integer.toString(score));
+        writer.write(',');
+        writer.write(action);
+        writer.write(',');
+        writer.write(timeFormat.format(date));
+    }
+
+    // 把已写的行刷新到输出流（分批输出时使用）
+    void flush() throws IOException {
+        writer.flush();
+    }
+
+    // 写完所有行后调用：追加校验行，返回写入的总字节数
+    long finish() throws IOException {
+        writer.flush();
+        return checksum.writeTrailer();
+    }
+
+    // finish 之后可用：文件尾部签名，与索引一起保存
+    long getTailSignature() {
+        return checksum.getTailSignature();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.volumecounter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 已保存会话的多分辨率金字塔：第0层为原始事件，第k层为每 2^k 个连续事件的最小/最大分数。
+ * 绘制任意时间窗口时选择合适的层级，按像素列输出最小/最大值，代价只与宽度有关。
+ */
+class ScorePyramid {
+    private final long[] times;
+    private final int[] scores;
+    private final int count;
+    private final int[][] levelMin; // levelMin[k][i]：第k层第i个桶的最小分数（k从1开始）
+    private final int[][] levelMax;
+    private final int minScore;
+    private final int maxScore;
+
+    private ScorePyramid(long[] times, int[] scores, int count) {
+        this.times = times;
+        this.scores = scores;
+        this.count = count;
+
+        int levels = 1;
+        while ((count >> levels) > 0) levels++;
+        levelMin = new int[levels][];
+        levelMax = new int[levels][];
+        levelMin[0] = scores;
+        levelMax[0] = scores;
+        for (int k = 1; k < levels; k++) {
+            int[] prevMin = levelMin[k - 1];
+            int[] prevMax = levelMax[k - 1];
+            int size = (count + (1 << k) - 1) >> k;
+            int prevSize = (count + (1 << (k - 1)) - 1) >> (k - 1);
+            int[] min = new int[size];
+            int[] max = new int[size];
+            for (int i = 0; i < size; i++) {
+                int a = i * 2;
+                int b = Math.min(a + 1, prevSize - 1);
+                min[i] = Math.min(prevMin[a], prevMin[b]);
+                max[i] = Math.max(prevMax[a], prevMax[b]);
+            }
+            levelMin[k] = min;
+            levelMax[k] = max;
+        }
+
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            lo = Math.min(lo, scores[i]);
+            hi = Math.max(hi, scores[i]);
+        }
+        minScore = count > 0 ? lo : 0;
+        maxScore = count > 0 ? hi : 0;
+    }
+
+    // 在后台线程中调用：流式读取会话并构建金字塔
+    static ScorePyramid build(ScoreCsvReader reader) throws IOException {
+        long[] times = new long[1024];
+        int[] scores = new int[1024];
+        int count = 0;
+        while (reader.next()) {
+            if (KeyPressRecord.isRetracted(reader.getAction())) continue; // 已撤销的事件不绘制
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                scores = Arrays.copyOf(scores, count * 2);
+            }
+            times[count] = reader.getRelativeTime();
+            scores[count] = reader.getScore();
+            count++;
+        }
+        return new ScorePyramid(times, scores, count);
+    }
+
+    int getCount() { return count; }
+    long getStartTime() { return count > 0 ? times[0] : 0; }
+    long getEndTime() { return count > 0 ? times[count - 1] : 0; }
+    int getMinScore() { return minScore; }
+    int getMaxScore() { return maxScore; }
+
+    /**
+     * 将 [startTime, endTime] 内的事件按像素列汇总到 outMin/outMax（长度至少为 columns），
+     * 没有事件的列填 Float.NaN。返回写入的列数。
+     */
+    int render(long startTime, long endTime, int columns, float[] outMin, float[] outMax) {
+        Arrays.fill(outMin, 0, columns, Float.NaN);
+        Arrays.fill(outMax, 0, columns, Float.NaN);
+        if (count == 0 || endTime <= startTime || columns <= 0) return columns;
+
+        int from = lowerBound(startTime);
+        int to = lowerBound(endTime + 1); // 不含
+        if (from >= to) return columns;
+
+        // 选择每列约有1~2个桶的层级
+        int level = 0;
+        while (level + 1 < levelMin.length && ((to - from) >> (level + 1)) >= columns * 2) {
+            level++;
+        }
+        int[] min = levelMin[level];
+        int[] max = levelMax[level];
+        double pixelsPerMs = (double) columns / (endTime - startTime);
+
+        for (int bucket = from >> level; bucket <= (to - 1) >> level; bucket++) {
+            int first = Math.max(bucket << level, from);
+            int column = (int) ((times[first] - startTime) * pixelsPerMs);
+            if (column < 0) column = 0;
+            if (column >= columns) column = columns - 1;
+            float lo = min[bucket];
+            float hi = max[bucket];
+            if (Float.isNaN(outMin[column]) || lo < outMin[column]) outMin[column] = lo;
+            if (Float.isNaN(outMax[column]) || hi > outMax[column]) outMax[column] = hi;
+        }
+        return columns;
+    }
+
+    private int lowerBound(long time) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
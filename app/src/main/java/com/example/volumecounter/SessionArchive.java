@@ -0,0 +1,400 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 月度归档文件：依次存放 gzip 压缩的会话（成员），文件末尾是索引和固定长度的尾部。
+ * 尾部格式：索引偏移(long) + 成员数(int) + 魔数(int)。
+ * 追加时新成员和新索引写在文件末尾，只有新尾部写完后新成员才可见；
+ * 追加失败或被取消时调用方用 {@link #rollback} 截断回追加前的大小，让旧尾部重新位于文件末尾。
+ * 读取单个成员只需要读尾部、索引，再定位到成员所在的区间。
+ * 所有写入（追加、移除成员、整理）都在 {@link #LOCK} 内进行。
+ */
+class SessionArchive {
+    private static final String TAG = "SessionArchive";
+    static final String PREFIX = "score_archive_";
+    static final String SUFFIX = ".sarc";
+    static final String MIME_TYPE = "application/octet-stream";
+    private static final int MAGIC = 0x53415243; // "SARC"
+    private static final int FOOTER_SIZE = 16;
+    // 整理日志：紧凑后的完整归档和目标 URI，写好后才开始覆盖原归档
+    private static final String COMPACT_JOURNAL = "archive_compact.sarc";
+    private static final String COMPACT_TARGET = "archive_compact.target";
+
+    // 归档任务、立即归档和移除成员共用，同一时间只有一个写入方
+    static final Object LOCK = new Object();
+
+    static class Entry {
+        String name;
+        String remark;
+        long dateModified; // 原文件的修改时间（秒）
+        long size;         // 原文件大小
+        long offset;       // 成员在归档中的位置
+        long length;       // 压缩后的长度
+    }
+
+    static boolean isArchiveName(String displayName) {
+        return displayName != null && displayName.endsWith(SUFFIX);
+    }
+
+    static String archiveNameForMonth(String month) {
+        return PREFIX + month + SUFFIX;
+    }
+
+    // 读取索引，空文件返回空列表
+    static List<Entry> readIndex(FileChannel channel) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long fileSize = channel.size();
+        if (fileSize == 0) {
+            return entries;
+        }
+        if (fileSize < FOOTER_SIZE) {
+            throw new IOException("归档文件已损坏");
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        readFully(channel, footer, fileSize - FOOTER_SIZE);
+        footer.flip();
+        long indexOffset = footer.getLong();
+        int count = footer.getInt();
+        if (footer.getInt() != MAGIC || indexOffset < 0 || indexOffset > fileSize - FOOTER_SIZE) {
+            throw new IOException("归档文件已损坏");
+        }
+
+        ByteBuffer index = ByteBuffer.allocate((int) (fileSize - FOOTER_SIZE - indexOffset));
+        readFully(channel, index, indexOffset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry();
+            entry.name = in.readUTF();
+            entry.remark = in.readUTF();
+            entry.dateModified = in.readLong();
+            entry.size = in.readLong();
+            entry.offset = in.readLong();
+            entry.length = in.readLong();
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * 在文件末尾追加一个压缩成员，返回其索引项（尚未写入索引）。
+     * 调用方追加完所有成员后需调用 {@link #writeIndex}。
+     * 读取源文件失败时截断掉写了一半的成员，后面的成员仍可继续追加。
+     */
+    static Entry appendMember(FileChannel channel, InputStream source, String name, String remark,
+                              long dateModified, long size) throws IOException {
+        long offset = channel.size();
+        channel.position(offset);
+        // 关闭 gzip 以写出尾部并释放 Deflater，但不关闭通道
+        try (GZIPOutputStream gzip = new GZIPOutputStream(new UnclosableOutputStream(Channels.newOutputStream(channel)), 8192)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = source.read(buffer)) != -1) {
+                gzip.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            if (channel.isOpen()) {
+                try {
+                    channel.truncate(offset);
+                } catch (IOException truncateError) {
+                    e.addSuppressed(truncateError);
+                }
+            }
+            throw e;
+        }
+
+        Entry entry = new Entry();
+        entry.name = name;
+        entry.remark = remark != null ? remark : "";
+        entry.dateModified = dateModified;
+        entry.size = size;
+        entry.offset = offset;
+        entry.length = channel.position() - offset;
+        return entry;
+    }
+
+    // 在文件末尾写入新索引和尾部
+    static void writeIndex(FileChannel channel, List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Entry entry : entries) {
+            out.writeUTF(entry.name);
+            out.writeUTF(entry.remark);
+            out.writeLong(entry.dateModified);
+            out.writeLong(entry.size);
+            out.writeLong(entry.offset);
+            out.writeLong(entry.length);
+        }
+        long indexOffset = channel.size();
+        out.writeLong(indexOffset);
+        out.writeInt(entries.size());
+        out.writeInt(MAGIC);
+        out.flush();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long position = indexOffset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+    }
+
+    // 打开归档中的单个成员（解压后的CSV），关闭流时一并关闭文件
+    static InputStream openMember(ContentResolver resolver, Uri archiveUri, Entry entry) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(archiveUri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("无法打开归档: " + archiveUri);
+        }
+        ParcelFileDescriptor.AutoCloseInputStream raw = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+        try {
+            raw.getChannel().position(entry.offset);
+            return new GZIPInputStream(new LimitedInputStream(raw, entry.length), 8192);
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    // 读取归档索引
+    static List<Entry> readIndex(ContentResolver resolver, Uri archiveUri) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(archiveUri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("无法打开归档: " + archiveUri);
+        }
+        try (ParcelFileDescriptor.AutoCloseInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+            return readIndex(in.getChannel());
+        }
+    }
+
+    // 以写方式打开归档（输出流的通道不可读，索引需先用 readIndex 读取）
+    static ParcelFileDescriptor.AutoCloseOutputStream openForAppend(ContentResolver resolver, Uri archiveUri)
+            throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(archiveUri, "rw");
+        if (pfd == null) {
+            throw new FileNotFoundException("无法打开归档: " + archiveUri);
+        }
+        return new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+    }
+
+    /**
+     * 把归档截断回 size（追加前的大小），丢弃未提交的成员和写了一半的索引。
+     * 任务被取消时线程带有中断标记，通道操作会直接失败，所以先清除标记，完成后再恢复。
+     */
+    static void rollback(ContentResolver resolver, Uri archiveUri, long size) {
+        boolean interrupted = Thread.interrupted();
+        try (ParcelFileDescriptor.AutoCloseOutputStream out = openForAppend(resolver, archiveUri)) {
+            FileChannel channel = out.getChannel();
+            if (channel.size() > size) {
+                channel.truncate(size);
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "归档回滚失败: " + archiveUri, e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 从归档中移除成员并回收空间：先写入不含该成员的新索引（删除立即生效），
+     * 再把剩余成员紧凑地复制到应用私有目录的整理日志，日志完整写好后才覆盖归档。
+     * 覆盖中途进程被终止时，下一次归档操作通过 {@link #recoverCompaction} 重新覆盖。
+     * 移除最后一个成员时删除整个归档文件。
+     */
+    static boolean removeMember(Context context, Uri archiveUri, String name) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        synchronized (LOCK) {
+            recoverCompaction(context);
+            List<Entry> entries = readIndex(resolver, archiveUri);
+            if (!entries.removeIf(entry -> entry.name.equals(name))) {
+                return false;
+            }
+            if (entries.isEmpty()) {
+                resolver.delete(archiveUri, null, null);
+                return true;
+            }
+            try (ParcelFileDescriptor.AutoCloseOutputStream out = openForAppend(resolver, archiveUri)) {
+                writeIndex(out.getChannel(), entries);
+            }
+            compact(context, archiveUri, entries);
+            return true;
+        }
+    }
+
+    // 把 entries 对应的压缩数据依次复制到整理日志（重新计算偏移并写入索引），然后覆盖归档
+    private static void compact(Context context, Uri archiveUri, List<Entry> entries) throws IOException {
+        File journal = new File(context.getFilesDir(), COMPACT_JOURNAL);
+        File partial = new File(context.getFilesDir(), COMPACT_JOURNAL + ".tmp");
+        File target = new File(context.getFilesDir(), COMPACT_TARGET);
+        try (FileOutputStream out = new FileOutputStream(target)) {
+            out.write(archiveUri.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(archiveUri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("无法打开归档: " + archiveUri);
+        }
+        try (ParcelFileDescriptor.AutoCloseInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+             FileOutputStream out = new FileOutputStream(partial)) {
+            FileChannel source = in.getChannel();
+            FileChannel compacted = out.getChannel();
+            for (Entry entry : entries) {
+                long offset = compacted.position();
+                transferFully(source, entry.offset, entry.length, compacted);
+                entry.offset = offset;
+            }
+            writeIndex(compacted, entries);
+        } catch (IOException e) {
+            partial.delete();
+            target.delete();
+            throw e;
+        }
+        if (!partial.renameTo(journal)) {
+            partial.delete();
+            target.delete();
+            throw new IOException("无法写入整理日志");
+        }
+        applyCompaction(context.getContentResolver(), archiveUri, journal, target);
+    }
+
+    // 用整理日志覆盖归档并截断多余部分，完成后删除日志
+    private static void applyCompaction(ContentResolver resolver, Uri archiveUri, File journal, File target)
+            throws IOException {
+        try (FileInputStream in = new FileInputStream(journal);
+             ParcelFileDescriptor.AutoCloseOutputStream out = openForAppend(resolver, archiveUri)) {
+            FileChannel source = in.getChannel();
+            FileChannel channel = out.getChannel();
+            long length = source.size();
+            channel.position(0);
+            transferFully(source, 0, length, channel);
+            channel.truncate(length);
+            channel.force(false);
+        }
+        if (!journal.delete() || !target.delete()) {
+            Log.w(TAG, "整理日志删除失败");
+        }
+    }
+
+    /**
+     * 完成上次被中断的整理（需在 {@link #LOCK} 内调用）。
+     * 日志未写完时归档还没有被改动，直接丢弃。
+     */
+    static void recoverCompaction(Context context) {
+        File journal = new File(context.getFilesDir(), COMPACT_JOURNAL);
+        File target = new File(context.getFilesDir(), COMPACT_TARGET);
+        if (!journal.exists()) {
+            new File(context.getFilesDir(), COMPACT_JOURNAL + ".tmp").delete();
+            target.delete();
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(target))) {
+            Uri archiveUri = Uri.parse(reader.readLine());
+            applyCompaction(context.getContentResolver(), archiveUri, journal, target);
+            Log.d(TAG, "已完成中断的归档整理: " + archiveUri);
+        } catch (FileNotFoundException e) {
+            // 目标文件或归档已不存在
+            journal.delete();
+            target.delete();
+        } catch (IOException e) {
+            Log.e(TAG, "归档整理恢复失败，下次重试", e);
+        }
+    }
+
+    // 从 source 的 position 处复制 length 个字节到 target 的当前位置
+    private static void transferFully(FileChannel source, long position, long length, FileChannel target)
+            throws IOException {
+        long end = position + length;
+        while (position < end) {
+            long transferred = source.transferTo(position, end - position, target);
+            if (transferred <= 0) throw new IOException("归档文件已损坏");
+            position += transferred;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("归档文件已损坏");
+            position += read;
+        }
+    }
+
+    // 关闭时只刷新，不关闭底层的归档通道
+    private static class UnclosableOutputStream extends FilterOutputStream {
+        UnclosableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    // 只允许读取 limit 个字节，防止 GZIPInputStream 继续读入下一个成员
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * 归档与保留策略：把超过指定天数的会话按月份压缩进归档文件并删除原文件，
+ * 再按保留天数批量删除过期的会话和整月归档。由 {@link ArchiveJobService} 在后台定期调用。
+ */
+class SessionArchiver {
+    private static final String TAG = "SessionArchiver";
+    static final String PREFS_NAME = "ScoreCounterPrefs";
+    static final String KEY_ARCHIVE_AFTER_DAYS = "archiveAfterDays";
+    static final String KEY_RETENTION_DAYS = "retentionDays";
+    static final int DEFAULT_ARCHIVE_AFTER_DAYS = 30;
+    static final int DEFAULT_RETENTION_DAYS = 0; // 0 表示永久保留
+    private static final int DELETE_BATCH_SIZE = 100;
+    private static final Pattern SEGMENT_NAME = Pattern.compile(".*_part\\d{3}\\.csv$");
+
+    private static class StoredFile {
+        long id;
+        String name;
+        long dateModified;
+        long size;
+        Uri uri;
+    }
+
+    static class Result {
+        int archived;
+        int deleted;
+    }
+
+    /**
+     * 执行一次归档和保留策略。与其他归档写入互斥；被取消（线程中断）时未提交的追加会被截断，
+     * 原文件只在新索引写完后才删除。
+     */
+    static Result run(Context context) throws IOException {
+        synchronized (SessionArchive.LOCK) {
+            try {
+                SessionArchive.recoverCompaction(context);
+                Result result = runLocked(context);
+                deleteOrphanedIndexes(context);
+                return result;
+            } finally {
+                SessionDocumentsProvider.notifyChanged(context); // 中途失败时也可能已归档了一部分
+            }
+        }
+    }
+
+    // 从归档中删除一个会话并回收空间
+    static boolean removeArchivedSession(Context context, Uri archiveUri, String name) throws IOException {
+        synchronized (SessionArchive.LOCK) {
+            try {
+                boolean removed = SessionArchive.removeMember(context, archiveUri, name);
+                deleteOrphanedIndexes(context);
+                return removed;
+            } finally {
+                SessionDocumentsProvider.notifyChanged(context);
+            }
+        }
+    }
+
+    // 删除原会话已不存在（被归档或删除）的旁路索引
+    static void deleteOrphanedIndexes(Context context) {
+        long queriedAt = System.currentTimeMillis();
+        Set<String> ids = new HashSet<>();
+        for (StoredFile file : queryScoreFiles(context.getContentResolver())) {
+            ids.add(String.valueOf(file.id));
+        }
+        SessionIndex.deleteOrphans(context, ids, queriedAt);
+    }
+
+    private static Result runLocked(Context context) throws IOException {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int archiveAfterDays = prefs.getInt(KEY_ARCHIVE_AFTER_DAYS, DEFAULT_ARCHIVE_AFTER_DAYS);
+        int retentionDays = prefs.getInt(KEY_RETENTION_DAYS, DEFAULT_RETENTION_DAYS);
+        ContentResolver resolver = context.getContentResolver();
+        long nowSeconds = System.currentTimeMillis() / 1000;
+        Result result = new Result();
+
+        List<StoredFile> files = queryScoreFiles(resolver);
+        Map<String, StoredFile> archives = new HashMap<>();
+        for (StoredFile file : files) {
+            if (SessionArchive.isArchiveName(file.name)) {
+                archives.put(file.name, file);
+            }
+        }
+
+        // 1. 按月份归档旧会话（分段会话由清单管理，暂不归档）
+        if (archiveAfterDays > 0) {
+            long cutoff = nowSeconds - archiveAfterDays * 86400L;
+            SimpleDateFormat monthFormat = new SimpleDateFormat("yyyy-MM", Locale.CHINA);
+            Map<String, List<StoredFile>> byMonth = new TreeMap<>();
+            for (StoredFile file : files) {
+                if (file.dateModified >= cutoff || !file.name.endsWith(".csv")
+                        || SEGMENT_NAME.matcher(file.name).matches()) {
+                    continue;
+                }
+                String month = monthFormat.format(new Date(file.dateModified * 1000));
+                byMonth.computeIfAbsent(month, k -> new ArrayList<>()).add(file);
+            }
+
+            for (Map.Entry<String, List<StoredFile>> month : byMonth.entrySet()) {
+                String archiveName = SessionArchive.archiveNameForMonth(month.getKey());
+                StoredFile archive = archives.get(archiveName);
+                Uri archiveUri = archive != null ? archive.uri : insertArchive(resolver, archiveName);
+                if (archiveUri == null) {
+                    Log.e(TAG, "无法创建归档: " + archiveName);
+                    continue;
+                }
+                List<Long> archivedIds = appendToArchive(resolver, archiveUri, month.getValue());
+                result.archived += archivedIds.size();
+                deleteInBatches(resolver, archivedIds);
+                forgetSessions(context, archivedIds);
+            }
+        }
+
+        // 2. 保留策略：删除过期会话和整月都已过期的归档
+        if (retentionDays > 0) {
+            long cutoff = nowSeconds - retentionDays * 86400L;
+            Calendar calendar = Calendar.getInstance(Locale.CHINA);
+            List<Long> expired = new ArrayList<>();
+            for (StoredFile file : queryScoreFiles(resolver)) {
+                if (SessionArchive.isArchiveName(file.name)) {
+                    long monthEnd = archiveMonthEnd(file.name, calendar);
+                    if (monthEnd > 0 && monthEnd < cutoff) expired.add(file.id);
+                } else if (file.dateModified < cutoff) {
+                    expired.add(file.id);
+                }
+            }
+            result.deleted = deleteInBatches(resolver, expired);
+            forgetSessions(context, expired);
+        }
+
+        Log.d(TAG, "归档完成: 归档 " + result.archived + " 个，删除 " + result.deleted + " 个");
+        return result;
+    }
+
+    /**
+     * 将一个月的会话追加到归档，返回已成功归档的原文件ID。
+     * 新索引没有写成功（全部失败、被取消等）时把归档截断回原大小，旧索引保持有效。
+     */
+    private static List<Long> appendToArchive(ContentResolver resolver, Uri archiveUri, List<StoredFile> members)
+            throws IOException {
+        List<SessionArchive.Entry> entries = SessionArchive.readIndex(resolver, archiveUri);
+        Set<String> alreadyArchived = new HashSet<>();
+        for (SessionArchive.Entry entry : entries) {
+            alreadyArchived.add(entry.name + "@" + entry.size);
+        }
+        List<Long> archivedIds = new ArrayList<>();
+        List<Long> appendedIds = new ArrayList<>();
+        long originalSize = -1;
+        boolean committed = false;
+        try (ParcelFileDescriptor.AutoCloseOutputStream out = SessionArchive.openForAppend(resolver, archiveUri)) {
+            originalSize = out.getChannel().size();
+            for (StoredFile file : members) {
+                if (alreadyArchived.contains(file.name + "@" + file.size)) {
+                    // 上次归档后原文件没有删掉，只需删除
+                    archivedIds.add(file.id);
+                    continue;
+                }
+                try (InputStream raw = resolver.openInputStream(file.uri)) {
+                    if (raw == null) continue;
+                    BufferedInputStream source = new BufferedInputStream(raw, 8192);
+                    String remark = peekRemark(source);
+                    entries.add(SessionArchive.appendMember(out.getChannel(), source, file.name, remark,
+                            file.dateModified, file.size));
+                    appendedIds.add(file.id);
+                } catch (ClosedChannelException e) {
+                    throw e; // 任务被取消，中断关闭了归档通道
+                } catch (IOException e) {
+                    Log.w(TAG, "归档会话失败: " + file.name + ", " + e.getMessage());
+                }
+            }
+            if (!appendedIds.isEmpty()) {
+                // 新索引写完后新成员才可见，原文件在此之后才删除
+                SessionArchive.writeIndex(out.getChannel(), entries);
+            }
+            committed = true;
+        } finally {
+            if (!committed && originalSize >= 0) {
+                SessionArchive.rollback(resolver, archiveUri, originalSize);
+            }
+        }
+        archivedIds.addAll(appendedIds);
+        return archivedIds;
+    }
+
+    // 读取首行的备注，读取后把流复位到开头
+    private static String peekRemark(BufferedInputStream source) throws IOException {
+        source.mark(4096);
+        byte[] line = new byte[4096];
+        int length = 0;
+        int b;
+        while (length < line.length && (b = source.read()) != -1 && b != '\n') {
+            line[length++] = (byte) b;
+        }
+        source.reset();
+        String first = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+        return first.startsWith(SessionSegmenter.REMARK_PREFIX) ?
+                first.substring(SessionSegmenter.REMARK_PREFIX.length()) : "";
+    }
+
+    // 原文件已删除的会话从事件数据库中移除（归档中的会话只从归档读取）
+    private static void forgetSessions(Context context, List<Long> ids) {
+        EventStore store = EventStore.getIfExists(context);
+        if (store == null) return;
+        for (long id : ids) {
+            store.deleteSession(ContentUris.withAppendedId(MediaStore.Files.getContentUri("external"), id));
+        }
+    }
+
+    // 批量删除：每批一条 _id IN (...) 语句
+    static int deleteInBatches(ContentResolver resolver, List<Long> ids) {
+        int deleted = 0;
+        for (int from = 0; from < ids.size(); from += DELETE_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(ids.size(), from + DELETE_BATCH_SIZE));
+            String selection = MediaStore.Files.FileColumns._ID + " IN ("
+                    + TextUtils.join(",", Collections.nCopies(batch.size(), "?")) + ")";
+            String[] args = new String[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                args[i] = String.valueOf(batch.get(i));
+            }
+            try {
+                deleted += resolver.delete(MediaStore.Files.getContentUri("external"), selection, args);
+            } catch (Exception e) {
+                Log.e(TAG, "批量删除失败", e);
+            }
+        }
+        return deleted;
+    }
+
+    // 归档名中月份的最后一秒
+    private static long archiveMonthEnd(String name, Calendar calendar) {
+        String month = name.substring(SessionArchive.PREFIX.length(), name.length() - SessionArchive.SUFFIX.length());
+        try {
+            Date start = new SimpleDateFormat("yyyy-MM", Locale.CHINA).parse(month);
+            if (start == null) return -1;
+            calendar.setTime(start);
+            calendar.add(Calendar.MONTH, 1);
+            return calendar.getTimeInMillis() / 1000 - 1;
+        } catch (java.text.ParseException e) {
+            return -1;
+        }
+    }
+
+    private static Uri insertArchive(ContentResolver resolver, String name) {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Files.FileColumns.DISPLAY_NAME, name);
+        values.put(MediaStore.Files.FileColumns.MIME_TYPE, SessionArchive.MIME_TYPE);
+        values.put(MediaStore.Files.FileColumns.RELATIVE_PATH, Environment.DIRECTORY_DOCUMENTS + "/ScoreRecords");
+        return resolver.insert(MediaStore.Files.getContentUri("external"), values);
+    }
+
+    private static List<StoredFile> queryScoreFiles(ContentResolver resolver) {
+        List<StoredFile> files = new ArrayList<>();
+        String[] projection = {
+                MediaStore.Files.FileColumns._ID,
+                MediaStore.Files.FileColumns.DISPLAY_NAME,
+                MediaStore.Files.FileColumns.DATE_MODIFIED,
+                MediaStore.Files.FileColumns.SIZE
+        };
+        String selection = MediaStore.Files.FileColumns.RELATIVE_PATH + " LIKE ?";
+        String[] selectionArgs = {"%" + Environment.DIRECTORY_DOCUMENTS + "/ScoreRecords%"};
+
+        try (Cursor cursor = resolver.query(MediaStore.Files.getContentUri("external"),
+                projection, selection, selectionArgs, null)) {
+            if (cursor == null) return files;
+            int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID);
+            int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME);
+            int dateColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATE_MODIFIED);
+            int sizeColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.SIZE);
+            while (cursor.moveToNext()) {
+                StoredFile file = new StoredFile();
+                file.id = cursor.getLong(idColumn);
+                file.name = cursor.getString(nameColumn);
+                file.dateModified = cursor.getLong(dateColumn);
+                file.size = cursor.getLong(sizeColumn);
+                file.uri = ContentUris.withAppendedId(MediaStore.Files.getContentUri("external"), file.id);
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
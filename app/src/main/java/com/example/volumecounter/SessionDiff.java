@@ -0,0 +1,245 @@
+package com.example.volumecounter;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * 对比两个操作员记录的同一场比赛：按相对时间用双指针归并两条事件流，
+ * 同方向、时间相差不超过容差的加减分配成一对，其余为单方多出的按键；
+ * 同时按时间顺序跟踪两边的分数差，记录分差不为 0 的区间（分歧点）。
+ * 两个文件各顺序读一遍，只保留各自的下一行，结果中的明细列表有固定上限，
+ * 所以耗时与事件数成正比，额外内存是常数。
+ * <p>
+ * 已撤销的按键不参与对比；汇总模式（BUCKET 行）没有单次按键，只比较分数。
+ */
+class SessionDiff {
+    static final long DEFAULT_TOLERANCE_MS = 300;
+    static final int MAX_DETAILS = 100; // 分歧区间和未配对按键各最多保留的条数
+
+    static final int SIDE_A = 0;
+    static final int SIDE_B = 1;
+
+    // 对比结果，明细按时间顺序，超出上限的只计数
+    static final class Result {
+        int matched;
+        final int[] unmatched = new int[2];
+        long offsetSumMs;   // 配对按键的时间差（B - A）之和
+        long maxOffsetMs;   // 配对按键的最大时间差（绝对值）
+        boolean aggregated; // 有汇总行，按键配对不完整
+        final int[] finalScore = new int[2];
+        int maxDelta;       // 最大分差（A - B，保留符号）
+        long maxDeltaTime;
+
+        // 分歧区间：开始时间、结束时间（仍未恢复一致时为 -1）、区间内的最大分差
+        int divergenceCount;
+        final long[] divergenceStart = new long[MAX_DETAILS];
+        final long[] divergenceEnd = new long[MAX_DETAILS];
+        final int[] divergencePeak = new int[MAX_DETAILS];
+
+        // 未配对的按键：时间、哪一方、操作
+        int unmatchedListed;
+        final long[] unmatchedTime = new long[MAX_DETAILS];
+        final byte[] unmatchedSide = new byte[MAX_DETAILS];
+        final String[] unmatchedAction = new String[MAX_DETAILS];
+
+        double getMeanOffsetMs() {
+            return matched > 0 ? (double) offsetSumMs / matched : 0;
+        }
+
+        int getUnmatchedCount() {
+            return unmatched[SIDE_A] + unmatched[SIDE_B];
+        }
+    }
+
+    // 一方的读取位置：当前行（尚未处理），按对方的时间轴加上偏移
+    private static final class Cursor {
+        final ScoreCsvReader reader;
+        final long offsetMs;
+        boolean hasRow;
+        long time;
+        int score;
+        String action;
+        int direction; // 加分 1，减分 -1，其他行 0
+        int currentScore;
+
+        Cursor(ScoreCsvReader reader, long offsetMs) throws IOException {
+            this.reader = reader;
+            this.offsetMs = offsetMs;
+            advance();
+        }
+
+        void advance() throws IOException {
+            while (reader.next()) {
+                String rowAction = reader.getAction();
+                if (KeyPressRecord.isRetracted(rowAction)) continue;
+                hasRow = true;
+                time = reader.getRelativeTime() + offsetMs;
+                score = reader.getScore();
+                action = rowAction;
+                direction = "INCREASE".equals(rowAction) ? 1 : "DECREASE".equals(rowAction) ? -1 : 0;
+                return;
+            }
+            hasRow = false;
+        }
+
+        // 处理当前行：更新分数并读取下一行
+        void consume() throws IOException {
+            currentScore = score;
+            advance();
+        }
+    }
+
+    private final Result result = new Result();
+    private boolean diverging;
+
+    /**
+     * 对比 a 和 b，offsetMs 为 B 比 A 晚开始记录的毫秒数（B 先开始时为负）。
+     * B 晚开始 X 毫秒时，同一时刻 B 的相对时间比 A 小 X，所以 B 的时间加上 offsetMs 对齐到 A 的时间轴。
+     * 不关闭两个 reader。
+     */
+    static Result compare(ScoreCsvReader a, ScoreCsvReader b, long toleranceMs, long offsetMs) throws IOException {
+        return new SessionDiff().run(new Cursor(a, 0), new Cursor(b, offsetMs), toleranceMs);
+    }
+
+    private Result run(Cursor a, Cursor b, long toleranceMs) throws IOException {
+        while (a.hasRow || b.hasRow) {
+            // 取时间较早的一方（相同时取 A）
+            boolean aFirst = a.hasRow && (!b.hasRow || a.time <= b.time);
+            Cursor first = aFirst ? a : b;
+            Cursor other = aFirst ? b : a;
+            int firstSide = aFirst ? SIDE_A : SIDE_B;
+
+            if (first.action == AggregatedRecordList.BUCKET) {
+                result.aggregated = true;
+            }
+            if (first.direction == 0) {
+                long time = first.time;
+                first.consume();
+                onScoresChanged(time, a, b);
+                continue;
+            }
+            // 对方在容差内还有非按键行（如提醒规则），先处理掉再看对方的按键
+            if (other.hasRow && other.direction == 0 && other.time <= first.time + toleranceMs) {
+                if (other.action == AggregatedRecordList.BUCKET) {
+                    result.aggregated = true;
+                }
+                long time = other.time;
+                other.consume();
+                onScoresChanged(time, a, b);
+                continue;
+            }
+            if (other.hasRow && other.direction == first.direction && other.time - first.time <= toleranceMs) {
+                long offset = aFirst ? other.time - first.time : first.time - other.time;
+                result.matched++;
+                result.offsetSumMs += offset;
+                result.maxOffsetMs = Math.max(result.maxOffsetMs, Math.abs(offset));
+                long time = other.time;
+                first.consume();
+                other.consume();
+                onScoresChanged(time, a, b);
+            } else {
+                onUnmatched(firstSide, first);
+                long time = first.time;
+                first.consume();
+                onScoresChanged(time, a, b);
+            }
+        }
+        if (diverging && result.divergenceCount <= MAX_DETAILS) {
+            result.divergenceEnd[result.divergenceCount - 1] = -1;
+        }
+        result.finalScore[SIDE_A] = a.currentScore;
+        result.finalScore[SIDE_B] = b.currentScore;
+        return result;
+    }
+
+    private void onUnmatched(int side, Cursor cursor) {
+        result.unmatched[side]++;
+        if (result.unmatchedListed < MAX_DETAILS) {
+            int i = result.unmatchedListed++;
+            result.unmatchedTime[i] = cursor.time;
+            result.unmatchedSide[i] = (byte) side;
+            result.unmatchedAction[i] = cursor.action;
+        }
+    }
+
+    // 跟踪分差：从 0 变为非 0 时开始一个分歧区间，回到 0 时结束
+    private void onScoresChanged(long time, Cursor a, Cursor b) {
+        int delta = a.currentScore - b.currentScore;
+        if (Math.abs(delta) > Math.abs(result.maxDelta)) {
+            result.maxDelta = delta;
+            result.maxDeltaTime = time;
+        }
+        if (delta != 0 && !diverging) {
+            diverging = true;
+            if (result.divergenceCount < MAX_DETAILS) {
+                result.divergenceStart[result.divergenceCount] = time;
+                result.divergencePeak[result.divergenceCount] = delta;
+            }
+            result.divergenceCount++;
+        } else if (diverging) {
+            int i = result.divergenceCount - 1;
+            if (i >= MAX_DETAILS) {
+                if (delta == 0) diverging = false;
+                return;
+            }
+            if (delta == 0) {
+                diverging = false;
+                result.divergenceEnd[i] = time;
+            } else if (Math.abs(delta) > Math.abs(result.divergencePeak[i])) {
+                result.divergencePeak[i] = delta;
+            }
+        }
+    }
+
+    // 对比结果的文字说明
+    static String format(Result result, String nameA, String nameB, long toleranceMs) {
+        StringBuilder text = new StringBuilder();
+        text.append("A: ").append(nameA).append("\nB: ").append(nameB).append('\n');
+        text.append(String.format(Locale.CHINA, "容差 %d 毫秒，配对 %d 次，平均时间差 %.0f 毫秒（最大 %d）\n",
+                toleranceMs, result.matched, result.getMeanOffsetMs(), result.maxOffsetMs));
+        text.append("仅 A 有: ").append(result.unmatched[SIDE_A])
+                .append(" 次，仅 B 有: ").append(result.unmatched[SIDE_B]).append(" 次\n");
+        text.append("最终分数: A ").append(result.finalScore[SIDE_A])
+                .append(" / B ").append(result.finalScore[SIDE_B]);
+        if (result.maxDelta != 0) {
+            text.append("，最大分差 ").append(signed(result.maxDelta))
+                    .append("（").append(formatTime(result.maxDeltaTime)).append("）");
+        }
+        text.append('\n');
+        if (result.aggregated) {
+            text.append("含汇总记录，只能比较分数，按键配对不完整\n");
+        }
+
+        text.append("\n分歧区间（A - B）: ").append(result.divergenceCount).append(" 个\n");
+        for (int i = 0; i < Math.min(result.divergenceCount, MAX_DETAILS); i++) {
+            long end = result.divergenceEnd[i];
+            text.append(formatTime(result.divergenceStart[i])).append(" - ")
+                    .append(end >= 0 ? formatTime(end) : "结束").append("  最大 ")
+                    .append(signed(result.divergencePeak[i])).append('\n');
+        }
+        if (result.divergenceCount > MAX_DETAILS) {
+            text.append("……\n");
+        }
+
+        text.append("\n未配对的按键: ").append(result.getUnmatchedCount()).append(" 次\n");
+        for (int i = 0; i < result.unmatchedListed; i++) {
+            text.append(formatTime(result.unmatchedTime[i])).append("  ")
+                    .append(result.unmatchedSide[i] == SIDE_A ? "仅 A " : "仅 B ")
+                    .append(result.unmatchedAction[i]).append('\n');
+        }
+        if (result.getUnmatchedCount() > result.unmatchedListed) {
+            text.append("……\n");
+        }
+        return text.toString();
+    }
+
+    private static String signed(int value) {
+        return value > 0 ? "+" + value : String.valueOf(value);
+    }
+
+    // 相对时间 mm:ss.S
+    private static String formatTime(long ms) {
+        long clamped = Math.max(0, ms);
+        return String.format(Locale.CHINA, "%02d:%02d.%d", clamped / 60000, clamped / 1000 % 60, clamped / 100 % 10);
+    }
+}
@@ -0,0 +1,412 @@
+package com.example.volumecounter;
+
+import android.content.ClipDescription;
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Environment;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.provider.DocumentsContract.Root;
+import android.provider.DocumentsProvider;
+import android.provider.MediaStore;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 在系统文件选择器中以一个根目录列出所有会话（普通、分段和归档中的），
+ * 外部应用通过文档 URI 读取，不需要存储权限。
+ * 列目录只用 MediaStore 的名称、大小、时间和清单/归档索引，摘要（备注、时长、分数）
+ * 先返回已缓存的，缺少的在后台读取后通知刷新。列表本身缓存在内存中，只在应用保存、编辑、删除
+ * 或归档会话时（{@link #notifyChanged}）标记过期、下次查询时重新列出；在应用之外删除的文件
+ * 在此之前仍会列出，打开时报告不存在。
+ * 打开文档时通过管道边读边输出：默认为 CSV，也可以按类型请求 GZIP、ZIP 或 XLSX，
+ * 都不在磁盘上生成副本。文档只读。
+ */
+public class SessionDocumentsProvider extends DocumentsProvider
+        implements ContentProvider.PipeDataWriter<SessionDocumentsProvider.PipeRequest> {
+    private static final String TAG = "SessionDocuments";
+    private static final String ROOT_ID = "sessions";
+    private static final String ROOT_DOCUMENT_ID = "sessions";
+    // 文档 ID：file:<MediaStore ID>、segments:<清单 ID>、archive:<归档 ID>/<成员名>
+    private static final String PREFIX_FILE = "file:";
+    private static final String PREFIX_SEGMENTS = "segments:";
+    private static final String PREFIX_ARCHIVE = "archive:";
+
+    // 可请求的输出格式，第一个为文档本身的类型
+    private static final String[] FORMATS = {
+            CompressedShareProvider.FORMAT_CSV,
+            CompressedShareProvider.FORMAT_GZIP,
+            CompressedShareProvider.FORMAT_ZIP,
+            CompressedShareProvider.FORMAT_XLSX
+    };
+
+    private static final String[] DEFAULT_ROOT_PROJECTION = {
+            Root.COLUMN_ROOT_ID, Root.COLUMN_FLAGS, Root.COLUMN_ICON, Root.COLUMN_TITLE,
+            Root.COLUMN_DOCUMENT_ID, Root.COLUMN_MIME_TYPES
+    };
+    private static final String[] DEFAULT_DOCUMENT_PROJECTION = {
+            Document.COLUMN_DOCUMENT_ID, Document.COLUMN_MIME_TYPE, Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_LAST_MODIFIED, Document.COLUMN_FLAGS, Document.COLUMN_SIZE, Document.COLUMN_SUMMARY
+    };
+
+    // 最近一次列目录的结果，列目录和打开文档都直接使用，stale 时重新列出；
+    // 按文档 ID + 大小 + 修改时间缓存的摘要（空串表示无法读取）
+    private static volatile Map<String, FileInfo> documents = Collections.emptyMap();
+    private static volatile boolean stale = true;
+    private static final Map<String, String> summaries = new ConcurrentHashMap<>();
+
+    private final IoExecutor.Scope scope = new IoExecutor.Scope();
+    private final AtomicBoolean loadingSummaries = new AtomicBoolean();
+
+    static class PipeRequest {
+        final FileInfo source;
+        final String csvName;
+        final String format;
+
+        PipeRequest(FileInfo source, String csvName, String format) {
+            this.source = source;
+            this.csvName = csvName;
+            this.format = format;
+        }
+    }
+
+    public static String getAuthority(Context context) {
+        return context.getPackageName() + ".documents";
+    }
+
+    // 会话文件有增删改时调用（任意线程）：缓存的列表过期，正在浏览的文件选择器重新列目录
+    static void notifyChanged(Context context) {
+        stale = true;
+        context.getContentResolver().notifyChange(
+                DocumentsContract.buildChildDocumentsUri(getAuthority(context), ROOT_DOCUMENT_ID), null);
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Cursor queryRoots(String[] projection) {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DEFAULT_ROOT_PROJECTION);
+        StringBuilder mimeTypes = new StringBuilder();
+        for (String format : FORMATS) {
+            if (mimeTypes.length() > 0) mimeTypes.append('\n');
+            mimeTypes.append(CompressedShareProvider.mimeTypeOf(format));
+        }
+        cursor.newRow()
+                .add(Root.COLUMN_ROOT_ID, ROOT_ID)
+                .add(Root.COLUMN_FLAGS, Root.FLAG_LOCAL_ONLY)
+                .add(Root.COLUMN_ICON, R.mipmap.ic_launcher)
+                .add(Root.COLUMN_TITLE, getContext().getString(R.string.app_name))
+                .add(Root.COLUMN_DOCUMENT_ID, ROOT_DOCUMENT_ID)
+                .add(Root.COLUMN_MIME_TYPES, mimeTypes.toString());
+        return cursor;
+    }
+
+    @Override
+    public Cursor queryDocument(String documentId, String[] projection) throws FileNotFoundException {
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
+        if (ROOT_DOCUMENT_ID.equals(documentId)) {
+            cursor.newRow()
+                    .add(Document.COLUMN_DOCUMENT_ID, ROOT_DOCUMENT_ID)
+                    .add(Document.COLUMN_MIME_TYPE, Document.MIME_TYPE_DIR)
+                    .add(Document.COLUMN_DISPLAY_NAME, getContext().getString(R.string.app_name))
+                    .add(Document.COLUMN_FLAGS, Document.FLAG_DIR_PREFERS_LAST_MODIFIED);
+            return cursor;
+        }
+        addRow(cursor, documentId, findSession(documentId));
+        return cursor;
+    }
+
+    @Override
+    public Cursor queryChildDocuments(String parentDocumentId, String[] projection, String sortOrder)
+            throws FileNotFoundException {
+        if (!ROOT_DOCUMENT_ID.equals(parentDocumentId)) {
+            throw new FileNotFoundException("不是目录: " + parentDocumentId);
+        }
+        MatrixCursor cursor = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
+        Map<String, FileInfo> sessions = getSessions();
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, FileInfo> entry : sessions.entrySet()) {
+            addRow(cursor, entry.getKey(), entry.getValue());
+            if (!entry.getValue().isArchived() && !summaries.containsKey(summaryKey(entry.getKey(), entry.getValue()))) {
+                missing.add(entry.getKey());
+            }
+        }
+
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUri(getAuthority(getContext()), ROOT_DOCUMENT_ID);
+        cursor.setNotificationUri(getContext().getContentResolver(), childrenUri);
+        if (!missing.isEmpty()) {
+            Bundle extras = new Bundle();
+            extras.putBoolean(DocumentsContract.EXTRA_LOADING, true);
+            cursor.setExtras(extras);
+            loadSummaries(sessions, missing, childrenUri);
+        }
+        return cursor;
+    }
+
+    private void addRow(MatrixCursor cursor, String documentId, FileInfo fileInfo) {
+        String summary = fileInfo.isArchived() ? fileInfo.getRemark() : summaries.get(summaryKey(documentId, fileInfo));
+        cursor.newRow()
+                .add(Document.COLUMN_DOCUMENT_ID, documentId)
+                .add(Document.COLUMN_MIME_TYPE, CompressedShareProvider.mimeTypeOf(CompressedShareProvider.FORMAT_CSV))
+                .add(Document.COLUMN_DISPLAY_NAME, csvName(fileInfo))
+                .add(Document.COLUMN_LAST_MODIFIED, fileInfo.getDateModified() * 1000)
+                .add(Document.COLUMN_FLAGS, 0)
+                // 分段会话拼接时去掉重复的表头和校验行，大小未知
+                .add(Document.COLUMN_SIZE, fileInfo.isSegmented() ? null : fileInfo.getSize())
+                .add(Document.COLUMN_SUMMARY, summary == null || summary.isEmpty() ? null : summary);
+    }
+
+    // 后台读取缺少的摘要（只读文件开头和末尾），完成后通知文件选择器重新查询
+    private void loadSummaries(Map<String, FileInfo> sessions, List<String> missing, Uri childrenUri) {
+        if (!loadingSummaries.compareAndSet(false, true)) {
+            return;
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        IoExecutor.get().execute(scope, IoExecutor.PRIORITY_PREFETCH, () -> {
+            try {
+                for (String documentId : missing) {
+                    FileInfo fileInfo = sessions.get(documentId);
+                    String summary = "";
+                    try {
+                        SessionSummary read = SessionSummary.read(resolver, fileInfo);
+                        if (read != null) {
+                            summary = read.remark.isEmpty() ? read.getBadge() : read.remark + "  " + read.getBadge();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        Log.w(TAG, "读取摘要失败: " + fileInfo.getName() + ", " + e.getMessage());
+                    }
+                    summaries.put(summaryKey(documentId, fileInfo), summary);
+                }
+            } finally {
+                loadingSummaries.set(false);
+            }
+            resolver.notifyChange(childrenUri, null);
+        });
+    }
+
+    private static String summaryKey(String documentId, FileInfo fileInfo) {
+        return documentId + "_" + fileInfo.getSize() + "_" + fileInfo.getDateModified();
+    }
+
+    // 文档显示名：分段会话用基本名加 .csv
+    private static String csvName(FileInfo fileInfo) {
+        if (!fileInfo.isSegmented()) return fileInfo.getName();
+        String name = fileInfo.getName();
+        int suffix = name.indexOf(".csv");
+        return suffix >= 0 ? name.substring(0, suffix + 4) : name + ".csv";
+    }
+
+    // 使用缓存的列表；记录中新增分段时写入方会调用 notifyChanged，因此分段会话也是最新的
+    private FileInfo findSession(String documentId) throws FileNotFoundException {
+        FileInfo fileInfo = getSessions().get(documentId);
+        if (fileInfo == null) {
+            throw new FileNotFoundException("会话不存在: " + documentId);
+        }
+        return fileInfo;
+    }
+
+    @Override
+    public String[] getDocumentStreamTypes(String documentId, String mimeTypeFilter) {
+        if (ROOT_DOCUMENT_ID.equals(documentId)) {
+            return null;
+        }
+        List<String> types = new ArrayList<>();
+        for (String format : FORMATS) {
+            String mimeType = CompressedShareProvider.mimeTypeOf(format);
+            if (ClipDescription.compareMimeTypes(mimeType, mimeTypeFilter)) {
+                types.add(mimeType);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[0]);
+    }
+
+    @Override
+    public ParcelFileDescriptor openDocument(String documentId, String mode, @Nullable CancellationSignal signal)
+            throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("会话文档只读: " + documentId);
+        }
+        return openPipe(documentId, CompressedShareProvider.FORMAT_CSV);
+    }
+
+    @Override
+    public AssetFileDescriptor openTypedDocument(String documentId, String mimeTypeFilter, Bundle opts,
+                                                 CancellationSignal signal) throws FileNotFoundException {
+        for (String format : FORMATS) {
+            if (ClipDescription.compareMimeTypes(CompressedShareProvider.mimeTypeOf(format), mimeTypeFilter)) {
+                return new AssetFileDescriptor(openPipe(documentId, format), 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+            }
+        }
+        throw new FileNotFoundException("不支持的类型: " + mimeTypeFilter);
+    }
+
+    private ParcelFileDescriptor openPipe(String documentId, String format) throws FileNotFoundException {
+        FileInfo fileInfo = findSession(documentId);
+        Uri uri = DocumentsContract.buildDocumentUri(getAuthority(getContext()), documentId);
+        return openPipeHelper(uri, CompressedShareProvider.mimeTypeOf(format), null,
+                new PipeRequest(fileInfo, csvName(fileInfo), format), this);
+    }
+
+    @Override
+    public void writeDataToPipe(@NonNull ParcelFileDescriptor output, @NonNull Uri uri, @NonNull String mimeType,
+                                @Nullable Bundle opts, @Nullable PipeRequest request) {
+        try (OutputStream pipe = new FileOutputStream(output.getFileDescriptor())) {
+            CompressedShareProvider.writeFormatted(getContext().getContentResolver(),
+                    request.source, request.csvName, request.format, pipe);
+        } catch (IOException e) {
+            // 读取方提前关闭等情况
+            Log.w(TAG, "输出中断: " + e.getMessage());
+        } finally {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // 缓存的列表，过期时重新列出；列出期间再次过期的，下次查询时再列一次
+    private Map<String, FileInfo> getSessions() {
+        if (!stale) {
+            return documents;
+        }
+        stale = false;
+        try {
+            return listSessions();
+        } catch (RuntimeException e) {
+            stale = true;
+            throw e;
+        }
+    }
+
+    /**
+     * 列出所有会话，按修改时间倒序，键为文档 ID。
+     * 分段清单中列出的分段合并为一个会话，归档只读取末尾的索引。
+     */
+    private Map<String, FileInfo> listSessions() {
+        ContentResolver resolver = getContext().getContentResolver();
+        String[] projection = {
+                MediaStore.Files.FileColumns._ID,
+                MediaStore.Files.FileColumns.DISPLAY_NAME,
+                MediaStore.Files.FileColumns.DATE_MODIFIED,
+                MediaStore.Files.FileColumns.SIZE
+        };
+        String selection = MediaStore.Files.FileColumns.RELATIVE_PATH + " LIKE ?";
+        String[] selectionArgs = {"%" + Environment.DIRECTORY_DOCUMENTS + "/ScoreRecords%"};
+
+        Map<String, FileInfo> files = new LinkedHashMap<>();
+        Map<String, String> idsByName = new HashMap<>();
+        List<FileInfo> manifests = new ArrayList<>();
+        List<FileInfo> archives = new ArrayList<>();
+        try (Cursor cursor = resolver.query(MediaStore.Files.getContentUri("external"), projection,
+                selection, selectionArgs, MediaStore.Files.FileColumns.DATE_MODIFIED + " DESC")) {
+            if (cursor == null) return Collections.emptyMap();
+            int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID);
+            int nameColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DISPLAY_NAME);
+            int dateColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATE_MODIFIED);
+            int sizeColumn = cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.SIZE);
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(idColumn);
+                String name = cursor.getString(nameColumn);
+                Uri uri = ContentUris.withAppendedId(MediaStore.Files.getContentUri("external"), id);
+                FileInfo fileInfo = new FileInfo(name, cursor.getLong(dateColumn), cursor.getLong(sizeColumn), uri, "");
+                if (SessionArchive.isArchiveName(name)) {
+                    archives.add(fileInfo);
+                } else if (SessionSegmenter.isManifestName(name)) {
+                    manifests.add(fileInfo);
+                } else if (name != null && name.endsWith(".csv")) {
+                    files.put(PREFIX_FILE + id, fileInfo);
+                    idsByName.put(name, PREFIX_FILE + id);
+                }
+            }
+        }
+
+        List<Map.Entry<String, FileInfo>> sessions = new ArrayList<>();
+        Set<String> segmentIds = new HashSet<>();
+        for (FileInfo manifest : manifests) {
+            List<String> names;
+            try (InputStream inputStream = resolver.openInputStream(manifest.getUri())) {
+                names = SessionSegmenter.readManifest(inputStream);
+            } catch (IOException e) {
+                Log.w(TAG, "读取分段清单失败: " + manifest.getName() + ", " + e.getMessage());
+                continue;
+            }
+            List<Uri> segmentUris = new ArrayList<>();
+            long totalSize = 0;
+            long latest = manifest.getDateModified();
+            for (String name : names) {
+                String segmentId = idsByName.get(name);
+                if (segmentId == null) continue;
+                FileInfo segment = files.get(segmentId);
+                segmentUris.add(segment.getUri());
+                totalSize += segment.getSize();
+                latest = Math.max(latest, segment.getDateModified());
+                segmentIds.add(segmentId);
+            }
+            if (segmentUris.isEmpty()) continue;
+            String baseName = manifest.getName().substring(0,
+                    manifest.getName().length() - SessionSegmenter.MANIFEST_SUFFIX.length());
+            sessions.add(new AbstractMap.SimpleEntry<>(
+                    PREFIX_SEGMENTS + manifest.getUri().getLastPathSegment(),
+                    new FileInfo(baseName + ".csv", latest, totalSize, manifest.getUri(), "", segmentUris)));
+        }
+        for (Map.Entry<String, FileInfo> entry : files.entrySet()) {
+            if (!segmentIds.contains(entry.getKey())) {
+                sessions.add(entry);
+            }
+        }
+        for (FileInfo archive : archives) {
+            try {
+                for (SessionArchive.Entry entry : SessionArchive.readIndex(resolver, archive.getUri())) {
+                    sessions.add(new AbstractMap.SimpleEntry<>(
+                            PREFIX_ARCHIVE + archive.getUri().getLastPathSegment() + "/" + entry.name,
+                            new FileInfo(archive.getUri(), entry)));
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "读取归档索引失败: " + archive.getName() + ", " + e.getMessage());
+            }
+        }
+
+        sessions.sort((a, b) -> Long.compare(b.getValue().getDateModified(), a.getValue().getDateModified()));
+        Map<String, FileInfo> listed = new LinkedHashMap<>();
+        for (Map.Entry<String, FileInfo> entry : sessions) {
+            listed.put(entry.getKey(), entry.getValue());
+        }
+        documents = listed;
+        return listed;
+    }
+
+    @Override
+    public void shutdown() {
+        scope.cancel();
+        super.shutdown();
+    }
+}
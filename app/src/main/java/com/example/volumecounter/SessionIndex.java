@@ -0,0 +1,206 @@
+package com.example.volumecounter;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * 会话文件的稀疏偏移索引：每 {@link #INTERVAL} 条记录保存一次 (相对时间, 行首字节偏移)。
+ * 索引作为旁路文件保存在应用私有目录，按 MediaStore ID 命名，并记录会话文件的大小和尾部签名
+ * （{@link ScoreChecksum#tailSignature}），任一不一致（文件被编辑过）时视为失效并重新扫描生成。
+ */
+class SessionIndex {
+    private static final String TAG = "SessionIndex";
+    static final int INTERVAL = 256;
+    private static final int MAGIC = 0x53494432; // "SID2"，旧格式没有尾部签名，读到时重新扫描
+    private static final String DIRECTORY = "session_index";
+
+    private final long fileSize;
+    private final long tailSignature;
+    private final long[] times;
+    private final long[] offsets;
+    private final int count;
+    private final long lastTime;
+
+    private SessionIndex(long fileSize, long tailSignature, long[] times, long[] offsets, int count, long lastTime) {
+        this.fileSize = fileSize;
+        this.tailSignature = tailSignature;
+        this.times = times;
+        this.offsets = offsets;
+        this.count = count;
+        this.lastTime = lastTime;
+    }
+
+    /**
+     * 在写入或扫描记录时逐行收集索引点。
+     */
+    static class Builder {
+        private long[] times = new long[64];
+        private long[] offsets = new long[64];
+        private int count;
+        private int rows;
+        private long lastTime = -1;
+
+        // 下一行是否需要记录偏移（写入方据此决定是否先刷新缓冲区）
+        boolean needsOffset() {
+            return rows % INTERVAL == 0;
+        }
+
+        void addPoint(long relativeTime, long offset) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            times[count] = relativeTime;
+            offsets[count] = offset;
+            count++;
+        }
+
+        void countRow(long relativeTime) {
+            rows++;
+            lastTime = relativeTime;
+        }
+
+        SessionIndex build(long fileSize, long tailSignature) {
+            return new SessionIndex(fileSize, tailSignature, times, offsets, count, lastTime);
+        }
+    }
+
+    boolean isEmpty() { return count == 0; }
+    long getFirstTime() { return count > 0 ? times[0] : -1; }
+    long getLastTime() { return lastTime; }
+
+    /**
+     * 范围查询的起始偏移：相对时间小于 time 的最后一个索引点，
+     * 这样相同时间跨越索引点的记录也不会漏掉。
+     */
+    long startOffset(long time) {
+        if (count == 0) return 0;
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return offsets[Math.max(0, lo - 1)];
+    }
+
+    // 扫描整个会话生成索引
+    static SessionIndex scan(InputStream in, long fileSize, long tailSignature) throws IOException {
+        Builder builder = new Builder();
+        try (ScoreCsvReader reader = new ScoreCsvReader(in)) {
+            while (reader.next()) {
+                if (builder.needsOffset()) {
+                    builder.addPoint(reader.getRelativeTime(), reader.getLineOffset());
+                }
+                builder.countRow(reader.getRelativeTime());
+            }
+        }
+        return builder.build(fileSize, tailSignature);
+    }
+
+    static File fileFor(Context context, Uri sessionUri) {
+        return new File(new File(context.getFilesDir(), DIRECTORY), sessionUri.getLastPathSegment() + ".idx");
+    }
+
+    // 删除 ID 不在 liveIds 中的索引；olderThan 之后写入的不删除（查询之后才保存的新会话）
+    static void deleteOrphans(Context context, Set<String> liveIds, long olderThan) {
+        File[] files = new File(context.getFilesDir(), DIRECTORY).listFiles((dir, name) -> name.endsWith(".idx"));
+        if (files == null) return;
+        for (File file : files) {
+            String id = file.getName().substring(0, file.getName().length() - ".idx".length());
+            if (!liveIds.contains(id) && file.lastModified() < olderThan && !file.delete()) {
+                Log.w(TAG, "索引删除失败: " + file.getName());
+            }
+        }
+    }
+
+    void writeTo(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("无法创建索引目录");
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(fileSize);
+            out.writeLong(tailSignature);
+            out.writeLong(lastTime);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(times[i]);
+                out.writeLong(offsets[i]);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("无法写入索引");
+        }
+    }
+
+    // 读取旁路索引，不存在或已损坏时返回 null
+    static SessionIndex readFrom(File file) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            long fileSize = in.readLong();
+            long tailSignature = in.readLong();
+            long lastTime = in.readLong();
+            int count = in.readInt();
+            long[] times = new long[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = in.readLong();
+                offsets[i] = in.readLong();
+            }
+            return new SessionIndex(fileSize, tailSignature, times, offsets, count, lastTime);
+        } catch (IOException e) {
+            Log.w(TAG, "索引读取失败: " + file.getName());
+            return null;
+        }
+    }
+
+    /**
+     * 取得会话的索引；旁路文件缺失、或与当前文件的大小或尾部签名不符时扫描通道重新生成。
+     * 返回后通道的位置未定义，调用方需自行定位。
+     */
+    static SessionIndex load(Context context, Uri sessionUri, FileChannel channel) throws IOException {
+        File file = fileFor(context, sessionUri);
+        long size = channel.size();
+        long signature = ScoreChecksum.tailSignature(channel);
+        SessionIndex index = readFrom(file);
+        if (index != null && index.fileSize == size && index.tailSignature == signature) {
+            return index;
+        }
+
+        channel.position(0);
+        // 扫描结束时不关闭通道，调用方还要继续使用
+        InputStream in = new FilterInputStream(Channels.newInputStream(channel)) {
+            @Override
+            public void close() {
+            }
+        };
+        index = scan(in, size, signature);
+        try {
+            index.writeTo(file);
+        } catch (IOException e) {
+            Log.w(TAG, "索引保存失败: " + e.getMessage());
+        }
+        return index;
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.volumecounter;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.Choreographer;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按原始时间回放已保存的会话，支持 1×/2×/10×/100× 和跳转。
+ * 读取任务在 {@link IoExecutor} 上借助 {@link SessionRangeQuery#openAt} 从跳转位置附近流式读取记录，
+ * 放入基本类型的环形缓冲区，缓冲区满时任务结束、不占用线程，主线程取走一半后再提交下一批。
+ * 主线程在每个 {@link Choreographer} 帧中取出时间已到的全部记录，只回调一次该帧最后的分数，
+ * 高倍速回放密集会话时一帧内的大量事件合并为一次界面更新。播放器本身在回放中不分配对象
+ * （只在跳转时新建缓冲区），界面更新文字的开销由监听方决定。
+ */
+class SessionPlayer implements Choreographer.FrameCallback {
+    private static final String TAG = "SessionPlayer";
+    static final int[] SPEEDS = {1, 2, 10, 100};
+    private static final int CAPACITY = 8192; // 2 的幂
+    private static final int MASK = CAPACITY - 1;
+
+    interface Listener {
+        // 每帧最多回调一次：当前位置（相对时间，毫秒）和该位置的分数
+        void onPlaybackFrame(long positionMs, int score);
+
+        void onPlaybackEnded();
+    }
+
+    /**
+     * 单生产者单消费者的环形缓冲区，每次跳转新建一个。读取任务分批执行，同一时刻最多一个
+     * （由 filling 保证），读取器在批次之间保持打开；跳转或释放时取消范围并由清理任务关闭。
+     */
+    private static final class Buffer {
+        final long positionMs; // 跳转位置
+        final IoExecutor.Scope scope = new IoExecutor.Scope();
+        final AtomicBoolean filling = new AtomicBoolean();
+        final long[] times = new long[CAPACITY];
+        final int[] scores = new int[CAPACITY];
+        ScoreCsvReader reader; // 受 Buffer 锁保护
+        volatile int startScore; // 跳转位置的分数：该位置及之前的最后一条记录
+        volatile boolean started; // startScore 已确定
+        volatile long written;
+        volatile long read;
+        volatile boolean done;
+        volatile boolean cancelled;
+
+        Buffer(long positionMs) {
+            this.positionMs = positionMs;
+        }
+    }
+
+    private final Context context;
+    private final FileInfo fileInfo;
+    private final Listener listener;
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final IoExecutor.Scope cleanupScope = new IoExecutor.Scope(); // 关闭旧读取器，不取消
+
+    private Buffer buffer;
+    private long positionNanos;   // 回放位置（会话相对时间，纳秒）
+    private long lastFrameNanos;  // 上一帧的时间，0 表示需要重新计时
+    private int speed = 1;
+    private int score;
+    private boolean scoreKnown; // 已从当前缓冲区取得跳转位置的分数
+    private boolean playing;
+    private boolean released;
+
+    // 只能在主线程创建和调用
+    SessionPlayer(Context context, FileInfo fileInfo, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.fileInfo = fileInfo;
+        this.listener = listener;
+        seekTo(0);
+    }
+
+    boolean isPlaying() {
+        return playing;
+    }
+
+    int getSpeed() {
+        return speed;
+    }
+
+    long getPositionMs() {
+        return positionNanos / 1_000_000;
+    }
+
+    void setSpeed(int speed) {
+        this.speed = speed;
+    }
+
+    void play() {
+        if (playing || released) return;
+        playing = true;
+        lastFrameNanos = 0;
+        scheduleFrame();
+    }
+
+    void pause() {
+        playing = false;
+        choreographer.removeFrameCallback(this);
+    }
+
+    // 跳转到 positionMs：重新从索引定位读取，该位置之前的记录只用于得到当时的分数
+    void seekTo(long positionMs) {
+        if (released) return;
+        cancel(buffer);
+        positionMs = Math.max(0, positionMs);
+        Buffer next = new Buffer(positionMs);
+        buffer = next;
+        positionNanos = positionMs * 1_000_000;
+        lastFrameNanos = 0;
+        scoreKnown = false;
+        requestFill(next);
+        // 暂停时也显示跳转位置的分数
+        scheduleFrame();
+    }
+
+    // 同一个回调重复提交会在一帧内执行多次，先移除
+    private void scheduleFrame() {
+        choreographer.removeFrameCallback(this);
+        choreographer.postFrameCallback(this);
+    }
+
+    void release() {
+        released = true;
+        pause();
+        cancel(buffer);
+    }
+
+    // 取消排队和进行中的读取（中断），再由清理任务关闭读取器
+    private void cancel(Buffer target) {
+        if (target == null) return;
+        target.cancelled = true;
+        target.scope.cancel();
+        IoExecutor.get().execute(cleanupScope, IoExecutor.PRIORITY_NORMAL, () -> {
+            synchronized (target) {
+                closeReader(target);
+            }
+        });
+    }
+
+    private void requestFill(Buffer target) {
+        if (target.filling.compareAndSet(false, true)) {
+            IoExecutor.get().execute(target.scope, IoExecutor.PRIORITY_NORMAL, () -> fill(target));
+        }
+    }
+
+    // 读取任务：已撤销的事件不回放，跳转位置及之前的记录只更新 startScore，缓冲区满时结束本批
+    private void fill(Buffer target) {
+        synchronized (target) {
+            try {
+                if (target.cancelled || target.done) return;
+                if (target.reader == null) {
+                    target.reader = SessionRangeQuery.openAt(context, fileInfo, target.positionMs);
+                }
+                ScoreCsvReader reader = target.reader;
+                while (target.written - target.read < CAPACITY) {
+                    if (target.cancelled) return;
+                    if (!reader.next()) {
+                        finish(target);
+                        return;
+                    }
+                    if (KeyPressRecord.isRetracted(reader.getAction())) continue;
+                    long time = reader.getRelativeTime();
+                    if (!target.started) {
+                        if (time <= target.positionMs) {
+                            target.startScore = reader.getScore();
+                            continue;
+                        }
+                        target.started = true; // startScore 先于 started 写入
+                    }
+                    int slot = (int) (target.written & MASK);
+                    target.times[slot] = time;
+                    target.scores[slot] = reader.getScore();
+                    target.written = target.written + 1; // 先写数据再发布
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!target.cancelled) {
+                    Log.w(TAG, "回放读取失败: " + e.getMessage());
+                }
+                finish(target);
+            } finally {
+                target.filling.set(false);
+            }
+        }
+    }
+
+    private static void finish(Buffer target) {
+        closeReader(target);
+        target.started = true;
+        target.done = true;
+    }
+
+    private static void closeReader(Buffer target) {
+        if (target.reader == null) return;
+        try {
+            target.reader.close();
+        } catch (IOException e) {
+            Log.w(TAG, "关闭回放读取器失败: " + e.getMessage());
+        }
+        target.reader = null;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (released) return;
+        Buffer current = buffer;
+        if (!current.started) {
+            // 等读取任务给出跳转位置的分数，期间位置不前进
+            lastFrameNanos = 0;
+            choreographer.postFrameCallback(this);
+            return;
+        }
+        if (!scoreKnown) {
+            score = current.startScore;
+            scoreKnown = true;
+        }
+        if (playing) {
+            if (lastFrameNanos != 0) {
+                positionNanos += (frameTimeNanos - lastFrameNanos) * speed;
+            }
+            lastFrameNanos = frameTimeNanos;
+        }
+
+        // 取出当前位置之前的全部记录，只保留最后的分数
+        long positionMs = positionNanos / 1_000_000;
+        long read = current.read;
+        long written = current.written;
+        while (read < written && current.times[(int) (read & MASK)] <= positionMs) {
+            score = current.scores[(int) (read & MASK)];
+            read++;
+        }
+        current.read = read;
+        listener.onPlaybackFrame(positionMs, score);
+
+        if (current.done && read == current.written) {
+            if (playing) {
+                playing = false;
+                listener.onPlaybackEnded();
+            }
+            return;
+        }
+        if (!current.done && current.written - read <= CAPACITY / 2) {
+            requestFill(current);
+        }
+        if (playing) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+}
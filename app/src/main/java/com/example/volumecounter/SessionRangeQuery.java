@@ -0,0 +1,139 @@
+package com.example.volumecounter;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按相对时间范围读取会话：借助 {@link SessionIndex} 直接定位到范围开头，
+ * 只解析范围内的记录，读到范围之后即停止。定位后读不到文件开头的字典行，
+ * 各分段的字典事先读出交给读取器，标签编号仍还原为标签。
+ * 返回的读取器可以交给查看、图表或导出使用。
+ */
+class SessionRangeQuery {
+
+    /**
+     * 打开 [fromMs, toMs] 范围内的记录（相对时间，闭区间）。
+     * 分段会话跳过不相交的分段；归档中的会话无法定位，只能顺序读取并过滤。
+     */
+    static ScoreCsvReader open(Context context, FileInfo fileInfo, long fromMs, long toMs) throws IOException {
+        if (!fileInfo.isArchived()) {
+            // 会话已写入事件数据库时直接按索引读取
+            EventStore store = EventStore.getIfExists(context);
+            if (store != null) {
+                ScoreCsvReader reader = store.openRange(fileInfo.getUri(), fromMs, toMs);
+                if (reader != null) return reader;
+            }
+        }
+        return open(context, fileInfo, fromMs, fromMs, toMs);
+    }
+
+    /**
+     * 从 positionMs 之前最近的索引点开始读到会话结束，不过滤 positionMs 之前的记录，
+     * 读取方可以由这些记录得到该位置的分数（回放跳转时使用）。positionMs 落在分段之间的空隙
+     * 或会话结束之后时，也从前一个分段的最后一个索引点读起，保证能读到该位置之前的最后一条记录。
+     */
+    static ScoreCsvReader openAt(Context context, FileInfo fileInfo, long positionMs) throws IOException {
+        return open(context, fileInfo, positionMs, 0, Long.MAX_VALUE);
+    }
+
+    // seekMs 用于定位，[fromMs, toMs] 用于过滤
+    private static ScoreCsvReader open(Context context, FileInfo fileInfo, long seekMs, long fromMs, long toMs)
+            throws IOException {
+        if (fileInfo.isArchived()) {
+            return new RangeReader(fileInfo.openStream(context.getContentResolver()), fromMs, toMs);
+        }
+        List<Uri> parts = fileInfo.isSegmented() ?
+                fileInfo.getSegmentUris() : Collections.singletonList(fileInfo.getUri());
+
+        boolean keepPrevious = fromMs < seekMs; // 需要定位点之前的记录
+        String[] labels = new String[TagDictionary.MAX_TAGS + 1];
+        List<InputStream> streams = new ArrayList<>();
+        InputStream previous = null; // 整体在定位点之前的最后一个分段，已定位到其最后一个索引点
+        try {
+            for (Uri part : parts) {
+                ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(part, "r");
+                if (pfd == null) {
+                    throw new FileNotFoundException("无法打开文件: " + part);
+                }
+                ParcelFileDescriptor.AutoCloseInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+                SessionIndex index = SessionIndex.load(context, part, in.getChannel());
+                if (index.isEmpty()) {
+                    in.close();
+                    continue;
+                }
+                if (index.getLastTime() < seekMs) {
+                    // 该分段整体在范围之前
+                    if (keepPrevious) {
+                        if (previous != null) previous.close();
+                        SessionSummary.readTagLabels(in.getChannel(), labels);
+                        in.getChannel().position(index.startOffset(seekMs));
+                        previous = in;
+                    } else {
+                        in.close();
+                    }
+                    continue;
+                }
+                if (index.getFirstTime() > toMs) {
+                    in.close(); // 之后的分段都在范围之后
+                    break;
+                }
+                if (streams.isEmpty() && previous != null && index.getFirstTime() > seekMs) {
+                    streams.add(previous); // 定位点落在空隙中
+                    previous = null;
+                }
+                SessionSummary.readTagLabels(in.getChannel(), labels);
+                in.getChannel().position(index.startOffset(seekMs));
+                streams.add(in);
+            }
+            if (previous != null) {
+                if (streams.isEmpty()) {
+                    streams.add(previous); // 定位点在会话结束之后
+                } else {
+                    previous.close();
+                }
+                previous = null;
+            }
+        } catch (IOException e) {
+            if (previous != null) previous.close();
+            for (InputStream stream : streams) {
+                stream.close();
+            }
+            throw e;
+        }
+
+        InputStream combined = streams.size() == 1 ? streams.get(0) :
+                new SequenceInputStream(Collections.enumeration(streams));
+        RangeReader reader = new RangeReader(combined, fromMs, toMs);
+        reader.addTags(labels);
+        return reader;
+    }
+
+    // 只返回范围内的记录，超过范围末尾后不再读取
+    private static class RangeReader extends ScoreCsvReader {
+        private final long fromMs;
+        private final long toMs;
+
+        RangeReader(InputStream in, long fromMs, long toMs) throws IOException {
+            super(in);
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            while (super.next()) {
+                if (getRelativeTime() < fromMs) continue;
+                return getRelativeTime() <= toMs;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 长时间记录的分段策略：达到事件数或时长上限后切换到新分段，
+ * 并维护一个清单文件（manifest）把各分段串成一个逻辑会话。
+ */
+class SessionSegmenter {
+    private static final String TAG = "SessionSegmenter";
+    static final String MANIFEST_SUFFIX = ".segments";
+    static final String MANIFEST_MIME_TYPE = "text/plain";
+    static final String REMARK_PREFIX = "#REMARK:";
+    static final int DEFAULT_MAX_EVENTS = 5000;
+    static final int DEFAULT_MAX_MINUTES = 30;
+
+    private final String sessionBaseName; // 例如 score_records_20240101_120000
+    private final int maxEvents;          // 每段最大事件数，<=0 表示不限制
+    private final long maxDurationMs;     // 每段最大时长，<=0 表示不限制
+    private final List<String> segmentNames = new ArrayList<>();
+    private long segmentStartRelative = 0;
+
+    SessionSegmenter(String sessionBaseName, int maxEvents, int maxMinutes) {
+        this.sessionBaseName = sessionBaseName;
+        this.maxEvents = maxEvents;
+        this.maxDurationMs = maxMinutes * 60_000L;
+    }
+
+    String getSessionBaseName() { return sessionBaseName; }
+
+    int getMaxEvents() { return maxEvents; }
+
+    int getMaxMinutes() { return (int) (maxDurationMs / 60_000L); }
+
+    boolean hasSegments() { return !segmentNames.isEmpty(); }
+
+    List<String> getSegmentNames() { return new ArrayList<>(segmentNames); }
+
+    String getManifestName() { return sessionBaseName + MANIFEST_SUFFIX; }
+
+    // 判断当前分段是否需要切换
+    boolean shouldRotate(int eventCount, long relativeTime) {
+        if (maxEvents > 0 && eventCount >= maxEvents) return true;
+        return maxDurationMs > 0 && relativeTime - segmentStartRelative >= maxDurationMs;
+    }
+
+    // 分配下一个分段的文件名，并以给定相对时间作为新分段的起点
+    String nextSegmentName(long relativeTime) {
+        String name = String.format(Locale.US, "%s_part%03d.csv", sessionBaseName, segmentNames.size() + 1);
+        segmentNames.add(name);
+        segmentStartRelative = relativeTime;
+        return name;
+    }
+
+    // 进程重启后恢复：已写出 segmentCount 个分段，当前分段从 segmentStartRelative 开始
+    void restore(int segmentCount, long segmentStartRelative) {
+        segmentNames.clear();
+        while (segmentNames.size() < segmentCount) {
+            nextSegmentName(segmentStartRelative);
+        }
+        this.segmentStartRelative = segmentStartRelative;
+    }
+
+    // 写入清单：可选的备注行 + 每行一个分段文件名
+    static void writeManifest(OutputStream outputStream, String remark, List<String> segmentNames) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+        if (remark != null && !remark.isEmpty()) {
+            writer.write(REMARK_PREFIX + remark);
+            writer.newLine();
+        }
+        for (String name : segmentNames) {
+            writer.write(name);
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    // 读取清单中的分段文件名（跳过以#开头的注释/备注行）
+    static List<String> readManifest(InputStream inputStream) throws IOException {
+        List<String> names = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                names.add(line);
+            }
+        }
+        return names;
+    }
+
+    static boolean isManifestName(String displayName) {
+        return displayName != null && displayName.endsWith(MANIFEST_SUFFIX);
+    }
+
+    /**
+     * 将各分段按顺序串成一个输入流，分段在读到时才打开。
+     * 后续分段的备注行和表头保留在流中，由 {@link ScoreCsvReader} 跳过。
+     */
+    static InputStream openSession(ContentResolver resolver, List<Uri> segmentUris) throws IOException {
+        if (segmentUris.size() == 1) {
+            InputStream inputStream = resolver.openInputStream(segmentUris.get(0));
+            if (inputStream == null) throw new IOException("无法打开文件: " + segmentUris.get(0));
+            return inputStream;
+        }
+        return new SegmentsInputStream(resolver, segmentUris.iterator());
+    }
+
+    // 依次读取各分段，读到时才打开；分段无法打开时抛出异常，不能悄悄丢掉一段记录
+    private static class SegmentsInputStream extends InputStream {
+        private final ContentResolver resolver;
+        private final Iterator<Uri> segments;
+        private InputStream current;
+
+        SegmentsInputStream(ContentResolver resolver, Iterator<Uri> segments) {
+            this.resolver = resolver;
+            this.segments = segments;
+        }
+
+        // 当前分段读完时打开下一个，全部读完时返回 false
+        private boolean openNext() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            if (!segments.hasNext()) return false;
+            Uri uri = segments.next();
+            current = resolver.openInputStream(uri);
+            if (current == null) throw new IOException("无法打开分段: " + uri);
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (current != null || openNext()) {
+                int b = current.read();
+                if (b >= 0) return b;
+                openNext();
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (current != null || openNext()) {
+                int n = current.read(b, off, len);
+                if (n > 0) return n;
+                if (n < 0) openNext();
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * 按顺序流式拼接各分段：经 {@link ScoreCsvReader} 解析后由 {@link ScoreCsvWriter} 重新写出，
+     * 只保留第一个分段的备注行和一个表头，各分段的字典行、表头和校验行都不进入结果，
+     * 标签编号展开为标签文本，结尾是覆盖拼接结果的新校验行。不合法的行被跳过。
+     */
+    static void concatenate(ContentResolver resolver, List<Uri> segmentUris, OutputStream out) throws IOException {
+        try (InputStream in = openConcatenated(resolver, segmentUris)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+        }
+    }
+
+    // 与 concatenate 的输出相同，但由读取方按需拉取，每次只转换一批记录
+    static InputStream openConcatenated(ContentResolver resolver, List<Uri> segmentUris) throws IOException {
+        return new ConcatenatedInputStream(openSession(resolver, segmentUris));
+    }
+
+    private static class ConcatenatedInputStream extends InputStream {
+        private static final int BATCH_ROWS = 256;
+
+        private final ScoreCsvReader reader;
+        private final PendingBytes pending = new PendingBytes();
+        private final ScoreCsvWriter writer;
+        private int position;
+        private boolean finished;
+
+        ConcatenatedInputStream(InputStream in) throws IOException {
+            try {
+                reader = new ScoreCsvReader(in);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            writer = new ScoreCsvWriter(pending);
+            writer.writeHeader(reader.getRemark());
+            writer.flush();
+        }
+
+        // 已转换的字节读完时再转换一批，全部读完时返回 false
+        private boolean fill() throws IOException {
+            while (position >= pending.size()) {
+                if (finished) return false;
+                pending.reset();
+                position = 0;
+                for (int i = 0; i < BATCH_ROWS && !finished; i++) {
+                    if (reader.next()) {
+                        writer.copyRow(reader, reader.getRelativeTime(), Math.max(0, reader.getWallTime()));
+                    } else {
+                        writer.finish();
+                        finished = true;
+                    }
+                }
+                writer.flush();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) return -1;
+            return pending.array()[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fill()) return -1;
+            int n = Math.min(len, pending.size() - position);
+            System.arraycopy(pending.array(), position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // 可以直接读取内部数组的字节缓冲区，避免每批 toByteArray 复制
+    private static class PendingBytes extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.volumecounter;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 会话摘要（备注、最终分数、时长）。只读取文件开头的备注行和文件末尾的几KB，
+ * 从 EOF 向前查找 END_RECORD 行，代价与文件大小无关，适用于没有索引的旧文件。
+ */
+class SessionSummary {
+    private static final int HEAD_SIZE = 4 * 1024;
+    private static final int TAIL_SIZE = 4 * 1024;
+    private static final int MAX_TAIL_SIZE = 64 * 1024;
+
+    final String remark;
+    final int finalScore;
+    final long durationMs;
+    final boolean ended; // 找到了 END_RECORD；否则为最后一条记录（未正常结束的会话）
+
+    SessionSummary(String remark, int finalScore, long durationMs, boolean ended) {
+        this.remark = remark;
+        this.finalScore = finalScore;
+        this.durationMs = durationMs;
+        this.ended = ended;
+    }
+
+    // 文件管理中显示的标记，例如 "12:34 / 56分"
+    String getBadge() {
+        long seconds = durationMs / 1000;
+        String duration = seconds >= 3600 ?
+                String.format(Locale.CHINA, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60) :
+                String.format(Locale.CHINA, "%02d:%02d", seconds / 60, seconds % 60);
+        return duration + " / " + finalScore + "分" + (ended ? "" : "（未结束）");
+    }
+
+    /**
+     * 读取会话摘要。分段会话的备注取第一段，分数和时长取最后一段；
+     * 归档中的会话是压缩流，不支持定位，返回 null。
+     */
+    static SessionSummary read(ContentResolver resolver, FileInfo fileInfo) throws IOException {
+        if (fileInfo.isArchived()) {
+            return null;
+        }
+        if (!fileInfo.isSegmented()) {
+            return read(resolver, fileInfo.getUri(), fileInfo.getUri());
+        }
+        List<Uri> segments = fileInfo.getSegmentUris();
+        return read(resolver, segments.get(0), segments.get(segments.size() - 1));
+    }
+
+    private static SessionSummary read(ContentResolver resolver, Uri headUri, Uri tailUri) throws IOException {
+        String remark;
+        try (FileChannelHolder head = FileChannelHolder.open(resolver, headUri)) {
+            remark = readRemark(head.channel);
+            if (headUri.equals(tailUri)) {
+                return readTail(head.channel, remark);
+            }
+        }
+        try (FileChannelHolder tail = FileChannelHolder.open(resolver, tailUri)) {
+            return readTail(tail.channel, remark);
+        }
+    }
+
+    /**
+     * 会话中用到的标签（各分段开头字典行的并集），用于文件管理中按标签筛选。
+     * 只读取每个文件的开头；归档中的会话和没有标签的会话返回空集合。
+     */
+    static Set<String> readTags(ContentResolver resolver, FileInfo fileInfo) throws IOException {
+        if (fileInfo.isArchived()) {
+            return Collections.emptySet();
+        }
+        List<Uri> parts = fileInfo.isSegmented() ?
+                fileInfo.getSegmentUris() : Collections.singletonList(fileInfo.getUri());
+        String[] labels = new String[TagDictionary.MAX_TAGS + 1];
+        for (Uri part : parts) {
+            try (FileChannelHolder holder = FileChannelHolder.open(resolver, part)) {
+                readTagLabels(holder.channel, labels);
+            }
+        }
+        Set<String> tags = new LinkedHashSet<>();
+        for (String label : labels) {
+            if (label != null) tags.add(label);
+        }
+        return tags;
+    }
+
+    // 读取文件开头的字典行，标签填入 into（下标为编号）；按位置读取，不改变通道的当前位置
+    static void readTagLabels(FileChannel channel, String[] into) throws IOException {
+        // 字典行在备注行之后、表头之前
+        for (String line : readHead(channel).split("\n")) {
+            if (!line.startsWith("#")) break;
+            TagDictionary.parseHeaderLine(line.trim(), into);
+        }
+    }
+
+    private static String readHead(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(channel.size(), HEAD_SIZE));
+        readFully(channel, head, 0);
+        String text = new String(head.array(), 0, head.position(), StandardCharsets.UTF_8);
+        return text.startsWith("\uFEFF") ? text.substring(1) : text;
+    }
+
+    static String readRemark(FileChannel channel) throws IOException {
+        String text = readHead(channel);
+        if (!text.startsWith(SessionSegmenter.REMARK_PREFIX)) {
+            return "";
+        }
+        int end = text.indexOf('\n');
+        String line = end >= 0 ? text.substring(0, end) : text;
+        return line.substring(SessionSegmenter.REMARK_PREFIX.length()).trim();
+    }
+
+    // 从 EOF 向前查找最后一条有效记录，窗口不够时加倍，直到 MAX_TAIL_SIZE
+    static SessionSummary readTail(FileChannel channel, String remark) throws IOException {
+        long size = channel.size();
+        for (int window = TAIL_SIZE; ; window *= 2) {
+            long start = Math.max(0, size - window);
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - start));
+            readFully(channel, tail, start);
+            String text = new String(tail.array(), 0, tail.position(), StandardCharsets.UTF_8);
+
+            int lineEnd = text.length();
+            while (lineEnd > 0) {
+                int lineStart = text.lastIndexOf('\n', lineEnd - 1) + 1;
+                if (lineStart == 0 && start > 0) {
+                    break; // 窗口开头是不完整的行
+                }
+                SessionSummary summary = parseRow(text.substring(lineStart, lineEnd).trim(), remark);
+                if (summary != null) {
+                    return summary;
+                }
+                lineEnd = lineStart - 1;
+            }
+            if (start == 0 || window >= MAX_TAIL_SIZE) {
+                return null;
+            }
+        }
+    }
+
+    // 解析一条数据行；表头、注释、校验行、未知和已撤销的操作返回 null
+    private static SessionSummary parseRow(String line, String remark) {
+        if (line.isEmpty() || line.startsWith("#")) return null;
+        String[] parts = line.split(",");
+        if (parts.length < 3) return null;
+        String action = parts[2].trim();
+        if (!isAction(action) || KeyPressRecord.isRetracted(action)) return null;
+        try {
+            long relativeTime = Long.parseLong(parts[0].trim());
+            int score = Integer.parseInt(parts[1].trim());
+            if (relativeTime < 0) return null;
+            return new SessionSummary(remark, score, relativeTime, "END_RECORD".equals(action));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // 与 ScoreCsvReader 一致，只接受已知的操作类型
+    private static boolean isAction(String action) {
+        for (String known : ScoreCsvReader.ACTIONS) {
+            if (known.equals(action)) return true;
+        }
+        return false;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+        }
+    }
+
+    // 通过 ParcelFileDescriptor 打开文件通道，关闭时一并关闭描述符
+    private static class FileChannelHolder implements AutoCloseable {
+        final ParcelFileDescriptor.AutoCloseInputStream stream;
+        final FileChannel channel;
+
+        private FileChannelHolder(ParcelFileDescriptor.AutoCloseInputStream stream) {
+            this.stream = stream;
+            this.channel = stream.getChannel();
+        }
+
+        static FileChannelHolder open(ContentResolver resolver, Uri uri) throws IOException {
+            ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
+            if (pfd == null) {
+                throw new FileNotFoundException("无法打开文件: " + uri);
+            }
+            return new FileChannelHolder(new ParcelFileDescriptor.AutoCloseInputStream(pfd));
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.volumecounter;
+
+import android.util.Log;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 记录中会话的磁盘尾部：内存中当前分段的事件按顺序追加到一个二进制文件，
+ * 进程被系统回收后与 onSaveInstanceState 中的快照一起恢复记录。
+ * 切换分段时清空（之前的分段已交给后台写入 CSV），所以文件只有当前分段那么大，
+ * 恢复时一次读入再顺序解析即可。
+ * <pre>
+ *   SEGMENT: 分段数(int) 分段起点(long)     每次清空后的第一项
+ *   RECORD:  时间(long) 分数(int) 操作(byte) 标签(byte) 说明长度(short，-1 表示无) 说明(UTF-8)
+ *   RETRACT: 事件下标(int) 是否撤销(byte)   撤销/重做
+ *   ADJUST:  时间(long) 分数(int)           汇总模式下的撤销/重做
+ * </pre>
+ * 写入失败只记录日志，不影响计分；文件末尾不完整的一项在恢复时忽略。
+ */
+class SessionTail {
+    private static final String TAG = "SessionTail";
+    private static final String FILE_NAME = "session_tail.bin";
+    private static final byte TYPE_SEGMENT = 0;
+    private static final byte TYPE_RECORD = 1;
+    private static final byte TYPE_RETRACT = 2;
+    private static final byte TYPE_ADJUST = 3;
+
+    private final File file;
+    private DataOutputStream out; // 清空后第一次写入时打开
+
+    SessionTail(File dir) {
+        this.file = new File(dir, FILE_NAME);
+    }
+
+    // 开始新的会话或分段：清空文件，记下已写出的分段数和新分段的起点
+    void reset(int segmentCount, long segmentStartRelative) {
+        close();
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 8192));
+            out.writeByte(TYPE_SEGMENT);
+            out.writeInt(segmentCount);
+            out.writeLong(segmentStartRelative);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void append(KeyPressRecord record) {
+        if (out == null) return;
+        try {
+            out.writeByte(TYPE_RECORD);
+            out.writeLong(record.relativeTime);
+            out.writeInt(record.score);
+            out.writeByte(actionIndex(record.action));
+            out.writeByte(record.tag);
+            if (record.note == null) {
+                out.writeShort(-1);
+            } else {
+                byte[] note = record.note.getBytes(StandardCharsets.UTF_8);
+                int length = note.length;
+                if (length > Short.MAX_VALUE) {
+                    // 长度字段是有符号 short，超长的说明在 UTF-8 字符边界截断，否则后面的内容会被错位解析
+                    length = Short.MAX_VALUE;
+                    while ((note[length] & 0xC0) == 0x80) length--;
+                    Log.w(TAG, "说明过长，尾部文件中只保留前 " + length + " 字节");
+                }
+                out.writeShort(length);
+                out.write(note, 0, length);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // index 为事件在当前分段记录中的下标
+    void retract(int index, boolean retracted) {
+        if (out == null || index < 0) return;
+        try {
+            out.writeByte(TYPE_RETRACT);
+            out.writeInt(index);
+            out.writeByte(retracted ? 1 : 0);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void adjust(long relativeTime, int score) {
+        if (out == null) return;
+        try {
+            out.writeByte(TYPE_ADJUST);
+            out.writeLong(relativeTime);
+            out.writeInt(score);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    // 把缓冲的事件写入文件，与分数的保存时机相同
+    void flush() {
+        if (out == null) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            Log.w(TAG, "关闭失败: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    // 记录结束，不再需要恢复
+    void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "删除失败: " + file);
+        }
+    }
+
+    private void fail(IOException e) {
+        Log.w(TAG, "写入失败，进程被回收后将无法恢复本次记录: " + e.getMessage());
+        close();
+    }
+
+    private static int actionIndex(String action) {
+        for (int i = 0; i < ScoreCsvReader.ACTIONS.length; i++) {
+            if (ScoreCsvReader.ACTIONS[i].equals(action)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 读出尾部文件并重放到 records（汇总模式传入空的 AggregatedRecordList，按原样重新合并），
+     * 重放后继续在同一文件末尾追加。返回 {分段数, 分段起点}，文件不存在或无法读取时返回 null。
+     */
+    long[] restore(List<KeyPressRecord> records) {
+        close();
+        byte[] bytes;
+        try (FileInputStream in = new FileInputStream(file)) {
+            bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "读取失败: " + e.getMessage());
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long[] segment = null;
+        int complete = 0; // 最后一个完整项的结束位置
+        try {
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type == TYPE_SEGMENT) {
+                    segment = new long[]{buffer.getInt(), buffer.getLong()};
+                } else if (type == TYPE_RECORD) {
+                    long time = buffer.getLong();
+                    int score = buffer.getInt();
+                    int action = buffer.get();
+                    byte tag = buffer.get();
+                    short noteLength = buffer.getShort();
+                    String note = null;
+                    if (noteLength >= 0) {
+                        if (noteLength > buffer.remaining()) break; // 说明只写了一部分
+                        note = new String(bytes, buffer.position(), noteLength, StandardCharsets.UTF_8);
+                        buffer.position(buffer.position() + noteLength);
+                    }
+                    if (action < 0 || action >= ScoreCsvReader.ACTIONS.length) break;
+                    KeyPressRecord record = new KeyPressRecord(time, score, ScoreCsvReader.ACTIONS[action]);
+                    record.tag = tag;
+                    record.note = note;
+                    records.add(record);
+                } else if (type == TYPE_RETRACT) {
+                    int index = buffer.getInt();
+                    boolean retracted = buffer.get() != 0;
+                    if (index < records.size() && !(records instanceof AggregatedRecordList)) {
+                        records.get(index).retracted = retracted;
+                    }
+                } else if (type == TYPE_ADJUST) {
+                    long time = buffer.getLong();
+                    int score = buffer.getInt();
+                    if (records instanceof AggregatedRecordList) {
+                        ((AggregatedRecordList) records).adjust(time, score);
+                    }
+                } else {
+                    break;
+                }
+                if (segment == null) break; // 不是以分段项开头的文件
+                complete = buffer.position();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // 进程被回收时最后一项只写了一部分
+        }
+        if (segment == null) return null;
+
+        // 去掉不完整的末尾，之后的事件接着追加
+        try {
+            if (complete < bytes.length) {
+                try (FileOutputStream truncate = new FileOutputStream(file, true)) {
+                    truncate.getChannel().truncate(complete);
+                }
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 8192));
+        } catch (IOException e) {
+            fail(e);
+        }
+        return segment;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.volumecounter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按键标签字典。标签在设置中每行填写一个，开始记录时取当前字典作为本次会话的字典，
+ * 事件只保存标签编号（{@link KeyPressRecord#tag}，1-63，0 表示无标签），不为每个事件分配字符串。
+ * 文件在表头之前写入一次字典行，只列出该文件中用到的标签；编号在整个会话（包括各分段）中不变：
+ * <pre>
+ *   #TAGS:1=犯规|3=2号道
+ * </pre>
+ * 带标签的加减分行在时间列之后多一列编号，读取时还原为标签。
+ */
+class TagDictionary {
+    static final String PREFIX = "#TAGS:";
+    static final int MAX_TAGS = 63; // 用到的编号可以放进一个 long 位掩码
+
+    private final String[] labels; // 下标为编号，0 号不用
+
+    private TagDictionary(String[] labels) {
+        this.labels = labels;
+    }
+
+    static final TagDictionary EMPTY = new TagDictionary(new String[1]);
+
+    /**
+     * 编译设置中的标签文本；空行忽略。
+     * @throws IllegalArgumentException 标签无效或重复，消息中包含行号
+     */
+    static TagDictionary compile(String text) {
+        List<String> labels = new ArrayList<>();
+        labels.add(null);
+        String[] lines = text == null ? new String[0] : text.split("\n");
+        for (int lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            String label = lines[lineNumber - 1].trim();
+            if (label.isEmpty()) continue;
+            if (!isValidLabel(label)) {
+                throw new IllegalArgumentException("第 " + lineNumber + " 行：标签不能包含逗号、| 或 =");
+            }
+            if (labels.contains(label)) {
+                throw new IllegalArgumentException("第 " + lineNumber + " 行：标签重复");
+            }
+            if (labels.size() > MAX_TAGS) {
+                throw new IllegalArgumentException("最多 " + MAX_TAGS + " 个标签");
+            }
+            labels.add(label);
+        }
+        return new TagDictionary(labels.toArray(new String[0]));
+    }
+
+    private static boolean isValidLabel(String label) {
+        return label.indexOf(',') < 0 && label.indexOf('|') < 0 && label.indexOf('=') < 0;
+    }
+
+    boolean isEmpty() {
+        return labels.length == 1;
+    }
+
+    int size() {
+        return labels.length - 1;
+    }
+
+    // 编号对应的标签，超出范围时返回 null
+    String getLabel(int code) {
+        return code > 0 && code < labels.length ? labels[code] : null;
+    }
+
+    // 文件中用到的标签编号
+    static long usedMask(List<KeyPressRecord> records) {
+        long mask = 0;
+        for (int i = 0, size = records.size(); i < size; i++) {
+            mask |= 1L << records.get(i).tag;
+        }
+        return mask & ~1L;
+    }
+
+    // 只列出 usedMask 中编号的字典行；没有用到任何标签时返回 null
+    String toHeaderLine(long usedMask) {
+        StringBuilder line = null;
+        for (int code = 1; code < labels.length; code++) {
+            if ((usedMask & (1L << code)) == 0 || labels[code] == null) continue;
+            if (line == null) {
+                line = new StringBuilder(PREFIX);
+            } else {
+                line.append('|');
+            }
+            line.append(code).append('=').append(labels[code]);
+        }
+        return line != null ? line.toString() : null;
+    }
+
+    // 全部标签的字典行（事件数据库中保存），字典为空时返回 null
+    String toHeaderLine() {
+        return toHeaderLine(-1L);
+    }
+
+    // 由字典行还原字典（编号不变，未列出的编号为空）
+    static TagDictionary fromHeaderLine(String line) {
+        if (line == null) return EMPTY;
+        String[] labels = new String[MAX_TAGS + 1];
+        parseHeaderLine(line, labels);
+        return new TagDictionary(labels);
+    }
+
+    /**
+     * 解析文件中的字典行，把标签填入 into（下标为编号，长度 MAX_TAGS + 1）。
+     * 分段拼接时会遇到多个字典行，编号相同，逐个填入即可；无法解析的项忽略。
+     */
+    static void parseHeaderLine(String line, String[] into) {
+        if (!line.startsWith(PREFIX)) return;
+        for (String entry : line.substring(PREFIX.length()).split("\\|")) {
+            int equals = entry.indexOf('=');
+            if (equals <= 0) continue;
+            try {
+                int code = Integer.parseInt(entry.substring(0, equals).trim());
+                if (code > 0 && code <= MAX_TAGS) {
+                    into[code] = entry.substring(equals + 1).trim();
+                }
+            } catch (NumberFormatException ignored) {
+                // 跳过无效项
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.volumecounter;
+
+/**
+ * 最近 N 次分数操作的撤销/重做历史，基于固定容量的环形缓冲区，
+ * 撤销和重做都是 O(1) 且不分配内存。超出容量时丢弃最早的操作。
+ */
+class UndoHistory {
+    static final int DEFAULT_CAPACITY = 50;
+
+    private final KeyPressRecord[] records; // 未在记录中时为 null
+    private final int[] scoreBefore;
+    private final int[] scoreAfter;
+    private final int capacity;
+    private int start = 0;     // 最早一条操作的位置
+    private int undoCount = 0; // 可撤销的操作数
+    private int redoCount = 0; // 紧随其后的可重做操作数
+    private int lastChanged = -1; // 最近一次撤销/重做的操作位置
+
+    UndoHistory(int capacity) {
+        this.capacity = capacity;
+        this.records = new KeyPressRecord[capacity];
+        this.scoreBefore = new int[capacity];
+        this.scoreAfter = new int[capacity];
+    }
+
+    // 记录一次新操作，会清空重做历史
+    void push(KeyPressRecord record, int before, int after) {
+        // 重做项不再可达，释放引用
+        for (int i = 0; i < redoCount; i++) {
+            records[(start + undoCount + i) % capacity] = null;
+        }
+        redoCount = 0;
+        if (undoCount == capacity) {
+            start = (start + 1) % capacity;
+            undoCount--;
+        }
+        int index = (start + undoCount) % capacity;
+        records[index] = record;
+        scoreBefore[index] = before;
+        scoreAfter[index] = after;
+        undoCount++;
+    }
+
+    boolean canUndo() { return undoCount > 0; }
+
+    boolean canRedo() { return redoCount > 0; }
+
+    // 撤销最近一次操作，返回操作前的分数
+    int undo() {
+        undoCount--;
+        redoCount++;
+        int index = (start + undoCount) % capacity;
+        lastChanged = index;
+        if (records[index] != null) records[index].retracted = true;
+        return scoreBefore[index];
+    }
+
+    // 重做最近一次被撤销的操作，返回操作后的分数
+    int redo() {
+        int index = (start + undoCount) % capacity;
+        undoCount++;
+        redoCount--;
+        lastChanged = index;
+        if (records[index] != null) records[index].retracted = false;
+        return scoreAfter[index];
+    }
+
+    // 最近一次撤销/重做所改变的事件，未在记录中时为 null
+    KeyPressRecord getLastChanged() {
+        return lastChanged >= 0 ? records[lastChanged] : null;
+    }
+
+    // 分段写出或记录结束后，已写出的记录不能再修改
+    void clear() {
+        for (int i = 0; i < capacity; i++) records[i] = null;
+        start = 0;
+        lastChanged = -1;
+        undoCount = 0;
+        redoCount = 0;
+    }
+}
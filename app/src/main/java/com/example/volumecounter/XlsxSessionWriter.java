@@ -0,0 +1,313 @@
+package com.example.volumecounter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 把会话流式写成 XLSX（Office Open XML 工作簿），供 Excel 直接打开：
+ * 表头不再因缺少 BOM 而乱码，相对时间和分数是数字单元格，时间列是日期时间单元格。
+ * 工作表 XML 逐行写入 ZipOutputStream，不在内存中保留行；共享字符串表只有表头和固定的操作类型，
+ * 规则说明、标签等少量文本用内联字符串。一个工作表写满 Excel 的行数上限后自动续写到下一个工作表，
+ * 因此内存占用与会话长度无关。
+ */
+class XlsxSessionWriter {
+    static final String MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final int MAX_SHEET_ROWS = 1_048_576; // Excel 单个工作表的行数上限（含表头）
+    private static final long EXCEL_EPOCH_DAYS = 25569;  // 1970-01-01 对应的 Excel 日期序号
+    private static final long DAY_MS = 86_400_000L;
+    private static final String SHEET_NAME = "记录";
+    private static final String[] EXTRA_HEADERS = {"附加信息", "桶内按键", "桶内最低分", "桶内最高分"};
+    private static final String[] COLUMNS = {"A", "B", "C", "D", "E", "F", "G", "H"};
+
+    // 共享字符串：表头在前，之后是操作类型，下标与 ScoreCsvReader.ACTIONS 对应
+    private static final String[] HEADERS;
+    private static final int ACTION_BASE;
+
+    static {
+        String[] csvHeaders = ScoreCsvWriter.HEADER.split(",");
+        HEADERS = new String[csvHeaders.length + EXTRA_HEADERS.length];
+        System.arraycopy(csvHeaders, 0, HEADERS, 0, csvHeaders.length);
+        System.arraycopy(EXTRA_HEADERS, 0, HEADERS, csvHeaders.length, EXTRA_HEADERS.length);
+        ACTION_BASE = HEADERS.length;
+    }
+
+    // 样式下标，对应 styles.xml 中的 cellXfs
+    private static final int STYLE_DATE = 1;
+    private static final int STYLE_HEADER = 2;
+
+    private final ZipOutputStream zip;
+    private final byte[] buffer = new byte[16 * 1024];
+    private int count = 0;
+    private final TimeZone timeZone = TimeZone.getDefault(); // 与 CSV 时间列一致，按本地时间显示
+    private int sheetCount = 0;
+    private int sheetRow = 0; // 当前工作表已写的行数（含表头），0 表示尚未打开工作表
+    private long rows = 0;
+
+    XlsxSessionWriter(OutputStream out) {
+        this.zip = new ZipOutputStream(out);
+    }
+
+    /**
+     * 读完 reader 中的全部记录并写出完整的工作簿，返回写出的数据行数。
+     * 不关闭 reader，也不关闭 out（只结束 ZIP）。
+     */
+    static long write(ScoreCsvReader reader, OutputStream out) throws IOException {
+        XlsxSessionWriter writer = new XlsxSessionWriter(out);
+        while (reader.next()) {
+            writer.writeRow(reader);
+        }
+        writer.finish(reader.getRemark());
+        return writer.rows;
+    }
+
+    void writeRow(ScoreCsvReader reader) throws IOException {
+        if (sheetRow == 0 || sheetRow == MAX_SHEET_ROWS) {
+            if (sheetRow != 0) closeSheet();
+            openSheet();
+        }
+        int row = ++sheetRow;
+        rows++;
+        ascii("<row r=\"").number(row).ascii("\">");
+        numberCell(0, row, reader.getRelativeTime());
+        numberCell(1, row, reader.getScore());
+        // 操作类型是 ScoreCsvReader.ACTIONS 中的常量
+        String action = reader.getAction();
+        for (int i = 0; i < ScoreCsvReader.ACTIONS.length; i++) {
+            if (ScoreCsvReader.ACTIONS[i] == action) {
+                cellStart(2, row).ascii("\" t=\"s\"><v>").number(ACTION_BASE + i).ascii("</v></c>");
+                break;
+            }
+        }
+        long wallTime = reader.getWallTime();
+        if (wallTime >= 0) {
+            cellStart(3, row).ascii("\" s=\"").number(STYLE_DATE).ascii("\"><v>");
+            dateSerial(wallTime);
+            ascii("</v></c>");
+        }
+        if (reader.getNote() != null) {
+            cellStart(4, row).ascii("\" t=\"inlineStr\"><is><t>");
+            text(reader.getNote());
+            ascii("</t></is></c>");
+        } else if (reader.isBucket()) {
+            numberCell(4, row, reader.getBucketDelta());
+            numberCell(5, row, reader.getBucketPresses());
+            numberCell(6, row, reader.getBucketMin());
+            numberCell(7, row, reader.getBucketMax());
+        }
+        ascii("</row>");
+    }
+
+    // 写出工作簿的其余部分；ZIP 中各部分的顺序不限，所以工作表数量确定后再写工作簿
+    void finish(String remark) throws IOException {
+        if (sheetRow == 0) openSheet(); // 没有数据时也输出一个只有表头的工作表
+        closeSheet();
+
+        entry("[Content_Types].xml");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .ascii("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                .ascii("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .ascii("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>");
+        for (int i = 1; i <= sheetCount; i++) {
+            ascii("<Override PartName=\"/xl/worksheets/sheet").number(i)
+                    .ascii(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+        ascii("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>")
+                .ascii("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>")
+                .ascii("<Override PartName=\"/docProps/core.xml\" ContentType=\"application/vnd.openxmlformats-package.core-properties+xml\"/>")
+                .ascii("</Types>");
+
+        entry("_rels/.rels");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">")
+                .ascii("<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>")
+                .ascii("<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/core-properties\" Target=\"docProps/core.xml\"/>")
+                .ascii("</Relationships>");
+
+        // 备注写在文档标题中
+        entry("docProps/core.xml");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<cp:coreProperties xmlns:cp=\"http://schemas.openxmlformats.org/package/2006/metadata/core-properties\"")
+                .ascii(" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">");
+        if (remark != null && !remark.isEmpty()) {
+            ascii("<dc:title>");
+            text(remark);
+            ascii("</dc:title>");
+        }
+        ascii("</cp:coreProperties>");
+
+        entry("xl/workbook.xml");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"")
+                .ascii(" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><sheets>");
+        for (int i = 1; i <= sheetCount; i++) {
+            ascii("<sheet name=\"");
+            text(i == 1 ? SHEET_NAME : SHEET_NAME + i);
+            ascii("\" sheetId=\"").number(i).ascii("\" r:id=\"rId").number(i).ascii("\"/>");
+        }
+        ascii("</sheets></workbook>");
+
+        entry("xl/_rels/workbook.xml.rels");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+        for (int i = 1; i <= sheetCount; i++) {
+            ascii("<Relationship Id=\"rId").number(i)
+                    .ascii("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet")
+                    .number(i).ascii(".xml\"/>");
+        }
+        ascii("<Relationship Id=\"rId").number(sheetCount + 1)
+                .ascii("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>")
+                .ascii("<Relationship Id=\"rId").number(sheetCount + 2)
+                .ascii("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings\" Target=\"sharedStrings.xml\"/>")
+                .ascii("</Relationships>");
+
+        // 0：默认；1：日期时间；2：表头加粗
+        entry("xl/styles.xml");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">")
+                .ascii("<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"yyyy-mm-dd hh:mm:ss\"/></numFmts>")
+                .ascii("<fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font>")
+                .ascii("<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>")
+                .ascii("<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>")
+                .ascii("<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>")
+                .ascii("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>")
+                .ascii("<cellXfs count=\"3\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>")
+                .ascii("<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>")
+                .ascii("<xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/></cellXfs>")
+                .ascii("<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>")
+                .ascii("</styleSheet>");
+
+        int strings = ACTION_BASE + ScoreCsvReader.ACTIONS.length;
+        entry("xl/sharedStrings.xml");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"")
+                .number(strings).ascii("\" uniqueCount=\"").number(strings).ascii("\">");
+        for (String header : HEADERS) {
+            ascii("<si><t>");
+            text(header);
+            ascii("</t></si>");
+        }
+        for (String action : ScoreCsvReader.ACTIONS) {
+            ascii("<si><t>");
+            text(action);
+            ascii("</t></si>");
+        }
+        ascii("</sst>");
+
+        flushBuffer();
+        zip.closeEntry();
+        zip.finish();
+    }
+
+    private void openSheet() throws IOException {
+        sheetCount++;
+        entry("xl/worksheets/sheet" + sheetCount + ".xml");
+        ascii("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                .ascii("<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">")
+                // 冻结表头
+                .ascii("<sheetViews><sheetView workbookViewId=\"0\"><pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\" state=\"frozen\"/></sheetView></sheetViews>")
+                .ascii("<cols><col min=\"1\" max=\"3\" width=\"16\" customWidth=\"1\"/><col min=\"4\" max=\"4\" width=\"20\" customWidth=\"1\"/>")
+                .ascii("<col min=\"5\" max=\"8\" width=\"14\" customWidth=\"1\"/></cols><sheetData><row r=\"1\">");
+        for (int i = 0; i < HEADERS.length; i++) {
+            cellStart(i, 1).ascii("\" s=\"").number(STYLE_HEADER).ascii("\" t=\"s\"><v>").number(i).ascii("</v></c>");
+        }
+        ascii("</row>");
+        sheetRow = 1;
+    }
+
+    private void closeSheet() throws IOException {
+        ascii("</sheetData></worksheet>");
+    }
+
+    // 结束上一个部分并开始新的 ZIP 条目
+    private void entry(String name) throws IOException {
+        flushBuffer();
+        zip.closeEntry(); // 没有打开的条目时为空操作
+        zip.putNextEntry(new ZipEntry(name));
+    }
+
+    private XlsxSessionWriter cellStart(int column, int row) throws IOException {
+        return ascii("<c r=\"").ascii(COLUMNS[column]).number(row);
+    }
+
+    private void numberCell(int column, int row, long value) throws IOException {
+        cellStart(column, row).ascii("\"><v>").number(value).ascii("</v></c>");
+    }
+
+    // Excel 日期序号（本地时间的天数，小数部分为一天中的时刻），保留 8 位小数，精度约 1 毫秒
+    private void dateSerial(long wallTime) throws IOException {
+        long local = wallTime + timeZone.getOffset(wallTime);
+        long days = Math.floorDiv(local, DAY_MS);
+        long fraction = Math.floorMod(local, DAY_MS) * 100_000_000L / DAY_MS;
+        number(days + EXCEL_EPOCH_DAYS);
+        if (fraction != 0) {
+            ascii(".");
+            for (long digit = 10_000_000L; digit > fraction; digit /= 10) {
+                ascii("0");
+            }
+            number(fraction);
+        }
+    }
+
+    private XlsxSessionWriter ascii(String value) throws IOException {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            put((byte) value.charAt(i));
+        }
+        return this;
+    }
+
+    private XlsxSessionWriter number(long value) throws IOException {
+        if (value < 0) {
+            put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            put((byte) ('0' + (value / divisor) % 10));
+        }
+        return this;
+    }
+
+    // 转义后的 UTF-8 文本；XML 1.0 不允许的控制字符直接丢弃
+    private void text(String value) throws IOException {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '<') {
+                ascii("&lt;");
+            } else if (c == '>') {
+                ascii("&gt;");
+            } else if (c == '&') {
+                ascii("&amp;");
+            } else if (c == '"') {
+                ascii("&quot;");
+            } else if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                continue;
+            } else if (c < 0x80) {
+                put((byte) c);
+            } else {
+                int end = i + 1;
+                if (Character.isHighSurrogate(c) && end < length) end++;
+                byte[] bytes = value.substring(i, end).getBytes(StandardCharsets.UTF_8);
+                for (byte b : bytes) put(b);
+                i = end - 1;
+            }
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (count == buffer.length) flushBuffer();
+        buffer[count++] = b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            zip.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
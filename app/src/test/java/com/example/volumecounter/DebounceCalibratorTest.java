@@ -0,0 +1,105 @@
+package com.example.volumecounter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.view.KeyEvent;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * 防抖时间的建议：样本不足时不给出建议，有抖动峰时取两峰之间的谷，
+ * 没有抖动峰时不超过最短的有意间隔；直方图保存后重新加载不丢样本。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class DebounceCalibratorTest {
+    private static final int KEY = KeyEvent.KEYCODE_VOLUME_UP;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private long time;
+
+    @Test
+    public void noProposalWithoutEnoughSamples() throws IOException {
+        DebounceCalibrator calibrator = start(folder.newFolder());
+        press(calibrator, 100, 400);
+
+        assertEquals(-1, calibrator.propose());
+    }
+
+    @Test
+    public void onlyRepeatsOfTheSameKeyAreCounted() throws IOException {
+        DebounceCalibrator calibrator = start(folder.newFolder());
+        for (int i = 0; i < 500; i++) {
+            time += 400;
+            calibrator.onKeyDown(i % 2 == 0 ? KeyEvent.KEYCODE_VOLUME_DOWN : KEY, time);
+        }
+
+        assertEquals(0, calibrator.getSampleCount());
+    }
+
+    @Test
+    public void bouncePeakProposesWindowBetweenPeaks() throws IOException {
+        DebounceCalibrator calibrator = start(folder.newFolder());
+        for (int i = 0; i < 1_000; i++) {
+            press(calibrator, 1, 300 + i % 300);      // 有意的按键：300-600 毫秒
+            if (i % 10 == 0) {
+                press(calibrator, 1, 40 + i % 20);    // 抖动：40、50 毫秒
+            }
+        }
+
+        int window = calibrator.propose();
+        assertTrue("建议 " + window, window > 50 && window < 300);
+    }
+
+    @Test
+    public void withoutBouncePeakStaysBelowShortestIntendedInterval() throws IOException {
+        DebounceCalibrator calibrator = start(folder.newFolder());
+        for (int i = 0; i < 1_000; i++) {
+            press(calibrator, 1, 200 + i % 400);
+        }
+
+        int window = calibrator.propose();
+        assertTrue("建议 " + window, window >= DebounceCalibrator.MIN_WINDOW_MS && window < 200);
+    }
+
+    @Test
+    public void histogramSurvivesSaveAndLoad() throws IOException {
+        File directory = folder.newFolder();
+        DebounceCalibrator calibrator = start(directory);
+        calibrator.load();
+        press(calibrator, 300, 250);
+        calibrator.save();
+
+        DebounceCalibrator reloaded = start(directory);
+        press(reloaded, 1, 250); // 加载前的样本与文件中的合并
+        reloaded.load();
+
+        assertEquals(301, reloaded.getSampleCount());
+        assertEquals(calibrator.propose(), reloaded.propose());
+    }
+
+    // 新的统计器，已按下一次键（之后每次按键产生一个间隔样本）
+    private DebounceCalibrator start(File directory) {
+        DebounceCalibrator calibrator = new DebounceCalibrator(directory);
+        time += 10_000;
+        calibrator.onKeyDown(KEY, time);
+        return calibrator;
+    }
+
+    // 以固定间隔按下同一个键 count 次，产生 count 个间隔样本
+    private void press(DebounceCalibrator calibrator, int count, long intervalMs) {
+        for (int i = 0; i < count; i++) {
+            time += intervalMs;
+            calibrator.onKeyDown(KEY, time);
+        }
+    }
+}
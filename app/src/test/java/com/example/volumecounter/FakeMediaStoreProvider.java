@@ -0,0 +1,229 @@
+package com.example.volumecounter;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 场景测试用的内存 MediaStore：以 "media" 注册，只实现应用用到的 Files 表操作，
+ * 文件内容保存在临时目录中。可能被分段写入线程并发访问，所有操作加锁。
+ */
+public class FakeMediaStoreProvider extends ContentProvider {
+    private static final Uri FILES_URI = MediaStore.Files.getContentUri("external");
+
+    private static final class Row {
+        long id;
+        String displayName;
+        String mimeType;
+        String relativePath;
+        long dateModified;
+        File file;
+    }
+
+    private final Map<Long, Row> rows = new LinkedHashMap<>();
+    private File root;
+    private long nextId = 1;
+
+    @Override
+    public boolean onCreate() {
+        root = new File(getContext().getCacheDir(), "fake_media");
+        root.mkdirs();
+        return true;
+    }
+
+    // 预置 count 个小会话文件（修改时间递减），用于文件列表测试
+    synchronized void seedSessions(int count) throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        for (int i = 0; i < count; i++) {
+            Row row = newRow("score_records_seed_" + i + ".csv", "text/csv",
+                    "Documents/ScoreRecords/");
+            row.dateModified = now - i;
+            try (FileOutputStream out = new FileOutputStream(row.file)) {
+                ScoreCsvWriter writer = new ScoreCsvWriter(out);
+                writer.writeHeader("预置 " + i);
+                writer.writeRow(0, 0, "START_RECORD", now * 1000);
+                writer.writeRow(1000, 1, "INCREASE", now * 1000 + 1000);
+                writer.writeRow(2000, 1, "END_RECORD", now * 1000 + 2000);
+                writer.finish();
+            }
+        }
+    }
+
+    synchronized List<String> getDisplayNames() {
+        List<String> names = new ArrayList<>();
+        for (Row row : rows.values()) {
+            names.add(row.displayName);
+        }
+        return names;
+    }
+
+    synchronized File getFile(String displayName) {
+        for (Row row : rows.values()) {
+            if (row.displayName.equals(displayName)) return row.file;
+        }
+        return null;
+    }
+
+    private Row newRow(String displayName, String mimeType, String relativePath) {
+        Row row = new Row();
+        row.id = nextId++;
+        row.displayName = displayName;
+        row.mimeType = mimeType;
+        row.relativePath = relativePath;
+        row.dateModified = System.currentTimeMillis() / 1000;
+        row.file = new File(root, row.id + "_" + displayName);
+        rows.put(row.id, row);
+        return row;
+    }
+
+    @Override
+    public synchronized Uri insert(Uri uri, ContentValues values) {
+        String relativePath = values.getAsString(MediaStore.Files.FileColumns.RELATIVE_PATH);
+        Row row = newRow(values.getAsString(MediaStore.Files.FileColumns.DISPLAY_NAME),
+                values.getAsString(MediaStore.Files.FileColumns.MIME_TYPE),
+                relativePath != null ? relativePath + "/" : "");
+        try {
+            row.file.createNewFile();
+        } catch (IOException e) {
+            return null;
+        }
+        return ContentUris.withAppendedId(FILES_URI, row.id);
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                     String sortOrder) {
+        String[] columns = projection != null ? projection : new String[]{
+                MediaStore.Files.FileColumns._ID, MediaStore.Files.FileColumns.DISPLAY_NAME};
+        MatrixCursor cursor = new MatrixCursor(columns);
+        List<Row> matches = new ArrayList<>();
+        Row single = findRow(uri);
+        if (single != null) {
+            matches.add(single);
+        } else if (isCollection(uri)) {
+            for (Row row : rows.values()) {
+                // 应用只按 RELATIVE_PATH LIKE '%Documents/ScoreRecords%' 查询
+                if (selection == null || row.relativePath.contains("ScoreRecords")) {
+                    matches.add(row);
+                }
+            }
+            matches.sort((a, b) -> Long.compare(b.dateModified, a.dateModified));
+        }
+        for (Row row : matches) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = valueOf(row, columns[i]);
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static Object valueOf(Row row, String column) {
+        switch (column) {
+            case MediaStore.Files.FileColumns._ID:
+                return row.id;
+            case MediaStore.Files.FileColumns.DISPLAY_NAME:
+                return row.displayName;
+            case MediaStore.Files.FileColumns.DATE_MODIFIED:
+                return row.dateModified;
+            case MediaStore.Files.FileColumns.SIZE:
+                return row.file.length();
+            case MediaStore.Files.FileColumns.MIME_TYPE:
+                return row.mimeType;
+            case MediaStore.Files.FileColumns.RELATIVE_PATH:
+                return row.relativePath;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public synchronized int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        Row row = findRow(uri);
+        if (row == null) return 0;
+        String displayName = values.getAsString(MediaStore.Files.FileColumns.DISPLAY_NAME);
+        if (displayName != null) row.displayName = displayName;
+        row.dateModified = System.currentTimeMillis() / 1000;
+        return 1;
+    }
+
+    @Override
+    public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+        Row row = findRow(uri);
+        if (row != null) {
+            rows.remove(row.id);
+            row.file.delete();
+            return 1;
+        }
+        if (isCollection(uri) && selectionArgs != null) {
+            // 批量删除：_ID IN (?, ?, ...)
+            int deleted = 0;
+            for (String arg : selectionArgs) {
+                Row removed = rows.remove(Long.parseLong(arg));
+                if (removed != null) {
+                    removed.file.delete();
+                    deleted++;
+                }
+            }
+            return deleted;
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized String getType(Uri uri) {
+        Row row = findRow(uri);
+        return row != null ? row.mimeType : null;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        Row row;
+        synchronized (this) {
+            row = findRow(uri);
+            if (row != null && mode.contains("w")) {
+                row.dateModified = System.currentTimeMillis() / 1000;
+            }
+        }
+        if (row == null) {
+            throw new FileNotFoundException("不存在: " + uri);
+        }
+        return ParcelFileDescriptor.open(row.file, ParcelFileDescriptor.parseMode(mode));
+    }
+
+    private Row findRow(Uri uri) {
+        if (isCollection(uri)) return null;
+        try {
+            return rows.get(ContentUris.parseId(uri));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isCollection(Uri uri) {
+        return uri.getPathSegments().size() <= 2; // external/file
+    }
+
+    // 测试结束后删除临时文件
+    synchronized void clear() {
+        for (Iterator<Row> it = rows.values().iterator(); it.hasNext(); ) {
+            it.next().file.delete();
+            it.remove();
+        }
+    }
+}
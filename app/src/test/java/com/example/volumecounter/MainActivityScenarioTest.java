@@ -0,0 +1,273 @@
+package com.example.volumecounter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+import android.app.Dialog;
+import android.os.Looper;
+import android.view.KeyEvent;
+import android.widget.TextView;
+import androidx.recyclerview.widget.RecyclerView;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowDialog;
+import org.robolectric.shadows.ShadowEnvironment;
+
+/**
+ * 端到端场景：在 Robolectric 中启动 MainActivity，注入大量音量键事件（足以触发分段切换），
+ * 对接内存中的 MediaStore 完成记录、保存和文件列表加载，检查结果，并对主线程耗时和分配量设置上限。
+ * <p>
+ * 耗时上限按参考开发机设定，再按校准结果放宽：同一 JVM 中先计时一段固定的纯 Java 工作量
+ * （写出并解析 CALIBRATION_ROWS 行记录），比参考机慢多少倍，耗时上限就放宽多少倍，只放宽不收紧。
+ * 按键另有相对上限：预热之后，最后一段按键的平均耗时不得明显高于最初一段，
+ * 用来发现随会话变长而变慢的回退，与机器快慢无关。分配量与机器无关，使用固定上限。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class MainActivityScenarioTest {
+    private static final int WARMUP_EVENTS = 1_000;
+    private static final int EVENTS = 20_000;
+    private static final int SEEDED_FILES = 10_000;
+
+    // 参考开发机上的上限
+    private static final long MAX_AVERAGE_EVENT_NANOS = 500_000;   // 每个按键平均主线程耗时 0.5ms
+    private static final long MAX_P99_EVENT_NANOS = 5_000_000;     // p99 5ms
+    private static final long MAX_BYTES_PER_EVENT = 16 * 1024;     // 每个按键平均分配
+    private static final long MAX_SAVE_MILLIS = 2_000;             // 结束记录（保存）的主线程耗时
+    private static final long MAX_OPEN_FILE_MANAGER_MILLIS = 500;  // 打开文件管理的主线程耗时（列表在后台加载）
+    private static final long MAX_LOAD_FILES_MILLIS = 3_000;       // 打开到列出 1 万条
+    // 最后 WARMUP_EVENTS 个按键的平均耗时不超过最初 WARMUP_EVENTS 个的 MAX_GROWTH 倍（另加固定余量）
+    private static final long MAX_GROWTH = 3;
+    private static final long GROWTH_SLACK_NANOS = 50_000;
+
+    // 校准工作量及其在参考开发机上的耗时
+    private static final int CALIBRATION_ROWS = 50_000;
+    private static final long REFERENCE_CALIBRATION_NANOS = 150_000_000;
+
+    private FakeMediaStoreProvider mediaStore;
+    private ActivityController<MainActivity> controller;
+    private MainActivity activity;
+    private double slowdown; // 本机相对参考机的倍数，不小于 1
+
+    @Before
+    public void setUp() {
+        Application application = RuntimeEnvironment.getApplication();
+        shadowOf(application).grantPermissions(Manifest.permission.WRITE_EXTERNAL_STORAGE,
+                Manifest.permission.READ_EXTERNAL_STORAGE, Manifest.permission.POST_NOTIFICATIONS);
+        ShadowEnvironment.setIsExternalStorageManager(true);
+        mediaStore = Robolectric.setupContentProvider(FakeMediaStoreProvider.class, "media");
+    }
+
+    @After
+    public void tearDown() {
+        if (controller != null) {
+            controller.pause().stop().destroy();
+        }
+        mediaStore.clear();
+    }
+
+    private void launch() {
+        controller = Robolectric.buildActivity(MainActivity.class).setup();
+        activity = controller.get();
+        // 从 0 分开始
+        activity.findViewById(R.id.reset_btn).performClick();
+        idle(Duration.ofMillis(200));
+        slowdown = calibrate();
+    }
+
+    @Test
+    public void volumeKeysUpdateScoreWhileRecording() {
+        launch();
+        activity.findViewById(R.id.start_button).performClick();
+        idle(Duration.ofMillis(200));
+
+        int expectedScore = pressKeys(WARMUP_EVENTS, 0, null, null);
+
+        long[] nanos = new long[EVENTS];
+        long[] allocated = new long[1];
+        expectedScore = pressKeys(EVENTS, expectedScore, nanos, allocated);
+
+        assertEquals("分数: " + expectedScore, ((TextView) activity.findViewById(R.id.score_text)).getText().toString());
+        assertEquals(expectedScore,
+                activity.getSharedPreferences("ScoreCounterPrefs", 0).getInt("currentScore", -1));
+
+        long early = average(nanos, 0, WARMUP_EVENTS);
+        long late = average(nanos, EVENTS - WARMUP_EVENTS, EVENTS);
+        long average = average(nanos, 0, EVENTS);
+        Arrays.sort(nanos);
+        long p99 = nanos[(int) (EVENTS * 0.99)];
+        assertBudget("平均耗时(ns)", average, scaled(MAX_AVERAGE_EVENT_NANOS));
+        assertBudget("p99 耗时(ns)", p99, scaled(MAX_P99_EVENT_NANOS));
+        assertBudget("最后一段平均耗时(ns)", late, MAX_GROWTH * early + GROWTH_SLACK_NANOS);
+        assertBudget("每事件分配(B)", allocated[0] / EVENTS, MAX_BYTES_PER_EVENT);
+    }
+
+    @Test
+    public void endRecordingSavesVerifiedFileEndingAtCurrentScore() throws IOException {
+        launch();
+        activity.findViewById(R.id.start_button).performClick();
+        idle(Duration.ofMillis(200));
+        int expectedScore = pressKeys(EVENTS, 0, null, null);
+
+        long start = System.nanoTime();
+        activity.findViewById(R.id.end_button).performClick();
+        long saveMillis = (System.nanoTime() - start) / 1_000_000;
+        idle(Duration.ofSeconds(1));
+
+        // 分段在后台写入，最后一段由结束记录写出（分段序号补零，名称最大的是最后一段）
+        String lastName = null;
+        for (String name : mediaStore.getDisplayNames()) {
+            if (name.startsWith("score_records_") && name.endsWith(".csv")
+                    && (lastName == null || name.compareTo(lastName) > 0)) {
+                lastName = name;
+            }
+        }
+        assertNotNull("没有保存记录文件", lastName);
+        File saved = mediaStore.getFile(lastName);
+        try (InputStream in = new FileInputStream(saved)) {
+            assertEquals("校验行与内容不符", ScoreChecksum.OK, ScoreChecksum.verify(in));
+        }
+        int lastScore = -1;
+        try (ScoreCsvReader reader = new ScoreCsvReader(new FileInputStream(saved))) {
+            while (reader.next()) {
+                lastScore = reader.getScore();
+            }
+        }
+        assertEquals(expectedScore, lastScore);
+        assertEquals(expectedScore,
+                activity.getSharedPreferences("ScoreCounterPrefs", 0).getInt("currentScore", -1));
+        assertBudget("保存耗时(ms)", saveMillis, scaled(MAX_SAVE_MILLIS));
+    }
+
+    @Test
+    public void fileManagerListsTenThousandSessions() throws Exception {
+        mediaStore.seedSessions(SEEDED_FILES);
+        launch();
+
+        long start = System.nanoTime();
+        activity.findViewById(R.id.file_manager_button).performClick();
+        long openMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // 文件列表和列表差异在后台计算，等待结果提交到适配器
+        Dialog dialog = ShadowDialog.getLatestDialog();
+        assertNotNull(dialog);
+        RecyclerView list = dialog.findViewById(R.id.file_recycler_view);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (list.getAdapter().getItemCount() < SEEDED_FILES && System.currentTimeMillis() < deadline) {
+            idle(Duration.ofMillis(50));
+            Thread.sleep(10);
+        }
+        long loadMillis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(SEEDED_FILES, list.getAdapter().getItemCount());
+        dialog.dismiss();
+
+        assertBudget("打开文件管理耗时(ms)", openMillis, scaled(MAX_OPEN_FILE_MANAGER_MILLIS));
+        assertBudget("列出文件耗时(ms)", loadMillis, scaled(MAX_LOAD_FILES_MILLIS));
+    }
+
+    /**
+     * 交替注入音量加（2 次）和音量减（1 次），每次按键后推进 101ms 以越过防抖。
+     * nanos 不为空时记录每个事件的主线程耗时（含由此触发的主线程任务），allocated 累计分配字节数。
+     * 返回预期的分数。
+     */
+    private int pressKeys(int count, int score, long[] nanos, long[] allocated) {
+        KeyEvent up = new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_VOLUME_UP);
+        KeyEvent down = new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_VOLUME_DOWN);
+        long allocationStart = allocatedBytes();
+        for (int i = 0; i < count; i++) {
+            boolean increase = i % 3 != 2;
+            long start = System.nanoTime();
+            activity.dispatchKeyEvent(increase ? up : down);
+            idle(Duration.ofMillis(101));
+            if (nanos != null) {
+                nanos[i] = System.nanoTime() - start;
+            }
+            if (increase) {
+                score++;
+            } else if (score > 0) {
+                score--;
+            }
+        }
+        if (allocated != null) {
+            allocated[0] = allocatedBytes() - allocationStart;
+        }
+        return score;
+    }
+
+    /**
+     * 本机相对参考机的倍数：写出并解析 CALIBRATION_ROWS 行记录，取多次中最快的一次（前几次含 JIT 编译）。
+     */
+    private static double calibrate() {
+        long best = Long.MAX_VALUE;
+        try {
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ScoreCsvWriter writer = new ScoreCsvWriter(out);
+                writer.writeHeader("校准");
+                for (int i = 0; i < CALIBRATION_ROWS; i++) {
+                    writer.writeRow(i, i, "INCREASE", 1_700_000_000_000L + i);
+                }
+                writer.finish();
+                int rows = 0;
+                try (ScoreCsvReader reader = new ScoreCsvReader(new ByteArrayInputStream(out.toByteArray()))) {
+                    while (reader.next()) {
+                        rows++;
+                    }
+                }
+                assertEquals(CALIBRATION_ROWS, rows);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return Math.max(1.0, (double) best / REFERENCE_CALIBRATION_NANOS);
+    }
+
+    private long scaled(long budget) {
+        return (long) (budget * slowdown);
+    }
+
+    private static long average(long[] values, int from, int to) {
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            total += values[i];
+        }
+        return total / (to - from);
+    }
+
+    private static void idle(Duration duration) {
+        shadowOf(Looper.getMainLooper()).idleFor(duration);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void assertBudget(String name, long actual, long budget) {
+        assertTrue(String.format(Locale.ROOT, "%s 超出上限: %d > %d（校准倍数 %.2f）",
+                name, actual, budget, slowdown), actual <= budget);
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.volumecounter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * 校验行：写出的文件校验通过，内容或字节数被改动时报告损坏，没有校验行的文件单独区分；
+ * 写入时记录的尾部签名与从文件读出的一致。
+ */
+public class ScoreChecksumTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void crc32cMatchesStandardCheckValue() {
+        Crc32c crc = new Crc32c();
+        byte[] input = "123456789".getBytes(StandardCharsets.US_ASCII);
+        crc.update(input, 0, input.length);
+        assertEquals(0xe3069283L, crc.getValue());
+    }
+
+    @Test
+    public void writtenFileVerifies() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = write(out, 10);
+
+        assertEquals(out.size(), size);
+        assertEquals(ScoreChecksum.OK, verify(out.toByteArray()));
+    }
+
+    @Test
+    public void fileLargerThanReadBufferVerifies() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 5_000);
+
+        assertEquals(ScoreChecksum.OK, verify(out.toByteArray()));
+    }
+
+    @Test
+    public void changedRowIsCorrupt() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 10);
+        String text = out.toString("UTF-8").replace("\n5,", "\n6,");
+
+        assertEquals(ScoreChecksum.CORRUPT, verify(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void wrongByteCountIsCorrupt() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 10);
+        String text = out.toString("UTF-8").replaceFirst("BYTES:\\d+", "BYTES:1");
+
+        assertEquals(ScoreChecksum.CORRUPT, verify(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void fileWithoutTrailerHasNoChecksum() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, 10);
+        // 校验行之后又追加了行（例如用表格软件编辑后另存）
+        out.write("11,1,INCREASE\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(ScoreChecksum.NO_CHECKSUM, verify(out.toByteArray()));
+        assertEquals(ScoreChecksum.NO_CHECKSUM, verify(new byte[0]));
+    }
+
+    @Test
+    public void tailSignatureMatchesWriter() throws IOException {
+        // 短于尾部长度和长于尾部长度的文件
+        for (int rows : new int[] {0, 1_000}) {
+            File file = folder.newFile("tail_" + rows + ".csv");
+            ScoreCsvWriter writer;
+            try (OutputStream out = new FileOutputStream(file)) {
+                writer = new ScoreCsvWriter(out);
+                writer.writeHeader(null);
+                for (int i = 0; i < rows; i++) {
+                    writer.writeRow(i, i, "INCREASE", 1_700_000_000_000L + i);
+                }
+                writer.finish();
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                assertEquals(writer.getTailSignature(), ScoreChecksum.tailSignature(channel));
+            }
+        }
+    }
+
+    private static long write(OutputStream out, int rows) throws IOException {
+        ScoreCsvWriter writer = new ScoreCsvWriter(out);
+        writer.writeHeader("校验");
+        for (int i = 0; i < rows; i++) {
+            writer.writeRow(i, i, "INCREASE", 1_700_000_000_000L + i);
+        }
+        return writer.finish();
+    }
+
+    private static int verify(byte[] content) throws IOException {
+        return ScoreChecksum.verify(new ByteArrayInputStream(content));
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.volumecounter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Locale;
+import org.junit.Test;
+
+/**
+ * 记录CSV的解析边界：BOM、缺少表头、不合法的行、拼接分段中的重复表头和校验行、标签字典和桶行。
+ */
+public class ScoreCsvReaderTest {
+    private static final String TIME = "2024-01-02 03:04:05";
+
+    @Test
+    public void byteOrderMarkAndRemarkAreSkipped() throws IOException {
+        ScoreCsvReader reader = open("\uFEFF#REMARK:决赛\n" + ScoreCsvWriter.HEADER + "\n0,1,INCREASE," + TIME + "\n");
+
+        assertEquals("决赛", reader.getRemark());
+        assertTrue(reader.next());
+        assertEquals(0, reader.getRelativeTime());
+        assertEquals(1, reader.getScore());
+        assertEquals("INCREASE", reader.getAction());
+        Calendar calendar = Calendar.getInstance(Locale.CHINA);
+        calendar.clear();
+        calendar.set(2024, Calendar.JANUARY, 2, 3, 4, 5);
+        assertEquals(calendar.getTimeInMillis(), reader.getWallTime());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void fileWithoutHeaderStartsAtFirstRow() throws IOException {
+        ScoreCsvReader reader = open("5,2,INCREASE\r\n6,1,DECREASE\r\n");
+
+        assertTrue(reader.next());
+        assertEquals(5, reader.getRelativeTime());
+        assertEquals(-1, reader.getWallTime()); // 没有时间列
+        assertTrue(reader.next());
+        assertEquals("DECREASE", reader.getAction());
+        assertFalse(reader.next());
+        assertEquals(2, reader.getValidRows());
+    }
+
+    @Test
+    public void invalidRowsAreSkippedAndCounted() throws IOException {
+        ScoreCsvReader reader = open(ScoreCsvWriter.HEADER + "\n"
+                + "abc\n"
+                + "1,2,UNKNOWN," + TIME + "\n"            // 未知操作
+                + "2,99999999999,INCREASE," + TIME + "\n" // 分数溢出
+                + "99999999999999999999,1,INCREASE\n"     // 相对时间超出上限
+                + "10,3,INCREASE," + TIME + "\n"
+                + "5,4,INCREASE," + TIME + "\n"           // 时间倒退
+                + "11,-2,DECREASE,2024-13-01 00:00:00\n");   // 时间列不合法，行仍然有效
+
+        assertTrue(reader.next());
+        assertEquals(10, reader.getRelativeTime());
+        assertTrue(reader.next());
+        assertEquals(11, reader.getRelativeTime());
+        assertEquals(-2, reader.getScore());
+        assertEquals(-1, reader.getWallTime());
+        assertFalse(reader.next());
+        assertEquals(2, reader.getValidRows());
+        assertEquals(5, reader.getInvalidRows());
+    }
+
+    @Test
+    public void concatenatedSegmentsSkipRepeatedHeadersAndTrailers() throws IOException {
+        ScoreCsvReader reader = open(ScoreCsvWriter.HEADER + "\n0,1,INCREASE," + TIME + "\n#CRC32C:0000abcd,BYTES:70\n"
+                + ScoreCsvWriter.HEADER + "\n1,2,INCREASE," + TIME + "\n#CRC32C:0000abcd,BYTES:70\n");
+
+        assertTrue(reader.next());
+        assertTrue(reader.next());
+        assertEquals(2, reader.getScore());
+        assertFalse(reader.next());
+        assertEquals(0, reader.getInvalidRows());
+    }
+
+    @Test
+    public void tagCodesExpandToLabels() throws IOException {
+        ScoreCsvReader reader = open("#TAGS:1=犯规|3=2号道\n" + ScoreCsvWriter.HEADER + "\n"
+                + "0,1,INCREASE," + TIME + ",1\n"
+                + "1,2,INCREASE," + TIME + ",3\n"
+                + "2,3,INCREASE," + TIME + ",7\n"     // 字典中没有的编号按文本保留
+                + "3,4,INCREASE," + TIME + ",犯规\n"  // 导出的文件中是标签文本
+                + "4,5,INCREASE," + TIME + "\n");
+
+        assertTrue(reader.next());
+        assertEquals(1, reader.getTag());
+        assertEquals("犯规", reader.getNote());
+        assertTrue(reader.next());
+        assertEquals(3, reader.getTag());
+        assertEquals("2号道", reader.getNote());
+        assertTrue(reader.next());
+        assertEquals(0, reader.getTag());
+        assertEquals("7", reader.getNote());
+        assertTrue(reader.next());
+        assertEquals(0, reader.getTag());
+        assertEquals("犯规", reader.getNote());
+        assertTrue(reader.next());
+        assertNull(reader.getNote());
+    }
+
+    @Test
+    public void addedTagsApplyWhenReadingFromMidFile() throws IOException {
+        // 从表头之后的偏移开始读取，读不到字典行
+        ScoreCsvReader reader = open("100,1,INCREASE," + TIME + ",3\n");
+        String[] labels = new String[TagDictionary.MAX_TAGS + 1];
+        labels[3] = "2号道";
+        reader.addTags(labels);
+
+        assertTrue(reader.next());
+        assertEquals(3, reader.getTag());
+        assertEquals("2号道", reader.getNote());
+    }
+
+    @Test
+    public void bucketRowsCarryStatistics() throws IOException {
+        ScoreCsvReader reader = open(ScoreCsvWriter.HEADER + "\n"
+                + "0,5,BUCKET," + TIME + ",3,4,1,5\n"
+                + "1000,2,BUCKET," + TIME + ",-3,3,2,5\n"
+                + "2000,2,BUCKET," + TIME + ",0,1\n"      // 统计列不全
+                + "3000,1,RULE_FIRED," + TIME + ",分数>=10\n");
+
+        assertTrue(reader.next());
+        assertTrue(reader.isBucket());
+        assertEquals(3, reader.getBucketDelta());
+        assertEquals(4, reader.getBucketPresses());
+        assertEquals(1, reader.getBucketMin());
+        assertEquals(5, reader.getBucketMax());
+        assertTrue(reader.next());
+        assertEquals(-3, reader.getBucketDelta());
+        assertTrue(reader.next());
+        assertFalse(reader.isBucket());
+        assertEquals(RuleEngine.ACTION, reader.getAction());
+        assertEquals(0, reader.getBucketDelta());
+        assertEquals("分数>=10", reader.getNote());
+        assertFalse(reader.next());
+        assertEquals(1, reader.getInvalidRows());
+    }
+
+    private static ScoreCsvReader open(String csv) throws IOException {
+        return new ScoreCsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.volumecounter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * 两份记录的对比：容差内的配对、单方多出的按键、分歧区间的开始和结束、开始时间偏移。
+ */
+public class SessionDiffTest {
+    private static final long TOLERANCE = SessionDiff.DEFAULT_TOLERANCE_MS;
+
+    @Test
+    public void identicalSessionsMatchEveryPress() throws IOException {
+        String csv = csv("1000,1,INCREASE", "2000,2,INCREASE", "3000,1,DECREASE");
+
+        SessionDiff.Result result = compare(csv, csv, 0);
+
+        assertEquals(3, result.matched);
+        assertEquals(0, result.getUnmatchedCount());
+        assertEquals(0, result.divergenceCount);
+        assertEquals(1, result.finalScore[SessionDiff.SIDE_A]);
+        assertEquals(1, result.finalScore[SessionDiff.SIDE_B]);
+    }
+
+    @Test
+    public void pressesWithinTolerancePair() throws IOException {
+        SessionDiff.Result result = compare(
+                csv("1000,1,INCREASE", "2000,2,INCREASE"),
+                csv("1120,1,INCREASE", "2080,2,INCREASE"), 0);
+
+        assertEquals(2, result.matched);
+        assertEquals(100, result.getMeanOffsetMs(), 0.001);
+        assertEquals(120, result.maxOffsetMs);
+        assertEquals(0, result.divergenceCount);
+    }
+
+    @Test
+    public void pressesBeyondToleranceOrOppositeDirectionDoNotPair() throws IOException {
+        SessionDiff.Result result = compare(
+                csv("1000,1,INCREASE", "5000,0,DECREASE"),
+                csv("1000,1,INCREASE", "5000,2,INCREASE", "9000,3,INCREASE"), 0);
+
+        assertEquals(1, result.matched);
+        assertEquals(1, result.unmatched[SessionDiff.SIDE_A]);
+        assertEquals(2, result.unmatched[SessionDiff.SIDE_B]);
+    }
+
+    @Test
+    public void missedPressOpensDivergenceUntilScoresAgree() throws IOException {
+        // A 在 2000 多记了一次，B 在 4000 补上
+        SessionDiff.Result result = compare(
+                csv("1000,1,INCREASE", "2000,2,INCREASE", "3000,3,INCREASE"),
+                csv("1000,1,INCREASE", "3000,2,INCREASE", "4000,3,INCREASE"), 0);
+
+        assertEquals(2, result.matched);
+        assertEquals(1, result.unmatched[SessionDiff.SIDE_A]);
+        assertEquals(1, result.unmatched[SessionDiff.SIDE_B]);
+        assertEquals(2, result.unmatchedListed);
+        assertEquals(2000, result.unmatchedTime[0]);
+        assertEquals(SessionDiff.SIDE_A, result.unmatchedSide[0]);
+        assertEquals("INCREASE", result.unmatchedAction[0]);
+        assertEquals(1, result.divergenceCount);
+        assertEquals(2000, result.divergenceStart[0]);
+        assertEquals(4000, result.divergenceEnd[0]);
+        assertEquals(1, result.divergencePeak[0]);
+        assertEquals(1, result.maxDelta);
+    }
+
+    @Test
+    public void divergenceStillOpenAtEndHasNoEnd() throws IOException {
+        SessionDiff.Result result = compare(
+                csv("1000,1,INCREASE"),
+                csv("1000,1,INCREASE", "2000,0,DECREASE", "2500,-1,DECREASE"), 0);
+
+        assertEquals(1, result.divergenceCount);
+        assertEquals(-1, result.divergenceEnd[0]);
+        assertEquals(2, result.divergencePeak[0]);
+        assertEquals(2500, result.maxDeltaTime);
+    }
+
+    @Test
+    public void offsetAlignsLaterStartedSession() throws IOException {
+        // B 晚 5 秒开始记录，相对时间比 A 小 5000
+        SessionDiff.Result result = compare(
+                csv("6000,1,INCREASE", "7000,2,INCREASE"),
+                csv("1000,1,INCREASE", "2000,2,INCREASE"), 5000);
+
+        assertEquals(2, result.matched);
+        assertEquals(0, result.maxOffsetMs);
+    }
+
+    @Test
+    public void retractedPressesAreIgnored() throws IOException {
+        SessionDiff.Result result = compare(
+                csv("1000,1,INCREASE", "1500,2,RETRACTED_INCREASE"),
+                csv("1000,1,INCREASE"), 0);
+
+        assertEquals(1, result.matched);
+        assertEquals(0, result.getUnmatchedCount());
+        assertFalse(result.aggregated);
+    }
+
+    @Test
+    public void bucketRowsOnlyCompareScores() throws IOException {
+        SessionDiff.Result result = compare(
+                csv("0,3,BUCKET,2024-01-02 03:04:05,3,3,1,3"),
+                csv("100,1,INCREASE", "200,2,INCREASE", "300,3,INCREASE"), 0);
+
+        assertTrue(result.aggregated);
+        assertEquals(3, result.finalScore[SessionDiff.SIDE_A]);
+        assertEquals(3, result.finalScore[SessionDiff.SIDE_B]);
+    }
+
+    private static SessionDiff.Result compare(String a, String b, long offsetMs) throws IOException {
+        try (ScoreCsvReader readerA = reader(a); ScoreCsvReader readerB = reader(b)) {
+            return SessionDiff.compare(readerA, readerB, TOLERANCE, offsetMs);
+        }
+    }
+
+    private static ScoreCsvReader reader(String csv) throws IOException {
+        return new ScoreCsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String csv(String... rows) {
+        StringBuilder text = new StringBuilder(ScoreCsvWriter.HEADER).append('\n');
+        for (String row : rows) {
+            text.append(row).append('\n');
+        }
+        return text.toString();
+    }
+}
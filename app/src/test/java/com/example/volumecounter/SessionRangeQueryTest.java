@@ -0,0 +1,122 @@
+package com.example.volumecounter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.provider.MediaStore;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * 按范围读取带标签的会话：定位到文件中部后仍能由字典行还原标签，导出的文件中是标签文本而不是编号。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class SessionRangeQueryTest {
+    private static final String TAGS = "#TAGS:1=犯规|3=2号道";
+
+    private FakeMediaStoreProvider mediaStore;
+    private Context context;
+
+    @Before
+    public void setUp() {
+        mediaStore = Robolectric.setupContentProvider(FakeMediaStoreProvider.class, "media");
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @After
+    public void tearDown() {
+        mediaStore.clear();
+    }
+
+    @Test
+    public void exportedRangeKeepsTagLabels() throws IOException {
+        // 行数远多于索引间隔，范围开头定位在表头之后
+        Uri uri = writeSession("score_records_tags.csv", 0, 4000);
+        FileInfo fileInfo = new FileInfo("score_records_tags.csv", 0, 0, uri, "");
+
+        String exported = exportRange(fileInfo, 3000, 3003);
+
+        assertTrue(exported, lineAt(exported, 3000).endsWith(",犯规"));
+        assertTrue(exported, lineAt(exported, 3001).endsWith(",2号道"));
+        assertFalse(exported, exported.contains(",1\n") || exported.contains(",3\n"));
+    }
+
+    @Test
+    public void exportedRangeOfLaterSegmentKeepsTagLabels() throws IOException {
+        Uri first = writeSession("score_records_seg_001.csv", 0, 1000);
+        Uri second = writeSession("score_records_seg_002.csv", 5000, 9000);
+        FileInfo fileInfo = new FileInfo("score_records_seg.csv", 0, 0, first, "", Arrays.asList(first, second));
+
+        String exported = exportRange(fileInfo, 8000, 8001);
+
+        assertTrue(exported, lineAt(exported, 8000).endsWith(",犯规"));
+        assertTrue(exported, lineAt(exported, 8001).endsWith(",2号道"));
+        assertEquals(2, countRows(exported));
+    }
+
+    // 与时间段导出相同：逐行复制范围内的记录
+    private String exportRange(FileInfo fileInfo, long fromMs, long toMs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ScoreCsvReader reader = SessionRangeQuery.open(context, fileInfo, fromMs, toMs)) {
+            ScoreCsvWriter writer = new ScoreCsvWriter(out);
+            writer.writeHeader("range");
+            while (reader.next()) {
+                writer.copyRow(reader, reader.getRelativeTime(), Math.max(0, reader.getWallTime()));
+            }
+            writer.finish();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // 偶数毫秒带 1 号标签，奇数毫秒带 3 号标签
+    private Uri writeSession(String name, long fromMs, long toMs) throws IOException {
+        ContentResolver resolver = context.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Files.FileColumns.DISPLAY_NAME, name);
+        values.put(MediaStore.Files.FileColumns.MIME_TYPE, "text/csv");
+        values.put(MediaStore.Files.FileColumns.RELATIVE_PATH, "Documents/ScoreRecords");
+        Uri uri = resolver.insert(MediaStore.Files.getContentUri("external"), values);
+        try (OutputStream out = resolver.openOutputStream(uri)) {
+            ScoreCsvWriter writer = new ScoreCsvWriter(out);
+            writer.writeHeader("标签", TAGS);
+            for (long time = fromMs; time <= toMs; time++) {
+                writer.writeTaggedRow(time, (int) time, "INCREASE", 1_700_000_000_000L + time, time % 2 == 0 ? 1 : 3);
+            }
+            writer.finish();
+        }
+        return uri;
+    }
+
+    // 相对时间为 time 的数据行，没有时返回空串
+    private static String lineAt(String csv, long time) {
+        for (String line : csv.split("\n")) {
+            if (line.startsWith(time + ",")) return line;
+        }
+        return "";
+    }
+
+    private static int countRows(String csv) {
+        int rows = 0;
+        for (String line : csv.split("\n")) {
+            if (!line.isEmpty() && Character.isDigit(line.charAt(0))) rows++;
+        }
+        return rows;
+    }
+}